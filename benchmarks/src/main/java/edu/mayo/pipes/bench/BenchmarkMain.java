@@ -0,0 +1,26 @@
+package edu.mayo.pipes.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Same as the JMH main class, but adds the GC profiler (allocation rate) unless other
+ * profilers were given on the command line.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmdLine = new CommandLineOptions(args);
+        if (cmdLine.shouldHelp() || cmdLine.shouldList() || cmdLine.shouldListProfilers()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdLine);
+        if (cmdLine.getProfilers().isEmpty())
+            options.addProfiler(GCProfiler.class);
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,210 @@
+package edu.mayo.pipes.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+import com.tinkerpop.pipes.util.Pipeline;
+
+import edu.mayo.pipes.JSON.tabix.TabixWriter;
+import edu.mayo.pipes.bioinformatics.VCF2VariantPipe;
+import edu.mayo.pipes.history.HistoryInPipe;
+import edu.mayo.pipes.history.HistoryOutPipe;
+import edu.mayo.pipes.util.index.IndexDatabaseCreator;
+import edu.mayo.pipes.util.test.PipeTestUtils;
+
+/**
+ * Generates synthetic inputs and catalogs of any size for the benchmarks.
+ * <p>
+ * Everything is on chromosome 1 and uses the same positions, so the inputs hit the catalog:
+ * variant i is at position(i), and rows with an even i have the same alleles as the catalog
+ * (so SameVariantPipe finds them) and an rsID that is in the H2 index (so LookupPipe finds them).
+ * The output is the same for the same arguments.
+ */
+public class Fixtures {
+
+    private static final char[] BASES = { 'A', 'C', 'G', 'T' };
+
+    /** Catalog layout: landmark, minBP, maxBP, json */
+    public static final TabixWriter.Conf CATALOG_CONF = new TabixWriter.Conf(0, 1, 2, 3, '#', 0);
+
+    /** Position of the i-th variant in all of the fixtures */
+    public static int position(int i) {
+        return 10000 + i * 37;
+    }
+
+    private static char ref(int i) {
+        return BASES[i % 4];
+    }
+
+    private static char alt(int i) {
+        return BASES[(i + 1) % 4];
+    }
+
+    /**
+     * VCF lines (header included) with random INFO values and genotypes
+     * @param rows  # of data lines
+     * @param samples  # of sample columns (0 for none)
+     */
+    public static List<String> vcf(int rows, int samples, long seed) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<String>(rows + 10);
+        lines.add("##fileformat=VCFv4.0");
+        lines.add("##INFO=<ID=AC,Number=A,Type=Integer,Description=\"Allele count\">");
+        lines.add("##INFO=<ID=AF,Number=A,Type=Float,Description=\"Allele frequency\">");
+        lines.add("##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Total depth\">");
+        lines.add("##INFO=<ID=DB,Number=0,Type=Flag,Description=\"dbSNP membership\">");
+        lines.add("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+        lines.add("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Read depth\">");
+        StringBuilder header = new StringBuilder("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+        if (samples > 0) {
+            header.append("\tFORMAT");
+            for (int s = 0; s < samples; s++)
+                header.append("\tSAMPLE").append(s + 1);
+        }
+        lines.add(header.toString());
+
+        String[] genotypes = { "0/0", "0/1", "1/1", "./." };
+        for (int i = 0; i < rows; i++) {
+            boolean inCatalog = i % 2 == 0;
+            StringBuilder line = new StringBuilder();
+            line.append("1\t").append(position(i)).append('\t')
+                .append(inCatalog ? "rs" + i : ".").append('\t')
+                .append(ref(i)).append('\t')
+                .append(inCatalog ? alt(i) : ref(i + 2)).append('\t')
+                .append(random.nextInt(1000)).append("\tPASS\t")
+                .append("AC=").append(random.nextInt(100))
+                .append(";AF=").append(String.format("%.4f", random.nextDouble()))
+                .append(";DP=").append(random.nextInt(500));
+            if (inCatalog)
+                line.append(";DB");
+            if (samples > 0) {
+                line.append("\tGT:DP");
+                for (int s = 0; s < samples; s++)
+                    line.append('\t').append(genotypes[random.nextInt(genotypes.length)]).append(':').append(random.nextInt(60));
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    /** The VCF lines run through VCF2VariantPipe (the variant JSON is the last column) */
+    public static List<String> variants(List<String> vcfLines) {
+        Pipeline<String, String> p = new Pipeline<String, String>(new HistoryInPipe(), new VCF2VariantPipe(), new HistoryOutPipe());
+        p.setStarts(vcfLines);
+        return PipeTestUtils.getResults(p);
+    }
+
+    /** BED lines (0-based starts) covering 500 bases from each variant position */
+    public static List<String> bed(int rows) {
+        List<String> lines = new ArrayList<String>(rows);
+        for (int i = 0; i < rows; i++) {
+            int start = position(i) - 1;
+            lines.add("chr1\t" + start + "\t" + (start + 500) + "\tregion" + i + "\t0\t" + (i % 2 == 0 ? "+" : "-"));
+        }
+        return lines;
+    }
+
+    /** Rows with an rsID in the last column, half of which are in the catalog */
+    public static List<String> ids(int rows, int catalogRows, long seed) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<String>(rows + 1);
+        lines.add("#chr\tpos\tid");
+        for (int i = 0; i < rows; i++) {
+            int k = random.nextInt(Math.max(1, catalogRows));
+            String id = (i % 2 == 0) ? "rs" + (k - k % 2) : "rsMissing" + k;
+            lines.add("1\t" + position(k) + "\t" + id);
+        }
+        return lines;
+    }
+
+    /** Rows in groups of 3 that only differ in the last column (the kind of rows CompressPipe collapses) */
+    public static List<String> fanOut(int rows) {
+        List<String> lines = new ArrayList<String>(rows + 1);
+        lines.add("#chr\tpos\tref\tgene");
+        for (int i = 0; i < rows; i++) {
+            int group = i / 3;
+            lines.add("1\t" + position(group) + "\t" + ref(group) + "\tGENE" + (i % 3));
+        }
+        return lines;
+    }
+
+    /**
+     * Writes a bgzipped variant catalog plus its tabix index (catalog.tsv.bgz.tbi) and an H2
+     * index on _id (index/catalog._id.idx.h2.db)
+     * @return the catalog file
+     */
+    public static File catalog(File dir, int rows) throws Exception {
+        File catalog = new File(dir, "catalog.tsv.bgz");
+        BlockCompressedOutputStream out = new BlockCompressedOutputStream(catalog);
+        try {
+            for (int k = 0; k < rows; k++) {
+                int pos = position(k);
+                String json = "{\"_id\":\"rs" + k + "\",\"_type\":\"variant\",\"_landmark\":\"1\","
+                        + "\"_refAllele\":\"" + ref(k) + "\",\"_altAlleles\":[\"" + alt(k) + "\"],"
+                        + "\"_minBP\":" + pos + ",\"_maxBP\":" + pos + "}";
+                out.write(("1\t" + pos + "\t" + pos + "\t" + json + "\n").getBytes("UTF-8"));
+            }
+        } finally {
+            out.close();
+        }
+        new TabixWriter(catalog, CATALOG_CONF).createIndex(catalog);
+
+        File indexDir = new File(dir, "index");
+        indexDir.mkdirs();
+        new IndexDatabaseCreator().buildIndexH2(catalog.getPath(), 4, "_id", h2Index(catalog).getPath());
+        return catalog;
+    }
+
+    /** The H2 index written by catalog() */
+    public static File h2Index(File catalog) {
+        return new File(new File(catalog.getParentFile(), "index"), "catalog._id.idx.h2.db");
+    }
+
+    /** A new empty temp directory for the fixture files */
+    public static File tempDir() throws IOException {
+        File dir = File.createTempFile("pipes-bench", "");
+        if (!dir.delete() || !dir.mkdirs())
+            throw new IOException("Could not create temp directory: " + dir);
+        return dir;
+    }
+
+    public static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        f.delete();
+    }
+
+    /** Writes the fixtures to a directory, ex: to look at them or use them with the command line tools */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: Fixtures <outDir> <rows> [samples]");
+            System.exit(1);
+        }
+        File dir = new File(args[0]);
+        dir.mkdirs();
+        int rows = Integer.parseInt(args[1]);
+        int samples = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        write(new File(dir, "input.vcf"), vcf(rows, samples, 1));
+        write(new File(dir, "input.bed"), bed(rows));
+        catalog(dir, rows);
+        System.out.println("Wrote fixtures to " + dir + ": " + Arrays.asList(dir.list()));
+    }
+
+    private static void write(File f, List<String> lines) throws IOException {
+        java.io.PrintWriter out = new java.io.PrintWriter(f, "UTF-8");
+        try {
+            for (String line : lines)
+                out.println(line);
+        } finally {
+            out.close();
+        }
+    }
+}
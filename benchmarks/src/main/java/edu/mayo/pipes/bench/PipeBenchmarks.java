@@ -0,0 +1,177 @@
+package edu.mayo.pipes.bench;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.tinkerpop.pipes.Pipe;
+import com.tinkerpop.pipes.util.Pipeline;
+
+import edu.mayo.pipes.JSON.DrillPipe;
+import edu.mayo.pipes.JSON.lookup.LookupPipe;
+import edu.mayo.pipes.JSON.tabix.OverlapPipe;
+import edu.mayo.pipes.JSON.tabix.SameVariantPipe;
+import edu.mayo.pipes.UNIX.CatGZPipe;
+import edu.mayo.pipes.bioinformatics.BED2JSONPipe;
+import edu.mayo.pipes.bioinformatics.VCF2VariantPipe;
+import edu.mayo.pipes.history.CompressPipe;
+import edu.mayo.pipes.history.HistoryInPipe;
+import edu.mayo.pipes.history.HistoryOutPipe;
+import edu.mayo.pipes.util.FieldSpecification;
+import edu.mayo.pipes.util.FieldSpecification.FieldDirection;
+
+/**
+ * Throughput of the pipes on the annotation hot paths, plus an end-to-end annotate chain.
+ * <p>
+ * Each benchmark runs the whole input through a new pipeline.  The "rows" counter is the
+ * # of input rows per second; run with "-prof gc" (the default in BenchmarkMain) to get the
+ * allocation rate (gc.alloc.rate.norm is per pipeline run, divide by rows for per row).
+ * <p>
+ * All of the pipelines start with HistoryInPipe, so historyIn is the baseline to compare the
+ * others against.  The pipes that open a catalog (SameVariantPipe, OverlapPipe, LookupPipe)
+ * include the cost of opening it, which is small next to the rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipeBenchmarks {
+
+    /** # of input rows, and catalog rows */
+    @Param({ "10000" })
+    public int rows;
+
+    /** # of sample columns in the VCF */
+    @Param({ "0" })
+    public int samples;
+
+    private File dir;
+    private String catalog;
+    private String index;
+    private List<String> vcf;
+    private List<String> variants;
+    private List<String> bed;
+    private List<String> ids;
+    private List<String> fanOut;
+
+    /** Reports the # of input rows processed as a throughput metric */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Rows {
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            rows = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Fixtures.tempDir();
+        File catalogFile = Fixtures.catalog(dir, rows);
+        catalog = catalogFile.getPath();
+        index = Fixtures.h2Index(catalogFile).getPath();
+        vcf = Fixtures.vcf(rows, samples, 1);
+        variants = Fixtures.variants(vcf);
+        bed = Fixtures.bed(rows);
+        ids = Fixtures.ids(rows, rows, 2);
+        fanOut = Fixtures.fanOut(rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixtures.delete(dir);
+    }
+
+    private void run(Pipe<String, ?> pipeline, List<String> input, Rows counter, Blackhole bh) {
+        pipeline.setStarts(input);
+        while (pipeline.hasNext())
+            bh.consume(pipeline.next());
+        counter.rows += rows;
+    }
+
+    @Benchmark
+    public void historyIn(Rows counter, Blackhole bh) {
+        run(new Pipeline(new HistoryInPipe()), variants, counter, bh);
+    }
+
+    @Benchmark
+    public void vcf2Variant(Rows counter, Blackhole bh) {
+        run(new Pipeline(new HistoryInPipe(), new VCF2VariantPipe()), vcf, counter, bh);
+    }
+
+    @Benchmark
+    public void drill(Rows counter, Blackhole bh) {
+        String[] paths = { "_landmark", "_minBP", "_refAllele", "_altAlleles", "INFO.AF" };
+        run(new Pipeline(new HistoryInPipe(), new DrillPipe(false, paths)), variants, counter, bh);
+    }
+
+    @Benchmark
+    public void sameVariant(Rows counter, Blackhole bh) throws Exception {
+        run(new Pipeline(new HistoryInPipe(), new SameVariantPipe(catalog)), variants, counter, bh);
+    }
+
+    @Benchmark
+    public void overlap(Rows counter, Blackhole bh) throws Exception {
+        run(new Pipeline(new HistoryInPipe(), new BED2JSONPipe(), new OverlapPipe(catalog)), bed, counter, bh);
+    }
+
+    @Benchmark
+    public void overlapInMemory(Rows counter, Blackhole bh) throws Exception {
+        OverlapPipe overlap = new OverlapPipe(catalog);
+        overlap.setInMemory(true);
+        run(new Pipeline(new HistoryInPipe(), new BED2JSONPipe(), overlap), bed, counter, bh);
+    }
+
+    @Benchmark
+    public void lookup(Rows counter, Blackhole bh) throws Exception {
+        LookupPipe lookup = new LookupPipe(catalog, index);
+        run(new Pipeline(new HistoryInPipe(), lookup), ids, counter, bh);
+        lookup.close();
+    }
+
+    /** Read the whole catalog (inflated on all processors, since it is bgzip) */
+    @Benchmark
+    public void catGZ(Rows counter, Blackhole bh) {
+        run(new CatGZPipe("gzip"), Arrays.asList(catalog), counter, bh);
+    }
+
+    @Benchmark
+    public void compress(Rows counter, Blackhole bh) {
+        CompressPipe compress = new CompressPipe("bench", new FieldSpecification("4"), "|");
+        run(new Pipeline(new HistoryInPipe(), compress), fanOut, counter, bh);
+    }
+
+    /** VCF in, annotated with the rsIDs of the same variants in the catalog, text out */
+    @Benchmark
+    public void annotate(Rows counter, Blackhole bh) throws Exception {
+        Pipeline<String, String> p = new Pipeline(
+                new HistoryInPipe(),
+                new VCF2VariantPipe(),
+                new SameVariantPipe(catalog),
+                new DrillPipe(false, new String[] { "_id" }),
+                new CompressPipe("bench", new FieldSpecification("1", FieldDirection.RIGHT_TO_LEFT), "|"),
+                new HistoryOutPipe());
+        run(p, vcf, counter, bh);
+    }
+}
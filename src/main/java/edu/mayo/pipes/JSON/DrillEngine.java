@@ -0,0 +1,62 @@
+package edu.mayo.pipes.JSON;
+
+import java.util.List;
+
+import com.jayway.jsonpath.InvalidPathException;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.spi.JsonProvider;
+import com.jayway.jsonpath.spi.JsonProviderFactory;
+
+/**
+ * Reads several JSON paths from the same JSON string while only parsing it once.
+ * <p>
+ * JsonPath.read(String) parses the whole document on every call, so drilling 10 paths
+ * out of a large JSON column (ex: dbSNP or ClinVar) parsed it 10 times.  Here the JSON is
+ * parsed once by parse(), and each path is then evaluated against the parsed document.
+ * The same parser as json-path is used, so read(i) gives exactly what
+ * JsonPath.read(String) would (same values, same nulls, same InvalidPathExceptions).
+ * <p>
+ * Not thread-safe: holds the last parsed document.
+ */
+public class DrillEngine {
+
+    private JsonPath[] mPaths;
+    private JsonProvider mProvider = JsonProviderFactory.createProvider();
+    private Object mDoc = null;
+
+    public DrillEngine(String... paths) {
+        mPaths = new JsonPath[paths.length];
+        for(int i = 0; i < paths.length; i++) {
+            mPaths[i] = JsonPath.compile(paths[i]);
+        }
+    }
+
+    public DrillEngine(List<JsonPath> compiledPaths) {
+        mPaths = compiledPaths.toArray(new JsonPath[compiledPaths.size()]);
+    }
+
+    /** # of paths */
+    public int size() {
+        return mPaths.length;
+    }
+
+    /**
+     * Parse the JSON that the paths will be read from
+     * @throws IllegalArgumentException if the json is null or empty (same as JsonPath.read)
+     */
+    public void parse(String json) {
+        if(json == null || json.length() == 0) {
+            throw new IllegalArgumentException("json can not be null or empty");
+        }
+        mDoc = mProvider.parse(json);
+    }
+
+    /**
+     * The value of the i-th path in the last parsed JSON
+     * @throws InvalidPathException if the path does not exist in the JSON
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T read(int i) throws InvalidPathException {
+        return (T) mPaths[i].read(mDoc);
+    }
+}
@@ -33,6 +33,8 @@ public class DrillPipe extends AbstractPipe<History, History>{
     private boolean keepJSON = false;
     private String[] drillPaths;
     private ArrayList<JsonPath> compiledPaths;
+    /** reads all of the paths with one parse of the JSON */
+    private DrillEngine drillEngine;
     private int drillColumn = -1; //negative value... how many columns to go back (default -1).
     private AddMetadataLines addMetadataLines = new AddMetadataLines();
     
@@ -55,6 +57,7 @@ public class DrillPipe extends AbstractPipe<History, History>{
             JsonPath jsonPath = JsonPath.compile(drillPaths[i]);
             compiledPaths.add(jsonPath);
         }
+        drillEngine = new DrillEngine(compiledPaths);
         return;
     }
     
@@ -85,25 +88,27 @@ public class DrillPipe extends AbstractPipe<History, History>{
             String json = history.remove(history.size() + drillColumn);
             
             //System.history.println("Abhistory to Drill: " + json);
-            for(int i=0;i< compiledPaths.size(); i++){
+            if(compiledPaths.size() > 0){
                 if(!json.startsWith("{")){ //TODO: we may need a more rigorous check to see if it is json.
                     //history.add("."); 
                     int reportColumn = history.size() + drillColumn;
                     throw new InvalidJSONException("A column input to Drill that should be JSON was not JSON, I can't Drill non-JSON columns: " + reportColumn + " : " + json);
-                }else {
-                    try {
-                        JsonPath jsonPath = compiledPaths.get(i);
-                        Object o = jsonPath.read(json);
-                        if (o != null) {
-                            //System.history.println(o.toString());
-                            history.add(o.toString());
-                        }
-                    }catch(InvalidPathException e){                    	
-                        //In general I don't know if we should historyput an error to the logs, or just historyput a failed drill e.g. '.'.  
-                        //I think failed drill is perhaps better, because what are they going to do with the error?  I think just get angry.
-                        //System.history.println("Drill path did not exist for: " + this.drillPaths[i] + " This is the JSON I tried to drill: " + json);
-                        history.add(".");
+                }
+                // parse once, then read each of the paths
+                drillEngine.parse(json);
+            }
+            for(int i=0;i< compiledPaths.size(); i++){
+                try {
+                    Object o = drillEngine.read(i);
+                    if (o != null) {
+                        //System.history.println(o.toString());
+                        history.add(o.toString());
                     }
+                }catch(InvalidPathException e){                    	
+                    //In general I don't know if we should historyput an error to the logs, or just historyput a failed drill e.g. '.'.  
+                    //I think failed drill is perhaps better, because what are they going to do with the error?  I think just get angry.
+                    //System.history.println("Drill path did not exist for: " + this.drillPaths[i] + " This is the JSON I tried to drill: " + json);
+                    history.add(".");
                 }
             }
             
@@ -26,7 +26,7 @@ public class RemoveAllJSONPipe extends AbstractPipe<History,History>{
             if(h.get(i).startsWith("{")){//if it is JSON, remove it.
                 h.remove(i);
                 if(first){
-                    HistoryMetaData metaData = History.getMetaData();
+                    HistoryMetaData metaData = h.getHistoryMetaData();
                     List<ColumnMetaData> columns = metaData.getColumns();
                     columns.remove(i);
                 }
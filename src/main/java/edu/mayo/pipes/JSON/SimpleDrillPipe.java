@@ -20,6 +20,8 @@ public class SimpleDrillPipe extends AbstractPipe<String, List<String>>{
     private boolean keepJSON = false;
     private String[] drillPaths;
     private ArrayList<JsonPath> compiledPaths;
+    /** reads all of the paths with one parse of the JSON */
+    private DrillEngine drillEngine;
     public SimpleDrillPipe(boolean keepJSON, String[] paths){
         this.keepJSON = keepJSON;
         this.drillPaths = paths;
@@ -32,6 +34,7 @@ public class SimpleDrillPipe extends AbstractPipe<String, List<String>>{
             JsonPath jsonPath = JsonPath.compile(drillPaths[i]);
             compiledPaths.add(jsonPath);
         }
+        drillEngine = new DrillEngine(compiledPaths);
         return;
     }
     
@@ -40,9 +43,11 @@ public class SimpleDrillPipe extends AbstractPipe<String, List<String>>{
         if(this.starts.hasNext()){
             List<String> out = new ArrayList<String>();
             String json = this.starts.next();
+            if(compiledPaths.size() > 0){
+                drillEngine.parse(json);
+            }
             for(int i=0;i< compiledPaths.size(); i++){
-                JsonPath jsonPath = compiledPaths.get(i);
-                Object o = jsonPath.read(json);
+                Object o = drillEngine.read(i);
 		if (o != null) {
                     //System.out.println(o.toString());
                     out.add(o.toString());
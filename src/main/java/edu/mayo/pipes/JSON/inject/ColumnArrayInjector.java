@@ -74,7 +74,7 @@ public class ColumnArrayInjector extends BaseInjector implements Injector, Colum
 		
 		String key;
 		if (mKey == null) {
-			key = history.getMetaData().getColumns().get(mCol - 1).getColumnName();
+			key = history.getHistoryMetaData().getColumns().get(mCol - 1).getColumnName();
 		} else {
 			key = mKey;
 		}
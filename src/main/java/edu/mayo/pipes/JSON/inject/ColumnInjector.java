@@ -49,7 +49,7 @@ public class ColumnInjector extends BaseInjector implements Injector, ColumnAwar
 	public void inject(JsonObject object, History history) {
 		String key;
 		if (mKey == null) {
-			key = history.getMetaData().getColumns().get(mCol - 1).getColumnName();
+			key = history.getHistoryMetaData().getColumns().get(mCol - 1).getColumnName();
 		} else {
 			key = mKey;
 		}		
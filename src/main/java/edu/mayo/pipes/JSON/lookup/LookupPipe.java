@@ -5,24 +5,29 @@
 package edu.mayo.pipes.JSON.lookup;
 
 import java.io.File;
-import java.sql.Connection;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
 import com.tinkerpop.pipes.AbstractPipe;
 
 import edu.mayo.pipes.JSON.lookup.lookupUtils.IndexUtils;
+import edu.mayo.pipes.JSON.lookup.lookupUtils.LookupCache;
 import edu.mayo.pipes.bioinformatics.vocab.ComparableObjectInterface;
 import edu.mayo.pipes.exceptions.InvalidPipeInputException;
 import edu.mayo.pipes.history.ColumnMetaData;
 import edu.mayo.pipes.history.History;
-import edu.mayo.pipes.util.index.FindIndex;
-import edu.mayo.pipes.util.index.H2Connection;
+import edu.mayo.pipes.util.index.IndexRegistry;
+import edu.mayo.pipes.util.index.KeyIndex;
 
 /**
  *
@@ -30,7 +35,7 @@ import edu.mayo.pipes.util.index.H2Connection;
  */
 public class LookupPipe extends AbstractPipe<History,History> {
     private IndexUtils mUtils = new IndexUtils();
-    private Connection mDbConn;
+    private IndexRegistry.Handle mIndexHandle;
     protected History mHistory = null;
     protected int mQcount;
     protected boolean mIsFirst = true;
@@ -39,13 +44,23 @@ public class LookupPipe extends AbstractPipe<History,History> {
     private File mBgzipFile;
     /** the column for the json in the catalog (usually 3 if it is a bed-like-file) */
     private int mJsonpos = 3;
-    private FindIndex mFindIndex;
+    private KeyIndex mFindIndex;
     private boolean mIsKeyAnInteger = false;
-    /** this holds the indexes we need to get data for */
-    private LinkedList<Long> mPosqueue = new LinkedList<Long>();
+    private boolean mIsKeyCaseSensitive = false;
+    /** this holds the catalog json for the current history that still has to be returned */
+    private LinkedList<String> mJsonQueue = new LinkedList<String>();
+    /** key -> catalog json, so repeated keys skip the index and the catalog */
+    private LookupCache mCache = new LookupCache(DEFAULT_CACHE_KEYS, DEFAULT_CACHE_BYTES);
     private int drillColumn = -1; //negative value... how many columns to go back (default -1).
+    /** # of input histories to resolve together in batched mode (1 = one lookup per history) */
+    private int mBatchSize = 1;
+    /** batched mode: the output histories (in input order) waiting to be returned */
+    private LinkedList<History> mBatchOut = new LinkedList<History>();
 
     
+    public static final int DEFAULT_CACHE_KEYS = 10000;
+    public static final long DEFAULT_CACHE_BYTES = 16L * 1024 * 1024;
+
     private static Logger sLogger = Logger.getLogger(LookupPipe.class.getClass());
     
     /**
@@ -58,6 +73,7 @@ public class LookupPipe extends AbstractPipe<History,History> {
      *   <catalog_name>.<json_path>.idx.<index_type>
      *   E.g. For genes.tsv.bgz we could have:
      *   	genes.HGNC.idx.h2.db	OR
+     *   	genes.HGNC.idx.sorted	(a SortedKeyIndex, see IndexDatabaseCreator.buildIndexSorted) OR
      *   	genes.HGNC.idx.txt.gz
      * @throws SQLException 
      */
@@ -78,17 +94,21 @@ public class LookupPipe extends AbstractPipe<History,History> {
     /**
      * 
      * @param catalogFile - actual catalog file
-     * @param indexFile - h2 index file path
+     * @param indexFile - h2 index file path, or a SortedKeyIndex file
      * @param drillColumn - column number
      */
     public LookupPipe(String catalogFile, String indexFile, int drillColumn, boolean isKeyCaseSensitive) {
         mBgzipFile = new File(catalogFile);
-        //String truncate = dbIndexFile.replace("h2.db", "");
-        H2Connection h2DbConn = new H2Connection(indexFile, false);
-        mDbConn = h2DbConn.getConn();
-        mUtils = new IndexUtils(mBgzipFile);
-        mIsKeyAnInteger = IndexUtils.isKeyAnInteger(mDbConn);
-        mFindIndex = new FindIndex(mDbConn, isKeyCaseSensitive);
+        // The catalog and index are opened once per process and shared by all the LookupPipes
+        try {
+            mIndexHandle = IndexRegistry.getShared().open(catalogFile, indexFile, isKeyCaseSensitive);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Could not open the catalog " + catalogFile + " or its index " + indexFile, ex);
+        }
+        mUtils = new IndexUtils(mIndexHandle.getReader());
+        mFindIndex = mIndexHandle.getIndex();
+        mIsKeyAnInteger = mFindIndex.isKeyAnInteger();
+        mIsKeyCaseSensitive = isKeyCaseSensitive;
         this.drillColumn = drillColumn;
     }       
 
@@ -114,57 +134,45 @@ public class LookupPipe extends AbstractPipe<History,History> {
  
             //get the history
             mHistory = this.starts.next();
-            
-            if(drillColumn > 0){
-                int size = mHistory.size();
-                //recalculate it to be negative...
-                drillColumn = drillColumn - mHistory.size() - 1;
-            } else if (drillColumn == 0){
-            	throw	new InvalidPipeInputException("Invalid Column input",this);
-            }
-            
-            if(mHistory.size() == 1){
-                drillColumn = -1;
-            }
+            resolveDrillColumn(mHistory);
             
             mQcount = 0;
             //now we have to put the stuff in the queue...
             //String id = mHistory.get(mHistory.size() + mHistoryPos);
             String id = mHistory.get(mHistory.size() + drillColumn);
             if (validateIdToFind(id)) {
-	            try {
-	                    //query the index and build the posqueue
-	                    mPosqueue = (LinkedList<Long>)mFindIndex.find(id);
-	            } catch (SQLException ex) {
-	                    sLogger.error(ex.getMessage(), ex);
-	            }
+                mJsonQueue = new LinkedList<String>(lookup(id));
             }
 
         }
     }
     
+    /** Convert the drill column to a negative offset based on the size of the first history */
+    private void resolveDrillColumn(History firstHistory) {
+        if(drillColumn > 0){
+            //recalculate it to be negative...
+            drillColumn = drillColumn - firstHistory.size() - 1;
+        } else if (drillColumn == 0){
+        	throw	new InvalidPipeInputException("Invalid Column input",this);
+        }
+        
+        if(firstHistory.size() == 1){
+            drillColumn = -1;
+        }
+    }
+    
     @Override
     public History processNextStart() throws NoSuchElementException {
+    	if(mBatchSize > 1) {
+    		return processNextBatched();
+    	}
     	setup();
 
-        List<String> oheader = History.getMetaData().getOriginalHeader();
         while(true){
 	        //If the queue has another result, append the result to the history
-	        if(mPosqueue.size() > 0) {
+	        if(mJsonQueue.size() > 0) {
 	        	mQcount++;
-                Long next = mPosqueue.poll();
-                String line;                       
-                String json = "{}";
-                try {
-                    line = mUtils.getBgzipLineByPosition(next);
-                    if(line.length() > 2){//have to have {} at the least
-                        String[] split = line.split("\t");
-                        json = split[mJsonpos];
-                    }
-                } catch (Exception ex) {
-                    sLogger.error(ex.getMessage(), ex);
-                }
-                History historyOut = copyAppend(mHistory, json);
+                History historyOut = copyAppend(mHistory, mJsonQueue.poll());
                 return historyOut;
 	        } else {//otherwise, the search did not have any more results, get the next history
 	            if(mQcount == 0){//we did not have any search results, append empty JSON to the history and send it along
@@ -175,17 +183,12 @@ public class LookupPipe extends AbstractPipe<History,History> {
 	                mHistory = this.starts.next();
 
 	                //reset the pipeline for the search query
-	                mPosqueue = new LinkedList<Long>();
+	                mJsonQueue = new LinkedList<String>();
 	                //From history, get the ID we need to search for...
 	                //String id = mHistory.get(mHistory.size() + mHistoryPos);
 	                String id = mHistory.get(mHistory.size() + drillColumn);
 	                if (validateIdToFind(id)) {
-		                try {
-		                	//query the index and build the posqueue
-		                	mPosqueue = (LinkedList<Long>)mFindIndex.find(id);
-	 	                } catch (SQLException ex) {
-		                	sLogger.error(ex.getMessage(), ex);
-		                }
+	                	mJsonQueue = new LinkedList<String>(lookup(id));
 	                }
 	                
 	                mQcount = 0;
@@ -194,6 +197,147 @@ public class LookupPipe extends AbstractPipe<History,History> {
         }
     }
     
+    /**
+     * Batched mode: buffer up to mBatchSize histories, resolve all of their ids with
+     * one set-based index query, then read all the hits from the catalog in file-offset order.
+     * The output rows are still emitted in the same order as the input rows.
+     */
+    private History processNextBatched() throws NoSuchElementException {
+    	if(mBatchOut.isEmpty()) {
+    		fillBatch();
+    	}
+    	return mBatchOut.poll();
+    }
+    
+    private void fillBatch() throws NoSuchElementException {
+    	List<History> batch = new ArrayList<History>();
+    	try {
+    		while(batch.size() < mBatchSize) {
+    			History history = this.starts.next();
+    			if(mIsFirst) {
+    				mIsFirst = false;
+    				resolveDrillColumn(history);
+    			}
+    			batch.add(history);
+    		}
+    	} catch(NoSuchElementException e) {
+    		// no more input; if we didn't get anything then let the next pipe know we are done
+    		if(batch.isEmpty()) {
+    			throw e;
+    		}
+    	}
+    	
+    	// Ids that are cached don't need to be looked up
+    	Map<String,List<String>> idToJsons = new HashMap<String,List<String>>();
+    	List<String> ids = new ArrayList<String>();
+    	Set<String> missedKeys = new HashSet<String>();
+    	for(History history : batch) {
+    		String id = history.get(history.size() + drillColumn);
+    		if(validateIdToFind(id) && ! idToJsons.containsKey(id)) {
+    			String key = cacheKey(id);
+    			// (an id with the same key as an earlier miss in this batch is not a second miss)
+    			List<String> cached = missedKeys.contains(key) ? null : mCache.get(key);
+    			idToJsons.put(id, cached);
+    			if(cached == null) {
+    				ids.add(id);
+    				missedKeys.add(key);
+    			}
+    		}
+    	}
+    	
+    	try {
+    		if(ids.size() > 0) {
+    			Map<String,List<Long>> idToPositions = mFindIndex.find(ids);
+    			List<Long> allPositions = new ArrayList<Long>();
+    			for(List<Long> positions : idToPositions.values()) {
+    				allPositions.addAll(positions);
+    			}
+    			HashMap<Long,String> posToJson = new HashMap<Long,String>();
+    			for(Map.Entry<Long,String> entry : mUtils.getBgzipLinesByPosition(allPositions).entrySet()) {
+    				posToJson.put(entry.getKey(), getJson(entry.getValue()));
+    			}
+    			for(String id : ids) {
+    				List<String> jsons = new ArrayList<String>();
+    				List<Long> positions = idToPositions.get(id);
+    				if(positions != null) {
+    					for(Long pos : positions) {
+    						String json = posToJson.get(pos);
+    						jsons.add(json == null ? "{}" : json);
+    					}
+    				}
+    				idToJsons.put(id, jsons);
+    				mCache.put(cacheKey(id), jsons);
+    			}
+    		}
+    	} catch (Exception ex) {
+    		sLogger.error(ex.getMessage(), ex);
+    	}
+    	
+    	for(History history : batch) {
+    		List<String> jsons = idToJsons.get(history.get(history.size() + drillColumn));
+    		if(jsons == null || jsons.isEmpty()) {
+    			mBatchOut.add(copyAppend(history, "{}"));
+    			continue;
+    		}
+    		for(String json : jsons) {
+    			mBatchOut.add(copyAppend(history, json));
+    		}
+    	}
+    }
+    
+    /**
+     * Get the catalog json for an id, from the cache or else from the index and catalog.
+     * @return the json for each catalog line that has the id (empty if there are none)
+     */
+    private List<String> lookup(String id) {
+    	String key = cacheKey(id);
+    	List<String> jsons = mCache.get(key);
+    	if(jsons != null) {
+    		return jsons;
+    	}
+    	jsons = new ArrayList<String>();
+    	List<Long> positions;
+    	try {
+    		//query the index for the positions of the catalog lines
+    		positions = mFindIndex.find(id);
+    	} catch (Exception ex) {
+    		sLogger.error(ex.getMessage(), ex);
+    		return jsons;
+    	}
+    	boolean isError = false;
+    	for(Long pos : positions) {
+    		String json = "{}";
+    		try {
+    			json = getJson(mUtils.getBgzipLineByPosition(pos));
+    		} catch (Exception ex) {
+    			sLogger.error(ex.getMessage(), ex);
+    			isError = true;
+    		}
+    		jsons.add(json);
+    	}
+    	// don't remember a failed lookup
+    	if(! isError) {
+    		mCache.put(key, jsons);
+    	}
+    	return jsons;
+    }
+    
+    /** The key the id's results are cached under: ids that the index treats as the same key share one entry */
+    private String cacheKey(String id) {
+    	if(mIsKeyAnInteger) {
+    		return IndexUtils.isInteger(id) ? String.valueOf(Long.parseLong(id)) : id;
+    	}
+    	return mIsKeyCaseSensitive ? id : id.toUpperCase();
+    }
+    
+    /** Get the JSON column from a catalog line (empty JSON if the line is too short to contain any) */
+    private String getJson(String line) {
+    	if(line.length() > 2){//have to have {} at the least
+    		return line.split("\t")[mJsonpos];
+    	}
+    	return "{}";
+    }
+    
     /**
      * ID to lookup cannot be EMPTY or "."(JSON DEFAULT) 
      * @param idToFind
@@ -209,9 +353,7 @@ public class LookupPipe extends AbstractPipe<History,History> {
     }
     
     protected History copyAppend(History history, String result){
-		History clone = (History) history.clone();
-		clone.add(result);    	
-		return clone;    
+		return history.cloneAndAppend(result);
     }
     
     
@@ -221,6 +363,50 @@ public class LookupPipe extends AbstractPipe<History,History> {
 
     public void setJsonpos(int jsonpos) {
         this.mJsonpos = jsonpos;
+        mCache.clear();
+    }
+
+    /** The cache of key -> catalog json (ex: to get its hit/miss/eviction counts) */
+    public LookupCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * Set the size of the cache of key -> catalog json.  A key that is cached is not
+     * looked up in the index or catalog again.  (default: DEFAULT_CACHE_KEYS, DEFAULT_CACHE_BYTES)
+     * @param maxKeys  max # of keys to cache (0 = no cache)
+     * @param maxBytes  max # of bytes of keys and json to cache
+     */
+    public void setCacheSize(int maxKeys, long maxBytes) {
+        mCache = new LookupCache(maxKeys, maxBytes);
+    }
+
+    /**
+     * Release this pipe's hold on the catalog and index.  They are closed once no other
+     * LookupPipe uses them (see IndexRegistry).  The pipe can not be used after this.
+     */
+    public void close() {
+        if(mIndexHandle != null) {
+            mIndexHandle.close();
+            mIndexHandle = null;
+        }
+    }
+
+    public int getBatchSize() {
+        return mBatchSize;
+    }
+
+    /**
+     * Set the # of input histories that are looked up together.  With a batch size
+     * greater than 1 the index is queried once per batch (instead of once per history)
+     * and the catalog lines are read in file order with a single bgzip stream.
+     * @param batchSize  # of histories per batch (1 = look up each history as it arrives)
+     */
+    public void setBatchSize(int batchSize) {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be 1 or greater: " + batchSize);
+        }
+        this.mBatchSize = batchSize;
     }
     
     
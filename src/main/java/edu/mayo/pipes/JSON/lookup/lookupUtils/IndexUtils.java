@@ -14,6 +14,7 @@ import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
@@ -29,9 +30,18 @@ import org.apache.log4j.Logger;
 import com.jayway.jsonpath.InvalidPathException;
 import com.jayway.jsonpath.JsonPath;
 
+import edu.mayo.pipes.JSON.tabix.BgzipBlockReader;
+import edu.mayo.pipes.JSON.tabix.ParallelBgzipOutputStream;
+import edu.mayo.pipes.JSON.tabix.ParallelBgzipReader;
+
 public class IndexUtils {
 	
 	private File mBgzipFile;
+	
+	/** Long-lived reader (with a cache of inflated blocks) shared by all the getBgzipLine* methods */
+	private BgzipBlockReader mReader;
+	/** true if mReader belongs to someone else (ex: IndexRegistry), so close() must not close it */
+	private boolean mIsSharedReader = false;
 
 	public enum IndexBuilderPropKeys { MaxKeyLen, IsKeyColAnInt, NumLines };
 		
@@ -44,6 +54,13 @@ public class IndexUtils {
 	public IndexUtils(File bgzipfile) {
 		mBgzipFile = bgzipfile;
 	}
+
+	/** Read the lines with a reader that is shared with others (it is not closed by close()) */
+	public IndexUtils(BgzipBlockReader sharedReader) {
+		mBgzipFile = sharedReader.getFile();
+		mReader = sharedReader;
+		mIsSharedReader = true;
+	}
 	
 	/** 
 	 * 
@@ -101,7 +118,7 @@ public class IndexUtils {
 	 * @throws IOException
 	 */
 	public Properties zipIndexesToTextFile(File bgzipFile, String delimiter, int keyColumn, String jsonPathToKey, File txtIndexOut) throws SQLException, IOException {
-		BlockCompressedInputStream instr = new BlockCompressedInputStream(bgzipFile);
+		ParallelBgzipReader instr = new ParallelBgzipReader(bgzipFile);
 		
 		// Compile the JsonPath to make it faster and more reusable
 		JsonPath jsonPath = null;
@@ -125,21 +142,10 @@ public class IndexUtils {
 			if( line == null  ||  line.startsWith("#") )
 				continue;
 			numObjects++;
-			String[] cols = line.split(delimiter);
-			// If keyColumn is negative, then wrap it back around to end
-			if( keyColumn == -1 )
-				keyColumn = cols.length;
-			String key = cols[keyColumn-1];
-			
-			// If the jsonPath was specified, then look it up
-			if(jsonPathToKey != null && jsonPathToKey.length() > 0) {
-				try {
-					key = "" + jsonPath.read(key);
-				}catch(InvalidPathException e) {
-					// If the json does not contain the key, then loop
-					continue;
-				}
-			}
+			String key = getKey(line.split(delimiter), keyColumn, jsonPath);
+			// If the json does not contain the key, then loop
+			if( key == null )
+				continue;
 
 			if( key.length() > maxKeyLen )
 				maxKeyLen = key.length();
@@ -155,6 +161,7 @@ public class IndexUtils {
 			}
 		} while( line != null );
 		fout.close();
+		instr.close();
 		System.out.println("Num objects read: " + numObjects);
 		System.out.println("Max key length: " + maxKeyLen);
 		
@@ -166,6 +173,24 @@ public class IndexUtils {
 	}
 
 
+	/**
+	 * Get the key to index from a line's columns
+	 * @param cols  the line's columns
+	 * @param keyColumn  1-based column that has the key (or the JSON the key is in); -1 for the last column
+	 * @param jsonPath  the path to the key within the column's JSON (null to use the whole column)
+	 * @return the key, or null if the JSON does not contain the path
+	 */
+	public static String getKey(String[] cols, int keyColumn, JsonPath jsonPath) {
+		String key = cols[(keyColumn == -1 ? cols.length : keyColumn) - 1];
+		if( jsonPath == null )
+			return key;
+		try {
+			return "" + jsonPath.read(key);
+		} catch(InvalidPathException e) {
+			return null;
+		}
+	}
+
 	public static String pad(String s, int len) {
 		char[] sp = new char[len-s.length()];
 		Arrays.fill(sp, ' ');
@@ -176,13 +201,11 @@ public class IndexUtils {
 	 * Return a HashMap that maps the key to the list of lines returned
 	 * @throws IOException */
 	public HashMap<String,List<String>> getBgzipLinesByIndex(File bgzipFile, HashMap<String,List<Long>> indexes) throws IOException {
-		BlockCompressedInputStream instr = new BlockCompressedInputStream(bgzipFile);
+		BgzipBlockReader reader = getReader(bgzipFile);
 		HashMap<String,List<String>> linesOut = new HashMap<String,List<String>>();
 		String line = null;
 		SortedSet<String> sortedKeys = new TreeSet<String>(indexes.keySet());
 		
-		// Make sure to close the input stream each time - especially when an exception occurs
-		// or we may encounter the dreaded "FileNotFoundException: xxxxxx (Too many open files)" error. 
 		List<Long> positions = null; 
 		try {
 			for(String id : sortedKeys) {
@@ -195,16 +218,13 @@ public class IndexUtils {
 				}
 				
 				for(Long pos : positions) {
-					instr.seek(pos);
-					line = instr.readLine();
+					line = reader.readLine(pos);
 					if(line != null)
 						linesForId.add(line);
 				}
 			}
 		} catch(Exception e) {
-			mLogger.error("Error seeking into bgz file, or reading the line at positions " + positions.toString() + ".  File: " + mBgzipFile);
-		} finally {
-			instr.close();
+			mLogger.error("Error seeking into bgz file, or reading the line at positions " + positions.toString() + ".  File: " + bgzipFile);
 		}
 		return linesOut;
 	}
@@ -213,18 +233,15 @@ public class IndexUtils {
 	 * Return a HashMap that maps the key to the list of lines returned
 	 * @throws IOException */
 	public HashMap<String,List<String>> getBgzipLinesByIndex(File bgzipFile, String idToFind, List<Long> indexes) throws IOException {
-		BlockCompressedInputStream instr = new BlockCompressedInputStream(bgzipFile);
+		BgzipBlockReader reader = getReader(bgzipFile);
 		HashMap<String,List<String>> linesOut = new HashMap<String,List<String>>();
 		String line = null;
 			
 		List<String> linesForId = new ArrayList<String>();
 
-		// Make sure to close the input stream each time - especially when an exception occurs
-		// or we may encounter the dreaded "FileNotFoundException: xxxxxx (Too many open files)" error. 
 		try {
 			for(Long pos : indexes) {			
-				instr.seek(pos);
-				line = instr.readLine();
+				line = reader.readLine(pos);
 				if(line != null) {
 					linesForId.add(line);
 				}
@@ -232,9 +249,7 @@ public class IndexUtils {
 	
 			linesOut.put(idToFind, linesForId);
 		} catch(Exception e) {
-			mLogger.error("Error seeking into bgz file, or reading the line at positions " + indexes.toString() + ".  File: " + mBgzipFile);
-		} finally {
-			instr.close();
+			mLogger.error("Error seeking into bgz file, or reading the line at positions " + indexes.toString() + ".  File: " + bgzipFile);
 		}
 		return linesOut;
 	}
@@ -246,28 +261,75 @@ public class IndexUtils {
 	 * @throws IOException
 	 */
 	public String getBgzipLineByPosition(Long position) throws IOException {
-		BlockCompressedInputStream instr = new BlockCompressedInputStream(mBgzipFile);
 		String linesOut = null;
 		
-		// Make sure to close the input stream each time - especially when an exception occurs
-		// or we may encounter the dreaded "FileNotFoundException: xxxxxx (Too many open files)" error. 
 		try {
-			instr.seek(position);
-			linesOut = instr.readLine();
+			linesOut = getReader(mBgzipFile).readLine(position);
 		
 			if (linesOut == null) {
 				linesOut = "";
 			}
 		} catch(Exception e) {
 			mLogger.error("Error seeking into bgz file, or reading the line at position " + position + ".  File: " + mBgzipFile);
-		} finally {
-			instr.close();
 		}
 		
 		return linesOut;
 	}
 	
-
+	/**
+	 * Get the lines for many positions at once.  The positions are visited in
+	 * ascending file order using the shared reader, so each bgzip block is
+	 * typically inflated only once no matter how many of the lines fall within it.
+	 * @param positions  bgzip virtual file offsets (duplicates are only read once)
+	 * @return map of position to line ("" if nothing could be read at that position)
+	 * @throws IOException
+	 */
+	public HashMap<Long,String> getBgzipLinesByPosition(Collection<Long> positions) throws IOException {
+		HashMap<Long,String> linesOut = new HashMap<Long,String>();
+		if( positions.isEmpty() )
+			return linesOut;
+		
+		SortedSet<Long> sortedPositions = new TreeSet<Long>(positions);
+		BgzipBlockReader reader = getReader(mBgzipFile);
+		
+		Long position = null;
+		try {
+			for(Long pos : sortedPositions) {
+				position = pos;
+				String line = reader.readLine(pos);
+				linesOut.put(pos, line == null ? "" : line);
+			}
+		} catch(Exception e) {
+			mLogger.error("Error seeking into bgz file, or reading the line at position " + position + ".  File: " + mBgzipFile);
+		}
+		return linesOut;
+	}
+	
+	/** Get the (long-lived) reader for the bgzip file.  It stays open until close() is called
+	 *  so that each lookup doesn't have to reopen the file and re-inflate blocks.  
+	 *  Only one file is kept open at a time to avoid the dreaded 
+	 *  "FileNotFoundException: xxxxxx (Too many open files)" error. */
+	private synchronized BgzipBlockReader getReader(File bgzipFile) throws IOException {
+		if( mReader != null  &&  ! mReader.getFile().equals(bgzipFile) ) {
+			if( ! mIsSharedReader )
+				mReader.close();
+			mReader = null;
+			mIsSharedReader = false;
+		}
+		if( mReader == null )
+			mReader = new BgzipBlockReader(bgzipFile);
+		return mReader;
+	}
+	
+	/** Close the bgzip file if it is open */
+	public synchronized void close() throws IOException {
+		if( mReader != null ) {
+			if( ! mIsSharedReader )
+				mReader.close();
+			mReader = null;
+			mIsSharedReader = false;
+		}
+	}
 	
         
 
@@ -427,9 +489,9 @@ public class IndexUtils {
 	}
 
 	
-	/** Zip a file */
+	/** Zip a file (the blocks are deflated on all processors) */
 	public void bgzip(File txtFile, File bgzipOutFile) throws IOException {
-		BlockCompressedOutputStream outstream = new BlockCompressedOutputStream(bgzipOutFile, 9);
+		ParallelBgzipOutputStream outstream = new ParallelBgzipOutputStream(bgzipOutFile);
 		
 		byte[] buf = new byte[64*1024];
 		FileInputStream fin = new FileInputStream(txtFile);
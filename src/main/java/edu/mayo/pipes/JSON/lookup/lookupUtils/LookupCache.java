@@ -0,0 +1,107 @@
+package edu.mayo.pipes.JSON.lookup.lookupUtils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of lookup key to the catalog JSON for that key, so keys that
+ * repeat (ex: gene symbols, rsIDs) don't have to go to the index and catalog again.
+ * The cache is limited both by # of keys and by (approximate) # of bytes of JSON held.
+ * <p>
+ * The caller decides what the key is (ex: upper-cased when keys are not case sensitive).
+ */
+public class LookupCache {
+
+	/** Rough per-key cost in bytes of the map entry and list, on top of the strings themselves */
+	private static final int ENTRY_OVERHEAD = 96;
+	/** Rough per-string cost in bytes, on top of 2 bytes per char */
+	private static final int STRING_OVERHEAD = 40;
+
+	private int mMaxEntries;
+	private long mMaxBytes;
+	private long mBytes = 0;
+	private long mHits = 0;
+	private long mMisses = 0;
+	private long mEvictions = 0;
+	private LinkedHashMap<String, List<String>> mMap = new LinkedHashMap<String, List<String>>(16, 0.75f, true);
+
+	/**
+	 * @param maxEntries  max # of keys to cache
+	 * @param maxBytes  max # of bytes for the keys and their JSON
+	 */
+	public LookupCache(int maxEntries, long maxBytes) {
+		mMaxEntries = maxEntries;
+		mMaxBytes = maxBytes;
+	}
+
+	/** @return the JSON cached for the key (don't change it), or null if it is not cached */
+	public List<String> get(String key) {
+		List<String> jsons = mMap.get(key);
+		if( jsons == null )
+			mMisses++;
+		else
+			mHits++;
+		return jsons;
+	}
+
+	/** Cache the JSON for a key (an empty list if the key was not found), evicting the least recently used keys as needed */
+	public void put(String key, List<String> jsons) {
+		long size = sizeOf(key, jsons);
+		if( mMaxEntries < 1 || size > mMaxBytes )
+			return; // would not fit at all
+		List<String> old = mMap.put(key, jsons);
+		if( old != null )
+			mBytes -= sizeOf(key, old);
+		mBytes += size;
+
+		Iterator<Map.Entry<String, List<String>>> it = mMap.entrySet().iterator();
+		while( (mMap.size() > mMaxEntries || mBytes > mMaxBytes) && it.hasNext() ) {
+			Map.Entry<String, List<String>> eldest = it.next();
+			mBytes -= sizeOf(eldest.getKey(), eldest.getValue());
+			it.remove();
+			mEvictions++;
+		}
+	}
+
+	public void clear() {
+		mMap.clear();
+		mBytes = 0;
+	}
+
+	/** # of keys cached */
+	public int size() {
+		return mMap.size();
+	}
+
+	/** Approximate # of bytes held */
+	public long getBytes() {
+		return mBytes;
+	}
+
+	public long getHits() {
+		return mHits;
+	}
+
+	public long getMisses() {
+		return mMisses;
+	}
+
+	/** # of keys removed to make room for others */
+	public long getEvictions() {
+		return mEvictions;
+	}
+
+	private static long sizeOf(String key, List<String> jsons) {
+		long size = ENTRY_OVERHEAD + STRING_OVERHEAD + 2L * key.length();
+		for(String json : jsons)
+			size += STRING_OVERHEAD + 2L * json.length();
+		return size;
+	}
+
+	public String toString() {
+		return "LookupCache: " + size() + " keys, " + mBytes + " bytes, " + mHits + " hits, "
+			+ mMisses + " misses, " + mEvictions + " evictions";
+	}
+}
@@ -0,0 +1,314 @@
+package edu.mayo.pipes.JSON.tabix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Long-lived random access reader for bgzip (BGZF) files.
+ * <p>
+ * Unlike BlockCompressedInputStream, which is typically opened for each lookup, this
+ * reader keeps the file open and keeps the most recently inflated blocks in an LRU
+ * cache keyed by the block's file offset.  Repeated or nearby virtual offsets
+ * (ex: several catalog lines that live in the same 64KB block) are then served from
+ * memory instead of re-reading and re-inflating the block.
+ * <p>
+ * Positions are bgzip virtual file offsets: (blockAddress << 16) | offsetWithinBlock,
+ * the same values stored in the H2 lookup indexes and tabix indexes.
+ * All public methods are synchronized so one reader can be shared by several pipes.
+ */
+public class BgzipBlockReader extends InputStream {
+
+	/** Default cache size: 64 uncompressed blocks (roughly 4MB) */
+	public static final long DEFAULT_CACHE_BYTES = 64 * 64 * 1024;
+
+	private static final int BGZF_HEADER_LEN = 12;
+	private static final int BGZF_FOOTER_LEN = 8;
+
+	private File mFile;
+	private RandomAccessFile mRaf;
+	private Inflater mInflater = new Inflater(true);
+
+	/** Max # of uncompressed bytes to hold in the cache (0 = no caching) */
+	private long mMaxCacheBytes;
+	private long mCachedBytes = 0;
+	/** LRU cache of inflated blocks keyed by their file offset */
+	private LinkedHashMap<Long, Block> mCache = new LinkedHashMap<Long, Block>(16, 0.75f, true);
+	private long mHits = 0;
+	private long mMisses = 0;
+
+	/** Current block and position within it */
+	private Block mBlock = null;
+	private int mOffset = 0;
+	/** The bytes of the line being read */
+	private ByteArrayOutputStream mLine = new ByteArrayOutputStream(1024);
+
+	private static class Block {
+		long address;
+		long nextAddress;
+		byte[] data;
+	}
+
+	public BgzipBlockReader(File bgzipFile) throws IOException {
+		this(bgzipFile, DEFAULT_CACHE_BYTES);
+	}
+
+	/**
+	 * @param bgzipFile  bgzip file to read
+	 * @param maxCacheBytes  max # of uncompressed bytes to keep in the block cache (0 to disable)
+	 */
+	public BgzipBlockReader(File bgzipFile, long maxCacheBytes) throws IOException {
+		mFile = bgzipFile;
+		mRaf = new RandomAccessFile(bgzipFile, "r");
+		mMaxCacheBytes = maxCacheBytes;
+	}
+
+	public File getFile() {
+		return mFile;
+	}
+
+	/**
+	 * Move to a virtual file offset
+	 * @param virtualOffset  (blockAddress << 16) | offsetWithinBlock
+	 */
+	public synchronized void seek(long virtualOffset) throws IOException {
+		long address = virtualOffset >>> 16;
+		int offset = (int)(virtualOffset & 0xFFFF);
+		Block block = getBlock(address);
+		if( block == null  ||  offset > block.data.length )
+			throw new IOException("Invalid virtual file pointer: " + virtualOffset + " for " + mFile);
+		mBlock = block;
+		mOffset = offset;
+	}
+
+	/**
+	 * The virtual file offset of the next byte to be read.
+	 * Same convention as BlockCompressedInputStream: at the end of a block this points
+	 * to the start of the next block.
+	 */
+	public synchronized long getFilePointer() {
+		if( mBlock == null )
+			return 0;
+		if( mOffset == mBlock.data.length )
+			return mBlock.nextAddress << 16;
+		return (mBlock.address << 16) | mOffset;
+	}
+
+	@Override
+	public synchronized int read() throws IOException {
+		if( ! ensureAvailable() )
+			return -1;
+		return mBlock.data[mOffset++] & 0xFF;
+	}
+
+	@Override
+	public synchronized int read(byte[] buf, int off, int len) throws IOException {
+		if( len == 0 )
+			return 0;
+		if( ! ensureAvailable() )
+			return -1;
+		int n = Math.min(len, mBlock.data.length - mOffset);
+		System.arraycopy(mBlock.data, mOffset, buf, off, n);
+		mOffset += n;
+		return n;
+	}
+
+	/**
+	 * Read a line from the current position.  A line is terminated by '\n', '\r' or "\r\n",
+	 * and its bytes are decoded with the platform's default charset
+	 * (both the same as BlockCompressedInputStream.readLine()).
+	 * @return the line (without terminator), or null if at the end of the file
+	 */
+	public synchronized String readLine() throws IOException {
+		return readLineBytes() ? mLine.toString() : null;
+	}
+
+	/**
+	 * Read a line the same as TabixReader.readLine(InputStream), so TabixReader gives the same
+	 * lines with or without its block cache.  Unlike readLine(), the line is terminated by '\n' only
+	 * (a '\r' before it is kept), it is one char per byte (ISO-8859-1), and a last line
+	 * without a '\n' is dropped.
+	 * @return the line (without the '\n'), or null if there are no more terminated lines
+	 */
+	synchronized String readTabixLine() throws IOException
+	{
+		mLine.reset();
+		while( ensureAvailable() ) {
+			byte[] data = mBlock.data;
+			int start = mOffset;
+			int i = start;
+			while( i < data.length  &&  data[i] != '\n' )
+				i++;
+			mLine.write(data, start, i - start);
+			mOffset = i;
+			if( i < data.length ) {
+				mOffset++;
+				return mLine.toString("ISO-8859-1");
+			}
+		}
+		return null;
+	}
+
+	/** Read the bytes of the next line into mLine.  @return false if at the end of the file */
+	private boolean readLineBytes() throws IOException {
+		mLine.reset();
+		boolean isLine = false;
+		while( ensureAvailable() ) {
+			isLine = true;
+			byte[] data = mBlock.data;
+			int start = mOffset;
+			int i = start;
+			while( i < data.length  &&  data[i] != '\n'  &&  data[i] != '\r' )
+				i++;
+			mLine.write(data, start, i - start);
+			mOffset = i;
+			if( i < data.length ) {
+				mOffset++;
+				if( data[i] == '\r'  &&  ensureAvailable()  &&  mBlock.data[mOffset] == '\n' )
+					mOffset++;
+				return true;
+			}
+		}
+		return isLine;
+	}
+
+	/**
+	 * Seek to a virtual file offset and read the line there (atomic, so it is safe to
+	 * call from several threads sharing the reader).
+	 */
+	public synchronized String readLine(long virtualOffset) throws IOException {
+		seek(virtualOffset);
+		return readLine();
+	}
+
+	public synchronized long getCacheHits() {
+		return mHits;
+	}
+
+	public synchronized long getCacheMisses() {
+		return mMisses;
+	}
+
+	/** # of uncompressed bytes currently held in the cache */
+	public synchronized long getCachedBytes() {
+		return mCachedBytes;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		mCache.clear();
+		mCachedBytes = 0;
+		mBlock = null;
+		mInflater.end();
+		mRaf.close();
+	}
+
+	/** Make sure there is at least one byte left in the current block, moving past empty blocks as needed.
+	 *  @return false if at the end of the file */
+	private boolean ensureAvailable() throws IOException {
+		if( mBlock == null ) {
+			mBlock = getBlock(0);
+			mOffset = 0;
+		}
+		while( mBlock != null  &&  mOffset >= mBlock.data.length ) {
+			mBlock = getBlock(mBlock.nextAddress);
+			mOffset = 0;
+		}
+		return mBlock != null;
+	}
+
+	/** Get the block at the file offset from the cache, or read and inflate it.
+	 *  @return null if the address is at (or past) the end of the file */
+	private Block getBlock(long address) throws IOException {
+		Block block = mCache.get(address);
+		if( block != null ) {
+			mHits++;
+			return block;
+		}
+		mMisses++;
+		block = readBlock(address);
+		if( block != null && mMaxCacheBytes > 0 ) {
+			mCache.put(address, block);
+			mCachedBytes += block.data.length;
+			evict();
+		}
+		return block;
+	}
+
+	/** Drop the least recently used blocks until we are within the memory budget */
+	private void evict() {
+		Iterator<Map.Entry<Long, Block>> it = mCache.entrySet().iterator();
+		while( mCachedBytes > mMaxCacheBytes  &&  mCache.size() > 1  &&  it.hasNext() ) {
+			Block eldest = it.next().getValue();
+			mCachedBytes -= eldest.data.length;
+			it.remove();
+		}
+	}
+
+	private Block readBlock(long address) throws IOException {
+		if( address >= mRaf.length() )
+			return null;
+
+		byte[] header = new byte[BGZF_HEADER_LEN];
+		mRaf.seek(address);
+		mRaf.readFully(header);
+		if( (header[0] & 0xFF) != 31  ||  (header[1] & 0xFF) != 139  ||  (header[3] & 4) == 0 )
+			throw new IOException("Not a valid bgzip block at offset " + address + " in " + mFile);
+
+		// Find the BSIZE in the "BC" extra subfield
+		int xlen = unpackShort(header, 10);
+		byte[] extra = new byte[xlen];
+		mRaf.readFully(extra);
+		int blockSize = -1;
+		for(int i = 0; i + 4 <= xlen; ) {
+			int slen = unpackShort(extra, i + 2);
+			if( extra[i] == 'B'  &&  extra[i+1] == 'C'  &&  slen == 2 ) {
+				blockSize = unpackShort(extra, i + 4) + 1;
+				break;
+			}
+			i += 4 + slen;
+		}
+		if( blockSize == -1 )
+			throw new IOException("Missing BSIZE in bgzip block at offset " + address + " in " + mFile);
+
+		byte[] rest = new byte[blockSize - BGZF_HEADER_LEN - xlen];
+		mRaf.readFully(rest);
+		int compressedLen = rest.length - BGZF_FOOTER_LEN;
+		int uncompressedLen = unpackInt(rest, rest.length - 4);
+
+		Block block = new Block();
+		block.address = address;
+		block.nextAddress = address + blockSize;
+		block.data = new byte[uncompressedLen];
+		try {
+			mInflater.reset();
+			mInflater.setInput(rest, 0, compressedLen);
+			int n = 0;
+			while( n < uncompressedLen ) {
+				int inflated = mInflater.inflate(block.data, n, uncompressedLen - n);
+				if( inflated == 0  &&  (mInflater.finished() || mInflater.needsInput()) )
+					throw new EOFException("Truncated bgzip block at offset " + address + " in " + mFile);
+				n += inflated;
+			}
+		} catch(DataFormatException e) {
+			throw new IOException("Corrupt bgzip block at offset " + address + " in " + mFile + ": " + e.getMessage());
+		}
+		return block;
+	}
+
+	private static int unpackShort(byte[] buf, int pos) {
+		return (buf[pos] & 0xFF) | ((buf[pos+1] & 0xFF) << 8);
+	}
+
+	private static int unpackInt(byte[] buf, int pos) {
+		return (buf[pos] & 0xFF) | ((buf[pos+1] & 0xFF) << 8) | ((buf[pos+2] & 0xFF) << 16) | ((buf[pos+3] & 0xFF) << 24);
+	}
+}
@@ -4,8 +4,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.NoSuchElementException;
 
-import net.sf.samtools.util.BlockCompressedOutputStream;
-
 import com.tinkerpop.pipes.AbstractPipe;
 
 import edu.mayo.pipes.history.History;
@@ -13,17 +11,21 @@ import edu.mayo.pipes.history.History;
 public class BgzipWriter extends AbstractPipe<History, History> {
 	
 	private String mBgzipOutFilePath;
-	private BlockCompressedOutputStream mBgzipOutStream;
+	private ParallelBgzipOutputStream mBgzipOutStream;
 	private boolean mIsCreateTabix = true;
 	
 	/**
-	 * Write all lines to a bgzip file
+	 * Write all lines to a bgzip file (the blocks are deflated on all processors)
 	 * @param bgzipOutFilePath Path to bgzip file
 	 * @param isCreateTabix Create a tabix file from the bgzip file when done
 	 */
 	public BgzipWriter(String bgzipOutFilePath, boolean isCreateTabix) {
 		mBgzipOutFilePath = bgzipOutFilePath; 
-		mBgzipOutStream = new BlockCompressedOutputStream(bgzipOutFilePath, 9);
+		try {
+			mBgzipOutStream = new ParallelBgzipOutputStream(new File(bgzipOutFilePath));
+		} catch(IOException e) {
+			throw new IllegalArgumentException("Could not create bgzip file " + bgzipOutFilePath + ": " + e.getMessage());
+		}
 		mIsCreateTabix = isCreateTabix;
 	}
 	
@@ -57,6 +59,7 @@ public class BgzipWriter extends AbstractPipe<History, History> {
 		File bgzipOutFile = new File(mBgzipOutFilePath);
 		TabixWriter tabixWriter = new TabixWriter(bgzipOutFile, TabixWriter.VCF_CONF);
 		tabixWriter.createIndex(bgzipOutFile);
+		tabixWriter.close();
 	}
 
 	private String merge(History history) {
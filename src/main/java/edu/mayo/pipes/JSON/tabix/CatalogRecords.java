@@ -0,0 +1,274 @@
+package edu.mayo.pipes.JSON.tabix;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A pre-parsed copy of a tabix catalog's positions, kept next to the catalog as
+ * catalog + ".rec" (ex: genes.tsv.bgz.rec).  For each record it holds the interval that tabix
+ * finds for the line, and where the line and its json column are in the bgzip file, so overlap
+ * queries are answered without reading, splitting or parsing the lines that don't match, and
+ * the json is read straight out of the catalog without splitting the line.
+ * The catalog itself is not changed, so the tools that read it keep working.
+ * <p>
+ * Build it once with build(), then open() it for queries.  The results are the same as
+ * TabixReader.query() followed by line.split("\t")[jsonCol].
+ * <p>
+ * The file is a fixed-size header, the records in catalog order (RECORD_LEN bytes each), then
+ * the table of sequences and the file address of that table.  The records of each sequence
+ * are memory-mapped when the sequence is first queried.
+ */
+public class CatalogRecords {
+
+	public static final String SUFFIX = ".rec";
+
+	private static final long MAGIC = 0x5442585245433031L; // "TBXREC01"
+	private static final int HEADER_LEN = 32;
+	/** beg, end, maxEnd (ints), line's virtual file offset (long), json start and length within the line (ints) */
+	private static final int RECORD_LEN = 28;
+
+	private static Logger sLogger = Logger.getLogger(CatalogRecords.class);
+
+	private TabixReader mReader;
+	private RandomAccessFile mFile;
+	private BgzipBlockReader mCatalog;
+	private long[] mFirst;
+	private int[] mCount;
+	private MappedByteBuffer[] mMapped;
+
+	/** The records file for a catalog (catalog + ".rec") */
+	public static File getFile(String catalogFile) {
+		return new File(catalogFile + SUFFIX);
+	}
+
+	/**
+	 * Write the records file for a catalog, reading it once from start to end.
+	 * The catalog must have its tabix index, and be sorted the way tabix needs.
+	 * @param catalogFile  the bgzip catalog (ex: genes.tsv.bgz)
+	 * @param jsonCol  0-based column the json is in (same as TabixSearchPipe's jsonpos)
+	 * @return the records file that was written
+	 */
+	public static File build(String catalogFile, int jsonCol) throws IOException {
+		TabixReader reader = new TabixReader(catalogFile);
+		File catalog = new File(catalogFile);
+		File out = getFile(catalogFile);
+		String[] seqs = reader.mSeq;
+		long[] first = new long[seqs.length];
+		int[] count = new int[seqs.length];
+
+		ParallelBgzipReader in = new ParallelBgzipReader(catalog);
+		DataOutputStream recs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out), 1024 * 1024));
+		try {
+			recs.writeLong(MAGIC);
+			recs.writeLong(catalog.length());
+			recs.writeLong(catalog.lastModified());
+			recs.writeInt(jsonCol);
+			recs.writeInt(0);
+
+			long numRecs = 0;
+			int tid = -1, lastBeg = 0, maxEnd = 0, lineno = 0;
+			long pos = in.getFilePointer();
+			String s;
+			while ((s = in.readTabixLine()) != null) {
+				long linePos = pos;
+				pos = in.getFilePointer();
+				if (++lineno <= reader.mSkip || s.length() == 0 || s.charAt(0) == reader.mMeta)
+					continue;
+				TabixReader.TIntv intv = reader.getIntv(s);
+				if (intv.tid < 0)
+					continue;
+				if (intv.tid != tid) {
+					if (count[intv.tid] > 0)
+						throw new IllegalArgumentException("The catalog is not sorted: " + seqs[intv.tid] + " is not all together, at line " + lineno + " of " + catalogFile);
+					tid = intv.tid;
+					first[tid] = numRecs;
+					lastBeg = 0;
+					maxEnd = 0;
+				}
+				if (intv.beg < lastBeg)
+					throw new IllegalArgumentException("The catalog is not sorted by position at line " + lineno + " of " + catalogFile);
+				lastBeg = intv.beg;
+				maxEnd = Math.max(maxEnd, intv.end);
+
+				int jsonStart = 0;
+				for (int col = 0; col < jsonCol && jsonStart >= 0; col++) {
+					int tab = s.indexOf('\t', jsonStart);
+					jsonStart = tab < 0 ? -1 : tab + 1;
+				}
+				if (jsonStart < 0)
+					throw new IllegalArgumentException("No column " + (jsonCol + 1) + " at line " + lineno + " of " + catalogFile);
+				int jsonEnd = s.indexOf('\t', jsonStart);
+				if (jsonEnd < 0)
+					jsonEnd = s.length();
+
+				recs.writeInt(intv.beg);
+				recs.writeInt(intv.end);
+				recs.writeInt(maxEnd);
+				recs.writeLong(linePos);
+				recs.writeInt(jsonStart);
+				recs.writeInt(jsonEnd - jsonStart);
+				count[tid]++;
+				numRecs++;
+			}
+
+			long tableAddress = HEADER_LEN + numRecs * RECORD_LEN;
+			recs.writeInt(seqs.length);
+			for (int i = 0; i < seqs.length; i++) {
+				recs.writeUTF(seqs[i]);
+				recs.writeLong(first[i]);
+				recs.writeInt(count[i]);
+			}
+			recs.writeLong(tableAddress);
+		} finally {
+			in.close();
+			recs.close();
+			reader.close();
+		}
+		return out;
+	}
+
+	/**
+	 * Open the records file for the reader's catalog, if there is an up-to-date one for the json column.
+	 * @param reader  the catalog's reader (its index is used to look up the sequences)
+	 * @param jsonCol  0-based column the json is in
+	 * @return the records, or null if there is no records file, or it is for another json column or an older catalog
+	 */
+	public static CatalogRecords open(TabixReader reader, int jsonCol) throws IOException {
+		File catalog = new File(reader.mFn);
+		File recsFile = getFile(reader.mFn);
+		if (!recsFile.isFile())
+			return null;
+		RandomAccessFile file = new RandomAccessFile(recsFile, "r");
+		try {
+			if (file.readLong() != MAGIC)
+				throw new IOException("Not a catalog records file: " + recsFile);
+			if (file.readLong() != catalog.length() || file.readLong() != catalog.lastModified()) {
+				sLogger.warn("Not using " + recsFile + " since the catalog has changed since it was built");
+				file.close();
+				return null;
+			}
+			if (file.readInt() != jsonCol) {
+				file.close();
+				return null;
+			}
+			file.seek(file.length() - 8);
+			file.seek(file.readLong());
+			int numSeqs = file.readInt();
+			if (numSeqs != reader.mSeq.length)
+				throw new IOException("The catalog records file " + recsFile + " does not match the tabix index");
+			CatalogRecords recs = new CatalogRecords();
+			recs.mFirst = new long[numSeqs];
+			recs.mCount = new int[numSeqs];
+			recs.mMapped = new MappedByteBuffer[numSeqs];
+			for (int i = 0; i < numSeqs; i++) {
+				if (!file.readUTF().equals(reader.mSeq[i]))
+					throw new IOException("The catalog records file " + recsFile + " does not match the tabix index");
+				recs.mFirst[i] = file.readLong();
+				recs.mCount[i] = file.readInt();
+			}
+			recs.mReader = reader;
+			recs.mFile = file;
+			recs.mCatalog = new BgzipBlockReader(catalog);
+			return recs;
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * The json of the records that overlap a region, in catalog order.
+	 * Same as the tabix query (see TabixReader.query()) of the region, then splitting out the json column.
+	 * @param region  ex: "17:41196312-41277500"
+	 */
+	public List<String> query(String region) throws IOException {
+		int[] x = mReader.parseReg(region);
+		return query(x[0], x[1], x[2]);
+	}
+
+	/**
+	 * @param tid  the sequence's id in the tabix index (see TabixReader.parseReg())
+	 * @param beg  0-based start of the region
+	 * @param end  end of the region (exclusive)
+	 */
+	public List<String> query(int tid, int beg, int end) throws IOException {
+		List<String> jsons = new ArrayList<String>();
+		if (tid < 0 || tid >= mCount.length || mCount[tid] == 0 || beg >= end)
+			return jsons;
+		MappedByteBuffer recs = map(tid);
+		int n = mCount[tid];
+
+		// maxEnd never goes down, so find the first record that ends after beg (none before it can overlap)
+		int lo = 0, hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (recs.getInt(mid * RECORD_LEN + 8) > beg)
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		for (int i = lo; i < n; i++) {
+			int at = i * RECORD_LEN;
+			if (recs.getInt(at) >= end)
+				break;
+			if (recs.getInt(at + 4) > beg)
+				jsons.add(readJson(recs.getLong(at + 12), recs.getInt(at + 20), recs.getInt(at + 24)));
+		}
+		return jsons;
+	}
+
+	/** # of records of a sequence */
+	public int getNumRecords(int tid) {
+		return mCount[tid];
+	}
+
+	public void close() throws IOException {
+		mMapped = new MappedByteBuffer[mMapped.length];
+		mFile.close();
+		mCatalog.close();
+	}
+
+	private MappedByteBuffer map(int tid) throws IOException {
+		if (mMapped[tid] == null) {
+			long len = (long)mCount[tid] * RECORD_LEN;
+			if (len > Integer.MAX_VALUE)
+				throw new IOException("Too many records for " + mReader.mSeq[tid] + " in " + getFile(mReader.mFn));
+			mMapped[tid] = mFile.getChannel().map(FileChannel.MapMode.READ_ONLY, HEADER_LEN + mFirst[tid] * RECORD_LEN, len);
+		}
+		return mMapped[tid];
+	}
+
+	/** Read only the json of the line (byte = char, same as the lines read by TabixReader) */
+	private String readJson(long linePos, int jsonStart, int jsonLen) throws IOException {
+		byte[] buf = new byte[jsonLen];
+		synchronized (mCatalog) {
+			mCatalog.seek(linePos);
+			for (long skip = jsonStart; skip > 0; ) {
+				long n = mCatalog.skip(skip);
+				if (n <= 0)
+					throw new IOException("Unexpected end of " + mReader.mFn);
+				skip -= n;
+			}
+			for (int off = 0; off < jsonLen; ) {
+				int n = mCatalog.read(buf, off, jsonLen - off);
+				if (n < 0)
+					throw new IOException("Unexpected end of " + mReader.mFn);
+				off += n;
+			}
+		}
+		char[] chars = new char[jsonLen];
+		for (int i = 0; i < jsonLen; i++)
+			chars[i] = (char)(buf[i] & 0xFF);
+		return new String(chars);
+	}
+}
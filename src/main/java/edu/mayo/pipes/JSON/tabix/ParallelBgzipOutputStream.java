@@ -0,0 +1,263 @@
+package edu.mayo.pipes.JSON.tabix;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a bgzip (BGZF) file, deflating the blocks on several threads.
+ * <p>
+ * The bytes written are collected into blocks of up to 64KB, each block is deflated on a pool
+ * of numThreads threads, and the blocks are written to the file strictly in order, followed by
+ * the empty end-of-file block.  The file can be read by anything that reads bgzip (tabix,
+ * BlockCompressedInputStream, BgzipBlockReader).
+ * <p>
+ * A block's file address is only known once the blocks before it have been deflated, so there
+ * are two ways to get the virtual file offset of what is being written (ex: to index a line):
+ * <ul>
+ *  <li>getFilePointer() - the offset itself, but it waits for the earlier blocks to be deflated</li>
+ *  <li>getBlockPointer() - returns right away; turn it into the offset later with
+ *      toFilePointer(), ideally once the block has been written (ex: after close())</li>
+ * </ul>
+ * Use from one thread at a time.
+ */
+public class ParallelBgzipOutputStream extends OutputStream {
+
+	/** Max # of uncompressed bytes per block (same as htslib, so a deflated block always fits in 64KB) */
+	public static final int BLOCK_SIZE = 0xff00;
+
+	/** # of blocks that can be waiting to be written for each thread */
+	public static final int QUEUE_PER_THREAD = 4;
+
+	private static final int BGZF_HEADER_LEN = 18;
+	private static final int BGZF_FOOTER_LEN = 8;
+	private static final int MAX_BLOCK_LEN = 64 * 1024;
+
+	/** The empty block at the end of every bgzip file */
+	private static final byte[] EOF_BLOCK = {
+		31, (byte)139, 8, 4, 0, 0, 0, 0, 0, (byte)255, 6, 0, 66, 67, 2, 0, 27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+	};
+
+	private File mFile;
+	private OutputStream mOut;
+	private int mLevel;
+	private ExecutorService mPool;
+	private int mMaxQueued;
+	private LinkedList<Future<byte[]>> mQueued = new LinkedList<Future<byte[]>>();
+	private boolean mIsClosed = false;
+
+	/** The block being filled */
+	private byte[] mBuffer = new byte[BLOCK_SIZE];
+	private int mBufferLen = 0;
+	/** # of blocks submitted so far (= the # of the block being filled) */
+	private int mNumBlocks = 0;
+	/** # of blocks written to the file so far */
+	private int mNumWritten = 0;
+	/** File address of each block written (the one after the last is the current file length) */
+	private long[] mAddresses = new long[1024];
+
+	/** Deflate at level 9 (same as BgzipWriter has always used) on as many threads as there are processors */
+	public ParallelBgzipOutputStream(File bgzipFile) throws IOException {
+		this(bgzipFile, 9, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param bgzipFile  the file to create
+	 * @param compressionLevel  0 (none) to 9 (best)
+	 * @param numThreads  # of threads to deflate blocks on
+	 */
+	public ParallelBgzipOutputStream(File bgzipFile, int compressionLevel, int numThreads) throws IOException {
+		if( numThreads < 1 )
+			throw new IllegalArgumentException("numThreads must be at least 1: " + numThreads);
+		mFile = bgzipFile;
+		mLevel = compressionLevel;
+		mMaxQueued = numThreads * QUEUE_PER_THREAD;
+		mOut = new BufferedOutputStream(new FileOutputStream(bgzipFile), 1024 * 1024);
+		mPool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "bgzip-deflate");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public File getFile() {
+		return mFile;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		mBuffer[mBufferLen++] = (byte)b;
+		if( mBufferLen == BLOCK_SIZE )
+			submitBlock();
+	}
+
+	@Override
+	public void write(byte[] buf, int off, int len) throws IOException {
+		while( len > 0 ) {
+			int n = Math.min(len, BLOCK_SIZE - mBufferLen);
+			System.arraycopy(buf, off, mBuffer, mBufferLen, n);
+			mBufferLen += n;
+			off += n;
+			len -= n;
+			if( mBufferLen == BLOCK_SIZE )
+				submitBlock();
+		}
+	}
+
+	/**
+	 * A pointer to the next byte to be written, for toFilePointer(): (blockNumber << 16) | offsetWithinBlock.
+	 * Unlike getFilePointer(), this never waits.  A full block is queued right away, so this never
+	 * points to the end of a block (same as BlockCompressedOutputStream; BlockCompressedInputStream can't seek there).
+	 */
+	public long getBlockPointer() {
+		return ((long)mNumBlocks << 16) | mBufferLen;
+	}
+
+	/**
+	 * Turn a getBlockPointer() into a virtual file offset, waiting for its block to be written if needed.
+	 * @param blockPointer  from getBlockPointer(), on this stream
+	 */
+	public long toFilePointer(long blockPointer) throws IOException {
+		int block = (int)(blockPointer >>> 16);
+		int offset = (int)(blockPointer & 0xFFFF);
+		if( block > mNumBlocks )
+			throw new IllegalArgumentException("Not a block pointer for this stream: " + blockPointer);
+		while( mNumWritten < block )
+			writeNext();
+		return (mAddresses[block] << 16) | offset;
+	}
+
+	/**
+	 * The virtual file offset of the next byte to be written: (blockAddress << 16) | offsetWithinBlock.
+	 * This waits for the blocks before the current one to be deflated, so when getting the offset
+	 * of many lines it is faster to get their getBlockPointer() and call toFilePointer() later.
+	 */
+	public long getFilePointer() throws IOException {
+		return toFilePointer(getBlockPointer());
+	}
+
+	/** Deflate what has been written so far into a block (so the file can be read up to here once written) */
+	@Override
+	public void flush() throws IOException {
+		if( mBufferLen > 0 )
+			submitBlock();
+		while( ! mQueued.isEmpty() )
+			writeNext();
+		mOut.flush();
+	}
+
+	/** Write the rest of the blocks and the end-of-file block */
+	@Override
+	public void close() throws IOException {
+		if( mIsClosed )
+			return;
+		try {
+			flush();
+			mOut.write(EOF_BLOCK);
+		} finally {
+			mIsClosed = true;
+			mPool.shutdownNow();
+			mOut.close();
+		}
+	}
+
+	/** Queue the current block to be deflated, writing the oldest queued blocks if too many are waiting */
+	private void submitBlock() throws IOException {
+		if( mIsClosed )
+			throw new IOException("The stream is closed: " + mFile);
+		while( mQueued.size() >= mMaxQueued )
+			writeNext();
+		final byte[] data = mBuffer;
+		final int len = mBufferLen;
+		mQueued.add(mPool.submit(new Callable<byte[]>() {
+			public byte[] call() {
+				return deflate(data, len, mLevel);
+			}
+		}));
+		mBuffer = new byte[BLOCK_SIZE];
+		mBufferLen = 0;
+		mNumBlocks++;
+	}
+
+	/** Wait for the oldest queued block to be deflated, and write it */
+	private void writeNext() throws IOException {
+		byte[] block;
+		try {
+			block = mQueued.removeFirst().get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while deflating " + mFile);
+		} catch(ExecutionException e) {
+			throw new IOException("Could not deflate " + mFile + ": " + e.getCause());
+		}
+		mOut.write(block);
+		if( mNumWritten + 1 >= mAddresses.length )
+			mAddresses = Arrays.copyOf(mAddresses, mAddresses.length * 2);
+		mAddresses[mNumWritten + 1] = mAddresses[mNumWritten] + block.length;
+		mNumWritten++;
+	}
+
+	/** Deflate the data into a whole bgzip block: header, deflated data, CRC and length (runs on the pool threads) */
+	private static byte[] deflate(byte[] data, int len, int level) {
+		byte[] block = new byte[MAX_BLOCK_LEN];
+		int compressedLen = deflate(data, len, level, block);
+		if( compressedLen < 0 )
+			compressedLen = deflate(data, len, Deflater.NO_COMPRESSION, block); // didn't compress (ex: random data)
+		int blockLen = BGZF_HEADER_LEN + compressedLen + BGZF_FOOTER_LEN;
+
+		block[0] = 31;
+		block[1] = (byte)139;
+		block[2] = 8;     // deflate
+		block[3] = 4;     // has extra field
+		// mtime (4 bytes), extra flags = 0
+		block[9] = (byte)255; // unknown OS
+		packShort(block, 10, 6);   // XLEN
+		block[12] = 'B';
+		block[13] = 'C';
+		packShort(block, 14, 2);
+		packShort(block, 16, blockLen - 1);
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, len);
+		packInt(block, blockLen - 8, (int)crc.getValue());
+		packInt(block, blockLen - 4, len);
+		return Arrays.copyOf(block, blockLen);
+	}
+
+	/** @return the # of deflated bytes written after the header, or -1 if they don't fit in a block */
+	private static int deflate(byte[] data, int len, int level, byte[] block) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.setInput(data, 0, len);
+			deflater.finish();
+			int max = MAX_BLOCK_LEN - BGZF_HEADER_LEN - BGZF_FOOTER_LEN;
+			int n = deflater.deflate(block, BGZF_HEADER_LEN, max);
+			return deflater.finished() ? n : -1;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static void packShort(byte[] buf, int pos, int value) {
+		buf[pos] = (byte)value;
+		buf[pos+1] = (byte)(value >> 8);
+	}
+
+	private static void packInt(byte[] buf, int pos, int value) {
+		packShort(buf, pos, value);
+		packShort(buf, pos + 2, value >> 16);
+	}
+}
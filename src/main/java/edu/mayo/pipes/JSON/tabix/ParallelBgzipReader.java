@@ -0,0 +1,319 @@
+package edu.mayo.pipes.JSON.tabix;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Sequential reader for bgzip (BGZF) files that inflates the blocks on several threads.
+ * <p>
+ * A bgzip file is a series of independently deflated blocks of up to 64KB, so while the
+ * caller reads one block, the next readAhead blocks are read from the file and inflated
+ * on a pool of numThreads threads.  The blocks are handed back in file order, so this can
+ * be used anywhere a BlockCompressedInputStream is read from start to end (ex: scanning a
+ * whole catalog, building a tabix or key index).  getFilePointer() and readLine() behave the
+ * same as they do in BlockCompressedInputStream.
+ * <p>
+ * The threads are stopped at the end of the file or on close().
+ * Use from one thread at a time (it is not synchronized, unlike BgzipBlockReader).
+ */
+public class ParallelBgzipReader extends InputStream {
+
+	/** # of blocks to inflate ahead of the reader for each thread */
+	public static final int READ_AHEAD_PER_THREAD = 4;
+
+	private static final int BGZF_HEADER_LEN = 12;
+	private static final int BGZF_FOOTER_LEN = 8;
+
+	private File mFile;
+	private DataInputStream mIn;
+	private long mNextAddress = 0;
+	private boolean mIsAllRead = false;
+
+	private ExecutorService mPool;
+	private int mReadAhead;
+	/** Blocks read from the file and being (or done being) inflated, in file order */
+	private LinkedList<Future<Block>> mPending = new LinkedList<Future<Block>>();
+
+	/** Current block and position within it (at the end of the file, the last block) */
+	private Block mBlock = null;
+	private int mOffset = 0;
+	/** The bytes of the line being read */
+	private ByteArrayOutputStream mLine = new ByteArrayOutputStream(1024);
+
+	private static class Block {
+		long address;
+		long nextAddress;
+		byte[] data;
+	}
+
+	/** Inflate on as many threads as there are processors */
+	public ParallelBgzipReader(File bgzipFile) throws IOException {
+		this(bgzipFile, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param bgzipFile  bgzip file to read
+	 * @param numThreads  # of threads to inflate blocks on
+	 */
+	public ParallelBgzipReader(File bgzipFile, int numThreads) throws IOException {
+		if( numThreads < 1 )
+			throw new IllegalArgumentException("numThreads must be at least 1: " + numThreads);
+		mFile = bgzipFile;
+		mIn = new DataInputStream(new BufferedInputStream(new FileInputStream(bgzipFile), 1024 * 1024));
+		mReadAhead = numThreads * READ_AHEAD_PER_THREAD;
+		mPool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "bgzip-inflate");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/** @return true if the file starts with a bgzip block header (false if it is ex: plain gzip or text) */
+	public static boolean isBgzip(File file) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			byte[] header = new byte[BGZF_HEADER_LEN + 4];
+			in.readFully(header);
+			return (header[0] & 0xFF) == 31  &&  (header[1] & 0xFF) == 139  &&  (header[3] & 4) != 0
+				&&  header[12] == 'B'  &&  header[13] == 'C';
+		} catch(IOException e) {
+			return false;
+		} finally {
+			try {
+				if( in != null )
+					in.close();
+			} catch(IOException e) {
+			}
+		}
+	}
+
+	public File getFile() {
+		return mFile;
+	}
+
+	/**
+	 * The virtual file offset of the next byte to be read: (blockAddress << 16) | offsetWithinBlock.
+	 * Same convention as BlockCompressedInputStream: at the end of a block this points
+	 * to the start of the next block.
+	 */
+	public long getFilePointer() {
+		if( mBlock == null )
+			return 0;
+		if( mOffset == mBlock.data.length )
+			return mBlock.nextAddress << 16;
+		return (mBlock.address << 16) | mOffset;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if( ! ensureAvailable() )
+			return -1;
+		return mBlock.data[mOffset++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] buf, int off, int len) throws IOException {
+		if( len == 0 )
+			return 0;
+		if( ! ensureAvailable() )
+			return -1;
+		int n = Math.min(len, mBlock.data.length - mOffset);
+		System.arraycopy(mBlock.data, mOffset, buf, off, n);
+		mOffset += n;
+		return n;
+	}
+
+	/**
+	 * Read the next line.  A line is terminated by '\n', '\r' or "\r\n", and its bytes are
+	 * decoded with the platform's default charset (both the same as BlockCompressedInputStream.readLine()).
+	 * @return the line (without terminator), or null if at the end of the file
+	 */
+	public String readLine() throws IOException {
+		return readLineBytes() ? mLine.toString() : null;
+	}
+
+	/** Same as BgzipBlockReader.readTabixLine(): the lines TabixReader reads, '\n' terminated and one char per byte */
+	String readTabixLine() throws IOException
+	{
+		mLine.reset();
+		while( ensureAvailable() ) {
+			byte[] data = mBlock.data;
+			int start = mOffset;
+			int i = start;
+			while( i < data.length  &&  data[i] != '\n' )
+				i++;
+			mLine.write(data, start, i - start);
+			mOffset = i;
+			if( i < data.length ) {
+				mOffset++;
+				return mLine.toString("ISO-8859-1");
+			}
+		}
+		return null;
+	}
+
+	/** Read the bytes of the next line into mLine.  @return false if at the end of the file */
+	private boolean readLineBytes() throws IOException {
+		mLine.reset();
+		boolean isLine = false;
+		while( ensureAvailable() ) {
+			isLine = true;
+			byte[] data = mBlock.data;
+			int start = mOffset;
+			int i = start;
+			while( i < data.length  &&  data[i] != '\n'  &&  data[i] != '\r' )
+				i++;
+			mLine.write(data, start, i - start);
+			mOffset = i;
+			if( i < data.length ) {
+				mOffset++;
+				if( data[i] == '\r'  &&  ensureAvailable()  &&  mBlock.data[mOffset] == '\n' )
+					mOffset++;
+				return true;
+			}
+		}
+		return isLine;
+	}
+
+	@Override
+	public void close() throws IOException {
+		mPool.shutdownNow();
+		mPending.clear();
+		mIsAllRead = true;
+		mIn.close();
+	}
+
+	/** Make sure there is at least one byte left in the current block, moving past empty blocks as needed.
+	 *  @return false if at the end of the file */
+	private boolean ensureAvailable() throws IOException {
+		while( mBlock == null  ||  mOffset >= mBlock.data.length ) {
+			readAhead();
+			if( mPending.isEmpty() )
+				return false;
+			mBlock = take(mPending.removeFirst());
+			mOffset = 0;
+		}
+		return true;
+	}
+
+	/** Read blocks from the file and queue them to be inflated, until readAhead blocks are queued */
+	private void readAhead() throws IOException {
+		while( ! mIsAllRead  &&  mPending.size() < mReadAhead ) {
+			final Block block = new Block();
+			final byte[] compressed = readCompressed(block);
+			if( compressed == null ) {
+				mIsAllRead = true;
+				mPool.shutdown();
+				mIn.close();
+				break;
+			}
+			mPending.add(mPool.submit(new Callable<Block>() {
+				public Block call() throws IOException {
+					inflate(block, compressed);
+					return block;
+				}
+			}));
+		}
+	}
+
+	private Block take(Future<Block> future) throws IOException {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while inflating " + mFile);
+		} catch(ExecutionException e) {
+			if( e.getCause() instanceof IOException )
+				throw (IOException)e.getCause();
+			throw new IOException("Could not inflate " + mFile + ": " + e.getCause());
+		}
+	}
+
+	/** Read the next block from the file (the rest of it after the header: compressed data + footer).
+	 *  @return null if at the end of the file */
+	private byte[] readCompressed(Block block) throws IOException {
+		byte[] header = new byte[BGZF_HEADER_LEN];
+		int first = mIn.read();
+		if( first == -1 )
+			return null;
+		header[0] = (byte)first;
+		mIn.readFully(header, 1, BGZF_HEADER_LEN - 1);
+		if( (header[0] & 0xFF) != 31  ||  (header[1] & 0xFF) != 139  ||  (header[3] & 4) == 0 )
+			throw new IOException("Not a valid bgzip block at offset " + mNextAddress + " in " + mFile);
+
+		// Find the BSIZE in the "BC" extra subfield
+		int xlen = unpackShort(header, 10);
+		byte[] extra = new byte[xlen];
+		mIn.readFully(extra);
+		int blockSize = -1;
+		for(int i = 0; i + 4 <= xlen; ) {
+			int slen = unpackShort(extra, i + 2);
+			if( extra[i] == 'B'  &&  extra[i+1] == 'C'  &&  slen == 2 ) {
+				blockSize = unpackShort(extra, i + 4) + 1;
+				break;
+			}
+			i += 4 + slen;
+		}
+		if( blockSize == -1 )
+			throw new IOException("Missing BSIZE in bgzip block at offset " + mNextAddress + " in " + mFile);
+
+		byte[] rest = new byte[blockSize - BGZF_HEADER_LEN - xlen];
+		try {
+			mIn.readFully(rest);
+		} catch(EOFException e) {
+			throw new EOFException("Truncated bgzip block at offset " + mNextAddress + " in " + mFile);
+		}
+		block.address = mNextAddress;
+		block.nextAddress = mNextAddress + blockSize;
+		mNextAddress = block.nextAddress;
+		return rest;
+	}
+
+	/** Runs on the pool threads */
+	private void inflate(Block block, byte[] rest) throws IOException {
+		int compressedLen = rest.length - BGZF_FOOTER_LEN;
+		int uncompressedLen = unpackInt(rest, rest.length - 4);
+		block.data = new byte[uncompressedLen];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(rest, 0, compressedLen);
+			int n = 0;
+			while( n < uncompressedLen ) {
+				int inflated = inflater.inflate(block.data, n, uncompressedLen - n);
+				if( inflated == 0  &&  (inflater.finished() || inflater.needsInput()) )
+					throw new EOFException("Truncated bgzip block at offset " + block.address + " in " + mFile);
+				n += inflated;
+			}
+		} catch(DataFormatException e) {
+			throw new IOException("Corrupt bgzip block at offset " + block.address + " in " + mFile + ": " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static int unpackShort(byte[] buf, int pos) {
+		return (buf[pos] & 0xFF) | ((buf[pos+1] & 0xFF) << 8);
+	}
+
+	private static int unpackInt(byte[] buf, int pos) {
+		return (buf[pos] & 0xFF) | ((buf[pos+1] & 0xFF) << 8) | ((buf[pos+2] & 0xFF) << 16) | ((buf[pos+3] & 0xFF) << 24);
+	}
+}
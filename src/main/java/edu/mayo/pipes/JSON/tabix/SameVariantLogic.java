@@ -6,9 +6,15 @@ package edu.mayo.pipes.JSON.tabix;
 
 import com.google.gson.Gson;
 import com.jayway.jsonpath.JsonPath;
+import edu.mayo.pipes.JSON.DrillEngine;
 import edu.mayo.pipes.bioinformatics.vocab.ComparableObjectInterface;
 import edu.mayo.pipes.bioinformatics.vocab.CoreAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import net.minidev.json.JSONArray;
 
 /**
@@ -23,6 +29,17 @@ import net.minidev.json.JSONArray;
         private JsonPath rsIdJsonPath = null;
         private JsonPath refJsonPath = null;
         private JsonPath altJsonPath = null;
+        /** reads the fields above with one parse of each JSON */
+        private DrillEngine inReader = null;
+        private DrillEngine catalogReader = null;
+        private static final int CHR = 0, MINBP = 1, RSID = 2, REF = 3, ALT = 4;
+        private static final String MINBP_KEY = CoreAttributes._minBP.toString();
+
+        // Fields of the last input variant.  TabixParentPipe compares the same input
+        // against every catalog row at the locus, so the input is only parsed once.
+        // Each field holds its value, or the exception reading it threw (thrown when the field is used).
+        private String lastJsonIn = null;
+        private Object[] inFields = new Object[5];
         private Gson gson = new Gson();
         
         public SameVariantLogic(){
@@ -41,6 +58,9 @@ import net.minidev.json.JSONArray;
         	rsIdJsonPath = JsonPath.compile(CoreAttributes._id.toString());
         	refJsonPath = JsonPath.compile(CoreAttributes._refAllele.toString());
         	altJsonPath = JsonPath.compile(CoreAttributes._altAlleles.toString());
+        	List<JsonPath> paths = Arrays.asList(chrJsonPath, minBpJsonPath, rsIdJsonPath, refJsonPath, altJsonPath);
+        	inReader = new DrillEngine(paths);
+        	catalogReader = new DrillEngine(paths);
         }
 
         /**
@@ -51,27 +71,42 @@ import net.minidev.json.JSONArray;
          */
         @Override
         public boolean same(String jsonIn, String jsonCatalog) {
+            cacheInput(jsonIn);
+
             //landmarks must be the same...
-            String chrIn  = chrJsonPath.read(jsonIn);
-            String chrOut = chrJsonPath.read(jsonCatalog);
-            if( ! isGiven(chrIn) || ! chrIn.equalsIgnoreCase(chrOut)){
-                return false;        
+            String chrIn = inField(CHR);
+            if( ! isGiven(chrIn) ){
+                return false;
             }
-            
+
             //minbp must be the same
-            Integer minBpIn  = minBpJsonPath.read(jsonIn);
-            Integer minBpOut = minBpJsonPath.read(jsonCatalog);
+            Integer minBpIn = inField(MINBP);
+            if( minBpIn == null ) {
+                return false;
+            }
+            // cheap check on the catalog's minbp before parsing the whole JSON
+            Long minBpScanned = scanTopLevelLong(jsonCatalog, MINBP_KEY);
+            if( minBpScanned != null && minBpScanned.longValue() != minBpIn.longValue() ) {
+                return false;
+            }
+
+            catalogReader.parse(jsonCatalog);
+            String chrOut = catalogReader.read(CHR);
+            if( ! chrIn.equalsIgnoreCase(chrOut)){
+                return false;        
+            }
+            Integer minBpOut = catalogReader.read(MINBP);
             //System.out.println(minbpIN + ":" + minbpOUT);
-            if( minBpIn == null || minBpIn.compareTo(minBpOut) != 0) {
+            if( minBpIn.compareTo(minBpOut) != 0) {
                 return false;
             }
             
-            String rsIdIn  = rsIdJsonPath.read(jsonIn);
-            String rsIdOut = rsIdJsonPath.read(jsonCatalog);
-            String refIn   = refJsonPath.read(jsonIn);
-            String refOut  = refJsonPath.read(jsonCatalog);
-            ArrayList<String> altsIn   = toList((JSONArray)altJsonPath.read(jsonIn));
-            ArrayList<String> altsOut  = toList((JSONArray)altJsonPath.read(jsonCatalog));
+            String rsIdIn  = inField(RSID);
+            String rsIdOut = catalogReader.read(RSID);
+            String refIn   = inField(REF);
+            String refOut  = catalogReader.read(REF);
+            ArrayList<String> altsIn = inField(ALT);
+            Set<String> altsOut = toSet((JSONArray)catalogReader.read(ALT));
             boolean isRsIdMatch = isGiven(rsIdIn) && rsIdIn.equalsIgnoreCase(rsIdOut);
             boolean isRefAlleleMatch = isGiven(refIn) && refIn.equalsIgnoreCase(refOut);
             boolean isAltAlleleMatch = isGiven(altsIn) && isSubset(altsIn, altsOut);
@@ -85,6 +120,80 @@ import net.minidev.json.JSONArray;
             }
         }
         
+        /** Parse the input variant's fields, unless it is the same input as last time */
+        private void cacheInput(String jsonIn) {
+            if( jsonIn.equals(lastJsonIn) )
+                return;
+            lastJsonIn = null;
+            inReader.parse(jsonIn);
+            for(int i=0; i < inFields.length; i++) {
+                try {
+                    Object o = inReader.read(i);
+                    inFields[i] = (i == ALT) ? toList((JSONArray)o) : o;
+                } catch(RuntimeException e) {
+                    inFields[i] = e;
+                }
+            }
+            lastJsonIn = jsonIn;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> T inField(int i) {
+            Object o = inFields[i];
+            if( o instanceof RuntimeException )
+                throw (RuntimeException)o;
+            return (T)o;
+        }
+
+        /**
+         * Find an integer value for a key in the top level of a JSON object without parsing the JSON.
+         * Keys inside nested objects/arrays and inside strings are skipped.
+         * @return the value, or null if the key is not found (or its value is not a plain integer)
+         */
+        static Long scanTopLevelLong(String json, String key) {
+            int depth = 0;
+            int len = json.length();
+            for(int i = 0; i < len; i++) {
+                char c = json.charAt(i);
+                if( c == '"' ) {
+                    int start = i + 1;
+                    // find the end of the string (skipping escaped chars)
+                    for(i = start; i < len && json.charAt(i) != '"'; i++) {
+                        if( json.charAt(i) == '\\' )
+                            i++;
+                    }
+                    if( depth != 1 || i - start != key.length() || ! json.regionMatches(start, key, 0, key.length()) )
+                        continue;
+                    // make sure it is a key (followed by ':')
+                    int j = i + 1;
+                    while( j < len && Character.isWhitespace(json.charAt(j)) )
+                        j++;
+                    if( j >= len || json.charAt(j) != ':' )
+                        continue;
+                    j++;
+                    while( j < len && Character.isWhitespace(json.charAt(j)) )
+                        j++;
+                    int numStart = j;
+                    if( j < len && json.charAt(j) == '-' )
+                        j++;
+                    while( j < len && Character.isDigit(json.charAt(j)) )
+                        j++;
+                    if( j == numStart || (j < len && (json.charAt(j) == '.' || json.charAt(j) == 'e' || json.charAt(j) == 'E')) )
+                        return null;
+                    try {
+                        return Long.valueOf(json.substring(numStart, j));
+                    } catch(NumberFormatException e) {
+                        return null;
+                    }
+                } else if( c == '{' || c == '[' ) {
+                    depth++;
+                } else if( c == '}' || c == ']' ) {
+                    depth--;
+                }
+            }
+            return null;
+        }
+
         /** Not null, not blank (len=0 after a trim), and not equal to "." */
         private boolean isGiven(String s) {
         	return s != null && s.trim().length() > 0 && ! ".".equals(s.trim());
@@ -103,19 +212,30 @@ import net.minidev.json.JSONArray;
         }
         
         /** Make sure all items in altsIn are contained within altsOut */
-        public boolean isSubset(ArrayList<String> subset, ArrayList<String> allItems) {
+        public boolean isSubset(Collection<String> subset, Collection<String> allItems) {
+        	Set<String> all = (allItems instanceof Set) ? (Set<String>)allItems : new HashSet<String>(allItems);
         	for(String item : subset) {
-        		if(! allItems.contains(item))
+        		if(! all.contains(item))
         			return false;
         	}
         	return true;
         }
         
         public ArrayList<String> toList(JSONArray jsonArray) {
+        	if( jsonArray == null )
+        		return null;
         	ArrayList<String> list = new ArrayList<String>();
         	for(int i=0; i < jsonArray.size(); i++) 
         		list.add((String)jsonArray.get(i));
 			return list;
         }
+
+        public Set<String> toSet(JSONArray jsonArray) {
+        	Set<String> set = new HashSet<String>();
+        	if( jsonArray != null ) {
+        		for(int i=0; i < jsonArray.size(); i++) 
+        			set.add((String)jsonArray.get(i));
+        	}
+			return set;
+        }
     }
-    
@@ -5,7 +5,9 @@
 package edu.mayo.pipes.JSON.tabix;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -34,6 +36,9 @@ public class TabixParentPipe extends AbstractPipe<History, History>{
     protected boolean isFirst = true;
     protected ComparableObjectInterface comparableObject;
     protected int historyPos = -1; //position in the history to look for the input to the transform (default the last column)
+    private int batchSize = 1;
+    /** Histories read ahead of the current one, whose queries have been prefetched */
+    private LinkedList<History> batch = new LinkedList<History>();
 
     public TabixParentPipe(String tabixDataFile) throws IOException {
         init(tabixDataFile);
@@ -57,10 +62,111 @@ public class TabixParentPipe extends AbstractPipe<History, History>{
         comparableObject = new FilterLogic();
     }
     
+    /**
+     * Cache inflated blocks of the catalog.  On coordinate-sorted input consecutive
+     * queries mostly hit the same blocks, which then don't have to be inflated again.
+     * @param blockCacheBytes  max # of uncompressed bytes to cache (0 = no cache)
+     * @throws IOException
+     */
+    public void setBlockCacheSize(long blockCacheBytes) throws IOException {
+        search.setBlockCacheSize(blockCacheBytes);
+    }
+
+    /**
+     * Set this when the input rows are sorted by landmark and position.  The catalog
+     * is then streamed forward alongside the input (a merge join) instead of doing an
+     * indexed seek for every row.  If the input jumps to another landmark or goes
+     * backwards it falls back to seeking with the index, so unsorted input still works.
+     * @param isSorted  true if the input is in coordinate-sorted order
+     */
+    public void setSortedInput(boolean isSorted) {
+        search.setSortedInput(isSorted);
+    }
+
+    /**
+     * Load the whole catalog into memory, for small catalogs (ex: genes, exons) that are
+     * queried for every row.  The queries (including any minBP/maxBP extension) are then
+     * answered without any disk reads.  The loaded catalog is shared with the other pipes
+     * that load the same file.
+     * @param isInMemory  true to load the catalog, false to query the file again
+     * @throws IOException
+     */
+    public void setInMemory(boolean isInMemory) throws IOException {
+        search.setInMemory(isInMemory);
+    }
+    
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the # of input histories whose queries are run together.  With a batch size
+     * greater than 1 the histories are read ahead and their regions are queried at once
+     * (see TabixReader.batchQuery()), so nearby regions read and inflate each block only once.
+     * The output is the same, in the same order.  Not used with sorted input or in-memory catalogs.
+     * @param batchSize  # of histories per batch (1 = query each history as it arrives)
+     */
+    public void setBatchSize(int batchSize) {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be 1 or greater: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /** The next input history, reading (and prefetching the queries for) the next batch when needed */
+    private History nextHistory() throws NoSuchElementException {
+        if(batchSize == 1){
+            return this.starts.next();
+        }
+        if(batch.isEmpty()){
+            while(batch.size() < batchSize && this.starts.hasNext()){
+                batch.add(this.starts.next());
+            }
+            if(batch.isEmpty()){
+                throw new NoSuchElementException();
+            }
+            prefetch();
+        }
+        return batch.removeFirst();
+    }
+
+    private void prefetch() {
+        // historyPos is only made relative to the end after the first history is read
+        List<String> jsons = new ArrayList<String>();
+        for(History h : batch){
+            int pos = historyPos > 0 ? historyPos - 1 : h.size() + historyPos;
+            if(pos >= 0 && pos < h.size()){
+                jsons.add(h.get(pos));
+            }
+        }
+        try {
+            search.prefetch(jsons);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not query the catalog: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Answer the queries from the catalog's records file (see CatalogRecords), if it has one,
+     * so only the json of the matching lines is read.  The output is the same.
+     * @param isUseRecords  true to use the records file if there is one
+     * @return true if the records file is used
+     * @throws IOException
+     */
+    public boolean setUseRecords(boolean isUseRecords) throws IOException {
+        return search.setUseRecords(isUseRecords);
+    }
+
+    /**
+     * Close the catalog.  The pipe can not be used after this.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        search.close();
+    }
+
     protected History copyAppend(History history, String result){
-		History clone = (History) history.clone();
-		clone.add(result);    	
-		return clone;    
+		return history.cloneAndAppend(result);
     }
     
     protected void setup(){
@@ -68,7 +174,7 @@ public class TabixParentPipe extends AbstractPipe<History, History>{
         if(isFirst){
             isFirst = false;
             //get the history
-            history = this.starts.next();
+            history = nextHistory();
 
             //handle the case where the drill column is greater than zero...
             if(historyPos > 0){
@@ -124,7 +230,7 @@ public class TabixParentPipe extends AbstractPipe<History, History>{
 	                History newHist = copyAppend(history,"{}"); //return empty result
 	                return newHist; 
 	            }else {//we did have at least one result (perhaps empty).. and they are all done
-	                history = this.starts.next();
+	                history = nextHistory();
 	                //reset the pipeline for the search query
 	                search.reset();
 	                String jsonWithPosInfo = history.get(history.size()+historyPos);
@@ -41,16 +41,22 @@ package edu.mayo.pipes.JSON.tabix;
 import net.sf.samtools.util.BlockCompressedInputStream;
 
 import java.io.*;
+import java.lang.ref.SoftReference;
 import java.nio.*;
 import java.util.HashMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
 import java.lang.StringBuffer;
 
 public class TabixReader
 {
 	protected String mFn;
 	protected BlockCompressedInputStream mFp;
+	/** Optional reader that keeps recently inflated blocks in memory (null = not caching) */
+	protected BgzipBlockReader mCachedFp = null;
 
 	protected int mPreset;
 	protected int mSc;
@@ -82,15 +88,74 @@ public class TabixReader
 		}
 	};
 
-	protected class TIndex {
-		HashMap<Integer, TPair64[]> b; // binning index
+	/**
+	 * The index of one sequence, in primitive arrays (no boxed bin #s or object per chunk).
+	 * Never changed once read, so it can be shared between readers and threads.
+	 */
+	protected static class TIndex {
+		int[] bins; // binning index: the bin #s, sorted
+		int[] binChunks; // the chunks of bins[i] are binChunks[i] .. binChunks[i+1]-1
+		long[] chunkBeg, chunkEnd; // the chunks' virtual file offsets
 		long[] l; // linear index
+
+		/** @return the index of the bin in bins, or -1 if it has no chunks */
+		int findBin(final int bin) {
+			int i = Arrays.binarySearch(bins, bin);
+			return i < 0? -1 : i;
+		}
 	};
 
+	/** Everything read from a .tbi file */
+	protected static class TIndexFile {
+		int preset, sc, bc, ec, meta, skip;
+		String[] seq;
+		HashMap<String, Integer> chr2tid;
+		TIndex[] index;
+	};
+
+	/** Indexes already read, shared by all readers of the same (unchanged) .tbi file */
+	private static final HashMap<String, SoftReference<TIndexFile>> sIndexCache = new HashMap<String, SoftReference<TIndexFile>>();
+
 	protected class TIntv {
 		int tid, beg, end, bin;
 	};
 
+	/** A catalog line along with its parsed interval */
+	protected class TRecord {
+		TIntv intv;
+		String line;
+		public TRecord(final TIntv _intv, final String _line) {
+			intv = _intv; line = _line;
+		}
+	};
+
+	// State for sortedQuery(): a forward-only scan over the data file plus a sliding
+	// window of the records that could still overlap the current (or a later) query
+	protected BgzipBlockReader mScanFp = null;
+	protected int mScanTid = -1;
+	protected int mScanBeg = -1;
+	protected boolean mScanDone = true;
+	protected TRecord mScanPending = null;
+	protected LinkedList<TRecord> mScanWindow = new LinkedList<TRecord>();
+	protected int mScanSeeks = 0;
+
+	/** The whole catalog, per sequence, when it was loaded into memory (null = query the file) */
+	protected TMemSeq[] mMemory = null;
+	protected int[] mMemBins = null;
+
+	/** Catalogs already loaded into memory, shared by all readers of the same (unchanged) file */
+	private static final HashMap<String, SoftReference<TMemSeq[]>> sMemoryCache = new HashMap<String, SoftReference<TMemSeq[]>>();
+
+	/**
+	 * The records of one sequence, in file order, binned the same way as the tabix index.
+	 * Never changed once built, so it can be shared between readers and threads.
+	 */
+	protected static class TMemSeq {
+		String[] lines;
+		int[] beg, end;
+		HashMap<Integer, int[]> bins; // bin -> indexes of its records, in file order
+	};
+
 	private static boolean less64(final long u, final long v) { // unsigned 64-bit comparison
 		return (u < v) ^ (u < 0) ^ (v < 0);
 	}
@@ -101,9 +166,83 @@ public class TabixReader
 	 * @param fn File name of the data file
 	 */
 	public TabixReader(final String fn) throws IOException {
+		this(fn, true);
+	}
+
+	/**
+	 * @param fn File name of the data file
+	 * @param isReadIndex false if the index does not exist yet (ex: TabixWriter, which creates it)
+	 */
+	protected TabixReader(final String fn, final boolean isReadIndex) throws IOException {
 		mFn = fn;
 		mFp = new BlockCompressedInputStream(new File(fn));
-		readIndex();
+		if (isReadIndex)
+			readIndex();
+	}
+
+	/**
+	 * The constructor, with a cache of inflated BGZF blocks.  Useful when consecutive
+	 * queries hit the same blocks again (ex: coordinate-sorted input).
+	 *
+	 * @param fn File name of the data file
+	 * @param blockCacheBytes Max # of uncompressed bytes to cache (0 = no cache)
+	 */
+	public TabixReader(final String fn, final long blockCacheBytes) throws IOException {
+		this(fn);
+		setBlockCacheSize(blockCacheBytes);
+	}
+
+	/**
+	 * Turn the cache of inflated BGZF blocks on or off.
+	 *
+	 * @param blockCacheBytes Max # of uncompressed bytes to cache (0 = no cache)
+	 */
+	public void setBlockCacheSize(final long blockCacheBytes) throws IOException {
+		if (mCachedFp != null) {
+			mCachedFp.close();
+			mCachedFp = null;
+		}
+		if (blockCacheBytes > 0)
+			mCachedFp = new BgzipBlockReader(new File(mFn), blockCacheBytes);
+	}
+
+	/**
+	 * Close the data file, and the extra readers opened for the block cache and sortedQuery().
+	 * The reader can not be used after this.
+	 */
+	public void close() throws IOException {
+		mFp.close();
+		if (mCachedFp != null) {
+			mCachedFp.close();
+			mCachedFp = null;
+		}
+		if (mScanFp != null) {
+			mScanFp.close();
+			mScanFp = null;
+		}
+	}
+
+	/** # of block reads served from the block cache (0 if the cache is off) */
+	public long getBlockCacheHits() {
+		return mCachedFp == null ? 0 : mCachedFp.getCacheHits();
+	}
+
+	/** # of blocks that had to be read and inflated while the block cache was on */
+	public long getBlockCacheMisses() {
+		return mCachedFp == null ? 0 : mCachedFp.getCacheMisses();
+	}
+
+	private void seekData(final long off) throws IOException {
+		if (mCachedFp != null) mCachedFp.seek(off);
+		else mFp.seek(off);
+	}
+
+	private long getDataFilePointer() {
+		return mCachedFp != null? mCachedFp.getFilePointer() : mFp.getFilePointer();
+	}
+
+	private String readDataLine() throws IOException {
+		return mCachedFp != null? mCachedFp.readTabixLine() : readLine(mFp);
 	}
 
 	private static int reg2bins(final int beg, final int _end, final int[] list) {
@@ -120,6 +259,16 @@ public class TabixReader
 		return i;
 	}
 
+	private static int reg2bin(final int beg, final int _end) {
+		int end = _end - 1;
+		if (beg>>14 == end>>14) return 4681 + (beg>>14);
+		if (beg>>17 == end>>17) return  585 + (beg>>17);
+		if (beg>>20 == end>>20) return   73 + (beg>>20);
+		if (beg>>23 == end>>23) return    9 + (beg>>23);
+		if (beg>>26 == end>>26) return    1 + (beg>>26);
+		return 0;
+	}
+
 	public static int readInt(final InputStream is) throws IOException {
 		byte[] buf = new byte[4];
 		is.read(buf);
@@ -142,62 +291,110 @@ public class TabixReader
 	}
 
 	/**
-	 * Read the Tabix index from a file
+	 * Read the Tabix index from a file.  The index is read once per process (while the file
+	 * is unchanged) and shared with every other reader of the same file.
 	 *
 	 * @param fp File pointer
 	 */
 	public void readIndex(final File fp) throws IOException {
 		if (fp == null) return;
-		BlockCompressedInputStream is = new BlockCompressedInputStream(fp);
-		byte[] buf = new byte[4];
+		String key = fp.getCanonicalPath() + ":" + fp.lastModified() + ":" + fp.length();
+		TIndexFile idx;
+		synchronized (sIndexCache) {
+			SoftReference<TIndexFile> ref = sIndexCache.get(key);
+			idx = ref == null? null : ref.get();
+			if (idx == null) {
+				idx = loadIndex(fp);
+				sIndexCache.put(key, new SoftReference<TIndexFile>(idx));
+			}
+		}
+		mPreset = idx.preset;
+		mSc = idx.sc;
+		mBc = idx.bc;
+		mEc = idx.ec;
+		mMeta = idx.meta;
+		mSkip = idx.skip;
+		mSeq = idx.seq;
+		mChr2tid = idx.chr2tid;
+		mIndex = idx.index;
+	}
 
-		is.read(buf, 0, 4); // read "TBI\1"
-		mSeq = new String[readInt(is)]; // # sequences
-		mChr2tid = new HashMap<String, Integer>();
-		mPreset = readInt(is);
-		mSc = readInt(is);
-		mBc = readInt(is);
-		mEc = readInt(is);
-		mMeta = readInt(is);
-		mSkip = readInt(is);
+	/** Inflate the whole .tbi file at once, then parse it from memory */
+	private static TIndexFile loadIndex(final File fp) throws IOException {
+		BlockCompressedInputStream is = new BlockCompressedInputStream(fp);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream((int)Math.min(Integer.MAX_VALUE, fp.length() * 4));
+		try {
+			byte[] buf = new byte[64 * 1024];
+			int n;
+			while ((n = is.read(buf)) > 0)
+				bytes.write(buf, 0, n);
+		} finally {
+			is.close();
+		}
+		ByteBuffer bb = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+
+		TIndexFile idx = new TIndexFile();
+		bb.getInt(); // "TBI\1"
+		idx.seq = new String[bb.getInt()]; // # sequences
+		idx.chr2tid = new HashMap<String, Integer>();
+		idx.preset = bb.getInt();
+		idx.sc = bb.getInt();
+		idx.bc = bb.getInt();
+		idx.ec = bb.getInt();
+		idx.meta = bb.getInt();
+		idx.skip = bb.getInt();
 		// read sequence dictionary
-		int i, j, k, l = readInt(is);
-		buf = new byte[l];
-		is.read(buf);
+		int i, j, k, l = bb.getInt();
+		byte[] buf = new byte[l];
+		bb.get(buf);
 		for (i = j = k = 0; i < buf.length; ++i) {
 			if (buf[i] == 0) {
-				byte[] b = new byte[i - j];
-				System.arraycopy(buf, j, b, 0, b.length);
-				String s = new String(b);
-				mChr2tid.put(s, k);
-				mSeq[k++] = s;
+				String s = new String(buf, j, i - j);
+				idx.chr2tid.put(s, k);
+				idx.seq[k++] = s;
 				j = i + 1;
 			}
 		}
 		// read the index
-		mIndex = new TIndex[mSeq.length];
-		for (i = 0; i < mSeq.length; ++i) {
-			// the binning index
-			int n_bin = readInt(is);
-			mIndex[i] = new TIndex();
-			mIndex[i].b = new HashMap<Integer, TPair64[]>();
+		idx.index = new TIndex[idx.seq.length];
+		for (i = 0; i < idx.seq.length; ++i) {
+			// the binning index: read the bins where they are, then put them in order
+			int n_bin = bb.getInt();
+			long[] order = new long[n_bin]; // (bin << 32) | where the bin's chunk count is in the buffer
+			int n_chunk = 0;
+			for (j = 0; j < n_bin; ++j) {
+				int bin = bb.getInt();
+				order[j] = ((long)bin << 32) | bb.position();
+				int n = bb.getInt();
+				n_chunk += n;
+				bb.position(bb.position() + n * 16);
+			}
+			Arrays.sort(order);
+			TIndex t = new TIndex();
+			t.bins = new int[n_bin];
+			t.binChunks = new int[n_bin + 1];
+			t.chunkBeg = new long[n_chunk];
+			t.chunkEnd = new long[n_chunk];
+			int end = bb.position(), c = 0;
 			for (j = 0; j < n_bin; ++j) {
-				int bin = readInt(is);
-				TPair64[] chunks = new TPair64[readInt(is)];
-				for (k = 0; k < chunks.length; ++k) {
-					long u = readLong(is);
-					long v = readLong(is);
-					chunks[k] = new TPair64(u, v); // in C, this is inefficient
+				t.bins[j] = (int)(order[j] >>> 32);
+				t.binChunks[j] = c;
+				bb.position((int)order[j]);
+				int n = bb.getInt();
+				for (k = 0; k < n; ++k, ++c) {
+					t.chunkBeg[c] = bb.getLong();
+					t.chunkEnd[c] = bb.getLong();
 				}
-				mIndex[i].b.put(bin, chunks);
 			}
+			t.binChunks[n_bin] = c;
+			bb.position(end);
 			// the linear index
-			mIndex[i].l = new long[readInt(is)];
-			for (k = 0; k < mIndex[i].l.length; ++k)
-				mIndex[i].l[k] = readLong(is);
+			t.l = new long[bb.getInt()];
+			for (k = 0; k < t.l.length; ++k)
+				t.l[k] = bb.getLong();
+			idx.index[i] = t;
 		}
-		// close
-		is.close();
+		return idx;
 	}
 
 	/**
@@ -211,7 +408,7 @@ public class TabixReader
 	 * Read one line from the data file.
 	 */
 	public String readLine() throws IOException {
-		return readLine(mFp);
+		return readDataLine();
 	}
 
 	protected int chr2tid(final String chr) {
@@ -300,30 +497,38 @@ public class TabixReader
 		private TPair64[] off;
 		private long curr_off;
 		private boolean iseof;
+		private java.util.Iterator<String> lines = null;
 
 		public Iterator(final int _tid, final int _beg, final int _end, final TPair64[] _off) {
 			i = -1; n_seeks = 0; curr_off = 0; iseof = false;
 			off = _off; tid = _tid; beg = _beg; end = _end;
 		}
 
+		/** An iterator over lines that were already found (used by sortedQuery) */
+		protected Iterator(final List<String> _lines) {
+			this(-1, 0, 0, null);
+			lines = _lines.iterator();
+		}
+
 		public String next() throws IOException {
+			if (lines != null) return lines.hasNext()? lines.next() : null;
 			if (iseof) return null;
 			for (;;) {
 				if (curr_off == 0 || !less64(curr_off, off[i].v)) { // then jump to the next chunk
 					if (i == off.length - 1) break; // no more chunks
 					if (i >= 0) assert(curr_off == off[i].v); // otherwise bug
 					if (i < 0 || off[i].v != off[i+1].u) { // not adjacent chunks; then seek
-						mFp.seek(off[i+1].u);
-						curr_off = mFp.getFilePointer();
+						seekData(off[i+1].u);
+						curr_off = getDataFilePointer();
 						++n_seeks;
 					}
 					++i;
 				}
 				String s;
-				if ((s = readLine(mFp)) != null) {
+				if ((s = readDataLine()) != null) {
 					TIntv intv;
 					char[] str = s.toCharArray();
-					curr_off = mFp.getFilePointer();
+					curr_off = getDataFilePointer();
 					if (str.length == 0 || str[0] == mMeta) continue;
 					intv = getIntv(s);
 					if (intv.tid != tid || intv.beg >= end) break; // no need to proceed
@@ -336,25 +541,33 @@ public class TabixReader
 	};
 
 	public Iterator query(final int tid, final int beg, final int end) {
-		TPair64[] off, chunks;
+		if (mMemory != null) return memoryQuery(tid, beg, end);
+		TPair64[] off = queryChunks(tid, beg, end);
+		if (off == null) return null;
+		return new TabixReader.Iterator(tid, beg, end, off);
+	}
+
+	/** The (merged) chunks of the data file that have the records overlapping the region, or null if none */
+	private TPair64[] queryChunks(final int tid, final int beg, final int end) {
+		TPair64[] off;
 		long min_off;
 		TIndex idx = mIndex[tid];
 		int[] bins = new int[MAX_BIN];
-		int i, l, n_off, n_bins = reg2bins(beg, end, bins);
+		int i, l, b, n_off, n_bins = reg2bins(beg, end, bins);
 		if (idx.l.length > 0)
 			min_off = (beg>>TAD_LIDX_SHIFT >= idx.l.length)? idx.l[idx.l.length-1] : idx.l[beg>>TAD_LIDX_SHIFT];
 		else min_off = 0;
 		for (i = n_off = 0; i < n_bins; ++i) {
-			if ((chunks = idx.b.get(bins[i])) != null)
-				n_off += chunks.length;
+			if ((b = idx.findBin(bins[i])) >= 0)
+				n_off += idx.binChunks[b+1] - idx.binChunks[b];
 		}
 		if (n_off == 0) return null;
 		off = new TPair64[n_off];
 		for (i = n_off = 0; i < n_bins; ++i)
-			if ((chunks = idx.b.get(bins[i])) != null)
-				for (int j = 0; j < chunks.length; ++j)
-					if (less64(min_off, chunks[j].v))
-						off[n_off++] = new TPair64(chunks[j]);
+			if ((b = idx.findBin(bins[i])) >= 0)
+				for (int j = idx.binChunks[b]; j < idx.binChunks[b+1]; ++j)
+					if (less64(min_off, idx.chunkEnd[j]))
+						off[n_off++] = new TPair64(idx.chunkBeg[j], idx.chunkEnd[j]);
 		if (n_off == 0) return null;
 		Arrays.sort(off, 0, n_off);
 		// resolve completely contained adjacent blocks
@@ -381,9 +594,308 @@ public class TabixReader
 		// return
 		TPair64[] ret = new TPair64[n_off];
 		for (i = 0; i < n_off; ++i) ret[i] = new TPair64(off[i].u, off[i].v); // in C, this is inefficient
-		return new TabixReader.Iterator(tid, beg, end, ret);
+		return ret;
+	}
+
+	/**
+	 * Same results as query() for each of many regions (ex: all the variants in a window, or
+	 * the targets of a BED file), but the regions share the reads: the chunks of all of the
+	 * regions on a sequence are merged, each chunk is read once in file order (so each block is
+	 * inflated at most once), and each record is given to every region that it overlaps.
+	 *
+	 * @param regions tabix-style regions (ex: "17:41196312-41277500"), in any order
+	 * @return the records overlapping each region, in the same order as the regions
+	 * (empty if there are none, or the sequence is not in the index)
+	 */
+	public List<List<String>> batchQuery(final List<String> regions) throws IOException {
+		final int n = regions.size();
+		final int[][] reg = new int[n][];
+		List<List<String>> results = new ArrayList<List<String>>(n);
+		for (int r = 0; r < n; ++r) {
+			reg[r] = parseReg(regions.get(r));
+			results.add(new ArrayList<String>());
+		}
+		if (mMemory != null) {
+			for (int r = 0; r < n; ++r) {
+				Iterator it = memoryQuery(reg[r][0], reg[r][1], reg[r][2]);
+				String s;
+				while ((s = it.next()) != null) results.get(r).add(s);
+			}
+			return results;
+		}
+
+		// The regions by sequence, then start
+		Integer[] order = new Integer[n];
+		for (int r = 0; r < n; ++r) order[r] = r;
+		Arrays.sort(order, new java.util.Comparator<Integer>() {
+			public int compare(final Integer a, final Integer b) {
+				if (reg[a][0] != reg[b][0]) return reg[a][0] < reg[b][0]? -1 : 1;
+				return reg[a][1] < reg[b][1]? -1 : (reg[a][1] == reg[b][1]? 0 : 1);
+			}
+		});
+
+		BgzipBlockReader fp = mCachedFp != null? mCachedFp : new BgzipBlockReader(new File(mFn), 4 * 64 * 1024);
+		try {
+			for (int first = 0, last; first < n; first = last) {
+				final int tid = reg[order[first]][0];
+				for (last = first; last < n && reg[order[last]][0] == tid; ++last);
+				if (tid < 0 || tid >= mIndex.length) continue;
+				batchQuery(fp, tid, reg, order, first, last, results);
+			}
+		} finally {
+			if (fp != mCachedFp) fp.close();
+		}
+		return results;
+	}
+
+	/** batchQuery() for the regions order[first] .. order[last-1], which are all on sequence tid */
+	private void batchQuery(final BgzipBlockReader fp, final int tid, final int[][] reg, final Integer[] order,
+			final int first, final int last, final List<List<String>> results) throws IOException {
+		// The chunks of all of the regions, in file order, with any that overlap (or share a block) merged
+		List<TPair64> all = new ArrayList<TPair64>();
+		int maxEnd = 0;
+		for (int i = first; i < last; ++i) {
+			int[] x = reg[order[i]];
+			if (x[1] >= x[2]) continue;
+			maxEnd = Math.max(maxEnd, x[2]);
+			TPair64[] chunks = queryChunks(tid, x[1], x[2]);
+			if (chunks != null) all.addAll(Arrays.asList(chunks));
+		}
+		if (all.isEmpty()) return;
+		Collections.sort(all);
+		List<TPair64> merged = new ArrayList<TPair64>();
+		TPair64 cur = all.get(0);
+		for (int i = 1; i < all.size(); ++i) {
+			TPair64 next = all.get(i);
+			if (!less64(cur.v, next.u) || cur.v>>16 == next.u>>16) {
+				if (less64(cur.v, next.v)) cur.v = next.v;
+			} else {
+				merged.add(cur);
+				cur = next;
+			}
+		}
+		merged.add(cur);
+
+		// Read the chunks in order; the records then come in order of their start, so a region
+		// can be dropped once a record starts at or after its end
+		LinkedList<Integer> active = new LinkedList<Integer>();
+		int next = first; // the next region to become active
+		for (TPair64 chunk : merged) {
+			fp.seek(chunk.u);
+			while (less64(fp.getFilePointer(), chunk.v)) {
+				String s = fp.readTabixLine();
+				if (s == null) break;
+				if (s.length() == 0 || s.charAt(0) == mMeta) continue;
+				TIntv intv = getIntv(s);
+				if (intv.tid != tid || intv.beg >= maxEnd) break; // no need to proceed
+				while (next < last && reg[order[next]][1] < intv.end) {
+					if (reg[order[next]][1] < reg[order[next]][2]) active.add(order[next]);
+					++next;
+				}
+				java.util.Iterator<Integer> it = active.iterator();
+				while (it.hasNext()) {
+					int r = it.next();
+					if (reg[r][2] <= intv.beg) it.remove(); // no later record can overlap it
+					else if (reg[r][1] < intv.end) results.get(r).add(s);
+				}
+			}
+		}
 	}
 	
+	/**
+	 * Same results as query(), but for callers whose queries come in coordinate-sorted
+	 * order (like the catalogs).  Instead of seeking for each query, the data file is
+	 * scanned forward once while keeping a sliding window of the records that could
+	 * still overlap.  If a query moves to another sequence or goes backwards, the scan
+	 * falls back to the index to seek to the new position.
+	 * <p>
+	 * NOTE: the returned iterator holds all of the matches; it does not need to be
+	 * consumed before the next call.
+	 */
+	public Iterator sortedQuery(final int tid, final int beg, final int end) throws IOException {
+		if (mMemory != null) return memoryQuery(tid, beg, end);
+		List<String> matches = new ArrayList<String>();
+		if (tid < 0 || tid >= mIndex.length || beg >= end)
+			return new TabixReader.Iterator(matches);
+		if (tid != mScanTid || beg < mScanBeg) // jumped to another sequence or went backwards; use the index
+			scanSeek(tid, beg);
+		mScanBeg = beg;
+
+		// drop records that end before this query, as they can't overlap any later query either
+		java.util.Iterator<TRecord> it = mScanWindow.iterator();
+		while (it.hasNext())
+			if (it.next().intv.end <= beg) it.remove();
+
+		// read forward until we pass the end of this query
+		while (!mScanDone) {
+			if (mScanPending == null) {
+				String s = mScanFp.readTabixLine();
+				if (s == null) { mScanDone = true; break; }
+				if (s.length() == 0 || s.charAt(0) == mMeta) continue;
+				TIntv intv = getIntv(s);
+				if (intv.tid != tid) {
+					if (intv.tid > tid) mScanDone = true; // past the end of the sequence
+					continue;
+				}
+				mScanPending = new TRecord(intv, s);
+			}
+			if (mScanPending.intv.beg >= end) break; // not needed yet
+			if (mScanPending.intv.end > beg) mScanWindow.add(mScanPending);
+			mScanPending = null;
+		}
+
+		for (TRecord rec : mScanWindow)
+			if (rec.intv.end > beg && rec.intv.beg < end) matches.add(rec.line);
+		return new TabixReader.Iterator(matches);
+	}
+
+	public Iterator sortedQuery(final String reg) throws IOException {
+		int[] x = parseReg(reg);
+		return sortedQuery(x[0], x[1], x[2]);
+	}
+
+	/** # of times sortedQuery() had to use the index to seek (new sequence, or the input went backwards) */
+	public int getSortedQuerySeeks() {
+		return mScanSeeks;
+	}
+
+	/** Restart the forward scan at the first record that could overlap position beg on sequence tid */
+	private void scanSeek(final int tid, final int beg) throws IOException {
+		if (mScanFp == null)
+			mScanFp = new BgzipBlockReader(new File(mFn), 0);
+		mScanWindow.clear();
+		mScanPending = null;
+		mScanTid = tid;
+		mScanDone = false;
+		++mScanSeeks;
+
+		// The linear index gives the offset of the first record overlapping each 16kb window.
+		// Any record overlapping beg (or any later position) is at or after that offset.
+		// Windows with no records may be 0; then use the next window that has records.
+		long[] l = mIndex[tid].l;
+		int w = beg >> TAD_LIDX_SHIFT;
+		if (w >= l.length) w = l.length - 1;
+		long start = -1;
+		if (w >= 0 && l[w] != 0) start = l[w];
+		else if (tid == 0) start = 0; // the first sequence may legitimately start at offset 0
+		else for (int k = Math.max(w, 0); k < l.length && start == -1; ++k)
+			if (l[k] != 0) start = l[k];
+
+		if (start == -1) mScanDone = true; // nothing left on this sequence
+		else mScanFp.seek(start);
+	}
+
+	/**
+	 * Load the whole catalog into memory, so that query() and sortedQuery() are answered
+	 * without reading or inflating any blocks.  Meant for small catalogs (ex: genes or exons)
+	 * that are queried for every row.  The results are the same as from the file, in the
+	 * same order.  The loaded catalog is shared with the other readers of the same file
+	 * (as long as the file has not changed), and is kept until no reader uses it.
+	 *
+	 * @param isInMemory true to load the catalog, false to go back to querying the file
+	 */
+	public void setInMemory(final boolean isInMemory) throws IOException {
+		if (!isInMemory) {
+			mMemory = null;
+			return;
+		}
+		if (mMemory != null) return;
+		File f = new File(mFn);
+		String key = f.getCanonicalPath() + ":" + f.lastModified() + ":" + f.length();
+		synchronized (sMemoryCache) {
+			SoftReference<TMemSeq[]> ref = sMemoryCache.get(key);
+			mMemory = ref == null? null : ref.get();
+			if (mMemory == null) {
+				mMemory = loadMemory();
+				sMemoryCache.put(key, new SoftReference<TMemSeq[]>(mMemory));
+			}
+		}
+	}
+
+	/** true if the queries are answered from memory (see setInMemory) */
+	public boolean isInMemory() {
+		return mMemory != null;
+	}
+
+	/** Read every record of the data file and bin it by sequence */
+	private TMemSeq[] loadMemory() throws IOException {
+		List<List<TRecord>> records = new ArrayList<List<TRecord>>(mSeq.length);
+		for (int i = 0; i < mSeq.length; ++i)
+			records.add(new ArrayList<TRecord>());
+		BgzipBlockReader fp = new BgzipBlockReader(new File(mFn), 0);
+		try {
+			String s;
+			int lineno = 0;
+			while ((s = fp.readTabixLine()) != null) {
+				if (++lineno <= mSkip || s.length() == 0 || s.charAt(0) == mMeta) continue;
+				TIntv intv = getIntv(s);
+				if (intv.tid >= 0) records.get(intv.tid).add(new TRecord(intv, s));
+			}
+		} finally {
+			fp.close();
+		}
+
+		TMemSeq[] memory = new TMemSeq[mSeq.length];
+		for (int tid = 0; tid < mSeq.length; ++tid) {
+			List<TRecord> recs = records.get(tid);
+			TMemSeq seq = new TMemSeq();
+			int n = recs.size();
+			seq.lines = new String[n];
+			seq.beg = new int[n];
+			seq.end = new int[n];
+			HashMap<Integer, int[]> counts = new HashMap<Integer, int[]>(); // bin -> {# records, # added}
+			int[] bin = new int[n];
+			for (int i = 0; i < n; ++i) {
+				TRecord rec = recs.get(i);
+				seq.lines[i] = rec.line;
+				seq.beg[i] = rec.intv.beg;
+				seq.end[i] = rec.intv.end;
+				bin[i] = reg2bin(rec.intv.beg, rec.intv.end);
+				int[] c = counts.get(bin[i]);
+				if (c == null) counts.put(bin[i], c = new int[2]);
+				++c[0];
+			}
+			seq.bins = new HashMap<Integer, int[]>(counts.size() * 2);
+			for (int i = 0; i < n; ++i) {
+				int[] c = counts.get(bin[i]);
+				int[] members = seq.bins.get(bin[i]);
+				if (members == null) seq.bins.put(bin[i], members = new int[c[0]]);
+				members[c[1]++] = i;
+			}
+			memory[tid] = seq;
+			recs.clear();
+		}
+		return memory;
+	}
+
+	/** query() against the catalog loaded by setInMemory() */
+	private Iterator memoryQuery(final int tid, final int beg, final int end) {
+		List<String> matches = new ArrayList<String>();
+		if (tid < 0 || tid >= mMemory.length || beg >= end)
+			return new TabixReader.Iterator(matches);
+		TMemSeq seq = mMemory[tid];
+		if (mMemBins == null) mMemBins = new int[MAX_BIN];
+		int n_bins = reg2bins(beg, end, mMemBins);
+		int[] hits = new int[16];
+		int n_hits = 0;
+		for (int i = 0; i < n_bins; ++i) {
+			int[] members = seq.bins.get(mMemBins[i]);
+			if (members == null) continue;
+			for (int j = 0; j < members.length; ++j) {
+				int r = members[j];
+				if (seq.beg[r] >= end) break; // the rest of the bin starts after the query
+				if (seq.end[r] > beg) {
+					if (n_hits == hits.length) hits = Arrays.copyOf(hits, n_hits * 2);
+					hits[n_hits++] = r;
+				}
+			}
+		}
+		Arrays.sort(hits, 0, n_hits); // back to file order, same as reading the file
+		for (int i = 0; i < n_hits; ++i)
+			matches.add(seq.lines[hits[i]]);
+		return new TabixReader.Iterator(matches);
+	}
+
 	public Iterator query(final String reg) {
 		int[] x = parseReg(reg);
 		// Return null if the chromosome is not in the tabix index
@@ -34,6 +34,15 @@ public class TabixSearchHistoryPipe extends AbstractPipe<History, History> {
     public TabixSearchHistoryPipe(String tabixDataFile, int minBPExtend, int maxBPExtend) throws IOException{
     	mTabixSearchPipe = new TabixSearchPipe(tabixDataFile, minBPExtend, maxBPExtend);
     }
+
+    /**
+     * Load the whole catalog into memory (see TabixSearchPipe.setInMemory())
+     * @param isInMemory  true to load the catalog, false to query the file again
+     * @throws IOException
+     */
+    public void setInMemory(boolean isInMemory) throws IOException {
+    	mTabixSearchPipe.setInMemory(isInMemory);
+    }
     
     @Override
     protected History processNextStart() throws NoSuchElementException {
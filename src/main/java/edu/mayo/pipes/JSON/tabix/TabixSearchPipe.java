@@ -6,6 +6,10 @@ package edu.mayo.pipes.JSON.tabix;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import com.jayway.jsonpath.JsonPath;
@@ -34,6 +38,11 @@ public class TabixSearchPipe extends AbstractPipe<String, String>{
     private JsonPath maxBPPath;
     private int extendminbp = 0;
     private int extendmaxbp = 0;
+    private boolean isSortedInput = false;
+    /** The catalog's pre-parsed records, if they are used (see setUseRecords()) */
+    private CatalogRecords catalogRecords = null;
+    /** Results of the last prefetch(), by region */
+    private Map<String, List<String>> prefetched = new HashMap<String, List<String>>();
 
     
     public TabixSearchPipe(String tabixDataFile) throws IOException{
@@ -71,6 +80,84 @@ public class TabixSearchPipe extends AbstractPipe<String, String>{
         maxBPPath = JsonPath.compile(CoreAttributes._maxBP.toString());     
     }
     
+    /**
+     * Cache inflated blocks of the catalog so that queries hitting the same blocks
+     * (ex: coordinate-sorted input) don't have to inflate them again.
+     * @param blockCacheBytes  max # of uncompressed bytes to cache (0 = no cache)
+     * @throws IOException
+     */
+    public void setBlockCacheSize(long blockCacheBytes) throws IOException {
+        tr.setBlockCacheSize(blockCacheBytes);
+    }
+
+    /**
+     * Set this when the input is sorted by landmark and position (like the catalogs).
+     * The catalog is then walked forward once instead of seeking for each query
+     * (it still seeks with the index when the input moves to another landmark or goes backwards).
+     * The results are the same either way.
+     * @param isSorted  true if the input json is in coordinate-sorted order
+     */
+    public void setSortedInput(boolean isSorted) {
+        this.isSortedInput = isSorted;
+    }
+
+    public boolean isSortedInput() {
+        return isSortedInput;
+    }
+
+    /**
+     * Load the whole catalog into memory so the queries don't read or inflate any blocks.
+     * Only for catalogs that fit in memory (ex: genes, exons).  The results are the same.
+     * @param isInMemory  true to load the catalog, false to query the file again
+     * @throws IOException
+     */
+    public void setInMemory(boolean isInMemory) throws IOException {
+        tr.setInMemory(isInMemory);
+    }
+
+    public boolean isInMemory() {
+        return tr.isInMemory();
+    }
+
+    /**
+     * Answer the queries from the catalog's records file (see CatalogRecords), if it has an
+     * up-to-date one for this json column.  The positions are then compared without reading the
+     * lines, and only the json of the matching lines is read.  The results are the same.
+     * Not used for in-memory catalogs or sorted input.
+     * @param isUseRecords  true to use the records file if there is one, false to read the lines again
+     * @return true if the records file is used
+     * @throws IOException
+     */
+    public boolean setUseRecords(boolean isUseRecords) throws IOException {
+        if(catalogRecords != null){
+            catalogRecords.close();
+            catalogRecords = null;
+        }
+        if(isUseRecords){
+            catalogRecords = CatalogRecords.open(tr, jsonpos);
+        }
+        return catalogRecords != null;
+    }
+
+    /** true if the queries are answered from the catalog's records file (see setUseRecords()) */
+    public boolean isUsingRecords() {
+        return catalogRecords != null && ! isInMemory() && ! isSortedInput;
+    }
+
+    /**
+     * Close the catalog (and its records file, if used).  The pipe can not be used after this.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        setUseRecords(false);
+        tr.close();
+    }
+
+    /** The TabixReader used for the queries (ex: to look at the block cache hits/misses) */
+    public TabixReader getTabixReader() {
+        return tr;
+    }
+    
     public String format(String s) throws InvalidPipeInputException{
         String[] split = s.split("\t");
         return split[jsonpos];
@@ -96,14 +183,14 @@ public class TabixSearchPipe extends AbstractPipe<String, String>{
             //give you back the next query result
             record = records.next();
             if(record != null) {
-                return format(record);
+                return output(record);
             } else {
                 records = null;
                 snpJsonIn = null;
                 requery();
                 record = records.next();
                 if(record != null){
-                    return format(record);
+                    return output(record);
                 } else {
                     throw new NoSuchElementException();
                 }
@@ -121,6 +208,51 @@ public class TabixSearchPipe extends AbstractPipe<String, String>{
     }
     
     public TabixReader.Iterator query(String json) throws IOException {    
+        String region = region(json);
+        if(region == null){
+            return null;
+        }
+        records = tquery(region);
+        return records;
+    }
+
+    /**
+     * Query the catalog for many json at once (see TabixReader.batchQuery()), so that the
+     * regions that are close together share their block reads.  The following queries for
+     * these json are then answered from the results, until the next prefetch().
+     * Does nothing for in-memory catalogs or sorted input, which don't seek for each query anyway.
+     * @param jsons  the json that will be queried next
+     * @throws IOException
+     */
+    public void prefetch(List<String> jsons) throws IOException {
+        prefetched.clear();
+        if(isInMemory() || isSortedInput || isUsingRecords()){
+            return;
+        }
+        List<String> regions = new ArrayList<String>();
+        for(String json : jsons){
+            try {
+                String region = region(json);
+                if(region != null){
+                    regions.add(region);
+                }
+            }catch (Exception e){
+                // leave it to query() to handle the bad json as it always has
+            }
+        }
+        List<List<String>> results;
+        try {
+            results = tr.batchQuery(regions);
+        }catch (RuntimeException e){
+            return; // ex: a region that can't be parsed; each json is queried on its own instead
+        }
+        for(int i = 0; i < regions.size(); i++){
+            prefetched.put(regions.get(i), results.get(i));
+        }
+    }
+
+    /** The tabix region to query for the json (extended by minBPExtend/maxBPExtend), or null if it has no position */
+    private String region(String json) {
     	Object o;
 
         if(json.equalsIgnoreCase("{}")){
@@ -165,9 +297,7 @@ public class TabixSearchPipe extends AbstractPipe<String, String>{
 	    }
 		
 	    //abc123:7000-13000
-	    records = tquery(landmark + ":" + minBP + "-" + maxBP);
-	    
-	    return records;
+	    return landmark + ":" + minBP + "-" + maxBP;
     }
     
     private void requery() throws NoSuchElementException, IOException {
@@ -179,9 +309,25 @@ public class TabixSearchPipe extends AbstractPipe<String, String>{
                     throw new NoSuchElementException();
                 }
             }
-            records = query(snpJsonIn);
+            records = isUsingRecords() ? recordsQuery(snpJsonIn) : query(snpJsonIn);
         }
     }
+
+    /** The json of a record (the records from the records file are already json) */
+    private String output(String record) throws InvalidPipeInputException {
+        return isUsingRecords() ? record : format(record);
+    }
+
+    /** Same as query(), but the iterator gives the json of the matching records, found with the records file */
+    private TabixReader.Iterator recordsQuery(String json) throws IOException {
+        String region = region(json);
+        if(region == null){
+            return null;
+        }
+        List<String> jsons = catalogRecords.query(region);
+        // same as the query: null if there are no records
+        return jsons.isEmpty() ? null : tr.new Iterator(jsons);
+    }
     
 
     
@@ -192,7 +338,12 @@ public class TabixSearchPipe extends AbstractPipe<String, String>{
      * @throws IOException 
      */
     public TabixReader.Iterator tquery(String chrMinMaxQuery) throws IOException {
-        TabixReader.Iterator records = tr.query(chrMinMaxQuery);
+        List<String> lines = prefetched.get(chrMinMaxQuery);
+        if(lines != null){
+            // same as the query: null if there are no records
+            return lines.isEmpty() ? null : tr.new Iterator(lines);
+        }
+        TabixReader.Iterator records = isSortedInput ? tr.sortedQuery(chrMinMaxQuery) : tr.query(chrMinMaxQuery);
         return records;
     }
     
@@ -38,7 +38,6 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import net.sf.samtools.util.BlockCompressedInputStream;
 import net.sf.samtools.util.BlockCompressedOutputStream;
 
 /**
@@ -67,7 +66,8 @@ public class TabixWriter extends TabixReader {
     List<List<Long>> linearIndex = new ArrayList<List<Long>>();
 
     public TabixWriter(File fn, Conf conf) throws Exception {
-        super(fn.getAbsolutePath());
+        // the index is what we are creating, so don't try to read it
+        super(fn.getAbsolutePath(), false);
         applyConf(conf);
         mChr2tid = new LinkedHashMap<String, Integer>();
     }
@@ -81,62 +81,93 @@ public class TabixWriter extends TabixReader {
         mSkip = conf.linesToSkip;
     }
 
+    /** The state of the index being built, between lines */
+    private int last_bin, save_bin, last_coor, last_tid, save_tid;
+    private long save_off, last_off, lineno, offset0;
+    private boolean mIsIndexDone;
+
     public void createIndex(File fn) throws Exception {
-        BlockCompressedInputStream fp = new BlockCompressedInputStream(fn);
+        // Read the file with the blocks inflated on all processors
+        ParallelBgzipReader fp = new ParallelBgzipReader(fn);
         makeIndex(fp);
         fp.close();
-        File indexFile = new File(fn + ".tbi");
-        BlockCompressedOutputStream fpidx = new BlockCompressedOutputStream(indexFile);
-        saveIndex(fpidx);
-        fpidx.close();
+        saveIndex(new File(fn + ".tbi"));
     }
 
-    private void makeIndex(BlockCompressedInputStream fp) throws Exception {
-		int last_bin, save_bin;
-		int last_coor, last_tid, save_tid;
-		long save_off, last_off, lineno = 0, offset0 = (long)-1;
-		String str;
-	
-		save_bin = save_tid = last_tid = last_bin = 0xffffffff;         // Was unsigned in C implementation.
-		save_off = last_off = 0;
-		last_coor = 0xffffffff;    // Should be unsigned.
-		while ((str = readLine(fp)) != null) {
-            ++lineno;
-            if (lineno <= mSkip || str.charAt(0) == mMeta) {
-                last_off = fp.getFilePointer();
-                continue;
-            }
-            TIntv intv = getIntv(str);
-            if ( intv.beg<0 || intv.end<0 ) {
-                throw new Exception("The indexes overlap or are out of bounds.");
-            }
-            if (last_tid != intv.tid) { // change of chromosomes
-                if (last_tid>intv.tid ) {
-                    throw new Exception(String.format("The chromosome blocks are not continuous at line %d, is the file sorted? [pos %d].", lineno, intv.beg+1));
-                }
-                last_tid = intv.tid;
-                last_bin = 0xffffffff;
-            } else if (last_coor > intv.beg) {
-                throw new Exception(String.format("File out of order at line %d.", lineno));
-            }
-            long tmp = insertLinear(linearIndex.get(intv.tid), intv.beg, intv.end, last_off);
-            if (last_off == 0) offset0 = tmp;
-            if (intv.bin != last_bin) { // then possibly write the binning index
-                if (save_bin != 0xffffffff) { // save_bin==0xffffffffu only happens to the first record
-                    insertBinning(binningIndex.get(save_tid), save_bin, save_off, last_off);
-                }
-                save_off = last_off;
-                save_bin = last_bin = intv.bin;
-                save_tid = intv.tid;
-                if (save_tid < 0) break;
+    private void makeIndex(ParallelBgzipReader fp) throws Exception {
+        startIndex();
+        String str;
+        while ((str = readLine(fp)) != null)
+            addLine(str, fp.getFilePointer());
+        finishIndex(fp.getFilePointer());
+    }
+
+    /**
+     * Start building the index from lines given to addLine() as they are written, instead of
+     * reading the file with createIndex() (ex: CatalogBuilder, which bgzips and indexes in one pass).
+     */
+    public void startIndex() {
+        binningIndex.clear();
+        linearIndex.clear();
+        mChr2tid.clear();
+        save_bin = save_tid = last_tid = last_bin = 0xffffffff;         // Was unsigned in C implementation.
+        save_off = last_off = 0;
+        last_coor = 0xffffffff;    // Should be unsigned.
+        lineno = 0;
+        offset0 = (long)-1;
+        mIsIndexDone = false;
+    }
+
+    /**
+     * Add the next line of the file to the index
+     * @param str  the line (without the newline)
+     * @param lineEnd  the virtual file offset just past the line's newline (where the next line starts)
+     */
+    public void addLine(String str, long lineEnd) throws Exception {
+        if (mIsIndexDone)
+            return;
+        ++lineno;
+        if (lineno <= mSkip || str.charAt(0) == mMeta) {
+            last_off = lineEnd;
+            return;
+        }
+        TIntv intv = getIntv(str);
+        if ( intv.beg<0 || intv.end<0 ) {
+            throw new Exception("The indexes overlap or are out of bounds.");
+        }
+        if (last_tid != intv.tid) { // change of chromosomes
+            if (last_tid>intv.tid ) {
+                throw new Exception(String.format("The chromosome blocks are not continuous at line %d, is the file sorted? [pos %d].", lineno, intv.beg+1));
             }
-            if (fp.getFilePointer() <= last_off) {
-                throw new Exception(String.format("Bug in BGZF: %x < %x.", fp.getFilePointer(), last_off));
+            last_tid = intv.tid;
+            last_bin = 0xffffffff;
+        } else if (last_coor > intv.beg) {
+            throw new Exception(String.format("File out of order at line %d.", lineno));
+        }
+        long tmp = insertLinear(linearIndex.get(intv.tid), intv.beg, intv.end, last_off);
+        if (last_off == 0) offset0 = tmp;
+        if (intv.bin != last_bin) { // then possibly write the binning index
+            if (save_bin != 0xffffffff) { // save_bin==0xffffffffu only happens to the first record
+                insertBinning(binningIndex.get(save_tid), save_bin, save_off, last_off);
             }
-            last_off = fp.getFilePointer();
-            last_coor = intv.beg;
-		}
-		if (save_tid >= 0) insertBinning(binningIndex.get(save_tid), save_bin, save_off, fp.getFilePointer());
+            save_off = last_off;
+            save_bin = last_bin = intv.bin;
+            save_tid = intv.tid;
+            if (save_tid < 0) { mIsIndexDone = true; return; }
+        }
+        if (lineEnd <= last_off) {
+            throw new Exception(String.format("Bug in BGZF: %x < %x.", lineEnd, last_off));
+        }
+        last_off = lineEnd;
+        last_coor = intv.beg;
+    }
+
+    /**
+     * Finish the index once all lines have been added
+     * @param fileEnd  the virtual file offset of the end of the data
+     */
+    public void finishIndex(long fileEnd) {
+		if (save_tid >= 0) insertBinning(binningIndex.get(save_tid), save_bin, save_off, fileEnd);
 		mergeChunks();
 		fillMissing();
 		if (offset0 != (long)-1 && !linearIndex.isEmpty() && linearIndex.get(0) != null) {
@@ -147,6 +178,35 @@ public class TabixWriter extends TabixReader {
 		}
     }
 
+    /**
+     * For an index built from out.getBlockPointer()s (so addLine() didn't have to wait for the
+     * blocks to be written), turn its offsets into virtual file offsets.  Call after finishIndex(),
+     * once out is closed.  (Only the block part of an offset changes, so the index is the same
+     * as if it were built from the file pointers.)
+     */
+    public void toFilePointers(ParallelBgzipOutputStream out) throws IOException {
+        for (Map<Integer, List<TPair64>> binningForChr : binningIndex) {
+            for (List<TPair64> chunks : binningForChr.values()) {
+                for (TPair64 chunk : chunks) {
+                    chunk.u = out.toFilePointer(chunk.u);
+                    chunk.v = out.toFilePointer(chunk.v);
+                }
+            }
+        }
+        for (List<Long> linearForChr : linearIndex) {
+            for (int i = 0; i < linearForChr.size(); i++) {
+                linearForChr.set(i, out.toFilePointer(linearForChr.get(i)));
+            }
+        }
+    }
+
+    /** Write the index (ex: catalog.tsv.bgz.tbi) */
+    public void saveIndex(File indexFile) throws IOException {
+        BlockCompressedOutputStream fpidx = new BlockCompressedOutputStream(indexFile);
+        saveIndex(fpidx);
+        fpidx.close();
+    }
+
     private void insertBinning(Map<Integer, List<TPair64>> binningForChr, int bin, long beg, long end) {
         if (!binningForChr.containsKey(bin)) {
             binningForChr.put(bin, new ArrayList<TPair64>());
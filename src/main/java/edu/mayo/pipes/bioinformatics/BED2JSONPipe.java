@@ -101,7 +101,7 @@ public class BED2JSONPipe extends AbstractPipe<History,History> {
     private int mDataLineNumber = 1;
     
     private History doHeader(History h){
-        List<ColumnMetaData> columns = History.getMetaData().getColumns();
+        List<ColumnMetaData> columns = h.getHistoryMetaData().getColumns();
         //remove column headers called "#UNKNOWN"
         
         if((columns.size() > 2 && h.size() > 2)){
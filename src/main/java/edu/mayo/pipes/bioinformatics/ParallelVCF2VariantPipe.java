@@ -0,0 +1,153 @@
+package edu.mayo.pipes.bioinformatics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.google.gson.JsonObject;
+import com.tinkerpop.pipes.Pipe;
+
+import edu.mayo.pipes.history.History;
+import edu.mayo.pipes.thread.PipeFactory;
+import edu.mayo.pipes.thread.ThreadedPipeline;
+
+/**
+ * Same as VCF2VariantPipe, but converts the lines to JSON on several threads.
+ * The output is the same, and in the same order, as VCF2VariantPipe's.
+ * <p>
+ * Each worker thread has its own VCF2VariantPipe, so the per-line state (sample and
+ * genotype counts, FORMAT summaries) is never shared.  The VCF header is parsed once,
+ * by the first worker, and the other workers only read its field metadata.
+ * <p>
+ * Mostly useful for VCFs with many samples, where building the sample JSON makes
+ * VCF2VariantPipe CPU bound.  ex:
+ * <pre>
+ *   Pipeline p = new Pipeline(new CatPipe(), new HistoryInPipe(), new ParallelVCF2VariantPipe(true, false, 8), new HistoryOutPipe());
+ * </pre>
+ * The metadata getters combine what the workers saw, so only call them once all of the
+ * output has been read.
+ */
+public class ParallelVCF2VariantPipe extends ThreadedPipeline<History,History> {
+
+    private WorkerFactory mWorkers;
+
+    /**
+     * @param numThreads  # of worker threads
+     */
+    public ParallelVCF2VariantPipe(int numThreads) {
+        this(new WorkerFactory(false, false), numThreads);
+    }
+
+    /**
+     * @param includeSamples  true to add the sample JSON, same as VCF2VariantPipe(boolean);
+     *                        false to leave it out, same as VCF2VariantPipe()
+     * @param numThreads  # of worker threads
+     */
+    public ParallelVCF2VariantPipe(boolean includeSamples, int numThreads) {
+        this(new WorkerFactory(includeSamples, false), numThreads);
+    }
+
+    /**
+     * @param includeSamples  true to add the sample JSON, same as VCF2VariantPipe(boolean, boolean);
+     *                        false to leave it out, same as VCF2VariantPipe()
+     * @param allSamples      see VCF2VariantPipe(boolean, boolean)
+     * @param numThreads  # of worker threads
+     */
+    public ParallelVCF2VariantPipe(boolean includeSamples, boolean allSamples, int numThreads) {
+        this(new WorkerFactory(includeSamples, allSamples), numThreads);
+    }
+
+    private ParallelVCF2VariantPipe(WorkerFactory workers, int numThreads) {
+        super(workers, numThreads);
+        mWorkers = workers;
+    }
+
+    /** see VCF2VariantPipe.setSampleNames() */
+    public void setSampleNames(List<String> sampleNames) {
+        mWorkers.sampleNames = new ArrayList<String>(sampleNames);
+    }
+
+    /** see VCF2VariantPipe.setSampleColumns() */
+    public void setSampleColumns(int... columnNumbers) {
+        mWorkers.sampleColumns = columnNumbers.clone();
+    }
+
+    /** see VCF2VariantPipe.setGenotypeCountsOnly() */
+    public void setGenotypeCountsOnly(boolean genotypeCountsOnly) {
+        mWorkers.genotypeCountsOnly = genotypeCountsOnly;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        mWorkers.clear();
+    }
+
+    /** @return the header's field metadata, same as VCF2VariantPipe.getmFieldMap() */
+    public HashMap<String, HashMap<String, VCF2VariantPipe.InfoFieldMeta>> getmFieldMap() {
+        return merged().getmFieldMap();
+    }
+
+    /** @return the sample columns seen by all of the workers, same as VCF2VariantPipe.getSampleKeys() */
+    public HashMap<String, Integer> getSampleKeys() {
+        return merged().getSampleKeys();
+    }
+
+    /** @return the FORMAT keys seen by all of the workers, same as VCF2VariantPipe.getFormatKeys() */
+    public HashMap<String, Boolean> getFormatKeys() {
+        return merged().getFormatKeys();
+    }
+
+    /** @return same as VCF2VariantPipe.getJSONMetadata(), for all of the lines */
+    public JsonObject getJSONMetadata() {
+        return merged().getJSONMetadata();
+    }
+
+    private VCF2VariantPipe merged() {
+        VCF2VariantPipe merged = new VCF2VariantPipe();
+        for (VCF2VariantPipe worker : mWorkers.getPipes()) {
+            merged.addKeys(worker);
+        }
+        return merged;
+    }
+
+    /**
+     * Creates the workers' pipes.  The first one (the primary worker, which processes the
+     * first batch before the others start) parses the header; the rest use its metadata.
+     */
+    private static class WorkerFactory implements PipeFactory<History,History> {
+        private final boolean includeSamples;
+        private final boolean allSamples;
+        private final List<VCF2VariantPipe> pipes = new ArrayList<VCF2VariantPipe>();
+        private volatile List<String> sampleNames = null;
+        private volatile int[] sampleColumns = null;
+        private volatile boolean genotypeCountsOnly = false;
+
+        WorkerFactory(boolean includeSamples, boolean allSamples) {
+            this.includeSamples = includeSamples;
+            this.allSamples = allSamples;
+        }
+
+        public synchronized Pipe<History,History> newPipe() {
+            VCF2VariantPipe headerSource = pipes.isEmpty() ? null : pipes.get(0);
+            VCF2VariantPipe pipe = new VCF2VariantPipe(includeSamples, allSamples, headerSource);
+            if (sampleNames != null) {
+                pipe.setSampleNames(sampleNames);
+            }
+            if (sampleColumns != null) {
+                pipe.setSampleColumns(sampleColumns);
+            }
+            pipe.setGenotypeCountsOnly(genotypeCountsOnly);
+            pipes.add(pipe);
+            return pipe;
+        }
+
+        synchronized List<VCF2VariantPipe> getPipes() {
+            return new ArrayList<VCF2VariantPipe>(pipes);
+        }
+
+        synchronized void clear() {
+            pipes.clear();
+        }
+    }
+}
@@ -1,11 +1,15 @@
 package edu.mayo.pipes.bioinformatics;
 
 import com.google.gson.Gson;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -14,7 +18,9 @@ import org.apache.log4j.Logger;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
 import com.tinkerpop.pipes.AbstractPipe;
 
 import edu.mayo.pipes.bioinformatics.vocab.CoreAttributes;
@@ -96,6 +102,9 @@ public class VCF2VariantPipe extends AbstractPipe<History,History> {
 
     private boolean isHeaderProcessed = false;
 
+    // when running as one of several workers, the pipe that parses the header for all of them
+    private VCF2VariantPipe mHeaderSource = null;
+
     // number of data line (does not include header lines)
     private int mDataLineNumber = 0;
 
@@ -105,6 +114,12 @@ public class VCF2VariantPipe extends AbstractPipe<History,History> {
     private boolean allSamples = false;
     private boolean processSamples = false;
 
+    // the samples to process (null for all of them), and their (0 based) columns once they are found in the header
+    private List<String> mSampleNames = null;
+    private int[] mSampleColumnNumbers = null;
+    private int[] mSampleColumns = null;
+    private boolean mGenotypeCountsOnly = false;
+
     /**
      *
      * @param includeSamples include samples will add a samples : [s1:{"some":"data"},s2:{"some":"data"}]
@@ -126,6 +141,56 @@ public class VCF2VariantPipe extends AbstractPipe<History,History> {
         this.allSamples = AllSamples;
     }
 
+    /**
+     * Used by ParallelVCF2VariantPipe for its workers.  The header's field metadata is
+     * taken from headerSource (read-only) if it has already processed the header, so it
+     * is only parsed once; everything that changes per line stays in each pipe.
+     *
+     * @param headerSource  the pipe that processes the header (null for this one)
+     */
+    VCF2VariantPipe(boolean includeSamples, boolean AllSamples, VCF2VariantPipe headerSource){
+        processSamples = includeSamples;
+        this.allSamples = AllSamples;
+        this.mHeaderSource = headerSource;
+    }
+
+    /**
+     * Only process these samples, instead of all of them (when samples are included).
+     * The other sample columns are not parsed.  Can be combined with setSampleColumns().
+     * Must be called before the first row.
+     *
+     * @param sampleNames  the samples' names in the #CHROM header
+     * @throws IllegalArgumentException (on the first row) if a sample is not in the header
+     */
+    public void setSampleNames(List<String> sampleNames) {
+        mSampleNames = new ArrayList<String>(sampleNames);
+        mSampleColumns = null;
+    }
+
+    /**
+     * Only process the samples in these columns, instead of all of them (when samples are included).
+     * The other sample columns are not parsed.  Can be combined with setSampleNames().
+     * Must be called before the first row.
+     *
+     * @param columnNumbers  1 based column numbers in the #CHROM header (the first sample is 10),
+     *                       same as the values of getSampleKeys()
+     * @throws IllegalArgumentException (on the first row) if a column is not a sample column
+     */
+    public void setSampleColumns(int... columnNumbers) {
+        mSampleColumnNumbers = columnNumbers.clone();
+        mSampleColumns = null;
+    }
+
+    /**
+     * When samples are included, only count the samples that have the variant (from their GT
+     * values), instead of adding each sample's data to the JSON.  The JSON gets
+     * "FORMAT":{"GenotypePostitiveCount":n,"GenotypePositiveList":[...]}, without the samples
+     * array or the FORMAT max/min, and the rest of the sample values are not parsed.
+     */
+    public void setGenotypeCountsOnly(boolean genotypeCountsOnly) {
+        mGenotypeCountsOnly = genotypeCountsOnly;
+    }
+
     /**
      * Processes the VCF header for the INFO column's metadata per field.
      */
@@ -205,7 +270,11 @@ public class VCF2VariantPipe extends AbstractPipe<History,History> {
 
         // initialize header only once, on the 1st time through this method
         if (isHeaderProcessed == false) {
-            processHeader(History.getMetaData().getOriginalHeader());
+            if (mHeaderSource != null && mHeaderSource.isHeaderProcessed) {
+                fieldMap = mHeaderSource.fieldMap;
+            } else {
+                processHeader(history.getHistoryMetaData().getOriginalHeader());
+            }
             isHeaderProcessed = true;
         }
 
@@ -243,40 +312,59 @@ public class VCF2VariantPipe extends AbstractPipe<History,History> {
 
     /**
      * Translates the VCF data row into JSON
+     * <p>
+     * The JSON is written straight into a buffer that is reused for every line, as the
+     * columns are tokenized, instead of first building a Gson JsonObject tree.  It is written
+     * with Gson's own JsonWriter, so the output is the same as the tree's toString().
+     * A tree keeps the last value of a repeated key in the place of the first one, so the
+     * (rare) INFO columns and samples that repeat a key are written the same way.
      *
      * @param history A single VCF data row
      * @return
      */
-    private String buildJSON(List<String> history) {
-
-        JsonObject root = new JsonObject();
-
-        // carry forward all columns except for INFO verbatim into JSON
-        root.addProperty(COL_HEADERS[COL_CHROM],  history.get(COL_CHROM).trim());
-        root.addProperty(COL_HEADERS[COL_POS],    history.get(COL_POS).trim());
-        root.addProperty(COL_HEADERS[COL_ID],     history.get(COL_ID).trim());
-        root.addProperty(COL_HEADERS[COL_REF],    history.get(COL_REF).trim());
-        root.addProperty(COL_HEADERS[COL_ALT],    history.get(COL_ALT).trim());
-        root.addProperty(COL_HEADERS[COL_QUAL],   history.get(COL_QUAL).trim());
-        root.addProperty(COL_HEADERS[COL_FILTER], history.get(COL_FILTER).trim());
+    private String buildJSON(History history) {
+        String info = history.get(COL_INFO).trim();
+        int infoFields = scanInfo(info);
+
+        StringBuffer buf = mJsonBuffer.getBuffer();
+        buf.setLength(0);
+        try {
+            JsonWriter out = new JsonWriter(mJsonBuffer);
+            // same settings as JsonElement.toString()
+            out.setLenient(true);
+            out.beginObject();
+
+            // carry forward all columns except for INFO verbatim into JSON
+            for (int col = COL_CHROM; col < COL_INFO; col++) {
+                out.name(COL_HEADERS[col]).value(history.get(col).trim());
+            }
 
-        // parse and shred INFO column
-        JsonObject info = buildInfoJSON(history.get(COL_INFO).trim(), history);
-        root.add(COL_HEADERS[COL_INFO], info);
+            // parse and shred INFO column
+            out.name(COL_HEADERS[COL_INFO]);
+            if (hasRepeatedIds(info, infoFields)) {
+                infoFields = dropRepeatedIds(info, infoFields, history);
+            }
+            writeInfoJSON(out, info, infoFields, history);
 
-        // add core attributes to be used by downstream pipes
-        addCoreAttributes(root, history);
+            // add core attributes to be used by downstream pipes
+            writeCoreAttributes(out, history);
 
-        // if we should process the samples, then parse the sample info and add it to the JSON
-        if(processSamples){
-            try {
-                addSamples(root, history);
-            } catch (ParseException ex) {
-                sLogger.log(Priority.ERROR, ex);//todo: we need to log this better, can't remember the right way
+            // if we should process the samples, then parse the sample info and add it to the JSON
+            if(processSamples){
+                try {
+                    writeSamples(out, history);
+                } catch (ParseException ex) {
+                    sLogger.log(Priority.ERROR, ex);//todo: we need to log this better, can't remember the right way
+                }
             }
-        }
 
-        return root.toString();
+            out.endObject();
+            out.flush();
+        } catch (IOException e) {
+            // a StringWriter does not throw them
+            throw new IllegalStateException(e);
+        }
+        return buf.toString();
     }
 
     public String reformat(List<String> line){
@@ -290,144 +378,577 @@ public class VCF2VariantPipe extends AbstractPipe<History,History> {
     }
     /**
      * Examines the INFO column and shreds it into a JSON friendly structure based
-     * on INFO field metadata mined from the VCF header.
+     * on INFO field metadata mined from the VCF header, written to out.
+     * The fields are the ones found by scanInfo(), and are decoded by their InfoDecoder.
      *
-     * @param infoCol The INFO column
-     * @return JSON object
-     */
-    private JsonObject buildInfoJSON(String infoCol, List<String> dataLine) {
-
-        // used where an INFO field is not defined in the header
-        // in these special cases, treat as a string
-        InfoFieldMeta defaultMeta = new InfoFieldMeta();
-        defaultMeta.id = "not_defined";
-        defaultMeta.number = 1;
-        defaultMeta.type = INFO_TYPE.String;
-        defaultMeta.entryType = "INFO";
-
-        JsonObject info = new JsonObject();
-
-        for (String field: infoCol.split(";")) {
-
-            if (field.indexOf('=') != -1) {
-                int firstEq = field.indexOf('=');
-
-                String id = field.substring(0, firstEq);
-                String value = field.substring(firstEq + 1);
-
-                InfoFieldMeta meta = defaultMeta;
-                if (this.fieldMapGet(id) != null) {
-                    meta = fieldMapGet(id);
-                }
-
-                if ((meta.number == null) || (meta.number > 1)) {
-
-                    // not sure if there are 1 or more, assume array to be safe
-                    JsonArray arr = new JsonArray();
-                    for (String s: value.split(",")) {
-                        switch (meta.type) {
-                            case Integer:
-                                if (!isMissingValue(s)) {
-                                    try {
-                                        arr.add(new JsonPrimitive(Integer.parseInt(s.trim())));
-                                    } catch (Exception e){
-
-                                        System.err.println("Invalid VCF Line: " + reformat(dataLine));
-                                    }
-                                }
-                                break;
-                            case Float:
-                                if (!isMissingValue(s)) {
-                                    try {
-                                        arr.add(new JsonPrimitive(Float.parseFloat(s.trim())));
-                                    }catch (Exception e){
-                                        System.err.println("Invalid VCF Line: " + reformat(dataLine));
-                                    }
-                                }
-                                break;
-                            case Character:
-                            case String:
-                                arr.add(new JsonPrimitive(s));
-                                break;
-                        }
+     * @param info The INFO column
+     * @param nFields # of fields found by scanInfo()
+     */
+    private void writeInfoJSON(JsonWriter out, String info, int nFields, List<String> dataLine) throws IOException {
+        out.beginObject();
+        for (int f = 0; f < nFields; f++) {
+            InfoDecoder decoder = mFieldDecoders[f];
+            int eq = mFieldEqs[f];
+            if (eq != -1) {
+                if (decoder != null) {
+                    decoder.write(out, decoder.id, info, eq + 1, mFieldEnds[f], dataLine);
+                } else {
+                    // not defined in the header, treat as a string
+                    mDefaultDecoder.write(out, info.substring(mFieldStarts[f], eq), info, eq + 1, mFieldEnds[f], dataLine);
+                }
+            } else {
+                // dealing with field of type Flag
+                // there is no value
+                String id = decoder != null ? decoder.id : info.substring(mFieldStarts[f], mFieldEnds[f]);
+                out.name(id).value(true);
+            }
+        }
+        out.endObject();
+    }
+
+    /**
+     * Finds the ';' delimited fields of the INFO column in one pass, and looks up their
+     * decoders (in mFieldStarts, mFieldEqs, mFieldEnds and mFieldDecoders).
+     * Same fields as infoCol.split(";"), without the empty ones.
+     *
+     * @return # of fields
+     */
+    private int scanInfo(String info) {
+        if (mDecoderTable == null) {
+            buildInfoDecoders();
+        }
+        int n = 0;
+        int start = 0;
+        int eq = -1;
+        int len = info.length();
+        for (int i = 0; i <= len; i++) {
+            char c = i < len ? info.charAt(i) : ';';
+            if (c == '=') {
+                if (eq == -1) {
+                    eq = i;
+                }
+            } else if (c == ';') {
+                if (i > start) {
+                    if (n == mFieldStarts.length) {
+                        growFields();
                     }
-                    if (arr.size() > 0) {
-                        info.add(id, arr);
+                    mFieldStarts[n] = start;
+                    mFieldEqs[n] = eq;
+                    mFieldEnds[n] = i;
+                    mFieldDecoders[n] = findDecoder(info, start, eq != -1 ? eq : i);
+                    n++;
+                }
+                start = i + 1;
+                eq = -1;
+            }
+        }
+        return n;
+    }
+
+    private void growFields() {
+        int size = mFieldStarts.length * 2;
+        mFieldStarts = Arrays.copyOf(mFieldStarts, size);
+        mFieldEqs = Arrays.copyOf(mFieldEqs, size);
+        mFieldEnds = Arrays.copyOf(mFieldEnds, size);
+        mFieldDecoders = Arrays.copyOf(mFieldDecoders, size);
+    }
+
+    /**
+     * true if two of the INFO fields found by scanInfo() have the same ID (ex: "DP=1;DP=2" or "DB;DB")
+     */
+    private boolean hasRepeatedIds(String info, int nFields) {
+        mInfoLine++;
+        for (int f = 0; f < nFields; f++) {
+            InfoDecoder decoder = mFieldDecoders[f];
+            if (decoder != null) {
+                if (decoder.lastLine == mInfoLine) {
+                    return true;
+                }
+                decoder.lastLine = mInfoLine;
+            } else {
+                // not in the header, compare with the other IDs that are not
+                int len = idEnd(f) - mFieldStarts[f];
+                for (int g = 0; g < f; g++) {
+                    if (mFieldDecoders[g] == null && idEnd(g) - mFieldStarts[g] == len
+                            && info.regionMatches(mFieldStarts[f], info, mFieldStarts[g], len)) {
+                        return true;
                     }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keeps only the last INFO field of each ID that has a value, in the place of the first one
+     * with a value (the same as adding the fields to a JsonObject one at a time).  The fields
+     * found by scanInfo() are moved down in place.  The dropped fields are still decoded, so their
+     * invalid values are reported.
+     *
+     * @return # of fields left
+     */
+    private int dropRepeatedIds(String info, int nFields, List<String> dataLine) throws IOException {
+        String[] ids = new String[nFields];
+        boolean[] hasValue = new boolean[nFields];
+        // the last field with a value, by ID
+        HashMap<String, Integer> last = new HashMap<String, Integer>();
+        for (int f = 0; f < nFields; f++) {
+            ids[f] = info.substring(mFieldStarts[f], idEnd(f));
+            if (mFieldEqs[f] == -1) {
+                hasValue[f] = true; // a Flag
+            } else {
+                hasValue[f] = decoder(f).hasValue(info, mFieldEqs[f] + 1, mFieldEnds[f]);
+            }
+            if (hasValue[f]) {
+                last.put(ids[f], f);
+            }
+        }
+        boolean[] isKept = new boolean[nFields];
+        for (int l : last.values()) {
+            isKept[l] = true;
+        }
+        // the fields are only moved down (to n <= f <= the last one), so none are overwritten before they are used
+        int n = 0;
+        for (int f = 0; f < nFields; f++) {
+            if (!isKept[f] && mFieldEqs[f] != -1) {
+                if (mDiscard == null) {
+                    mDiscard = new JsonWriter(NULL_WRITER);
+                    mDiscard.beginObject();
+                }
+                decoder(f).write(mDiscard, ids[f], info, mFieldEqs[f] + 1, mFieldEnds[f], dataLine);
+            }
+            Integer l = hasValue[f] ? last.remove(ids[f]) : null;
+            if (l != null) {
+                mFieldStarts[n] = mFieldStarts[l];
+                mFieldEqs[n] = mFieldEqs[l];
+                mFieldEnds[n] = mFieldEnds[l];
+                mFieldDecoders[n] = mFieldDecoders[l];
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /** @return the decoder for a field with a value found by scanInfo() */
+    private InfoDecoder decoder(int field) {
+        return mFieldDecoders[field] != null ? mFieldDecoders[field] : mDefaultDecoder;
+    }
+
+    private int idEnd(int field) {
+        return mFieldEqs[field] != -1 ? mFieldEqs[field] : mFieldEnds[field];
+    }
+
+    /**
+     * Makes the decoders for the fields in the header (fieldMap), and the table to find them
+     * by ID.  A field is decoded with the same metadata as fieldMapGet() would give it.
+     */
+    private void buildInfoDecoders() {
+        List<InfoDecoder> decoders = new ArrayList<InfoDecoder>();
+        HashMap<String, Boolean> ids = new HashMap<String, Boolean>();
+        for (HashMap<String, InfoFieldMeta> keyVal : fieldMap.values()) {
+            for (String id : keyVal.keySet()) {
+                if (ids.put(id, Boolean.TRUE) == null) {
+                    decoders.add(newDecoder(id, fieldMapGet(id)));
+                }
+            }
+        }
+        int size = 16;
+        while (size < decoders.size() * 2) {
+            size *= 2;
+        }
+        mDecoderTable = new InfoDecoder[size];
+        for (InfoDecoder decoder : decoders) {
+            int i = hash(decoder.id, 0, decoder.id.length()) & (size - 1);
+            while (mDecoderTable[i] != null) {
+                i = (i + 1) & (size - 1);
+            }
+            mDecoderTable[i] = decoder;
+        }
+    }
+
+    /**
+     * @return the decoder for the ID in info[start, end), null if the ID is not in the header
+     */
+    private InfoDecoder findDecoder(String info, int start, int end) {
+        int len = end - start;
+        int mask = mDecoderTable.length - 1;
+        int i = hash(info, start, end) & mask;
+        InfoDecoder decoder;
+        while ((decoder = mDecoderTable[i]) != null) {
+            if (decoder.id.length() == len && decoder.id.regionMatches(0, info, start, len)) {
+                return decoder;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    private static int hash(String s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private InfoDecoder newDecoder(String id, InfoFieldMeta meta) {
+        boolean isArray = (meta.number == null) || (meta.number > 1);
+        if (!isArray && meta.number != 1) {
+            // ex: Number=0 with a value, nothing is written
+            return new NoValueDecoder(id);
+        }
+        switch (meta.type) {
+            case Integer:
+                return new IntegerDecoder(id, isArray);
+            case Float:
+                return new FloatDecoder(id, isArray);
+            case Character:
+            case String:
+                return new StringDecoder(id, isArray);
+            default:
+                return new NoValueDecoder(id);
+        }
+    }
+
+    /**
+     * Writes the value of an INFO field, decoded by the Type and Number of the field in the header.
+     * Number=1 fields are written as a single value.  Fields with a higher or unknown Number are
+     * written as an array of the ',' delimited values (same values as value.split(",")), if there
+     * is at least one.  Missing ('.') and invalid values are left out.
+     */
+    private abstract class InfoDecoder {
+        final String id;
+        final boolean isArray;
+        // the last line the field was seen on, to find repeated fields
+        long lastLine = 0;
+
+        InfoDecoder(String id, boolean isArray) {
+            this.id = id;
+            this.isArray = isArray;
+        }
+
+        /**
+         * @param key  the JSON key
+         * @param value  the value is info[start, end)
+         */
+        void write(JsonWriter out, String key, String info, int start, int end, List<String> dataLine) throws IOException {
+            if (!isArray) {
+                writeValue(out, key, info, start, end, dataLine);
+                return;
+            }
+            end = arrayEnd(info, start, end);
+            if (end != -1) {
+                writeArray(out, key, info, start, end, dataLine);
+            }
+        }
+
+        /**
+         * @return true if write() writes the field (it is left out if its values are all missing or invalid)
+         */
+        boolean hasValue(String info, int start, int end) {
+            if (!isArray) {
+                return isValid(info, start, end);
+            }
+            end = arrayEnd(info, start, end);
+            int valueStart = start;
+            while (end != -1 && valueStart <= end) {
+                int valueEnd = commaOrEnd(info, valueStart, end);
+                if (isValid(info, valueStart, valueEnd)) {
+                    return true;
+                }
+                valueStart = valueEnd + 1;
+            }
+            return false;
+        }
+
+        /** @return true if the value info[start, end) is written */
+        abstract boolean isValid(String info, int start, int end);
+
+        abstract void writeValue(JsonWriter out, String key, String info, int start, int end, List<String> dataLine) throws IOException;
 
-                } else if (meta.number == 1) {
-
-                    switch (meta.type) {
-                        case Integer:
-                            if (!isMissingValue(value)) {
-                                try {
-                                    info.addProperty(id, Integer.parseInt(value.trim()));
-                                }catch (Exception e){
-                                    System.err.println("Invalid VCF Line: " + reformat(dataLine));
-                                }
-
-                            }
-                            break;
-                        case Float:
-                            if (!isMissingValue(value)) {
-                                try {
-                                    info.addProperty(id, Float.parseFloat(value.trim()));
-                                }catch (Exception e){
-                                    System.err.println("Invalid VCF Line: " + reformat(dataLine));
-                                }
-
-                            }
-                            break;
-                        case Character:
-                        case String:
-                            info.addProperty(id, value);
-                            break;
+        abstract void writeArray(JsonWriter out, String key, String info, int start, int end, List<String> dataLine) throws IOException;
+    }
+
+    private class IntegerDecoder extends InfoDecoder {
+        IntegerDecoder(String id, boolean isArray) {
+            super(id, isArray);
+        }
+
+        boolean isValid(String info, int start, int end) {
+            if (isMissingValue(info, start, end)) {
+                return false;
+            }
+            try {
+                parseInt(info, start, end);
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        void writeValue(JsonWriter out, String key, String info, int start, int end, List<String> dataLine) throws IOException {
+            if (!isMissingValue(info, start, end)) {
+                try {
+                    int i = parseInt(info, start, end);
+                    out.name(key).value(i);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid VCF Line: " + reformat(dataLine));
+                }
+            }
+        }
+
+        void writeArray(JsonWriter out, String key, String info, int start, int end, List<String> dataLine) throws IOException {
+            int n = 0;
+            int valueStart = start;
+            while (valueStart <= end) {
+                int valueEnd = commaOrEnd(info, valueStart, end);
+                if (!isMissingValue(info, valueStart, valueEnd)) {
+                    try {
+                        int i = parseInt(info, valueStart, valueEnd);
+                        if (n == mIntValues.length) {
+                            mIntValues = Arrays.copyOf(mIntValues, n * 2);
+                        }
+                        mIntValues[n++] = i;
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid VCF Line: " + reformat(dataLine));
                     }
+                }
+                valueStart = valueEnd + 1;
+            }
+            if (n > 0) {
+                out.name(key).beginArray();
+                for (int i = 0; i < n; i++) {
+                    out.value(mIntValues[i]);
+                }
+                out.endArray();
+            }
+        }
+    }
 
+    private class FloatDecoder extends InfoDecoder {
+        FloatDecoder(String id, boolean isArray) {
+            super(id, isArray);
+        }
+
+        boolean isValid(String info, int start, int end) {
+            if (isMissingValue(info, start, end)) {
+                return false;
+            }
+            try {
+                Float.parseFloat(info.substring(start, end).trim());
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        void writeValue(JsonWriter out, String key, String info, int start, int end, List<String> dataLine) throws IOException {
+            if (!isMissingValue(info, start, end)) {
+                try {
+                    float f = Float.parseFloat(info.substring(start, end).trim());
+                    // as a Float, so it is written the same as in the tree (ex: 0.1, not 0.10000000149011612)
+                    out.name(key).value(Float.valueOf(f));
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid VCF Line: " + reformat(dataLine));
                 }
-            } else if (field.length() > 0) {
-                // dealing with field of type Flag
-                // there is no value
-                info.addProperty(field, true);
             }
         }
 
-        return info;
+        void writeArray(JsonWriter out, String key, String info, int start, int end, List<String> dataLine) throws IOException {
+            int n = 0;
+            int valueStart = start;
+            while (valueStart <= end) {
+                int valueEnd = commaOrEnd(info, valueStart, end);
+                if (!isMissingValue(info, valueStart, valueEnd)) {
+                    try {
+                        float f = Float.parseFloat(info.substring(valueStart, valueEnd).trim());
+                        if (n == mFloatValues.length) {
+                            mFloatValues = Arrays.copyOf(mFloatValues, n * 2);
+                        }
+                        mFloatValues[n++] = f;
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid VCF Line: " + reformat(dataLine));
+                    }
+                }
+                valueStart = valueEnd + 1;
+            }
+            if (n > 0) {
+                out.name(key).beginArray();
+                for (int i = 0; i < n; i++) {
+                    out.value(Float.valueOf(mFloatValues[i]));
+                }
+                out.endArray();
+            }
+        }
+    }
+
+    /** For Type=String and Type=Character */
+    private class StringDecoder extends InfoDecoder {
+        StringDecoder(String id, boolean isArray) {
+            super(id, isArray);
+        }
+
+        boolean isValid(String info, int start, int end) {
+            return true;
+        }
+
+        void writeValue(JsonWriter out, String key, String info, int start, int end, List<String> dataLine) throws IOException {
+            out.name(key).value(info.substring(start, end));
+        }
+
+        void writeArray(JsonWriter out, String key, String info, int start, int end, List<String> dataLine) throws IOException {
+            out.name(key).beginArray();
+            int valueStart = start;
+            while (valueStart <= end) {
+                int valueEnd = commaOrEnd(info, valueStart, end);
+                out.value(info.substring(valueStart, valueEnd));
+                valueStart = valueEnd + 1;
+            }
+            out.endArray();
+        }
+    }
+
+    /** For fields that never have a value in the JSON (Type=Flag, or Number=0 with a value) */
+    private class NoValueDecoder extends InfoDecoder {
+        NoValueDecoder(String id) {
+            super(id, false);
+        }
+
+        boolean isValid(String info, int start, int end) {
+            return false;
+        }
+
+        void writeValue(JsonWriter out, String key, String info, int start, int end, List<String> dataLine) {
+        }
+
+        void writeArray(JsonWriter out, String key, String info, int start, int end, List<String> dataLine) {
+        }
+    }
+
+    /**
+     * @return the end of the ',' delimited values in info[start, end), without the trailing empty
+     *         values, or -1 if they are all empty (the same values as split(","), which keeps one
+     *         empty value if there is no ',')
+     */
+    private static int arrayEnd(String info, int start, int end) {
+        if (commaOrEnd(info, start, end) < end) {
+            while (end > start && info.charAt(end - 1) == ',') {
+                end--;
+            }
+            if (end == start) {
+                return -1;
+            }
+        }
+        return end;
+    }
+
+    private static int commaOrEnd(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) == ',') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Determines whether s[start, end) represents a "missing" value.  It is
+     * common to use a '.' character to designate a value that is missing in
+     * structured columns such as ALT or for fields in the INFO column.
+     *
+     * @return true if the value, trimmed, is '.'
+     */
+    private static boolean isMissingValue(String s, int start, int end) {
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end - start == 1 && s.charAt(start) == '.';
     }
 
     /**
-     * Adds core attributes relevant to a variant to the given JSON object.
+     * Same as Integer.parseInt(s.substring(start, end).trim()), without the substring for
+     * plain numbers
+     */
+    static int parseInt(String s, int start, int end) throws NumberFormatException {
+        int from = start;
+        int to = end;
+        while (from < to && s.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && s.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        boolean negative = from < to && s.charAt(from) == '-';
+        int digits = from + (negative ? 1 : 0);
+        // up to 9 digits can't overflow
+        if (to > digits && to - digits <= 9) {
+            int value = 0;
+            int i = digits;
+            while (i < to) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                i++;
+            }
+            if (i == to) {
+                return negative ? -value : value;
+            }
+        }
+        return Integer.parseInt(s.substring(from, to));
+    }
+
+    /**
+     * true if a FORMAT key is repeated, or is one of the keys that are added to each sample
+     */
+    private static boolean hasRepeatedFormatKeys(String[] tokens) {
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i].equals("GenotypePositive") || tokens[i].equals("sampleID")) {
+                return true;
+            }
+            for (int j = 0; j < i; j++) {
+                if (tokens[i].equals(tokens[j])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds core attributes relevant to a variant to the JSON.
      *
-     * @param root JSON object to add to.
+     * @param out JSON to add to.
      * @param history Data row from VCF.
      */
-    private void addCoreAttributes(JsonObject root, List<String> history) {
+    private void writeCoreAttributes(JsonWriter out, List<String> history) throws IOException {
 
         //guaranteed to be unique, if no then perhaps bug
-        String accID = history.get(COL_ID).trim();
-        root.addProperty(CoreAttributes._id.toString(), accID);
+        out.name(CoreAttributes._id.toString()).value(history.get(COL_ID).trim());
 
-        root.addProperty(CoreAttributes._type.toString(), Type.VARIANT.toString());
+        out.name(CoreAttributes._type.toString()).value(Type.VARIANT.toString());
 
         String chr = GenomicObjectUtils.computechr(history.get(COL_CHROM).trim());
-        root.addProperty(CoreAttributes._landmark.toString(), chr);
+        out.name(CoreAttributes._landmark.toString()).value(chr);
 
-        String refAllele = history.get(COL_REF).trim();
-        root.addProperty(CoreAttributes._refAllele.toString(), refAllele);
+        out.name(CoreAttributes._refAllele.toString()).value(history.get(COL_REF).trim());
 
-        JsonArray altAlleles = new JsonArray();
+        out.name(CoreAttributes._altAlleles.toString()).beginArray();
         for (String allele: al(history.get(COL_ALT).trim())) {
-            altAlleles.add(new JsonPrimitive(allele));
+            out.value(allele);
         }
-        root.add(CoreAttributes._altAlleles.toString(), altAlleles);
+        out.endArray();
 
         if (history.get(COL_POS) != null) {
-            String pos = history.get(COL_POS).trim();
-            int minBP = new Integer(pos);
-            int maxBP = new Integer(minBP + history.get(COL_REF).trim().length() - 1);
+            int minBP = Integer.parseInt(history.get(COL_POS).trim());
+            int maxBP = minBP + history.get(COL_REF).trim().length() - 1;
 
-            root.addProperty(CoreAttributes._minBP.toString(), minBP);
-            root.addProperty(CoreAttributes._maxBP.toString(), maxBP);
+            out.name(CoreAttributes._minBP.toString()).value(minBP);
+            out.name(CoreAttributes._maxBP.toString()).value(maxBP);
         }
     }
 
@@ -471,23 +992,6 @@ public class VCF2VariantPipe extends AbstractPipe<History,History> {
         }
     };
 
-    /**
-     * Determines whether the given value represents a "missing" value.  It is
-     * common to use a '.' character to designate a value that is missing in
-     * structured columns such as ALT or for fields in the INFO column.
-     *
-     * @param value The value to check
-     * @return true if the value is missing
-     */
-    private boolean isMissingValue(String value) {
-        String trimVal = value.trim();
-        if (trimVal.equals(".")) {
-            return true;
-        } else {
-            return false;
-        }
-    }
-
     /**
      * Metadata about an INFO field.
      */
@@ -514,59 +1018,328 @@ public class VCF2VariantPipe extends AbstractPipe<History,History> {
         else return ""; //unknown
     }
 
+    public boolean firstSample = true;
     /**
-     * Adds the sample information to the given JSON object.
+     * Adds the sample information (the samples and a FORMAT summary) to the JSON.
+     * Only the selected samples are read, see setSampleNames() and setSampleColumns().
+     * With setGenotypeCountsOnly(), only the GT value of each sample is read, and only the
+     * genotype positive count and list are added.
      *
-     * @param root JSON object to add to.
+     * @param out JSON to add to.
      * @param history Data row from VCF.
+     * @throws ParseException if a sample has more values than the FORMAT column has keys.
+     *         This is checked for all of the samples before any of them are written, so
+     *         the JSON then has no samples or FORMAT.
      */
-    public boolean firstSample = true;
-    private void addSamples(JsonObject root, List<String> history) throws ParseException {
-        this.GenotypePostitiveCount = 0;
-        this.GenotypePositiveSamples = new JsonArray();
-        this.ALLAD = new ArrayList<Double>();
-        this.ALLPL = new ArrayList<Double>();
-        String[] tokens;
-        if(firstSample){
-//            String format = History.getMetaData().getColumns().get(COL_FORMAT).getColumnName();
-//            if(!format.contains("FORMAT")){
-//                //if we don't have a format column, sorry, we can't process the sample data, just return
-//                return;
-//            }
-//            firstSample = false;
-            //if we have a format column and sample data
-            if(History.getMetaData().getColumns().size() > COL_FORMAT){
-                String format = History.getMetaData().getColumns().get(COL_FORMAT).getColumnName();
-                if(!format.contains("FORMAT")){
-                    //if we don't have a format column, sorry, we can't process the sample data, just return
-                    return;
+    private void writeSamples(JsonWriter out, History history) throws ParseException, IOException {
+        if(!firstSample){
+            return;
+        }
+        //if we have a format column and sample data
+        List<ColumnMetaData> columns = history.getHistoryMetaData().getColumns();
+        if(columns.size() <= COL_FORMAT || !columns.get(COL_FORMAT).getColumnName().contains("FORMAT")){
+            //if we don't have a format column, sorry, we can't process the sample data, just return
+            return;
+        }
+        String[] tokens = history.get(COL_FORMAT).split(":");
+
+        //make sure all the format tokens are in the metadata hash
+        for(String tok : tokens){
+            this.formatKeys.put(tok, true);
+        }
+
+        int[] sampleColumns = getSampleColumns(columns, history.size());
+        int gtPosition = findGT(tokens);
+        mGenotypePositive.clear();
+
+        if(mGenotypeCountsOnly){
+            for(int i : sampleColumns){
+                String col = columns.get(i).getColumnName();
+                String gt = gtPosition > -1 ? getValue(history.get(i), gtPosition) : null;
+                if(gt != null && sampleHasVariant(gt)){
+                    mGenotypePositive.add(col);
                 }
-            }else {
-                return; //can't process the samples because they don't exist
+                //make sure that col is in the metadata hash
+                this.sampleKeys.put(col, i+1);
+            }
+        }else{
+            String[][] samples = new String[sampleColumns.length][];
+            for(int k=0; k<sampleColumns.length; k++){
+                int i = sampleColumns[k];
+                String col = columns.get(i).getColumnName();
+                samples[k] = splitSample(history.get(i), tokens);
+                //make sure that col is in the metadata hash
+                this.sampleKeys.put(col, i+1);
             }
-            tokens = history.get(COL_FORMAT).split(":");
 
-            //make sure all the format tokens are in the metadata hash
-            for(String tok : tokens){
-                this.formatKeys.put(tok, true);
+            boolean repeatedKeys = hasRepeatedFormatKeys(tokens);
+            out.name("samples").beginArray();
+            for(int k=0; k<sampleColumns.length; k++){
+                String col = columns.get(sampleColumns[k]).getColumnName();
+                writeSample(out, samples[k], col, tokens, gtPosition, repeatedKeys);
             }
+            out.endArray();
+        }
 
-            JsonArray samples = new JsonArray();
-            //start at the first sample column (format +1) and go until the end of the array.
-            for(int i=COL_FORMAT+1; i<history.size(); i++){
-                String col = History.getMetaData().getColumns().get(i).getColumnName();
+        //add format calculations from the sample columns
+        out.name("FORMAT").beginObject();
+        if(!mGenotypeCountsOnly){
+            writeFormatJSON(out, history, sampleColumns);
+        }
+        out.name("GenotypePostitiveCount").value(mGenotypePositive.size());
+        out.name("GenotypePositiveList").beginArray();
+        for(String sampleName : mGenotypePositive){
+            out.value(sampleName);
+        }
+        out.endArray();
+        out.endObject();
+    }
 
-                parseSample(history.get(i), samples, col, tokens);
-                //make sure that col is in the metadata hash
-                this.sampleKeys.put(col, i+1);
+    /**
+     * The (0 based) columns of the samples to process in a row
+     *
+     * @param columns  the header's columns
+     * @param rowSize  # of columns in the row
+     */
+    private int[] getSampleColumns(List<ColumnMetaData> columns, int rowSize) {
+        if(mSampleNames == null && mSampleColumnNumbers == null){
+            //all of the samples in the row
+            if(mSampleColumns == null || mSampleColumns.length != Math.max(0, rowSize - COL_FORMAT - 1)){
+                mSampleColumns = new int[Math.max(0, rowSize - COL_FORMAT - 1)];
+                for(int k=0; k<mSampleColumns.length; k++){
+                    mSampleColumns[k] = COL_FORMAT + 1 + k;
+                }
+            }
+            return mSampleColumns;
+        }
+
+        if(mSampleColumns == null){
+            mSampleColumns = resolveSampleColumns(columns);
+        }
+        //leave out the selected samples that a short row does not have
+        int n = 0;
+        while(n < mSampleColumns.length && mSampleColumns[n] < rowSize){
+            n++;
+        }
+        return n == mSampleColumns.length ? mSampleColumns : Arrays.copyOf(mSampleColumns, n);
+    }
+
+    /**
+     * Finds the selected samples in the #CHROM header
+     *
+     * @return the (0 based) columns of the samples, in the same order as the header
+     * @throws IllegalArgumentException if a sample is not in the header
+     */
+    private int[] resolveSampleColumns(List<ColumnMetaData> columns) {
+        TreeSet<Integer> selected = new TreeSet<Integer>();
+        if(mSampleNames != null){
+            List<String> notFound = new ArrayList<String>();
+            for(String name : mSampleNames){
+                int i = COL_FORMAT + 1;
+                while(i < columns.size() && !columns.get(i).getColumnName().equals(name)){
+                    i++;
+                }
+                if(i < columns.size()){
+                    selected.add(i);
+                }else{
+                    notFound.add(name);
+                }
+            }
+            if(notFound.size() > 0){
+                throw new IllegalArgumentException("Samples not found in the VCF header: " + notFound);
+            }
+        }
+        if(mSampleColumnNumbers != null){
+            for(int number : mSampleColumnNumbers){
+                if(number <= COL_FORMAT + 1 || number > columns.size()){
+                    throw new IllegalArgumentException("Column " + number + " is not a sample column in the VCF header (the samples are columns "
+                            + (COL_FORMAT + 2) + " to " + columns.size() + ")");
+                }
+                selected.add(number - 1);
+            }
+        }
+        int[] resolved = new int[selected.size()];
+        int k = 0;
+        for(Integer i : selected){
+            resolved[k++] = i;
+        }
+        return resolved;
+    }
+
+    /**
+     * The n-th (0 based) ':' delimited value of a sample, without splitting the rest of it
+     *
+     * @return the value, null if the sample does not have that many values
+     */
+    static String getValue(String sample, int n) {
+        int start = 0;
+        for(int k=0; k<n; k++){
+            start = sample.indexOf(':', start) + 1;
+            if(start == 0){
+                return null;
+            }
+        }
+        int end = sample.indexOf(':', start);
+        return end == -1 ? sample.substring(start) : sample.substring(start, end);
+    }
+
+    /**
+     * Writes the sample to out, if it is kept (it has variant data, or all samples were asked for)
+     *
+     * @param split  the sample's values (from splitSample())
+     * @param gtPosition  the index of GT in the FORMAT keys, -1 if there is none
+     * @param repeatedKeys  true if a FORMAT key is repeated (see hasRepeatedFormatKeys())
+     */
+    private void writeSample(JsonWriter out, String[] split, String sampleName, String[] tokens, int gtPosition, boolean repeatedKeys) throws IOException {
+        //GenotypePositive for those samples that contain the variant in the GT string
+        boolean positive = gtPosition > -1 && sampleHasVariant(split[gtPosition]);
+        if(positive){
+            mGenotypePositive.add(sampleName);
+        }
+        //samples without variant data are left out, unless all samples were asked for
+        boolean keep = this.allSamples || (gtPosition > -1 && !sampleHasNoVariantData(split[gtPosition]));
+        if(!keep){
+            return;
+        }
+
+        out.beginObject();
+        boolean isPositiveWritten = false;
+        boolean isSampleIDWritten = false;
+        //go through the format columns
+        for(int i=0; i<split.length; i++){
+            String value = split[i];
+            if(repeatedKeys){
+                //a repeated key gets its last value, in the place of the first one (same as a JsonObject)
+                if(indexOf(tokens, tokens[i], 0, i) != -1){
+                    continue;
+                }
+                for(int j=i+1; j<split.length; j++){
+                    if(tokens[j].equals(tokens[i])){
+                        value = split[j];
+                    }
+                }
+                if(positive && tokens[i].equals("GenotypePositive")){
+                    out.name(tokens[i]).value(1);
+                    isPositiveWritten = true;
+                    continue;
+                }
+                if(tokens[i].equals("sampleID")){
+                    out.name(tokens[i]).value(sampleName);
+                    isSampleIDWritten = true;
+                    continue;
+                }
+            }
+            out.name(tokens[i]);
+            if(value.contains(",")){ //it is an array
+                out.beginArray();
+                for(String s : value.split(",")){
+                    if(isNumeric(s)){
+                        out.value(Double.parseDouble(s.trim()));
+                    }else{
+                        out.value(s);
+                    }
+                }
+                out.endArray();
+            }else if(isNumeric(value)){
+                out.value(Double.parseDouble(value));
+            }else{
+                out.value(value);
+            }
+        }
+        if(positive && !isPositiveWritten){
+            out.name("GenotypePositive").value(1);
+        }
+        if(!isSampleIDWritten){
+            out.name("sampleID").value(sampleName);
+        }
+        out.endObject();
+    }
+
+    /** @return the index of key in keys[from, to), or -1 */
+    private static int indexOf(String[] keys, String key, int from, int to){
+        for(int i=from; i<to; i++){
+            if(keys[i].equals(key)){
+                return i;
             }
-            root.add("samples", samples);
-            //add format calculations from the sample columns
-            JsonObject format = buildFormatJSON(history);
-            format.addProperty("GenotypePostitiveCount", this.GenotypePostitiveCount);
-            format.add("GenotypePositiveList", this.GenotypePositiveSamples);
-            root.add("FORMAT", format);
         }
+        return -1;
+    }
+
+    /**
+     * Writes the max and min of each numeric FORMAT key (except GT) over the given samples to out.
+     * The values are summarized as they are parsed instead of being collected in lists first.
+     */
+    private void writeFormatJSON(JsonWriter out, List<String> dataLine, int[] sampleColumns) throws IOException {
+        String[] formatTokens = dataLine.get(COL_FORMAT).split(":");
+        if(formatTokens.length < 1){
+            return; //nothing to format
+        }
+        // {min, max} per key
+        HashMap<String,double[]> minMax = new HashMap<String,double[]>();
+        for(int i : sampleColumns){
+            String[] values = dataLine.get(i).split(":");
+            if(values.length != formatTokens.length){
+                //malformed input or empty sample, don't process this sample
+                continue;
+            }
+            for(int j=0;j<formatTokens.length;j++){
+                if(formatTokens[j].equals("GT") || values[j].equalsIgnoreCase(".")){
+                    continue;
+                }
+                if(isNumeric(values[j])){
+                    addMinMax(minMax, formatTokens[j], Double.parseDouble(values[j]));
+                }else{
+                    String[] nums = values[j].split(",");
+                    if(nums.length < 2 || !allNumeric(nums)){
+                        continue;
+                    }
+                    for(String num : nums){
+                        addMinMax(minMax, formatTokens[j], Double.parseDouble(num.trim()));
+                    }
+                }
+            }
+        }
+        out.name("max").beginObject();
+        for(String key : minMax.keySet()){
+            out.name(key).value(minMax.get(key)[1]);
+        }
+        out.endObject();
+        out.name("min").beginObject();
+        for(String key : minMax.keySet()){
+            out.name(key).value(minMax.get(key)[0]);
+        }
+        out.endObject();
+    }
+
+    private static void addMinMax(HashMap<String,double[]> minMax, String key, double d){
+        double[] mm = minMax.get(key);
+        if(mm == null){
+            mm = new double[] { Double.MAX_VALUE, Double.NEGATIVE_INFINITY };
+            minMax.put(key, mm);
+        }
+        if(d < mm[0]) mm[0] = d;
+        if(d > mm[1]) mm[1] = d;
+    }
+
+    private static boolean allNumeric(String[] nums){
+        for(String num : nums){
+            if(!isNumeric(num)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * splits a sample into its values
+     * @throws ParseException if there are more values than FORMAT keys
+     */
+    private String[] splitSample(String sample, String[] tokens) throws ParseException {
+        String[] split = sample.split(":");
+        if(split.length > tokens.length){
+            throw new ParseException("VCF2VariantPipe.splitSample: the number of tokens in the format field (" + tokens.length + ") and the number of tokens in the sample (" + split.length + ") do not agree. \nFORMAT:"+Arrays.toString(tokens)+"\nSAMPLE: "+sample+"\n", 0);
+        }
+        return split;
     }
 
     private int findGT(String[] t){
@@ -594,15 +1367,14 @@ public class VCF2VariantPipe extends AbstractPipe<History,History> {
      * @return
      */
     public boolean sampleHasVariant(String genotype){
-        String s1 = genotype.replaceAll("\\.", "");
-        String s2 = s1.replaceAll("0", "");
-        String s3 = s2.replaceAll("\\|", "");
-        String s4 = s3.replaceAll("/", "");
-        if(s4.length() > 0){
-            return true;
-        }else {
-            return false;
+        //true if there is something other than '.', '0', '|' and '/'
+        for(int i=0; i<genotype.length(); i++){
+            char c = genotype.charAt(i);
+            if(c != '.' && c != '0' && c != '|' && c != '/'){
+                return true;
+            }
         }
+        return false;
     }
 
     /**
@@ -624,110 +1396,83 @@ public class VCF2VariantPipe extends AbstractPipe<History,History> {
         return str.matches("-?\\d+(\\.\\d+)?");  //match a number with optional '-' and decimal.
     }
 
-    private int GenotypePostitiveCount = 0;
-    private JsonArray GenotypePositiveSamples = new JsonArray();
-    private ArrayList<Double> ALLPL = new ArrayList<Double>();
-    private ArrayList<Double> ALLAD = new ArrayList<Double>();
-    /**
-     * parse the sample and add it
-     * sample: the data for the sample e.g.
-     */
-    public void parseSample(String sampleID, JsonArray samples, String sampleName, String[] tokens) throws ParseException{
-        //System.out.println(Arrays.toString(tokens));
-        //System.out.println(sampleName);
-        //System.out.println(sampleID);
-        String[] split = sampleID.split(":");
-        if(split.length > tokens.length){
-            throw new ParseException("VCF2VariantPipe.parseSample: the number of tokens in the format field (" + tokens.length + ") and the number of tokens in the sample (" + split.length + ") do not agree. \nFORMAT:"+Arrays.toString(tokens)+"\nSAMPLE: "+sampleID+"\n", 0);
-        }
-        //find the index of "GT" in the format column
-        int GTPosition = findGT(tokens);
-        JsonObject genotype = new JsonObject();
-        //go through the format columns
-        for(int i=0; i<split.length; i++){
-            if(split[i].contains(",")){ //it is an array
-                String[] arr = split[i].split(",");
-                JsonArray jarr = new JsonArray();
-                ArrayList<Double> values = new ArrayList<Double>();
-                for(int j=0;j<arr.length;j++){
-                    //it is a list of numbers
-                    if(isNumeric(arr[j])){
-                        double d = Double.parseDouble(arr[j].trim());
-                        jarr.add(new JsonPrimitive(d));
-                        values.add(d);
-                        //list of strings, add them...
-                    }else{
-                        jarr.add(new JsonPrimitive(arr[j]));
-                    }
-                }
-                genotype.add(tokens[i], jarr);
-            }else if(isNumeric(split[i])){ //it is not
-                genotype.addProperty(tokens[i], Double.parseDouble(split[i]));
-            }else { //it is a string, so just add it as a string.
-                genotype.addProperty(tokens[i], split[i]);
-            }
+    // per-line scratch for the streaming JSON writer, reused for every line
+    private final StringWriter mJsonBuffer = new StringWriter(1024);
+    private final ArrayList<String> mGenotypePositive = new ArrayList<String>();
+    private int[] mIntValues = new int[8];
+    private float[] mFloatValues = new float[8];
+    // used where an INFO field is not defined in the header, in these special cases, treat as a string
+    private final InfoDecoder mDefaultDecoder = new StringDecoder(null, false);
+    // the repeated INFO fields that are not kept are written here (see dropRepeatedIds())
+    private JsonWriter mDiscard = null;
+    private static final Writer NULL_WRITER = new Writer() {
+        public void write(char[] cbuf, int off, int len) {
         }
 
-        //now add GenotypePositive for those samples that contain the variant in the GT string
-        if(GTPosition > -1){
-            if(sampleHasVariant(split[GTPosition])){//if the sample GT value (e.g. "0/0/0/0/1/0" contains something other than /,.,|,or 0 (, not included)
-                //insert GenotypePositive if the sample has the variant.
-                genotype.addProperty("GenotypePositive", 1);
-                this.GenotypePostitiveCount++;
-                JsonPrimitive prim = new JsonPrimitive(sampleName);
-                this.GenotypePositiveSamples.add( prim );
-            }
+        public void flush() {
         }
-        genotype.addProperty("sampleID", sampleName);
 
-        if(this.allSamples == true){
-            samples.add(genotype);
-        }else {
-            if(GTPosition > -1){
-                if(sampleHasNoVariantData(split[GTPosition])){
-                    //don't add it to the JSON Array, it is just wasteful
-                }else{
-                    samples.add(genotype);
-                }
-            }
+        public void close() {
         }
+    };
+    // the decoders for the header's fields, by ID (open addressing), made on the first line
+    private InfoDecoder[] mDecoderTable = null;
+    // the INFO fields found by scanInfo()
+    private int[] mFieldStarts = new int[32];
+    private int[] mFieldEqs = new int[32];
+    private int[] mFieldEnds = new int[32];
+    private InfoDecoder[] mFieldDecoders = new InfoDecoder[32];
+    private long mInfoLine = 0;
 
-
-        //System.out.println(genotype.toString());
-        //System.out.println(root.toString());
-
+    /**
+     * parse the sample and add it to samples (if it is kept), the same as it is written in the
+     * line's JSON (see writeSample())
+     * @param sampleID  the data for the sample e.g. 0/1:35
+     * @param tokens  the FORMAT keys e.g. GT:DP split on ':'
+     */
+    public void parseSample(String sampleID, JsonArray samples, String sampleName, String[] tokens) throws ParseException{
+        String[] split = splitSample(sampleID, tokens);
+        StringWriter buf = new StringWriter();
+        try {
+            JsonWriter out = new JsonWriter(buf);
+            out.setLenient(true);
+            writeSample(out, split, sampleName, tokens, findGT(tokens), hasRepeatedFormatKeys(tokens));
+            out.flush();
+        } catch (IOException e) {
+            // a StringWriter does not throw them
+            throw new IllegalStateException(e);
+        }
+        if(buf.getBuffer().length() > 0){
+            samples.add(new JsonParser().parse(buf.toString()));
+        }
     }
 
     /**
      * Takes a line of VCF and creates a FORMAT JSON that has attributes based on
-     * the information found in the sample.
+     * the information found in the sample.  Same as the "max" and "min" written in
+     * the FORMAT of the line's JSON, over all of the samples.
      *
      * @param dataLine
      * @return
      */
     public JsonObject buildFormatJSON(List<String> dataLine){
-        JsonObject format = new JsonObject();
-
-        String formatStr = dataLine.get(COL_FORMAT);
-        String[] formatTokens = formatStr.split(":");
-        if(formatTokens.length < 1){
-            return format; //return an empty object, nothing to format
+        int[] sampleColumns = new int[Math.max(0, dataLine.size() - COL_FORMAT - 1)];
+        for(int k=0; k<sampleColumns.length; k++){
+            sampleColumns[k] = COL_FORMAT + 1 + k;
         }
-        //System.out.println(formatStr);
-
-        HashMap<String,List<Double>> allVals = getSampleVals4Row(dataLine, formatTokens);
-        //then create summary statistics, for each token in the FORMAT field.
-        JsonObject max = new JsonObject();
-        JsonObject min = new JsonObject();
-        for(String key : allVals.keySet()){
-            max.addProperty(key, max(allVals.get(key)));
-            min.addProperty(key, min(allVals.get(key)));
+        StringWriter buf = new StringWriter();
+        try {
+            JsonWriter out = new JsonWriter(buf);
+            out.setLenient(true);
+            out.beginObject();
+            writeFormatJSON(out, dataLine, sampleColumns);
+            out.endObject();
+            out.flush();
+        } catch (IOException e) {
+            // a StringWriter does not throw them
+            throw new IllegalStateException(e);
         }
-        format.add("max", max);
-        format.add("min", min);
-
-
-        return format;
+        return new JsonParser().parse(buf.toString()).getAsJsonObject();
     }
 
     /**
@@ -826,6 +1571,19 @@ public class VCF2VariantPipe extends AbstractPipe<History,History> {
         return formatKeys;
     }
 
+    /**
+     * Adds the FORMAT keys and sample columns seen by another pipe to this one's
+     * (ex: to get the metadata for all of the lines processed by several pipes)
+     */
+    void addKeys(VCF2VariantPipe other) {
+        if (!isHeaderProcessed && other.isHeaderProcessed) {
+            fieldMap = other.fieldMap;
+            isHeaderProcessed = true;
+        }
+        formatKeys.putAll(other.formatKeys);
+        sampleKeys.putAll(other.sampleKeys);
+    }
+
     private static final String HEADER = "HEADER";
     //reserved field types in the header
     private static final String INFO = "INFO";
@@ -4,6 +4,7 @@
  */
 package edu.mayo.pipes.bioinformatics.sequence;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
@@ -33,10 +34,14 @@ import edu.mayo.pipes.bioinformatics.vocab.CoreAttributes;
  * is the same as
  * 22    1000    1010
  * 
+ * The reference can be the tabix catalog made by Fasta2Tabix, or a .2bit file
+ * (see TwoBitReference), which is read directly by position, without any tabix queries.
  */
 public class Bed2SequencePipe extends AbstractPipe<ArrayList<String>,ArrayList<String>> {
 
     TabixSearchPipe mTabixSearch;
+    /** The reference, if it is a .2bit file (then mTabixSearch is not used) */
+    private TwoBitReference mTwoBit = null;
     private int mMaxBpCol = -1;
     private boolean mIsUseJsonCol = false;
     
@@ -46,7 +51,7 @@ public class Bed2SequencePipe extends AbstractPipe<ArrayList<String>,ArrayList<S
 
     
     public Bed2SequencePipe(String tabixDataFile) throws IOException {
-        mTabixSearch = new TabixSearchPipe(tabixDataFile);
+        init(tabixDataFile);
     }
     
     /**
@@ -62,12 +67,12 @@ public class Bed2SequencePipe extends AbstractPipe<ArrayList<String>,ArrayList<S
      * @throws IOException 
      */
     public Bed2SequencePipe(String tabixDataFile, int column) throws IOException {
-        mTabixSearch = new TabixSearchPipe(tabixDataFile);
+        init(tabixDataFile);
         this.mMaxBpCol = column;
     }
 
     public Bed2SequencePipe(String tabixDataFile, int column, boolean isUseJson) throws IOException {
-        mTabixSearch = new TabixSearchPipe(tabixDataFile);
+        init(tabixDataFile);
         this.mMaxBpCol = column;
         mIsUseJsonCol = isUseJson;
         mChromJsonPath = JsonPath.compile(CoreAttributes._landmark.toString());
@@ -85,7 +90,7 @@ public class Bed2SequencePipe extends AbstractPipe<ArrayList<String>,ArrayList<S
      * @throws IOException 
      */
     public Bed2SequencePipe(String tabixDataFile, boolean isUseJson) throws IOException {
-        mTabixSearch = new TabixSearchPipe(tabixDataFile);
+        init(tabixDataFile);
         mIsUseJsonCol = isUseJson;
         mChromJsonPath = JsonPath.compile(CoreAttributes._landmark.toString());
         mMinBpJsonPath = JsonPath.compile(CoreAttributes._minBP.toString());
@@ -93,6 +98,13 @@ public class Bed2SequencePipe extends AbstractPipe<ArrayList<String>,ArrayList<S
     }
 
 
+    private void init(String referenceFile) throws IOException {
+        if( TwoBitReference.isTwoBit(new File(referenceFile)) )
+            mTwoBit = new TwoBitReference(new File(referenceFile));
+        else
+            mTabixSearch = new TabixSearchPipe(referenceFile);
+    }
+
     int start = 0;
     int end = 0;
     String result = "";
@@ -114,6 +126,10 @@ public class Bed2SequencePipe extends AbstractPipe<ArrayList<String>,ArrayList<S
     
     /** Get the one-based subsequence that matches the range in the query */
     private String getSequence(String tabixQuery) throws NumberFormatException, IOException {
+        if( mTwoBit != null ) {
+            String seq = mTwoBit.getSequence(tabixQuery.substring(0, tabixQuery.indexOf(":")), getMin(tabixQuery), getMax(tabixQuery));
+            return seq == null ? "." : seq;
+        }
     	StringBuilder subsequence = new StringBuilder();
         records = mTabixSearch.tquery(tabixQuery);
         
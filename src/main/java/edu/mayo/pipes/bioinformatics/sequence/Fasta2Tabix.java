@@ -16,6 +16,8 @@ import edu.mayo.pipes.UNIX.GrepEPipe;
 import edu.mayo.pipes.WritePipe;
 import edu.mayo.pipes.util.GenomicObjectUtils;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -93,6 +95,23 @@ public class Fasta2Tabix {
 
     }
 
+    /**
+     * Same input as processDir, but writes a 2-bit packed reference (see TwoBitReference)
+     * instead of the text catalog.  Bed2SequencePipe can read either one.
+     * @param dir  - the directory where all the source data is
+     * @param build - e.g. GRCh37.p10 or GRCh37.p13, ...
+     * @param output - the .2bit file to create
+     */
+    public void processDirTwoBit(String dir, String build, String output) throws IOException {
+        List<String> paths = createRefFileList(dir, build);
+        TwoBitReference.Writer writer = new TwoBitReference.Writer(new File(output));
+        for(int i = 0; i < paths.size(); i++){
+            System.out.println("Opening File: " + paths.get(i));
+            writer.add(GenomicObjectUtils.computechr(landmarks.get(i)), new File(paths.get(i)));
+        }
+        writer.close();
+    }
+
     /**
      * process will append the raw data from the genome file onto the output file
      * @param inputFile
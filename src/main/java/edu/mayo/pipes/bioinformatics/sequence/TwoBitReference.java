@@ -0,0 +1,415 @@
+package edu.mayo.pipes.bioinformatics.sequence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+/**
+ * A reference genome stored 2 bits per base, in the UCSC .2bit format (so it can also be read
+ * by twoBitToFa etc).  Runs of N and of lower case (soft-masked) bases are kept as lists of blocks
+ * next to the packed bases.  The packed bases of each sequence are memory-mapped when it is
+ * first read, so any range is read straight out of the file by offset, with no decompression
+ * and no lines to parse (unlike querying the Fasta2Tabix catalog).
+ * <p>
+ * Other IUPAC codes (ex: R, Y, M) are stored as N, as in the UCSC format.
+ * <p>
+ * Build it from FASTA files with a Writer (see Fasta2Tabix.processDirTwoBit()).
+ * Can be shared by several threads.
+ */
+public class TwoBitReference {
+
+    private static final int SIGNATURE = 0x1A412743;
+    private static final char[] BASES = { 'T', 'C', 'A', 'G' };
+
+    private File mFile;
+    private RandomAccessFile mRaf;
+    private ByteOrder mOrder;
+    private HashMap<String, Integer> mNameToIndex = new HashMap<String, Integer>();
+    private String[] mNames;
+    private long[] mOffsets;
+    private Sequence[] mSequences;
+
+    /** One sequence, read when it is first used */
+    private static class Sequence {
+        int size;
+        int[] nStarts, nSizes;
+        int[] maskStarts, maskSizes;
+        MappedByteBuffer packed;
+    }
+
+    /** @return true if the file starts with the .2bit signature (in either byte order) */
+    public static boolean isTwoBit(File file) {
+        if( ! file.isFile() || file.length() < 16 )
+            return false;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                int sig = raf.readInt();
+                return sig == SIGNATURE || Integer.reverseBytes(sig) == SIGNATURE;
+            } finally {
+                raf.close();
+            }
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    /** Open a .2bit file (only its list of sequences is read until a sequence is used) */
+    public TwoBitReference(File twoBitFile) throws IOException {
+        mFile = twoBitFile;
+        mRaf = new RandomAccessFile(twoBitFile, "r");
+        try {
+            ByteBuffer header = read(0, 16, ByteOrder.BIG_ENDIAN);
+            int sig = header.getInt();
+            if( sig == SIGNATURE )
+                mOrder = ByteOrder.BIG_ENDIAN;
+            else if( Integer.reverseBytes(sig) == SIGNATURE )
+                mOrder = ByteOrder.LITTLE_ENDIAN;
+            else
+                throw new IOException("Not a .2bit file: " + twoBitFile);
+            header.order(mOrder);
+            int version = header.getInt();
+            if( version != 0 )
+                throw new IOException("Unsupported .2bit version " + version + ": " + twoBitFile);
+            int count = header.getInt();
+
+            // The index: name length (1 byte), name, offset of the sequence's record (4 bytes)
+            ByteBuffer index = read(16, (int)Math.min(mRaf.length() - 16, count * (1L + 255 + 4)), mOrder);
+            mNames = new String[count];
+            mOffsets = new long[count];
+            mSequences = new Sequence[count];
+            for(int i = 0; i < count; i++) {
+                byte[] name = new byte[index.get() & 0xFF];
+                index.get(name);
+                mNames[i] = new String(name, "US-ASCII");
+                mOffsets[i] = index.getInt() & 0xFFFFFFFFL;
+                mNameToIndex.put(mNames[i], i);
+            }
+        } catch(IOException e) {
+            mRaf.close();
+            throw e;
+        } catch(RuntimeException e) {
+            mRaf.close();
+            throw new IOException("Corrupt .2bit file " + twoBitFile + ": " + e);
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /** The names of the sequences, in file order */
+    public List<String> getNames() {
+        return Arrays.asList(mNames);
+    }
+
+    /** @return the # of bases in the sequence, or -1 if there is no such sequence */
+    public int getSize(String name) throws IOException {
+        Sequence seq = load(name);
+        return seq == null ? -1 : seq.size;
+    }
+
+    /**
+     * The bases from start to end (1-based, inclusive), clipped to the end of the sequence.
+     * @param name  the sequence's name (ex: "22")
+     * @return the bases (N's, and lower case for the masked bases), or null if there is no such
+     * sequence or the range is not within it
+     */
+    public String getSequence(String name, int start, int end) throws IOException {
+        Sequence seq = load(name);
+        if( seq == null )
+            return null;
+        int beg = Math.max(start, 1) - 1; // 0-based
+        end = Math.min(end, seq.size);    // exclusive
+        if( beg >= end )
+            return null;
+
+        char[] bases = new char[end - beg];
+        MappedByteBuffer packed = seq.packed;
+        int pos = beg;
+        int i = 0;
+        // Up to the first whole byte, then 4 bases per byte
+        for( ; (pos & 3) != 0 && pos < end; pos++ )
+            bases[i++] = BASES[(packed.get(pos >> 2) >> (6 - 2 * (pos & 3))) & 3];
+        for( ; pos + 4 <= end; pos += 4 ) {
+            int b = packed.get(pos >> 2);
+            bases[i++] = BASES[(b >> 6) & 3];
+            bases[i++] = BASES[(b >> 4) & 3];
+            bases[i++] = BASES[(b >> 2) & 3];
+            bases[i++] = BASES[b & 3];
+        }
+        for( ; pos < end; pos++ )
+            bases[i++] = BASES[(packed.get(pos >> 2) >> (6 - 2 * (pos & 3))) & 3];
+
+        for(int n = firstBlock(seq.nStarts, seq.nSizes, beg); n < seq.nStarts.length && seq.nStarts[n] < end; n++) {
+            int from = Math.max(seq.nStarts[n], beg);
+            int to = Math.min(seq.nStarts[n] + seq.nSizes[n], end);
+            Arrays.fill(bases, from - beg, to - beg, 'N');
+        }
+        for(int m = firstBlock(seq.maskStarts, seq.maskSizes, beg); m < seq.maskStarts.length && seq.maskStarts[m] < end; m++) {
+            int to = Math.min(seq.maskStarts[m] + seq.maskSizes[m], end);
+            for(int p = Math.max(seq.maskStarts[m], beg); p < to; p++)
+                bases[p - beg] = Character.toLowerCase(bases[p - beg]);
+        }
+        return new String(bases);
+    }
+
+    public void close() throws IOException {
+        mRaf.close();
+    }
+
+    /** The first of the (sorted, non-overlapping) blocks that ends after pos */
+    private static int firstBlock(int[] starts, int[] sizes, int pos) {
+        int lo = 0, hi = starts.length;
+        while( lo < hi ) {
+            int mid = (lo + hi) >>> 1;
+            if( starts[mid] + sizes[mid] > pos )
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        return lo;
+    }
+
+    private synchronized Sequence load(String name) throws IOException {
+        Integer i = mNameToIndex.get(name);
+        if( i == null )
+            return null;
+        if( mSequences[i] == null ) {
+            long pos = mOffsets[i];
+            Sequence seq = new Sequence();
+            ByteBuffer buf = read(pos, 8, mOrder);
+            seq.size = buf.getInt();
+            int nCount = buf.getInt();
+            pos += 8;
+            buf = read(pos, 8 * nCount + 4, mOrder);
+            seq.nStarts = getInts(buf, nCount);
+            seq.nSizes = getInts(buf, nCount);
+            int maskCount = buf.getInt();
+            pos += 8 * nCount + 4;
+            buf = read(pos, 8 * maskCount, mOrder);
+            seq.maskStarts = getInts(buf, maskCount);
+            seq.maskSizes = getInts(buf, maskCount);
+            pos += 8 * maskCount + 4; // + reserved
+            seq.packed = mRaf.getChannel().map(FileChannel.MapMode.READ_ONLY, pos, (seq.size + 3) / 4);
+            mSequences[i] = seq;
+        }
+        return mSequences[i];
+    }
+
+    private static int[] getInts(ByteBuffer buf, int count) {
+        int[] ints = new int[count];
+        buf.asIntBuffer().get(ints);
+        buf.position(buf.position() + 4 * count);
+        return ints;
+    }
+
+    private ByteBuffer read(long pos, int len, ByteOrder order) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        FileChannel channel = mRaf.getChannel();
+        while( buf.hasRemaining() ) {
+            if( channel.read(buf, pos + buf.position()) < 0 )
+                throw new IOException("Unexpected end of " + mFile);
+        }
+        buf.flip();
+        buf.order(order);
+        return buf;
+    }
+
+
+    /**
+     * Writes a .2bit file from FASTA files, one sequence at a time:
+     * <pre>
+     *   TwoBitReference.Writer writer = new TwoBitReference.Writer(new File("hs_ref_GRCh37.p10.2bit"));
+     *   writer.add("1", new File("hs_ref_GRCh37.p10_chr1.fa.gz"));
+     *   ...
+     *   writer.close();
+     * </pre>
+     * The sequences are packed into a temp file next to the output, and the output is written on close().
+     */
+    public static class Writer {
+        private File mOut;
+        private File mTemp;
+        private OutputStream mTempOut;
+        private List<String> mNames = new ArrayList<String>();
+        private List<Long> mRecordLengths = new ArrayList<Long>();
+
+        public Writer(File twoBitFile) throws IOException {
+            mOut = twoBitFile;
+            mTemp = File.createTempFile("twoBit", ".tmp", twoBitFile.getAbsoluteFile().getParentFile());
+            mTempOut = new BufferedOutputStream(new FileOutputStream(mTemp), 1024 * 1024);
+        }
+
+        /**
+         * Add the sequence in a FASTA file (the header lines that start with '>' are skipped,
+         * so all of the file's bases become one sequence)
+         * @param name  the name to look the sequence up by (ex: "22", as in the Fasta2Tabix catalog)
+         * @param fasta  the FASTA file (plain text, or gzip if it ends with .gz)
+         */
+        public void add(String name, File fasta) throws IOException {
+            if( mNames.contains(name) )
+                throw new IllegalArgumentException("Sequence " + name + " was already added");
+            if( name.length() > 255 )
+                throw new IllegalArgumentException("Sequence name is too long: " + name);
+            InputStream in = new BufferedInputStream(new FileInputStream(fasta), 1024 * 1024);
+            try {
+                if( fasta.getName().endsWith(".gz") )
+                    in = new BufferedInputStream(new GzipCompressorInputStream(in, true), 1024 * 1024);
+                pack(name, in);
+            } finally {
+                in.close();
+            }
+        }
+
+        /** Write the .2bit file, and delete the temp file */
+        public void close() throws IOException {
+            mTempOut.close();
+            try {
+                int count = mNames.size();
+                long indexLen = 0;
+                for(String name : mNames)
+                    indexLen += 1 + name.length() + 4;
+                ByteBuffer header = ByteBuffer.allocate((int)(16 + indexLen)).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(SIGNATURE);
+                header.putInt(0);
+                header.putInt(count);
+                header.putInt(0);
+                long offset = 16 + indexLen;
+                for(int i = 0; i < count; i++) {
+                    if( offset > 0xFFFFFFFFL )
+                        throw new IOException("Too much sequence for a .2bit file: " + mOut);
+                    header.put((byte)mNames.get(i).length());
+                    header.put(mNames.get(i).getBytes("US-ASCII"));
+                    header.putInt((int)offset);
+                    offset += mRecordLengths.get(i);
+                }
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(mOut), 1024 * 1024);
+                try {
+                    out.write(header.array());
+                    InputStream in = new FileInputStream(mTemp);
+                    try {
+                        byte[] buf = new byte[1024 * 1024];
+                        int n;
+                        while( (n = in.read(buf)) > 0 )
+                            out.write(buf, 0, n);
+                    } finally {
+                        in.close();
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                mTemp.delete();
+            }
+        }
+
+        /** Pack the bases and write the sequence's record to the temp file */
+        private void pack(String name, InputStream in) throws IOException {
+            ByteArrayOutputStream packed = new ByteArrayOutputStream(1024 * 1024);
+            IntList nBlocks = new IntList();    // start, size, start, size...
+            IntList maskBlocks = new IntList();
+            int size = 0;
+            int b = 0;
+            boolean isLineStart = true, isHeader = false;
+            int c;
+            while( (c = in.read()) != -1 ) {
+                if( c == '\n' || c == '\r' ) {
+                    isLineStart = true;
+                    isHeader = false;
+                    continue;
+                }
+                if( isLineStart && c == '>' )
+                    isHeader = true;
+                isLineStart = false;
+                if( isHeader || c == ' ' || c == '\t' )
+                    continue;
+
+                int base;
+                switch( Character.toUpperCase((char)c) ) {
+                    case 'T': base = 0; break;
+                    case 'C': base = 1; break;
+                    case 'A': base = 2; break;
+                    case 'G': base = 3; break;
+                    default:  base = -1;
+                }
+                if( base == -1 ) {
+                    nBlocks.addToRun(size);
+                    base = 0;
+                }
+                if( Character.isLowerCase((char)c) )
+                    maskBlocks.addToRun(size);
+                b = (b << 2) | base;
+                size++;
+                if( (size & 3) == 0 ) {
+                    packed.write(b);
+                    b = 0;
+                }
+                if( size < 0 )
+                    throw new IOException("Sequence " + name + " is too long for a .2bit file");
+            }
+            if( (size & 3) != 0 )
+                packed.write(b << (2 * (4 - (size & 3))));
+
+            int nCount = nBlocks.size() / 2;
+            int maskCount = maskBlocks.size() / 2;
+            ByteBuffer buf = ByteBuffer.allocate(16 + 8 * nCount + 8 * maskCount).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(size);
+            buf.putInt(nCount);
+            nBlocks.putRuns(buf);
+            buf.putInt(maskCount);
+            maskBlocks.putRuns(buf);
+            buf.putInt(0); // reserved
+            mTempOut.write(buf.array());
+            packed.writeTo(mTempOut);
+            mNames.add(name);
+            mRecordLengths.add((long)buf.capacity() + packed.size());
+        }
+    }
+
+    /** Growable list of (start, size) runs */
+    private static class IntList {
+        private int[] mInts = new int[64];
+        private int mSize = 0;
+
+        int size() {
+            return mSize;
+        }
+
+        /** Add pos to the last run if it comes right after it, else start a new run */
+        void addToRun(int pos) {
+            if( mSize > 0 && mInts[mSize - 2] + mInts[mSize - 1] == pos ) {
+                mInts[mSize - 1]++;
+                return;
+            }
+            if( mSize + 2 > mInts.length )
+                mInts = Arrays.copyOf(mInts, mInts.length * 2);
+            mInts[mSize++] = pos;
+            mInts[mSize++] = 1;
+        }
+
+        /** All the starts, then all the sizes */
+        void putRuns(ByteBuffer buf) {
+            for(int i = 0; i < mSize; i += 2)
+                buf.putInt(mInts[i]);
+            for(int i = 1; i < mSize; i += 2)
+                buf.putInt(mInts[i]);
+        }
+    }
+}
@@ -289,6 +289,12 @@ public class CompressPipe extends AbstractPipe<History, History>
 		{
 			compressedLine.add(builder.toString());
 		}
+
+		// same header as the lines it was made from
+		if (lines.get(0) instanceof History)
+		{
+			compressedLine.setMetaData(((History) lines.get(0)).getHistoryMetaData());
+		}
 		
 		return compressedLine;
 	}
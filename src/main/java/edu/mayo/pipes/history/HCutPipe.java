@@ -57,7 +57,7 @@ public class HCutPipe extends AbstractPipe<History, History> {
     @Override
     protected History processNextStart() throws NoSuchElementException {
         History h = this.starts.next();
-        List<ColumnMetaData> cmd = History.getMetaData().getColumns();
+        List<ColumnMetaData> cmd = h.getHistoryMetaData().getColumns();
         
         for(int i=0; i<cols.size(); i++){
         	int cutCol = cols.get(i);
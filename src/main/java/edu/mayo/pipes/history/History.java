@@ -4,8 +4,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import edu.mayo.pipes.util.StringUtils;
-
 /**
  * A list of String values representing a single row of tablular data.
  * 
@@ -14,76 +12,146 @@ import edu.mayo.pipes.util.StringUtils;
  */
 public class History extends ArrayList<String> implements List<String>,	Cloneable {
     
-	private static final String COL_DELIMITER = "\t";
+	private static final char COL_DELIMITER_CHAR = '\t';
 
 	
+	/** Copies the list of columns, and the reference to the header metadata.
+	 *  The column Strings are immutable, so they are shared rather than copied
+	 *  (copying each one is a lot of garbage for wide rows, ex: VCFs with many samples). */
 	@Override
-	/** Had to override the clone method because the default ArrayList<String> clone was
-	 *  not correctly copying JSON arrays (ex: "A":["x","y"]) 
-	 *  NOTE:  Collections.copy() does NOT work either in this case!  */
 	public Object clone() {
-		History h2 = new History();
-		for(int i=0; i < this.size(); i++) {
-			h2.add(new String(this.get(i)));
+		return (History) super.clone();
+	}
+
+	/**
+	 * Copy of this History with one more column at the end (ex: a pipe that emits
+	 * the input row once per match).  Same as clone() followed by add(), but it
+	 * only copies the columns once.
+	 * 
+	 * @param column  the value of the new last column
+	 */
+	public History cloneAndAppend(String column) {
+		History h2 = new History(size() + 1);
+		for (int i = 0; i < size(); i++) {
+			h2.add(get(i));
 		}
+		h2.add(column);
+		h2.mMetaData = this.mMetaData;
 		return h2;
 	}
 
     public History(){
     }
+
+    private History(int initialCapacity) {
+    	super(initialCapacity);
+    }
     
     /** Create a History object from a line that is tab-delimited */
     public History(String lineTabDelimited) {
 		// split data row, add to history
 		// SAFE split is required because there may be empty fields between delimiters
-		this(StringUtils.safeSplit(lineTabDelimited, COL_DELIMITER));
+		// (same as StringUtils.safeSplit, but straight into this list, sized up front)
+		super(countColumns(lineTabDelimited));
+		int fromIdx = 0;
+		int delimiterIdx;
+		while ((delimiterIdx = lineTabDelimited.indexOf(COL_DELIMITER_CHAR, fromIdx)) != -1) {
+			add(lineTabDelimited.substring(fromIdx, delimiterIdx));
+			fromIdx = delimiterIdx + 1;
+		}
+		add(lineTabDelimited.substring(fromIdx));
     }
     
     /** Create a History object from a line that is broken into columns */
     public History(List<String> line) {
-    	this(line.toArray(new String[line.size()]));
+    	super(line);
     }
 
     
     /** Create a History object from a line that is broken into columns */
     public History(String[] line) {
+    	super(line.length);
 		for (String colData : line) {
 			add(colData);
 		}
     }
+
+    private static int countColumns(String line) {
+    	int count = 1;
+    	for (int i = 0; i < line.length(); i++) {
+    		if (line.charAt(i) == COL_DELIMITER_CHAR)
+    			count++;
+    	}
+    	return count;
+    }
     
     
-    /** Remove all header metadata information */
+    /** Remove the header metadata information bound to the current thread */
     public static void clearMetaData() {
-    	sMetaData = null;
-    	sMetaDataInitialized = false;
+    	sMetaData.remove();
     }
 
     
 	private static final long serialVersionUID = 1L;
 
-	// declared as a class variable since it will be created ONCE and used by
-	// multiple instances of the History class
-	private static HistoryMetaData sMetaData = null;
+	// Header metadata of the pipeline that is currently being pulled on this thread.
+	// It is bound by HistoryInPipe, so several pipelines (each on its own thread)
+	// can run inside the same JVM without overwriting each other's header.
+	private static final ThreadLocal<HistoryMetaData> sMetaData = new ThreadLocal<HistoryMetaData>();
 
-	private static boolean sMetaDataInitialized = false;
+	// Header metadata of the pipeline that created this History
+	private transient HistoryMetaData mMetaData = null;
 	
+	/**
+	 * Attaches the pipeline's metadata to this History and makes it the
+	 * current metadata for the calling thread.
+	 * 
+	 * @param hMetaData
+	 *            the description of this History's columns
+	 */
 	public void setMetaData(HistoryMetaData hMetaData) {
-		sMetaData = hMetaData;
-		sMetaDataInitialized = true;
+		mMetaData = hMetaData;
+		sMetaData.set(hMetaData);
 	}
 	
+	/**
+	 * Makes hMetaData the current metadata for the calling thread without attaching it
+	 * to a History (ex: for a worker thread that runs part of the pipeline).
+	 * 
+	 * @param hMetaData
+	 *            the description of the pipeline's columns
+	 */
+	public static void bindMetaData(HistoryMetaData hMetaData) {
+		sMetaData.set(hMetaData);
+	}
+
 	public boolean isMetaDataInitialized() {
-		return sMetaDataInitialized;
+		return mMetaData != null || sMetaData.get() != null;
 	}
 	
 	/**
-	 * Retrieves the number, types and properties of this History's columns.
+	 * Retrieves the number, types and properties of the columns of the
+	 * pipeline currently running on this thread.
 	 * 
 	 * @return the description of this History's columns
 	 */
 	public static HistoryMetaData getMetaData() {
-		return sMetaData;
+		return sMetaData.get();
+	}
+
+	/**
+	 * Retrieves the metadata of the pipeline this History was read by.  Unlike
+	 * {@link #getMetaData()} this does not depend on the calling thread, so it can
+	 * be used when rows are handed off to other threads.
+	 * 
+	 * @return the description of this History's columns, or the current thread's
+	 *         metadata if none was attached to this History
+	 */
+	public HistoryMetaData getHistoryMetaData() {
+		if (mMetaData != null) {
+			return mMetaData;
+		}
+		return sMetaData.get();
 	}
 
 	/**
@@ -26,6 +26,9 @@ public class HistoryInPipe extends AbstractPipe<String, History> {
     List<Metadata> metadata = new ArrayList<Metadata>();
     private int mNumColumns = 0;
 
+    // header metadata for THIS pipeline; handed to every History that leaves this pipe
+    private HistoryMetaData mMetaData = null;
+
     /**
      * Make a new HistoryInPipe with metadata operations pending
      * metadata operations allow the ## lines to be modified
@@ -42,12 +45,10 @@ public class HistoryInPipe extends AbstractPipe<String, History> {
 
 	private int expand2NumCols = -1;
     public HistoryInPipe(){
-    	History.clearMetaData();
         expand2NumCols = -1;
     }
     
     public HistoryInPipe(int expand2NumCols){
-    	History.clearMetaData();
         this.expand2NumCols = expand2NumCols;
     }
     
@@ -55,7 +56,7 @@ public class HistoryInPipe extends AbstractPipe<String, History> {
     @Override
 	public void reset() {
 		super.reset();
-		History.clearMetaData();
+		mMetaData = null;
 	}
 
 	private final String COL_DELIMITER = "\t";
@@ -67,7 +68,7 @@ public class HistoryInPipe extends AbstractPipe<String, History> {
 
 		History history = new History();
 
-		if (history.isMetaDataInitialized() == false)
+		if (mMetaData == null)
 		{
 
 
@@ -103,7 +104,9 @@ public class HistoryInPipe extends AbstractPipe<String, History> {
             insertBIORLines(history);
 		}
 
-		return new History(line);
+		History row = new History(line);
+		row.setMetaData(mMetaData);
+		return row;
 	}
 	
 	/**
@@ -150,6 +153,7 @@ public class HistoryInPipe extends AbstractPipe<String, History> {
 			}
 		}
 
+		mMetaData = hMeta;
 		history.setMetaData(hMeta);		
 	}
 
@@ -159,7 +163,7 @@ public class HistoryInPipe extends AbstractPipe<String, History> {
         	return;  //do nothing we don't have to add header lines
         }
         
-        HistoryMetaData hMeta = History.getMetaData();
+        HistoryMetaData hMeta = h.getHistoryMetaData();
         for(int i=0; i< this.metadata.size(); i++) {
             Metadata meta = this.metadata.get(i);
             //type = ToTJson
@@ -172,7 +176,7 @@ public class HistoryInPipe extends AbstractPipe<String, History> {
             else if(meta.getCmdType().equals(Metadata.CmdType.Drill)){
                 String col = amdl.constructDrillLines(h, meta.getOperator(), meta.getColNum(), meta.getDrillPaths());
 
-                List<ColumnMetaData> columnMeta = h.getMetaData().getColumns();
+                List<ColumnMetaData> columnMeta = hMeta.getColumns();
                 int colToRemove = toZeroBasedCol(meta.getColNum(), columnMeta.size());
                 
                 //for each drill path, add the metadata
@@ -235,7 +239,7 @@ public class HistoryInPipe extends AbstractPipe<String, History> {
             }
             // type = bior_compress
             else if( meta.getCmdType().equals(Metadata.CmdType.Compress) ) {
-            	amdl.modifyCompressHeaders(meta, mNumColumns);
+            	amdl.modifyCompressHeaders(h, meta, mNumColumns);
             }
         }
     }
@@ -26,6 +26,18 @@ public class HistoryMetaData {
 		mHeader = headerRows;
 	}
 
+	/**
+	 * Copy constructor.  The header rows and column lists are copied, so they can be
+	 * changed without affecting the original.
+	 * 
+	 * @param other
+	 *            metadata to copy
+	 */
+	public HistoryMetaData(HistoryMetaData other) {
+		mHeader = new ArrayList<String>(other.mHeader);
+		mCols = new ArrayList<ColumnMetaData>(other.mCols);
+	}
+
 	/**
 	 * Gets the original header unmodified.
 	 * 
@@ -45,7 +57,7 @@ public class HistoryMetaData {
 	 */
 	public String getColumnHeaderRow(String delimiter) {
 		
-		List<ColumnMetaData> cols = History.getMetaData().getColumns();
+		List<ColumnMetaData> cols = mCols;
 
 		//  reconstruct column header row dynamically based on meta data
 		StringBuilder sb = new StringBuilder();
@@ -35,7 +35,8 @@ public class HistoryOutPipe extends AbstractPipe<History, String>{
 			// it's necessary to pull the 1st row to get things started
 			History history = this.starts.next();
 
-            List<String> originalHeader = History.getMetaData().getOriginalHeader();
+            HistoryMetaData meta = history.getHistoryMetaData();
+            List<String> originalHeader = meta.getOriginalHeader();
             int p = 1; //by default add all header lines except for the LAST line which is the old column header line
             if(originalHeader.size() > 0){
                 if(originalHeader.get(originalHeader.size()-1).startsWith("##")){ // the last header row is not a column header but a ## metadata line, don't delete
@@ -44,19 +45,19 @@ public class HistoryOutPipe extends AbstractPipe<History, String>{
             }
             // add the header lines to the queue first so they appear in the
 			// output first
-			final int origHeaderSize = History.getMetaData().getOriginalHeader().size();
+			final int origHeaderSize = originalHeader.size();
 			// add all header lines except for LAST line, which is the column header row
 			for (int i=0; i < (origHeaderSize - p); i++) {
-				String headerLine = History.getMetaData().getOriginalHeader().get(i);
+				String headerLine = originalHeader.get(i);
 				mQueue.add(headerLine);					
 			}
-            List<ColumnMetaData> headerCols = History.getMetaData().getColumns();
+            List<ColumnMetaData> headerCols = meta.getColumns();
             while(history.size() > headerCols.size()){
                 ColumnMetaData cmd = new ColumnMetaData("#" + Undefined.UNKNOWN + "_" + (new Integer(headerCols.size()+1)).toString());
                 headerCols.add(cmd);
             }
 			// add a new generated column header row, even if the original header was blank
-			mQueue.add(History.getMetaData().getColumnHeaderRow(FIELD_DELIMITER));
+			mQueue.add(meta.getColumnHeaderRow(FIELD_DELIMITER));
 
 			// need to also queue up the 1st data row
 			String firstDataRow = history.getMergedData(FIELD_DELIMITER);
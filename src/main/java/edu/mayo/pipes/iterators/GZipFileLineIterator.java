@@ -1,6 +1,7 @@
 package edu.mayo.pipes.iterators;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -9,6 +10,8 @@ import java.util.LinkedList;
 
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 
+import edu.mayo.pipes.JSON.tabix.ParallelBgzipReader;
+
 public class GZipFileLineIterator implements Iterator {
 	static final int BUFFER = 2048;
 	GzipCompressorInputStream gzip;
@@ -51,12 +54,19 @@ public class GZipFileLineIterator implements Iterator {
 		return;
 	}	
 	
+    /** Open a gzip file; if it is bgzip (ex: a catalog), its blocks are inflated on all processors */
     public BufferedReader open(String filename) throws IOException{
     	readok = true;
 		this.filename = filename;
-		fis = new FileInputStream(filename);
-		gzip = new GzipCompressorInputStream(fis, true);	
-		isr = new InputStreamReader(gzip);
+		if(ParallelBgzipReader.isBgzip(new File(filename))) {
+			fis = null;
+			gzip = null;
+			isr = new InputStreamReader(new ParallelBgzipReader(new File(filename)));
+		} else {
+			fis = new FileInputStream(filename);
+			gzip = new GzipCompressorInputStream(fis, true);
+			isr = new InputStreamReader(gzip);
+		}
 		br = new BufferedReader(isr);
 		return br;
 	}
@@ -64,8 +74,10 @@ public class GZipFileLineIterator implements Iterator {
 	public void close() throws IOException{
 		br.close();
 		isr.close();
-		gzip.close();
-		fis.close();
+		if(gzip != null) {
+			gzip.close();
+			fis.close();
+		}
         readok = false;
 	}
 }
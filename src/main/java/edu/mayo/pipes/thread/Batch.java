@@ -0,0 +1,38 @@
+package edu.mayo.pipes.thread;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A micro-batch of elements passed between the threads of a ThreadedPipeline.
+ * The sequence number is the batch's position in the input, so the output can
+ * be put back in input order.
+ */
+class Batch<T> {
+
+    final long seq;
+    final List<T> items;
+    /** Set if the thread that made this batch failed */
+    final Throwable error;
+    /** End-of-stream marker */
+    final boolean isEnd;
+
+    Batch(long seq, List<T> items) {
+        this(seq, items, null, false);
+    }
+
+    private Batch(long seq, List<T> items, Throwable error, boolean isEnd) {
+        this.seq = seq;
+        this.items = items;
+        this.error = error;
+        this.isEnd = isEnd;
+    }
+
+    static <T> Batch<T> end(long seq) {
+        return new Batch<T>(seq, Collections.<T>emptyList(), null, true);
+    }
+
+    static <T> Batch<T> error(long seq, Throwable error) {
+        return new Batch<T>(seq, Collections.<T>emptyList(), error, false);
+    }
+}
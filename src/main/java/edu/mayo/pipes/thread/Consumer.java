@@ -1,68 +1,38 @@
 package edu.mayo.pipes.thread;
 
-import com.tinkerpop.pipes.Pipe;
-
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 
 /**
- * Created with IntelliJ IDEA.
- * User: m102417
- * Date: 9/2/13
- * Time: 9:43 PM
- * To change this template use File | Settings | File Templates.
+ * Takes the batches from the workers' output queue (which arrive in whatever order
+ * the workers finish them) and hands them back in input order using their
+ * sequence numbers.  A batch carrying an error is handed back right away.
  */
-public class Consumer<S,E> implements Runnable{
+class Consumer<E> {
 
-    protected BlockingQueue inqueue = null;
-    private Pipe p;
-    private ThreadedPipeline tpipeline = null;
-    private boolean run = true;
+    private BlockingQueue<Batch<E>> inqueue;
+    private Map<Long, Batch<E>> pending = new HashMap<Long, Batch<E>>();
+    private long nextSeq = 0;
 
     /**
-     *
-     * @param queue  the input queue
-     * @param pipe   usually the print pipe, but it could be a write pipe, a logger or anything
+     * @param queue  the workers' output queue
      */
-    public Consumer(BlockingQueue queue, Pipe pipe, ThreadedPipeline threadedPipeline) {
+    Consumer(BlockingQueue<Batch<E>> queue) {
         this.inqueue = queue;
-        p = pipe;
-        tpipeline = threadedPipeline;
     }
 
-    public void run() {
-        try {
-            if(p!=null){
-                Object o = inqueue.take();
-                p.setStarts(Arrays.asList(o));
-                while(o != null && run){
-                    if(!p.hasNext()){
-                        o = inqueue.take();
-                        p.setStarts(Arrays.asList(o));
-                        if(!p.hasNext()){
-                            run = false;
-                        }
-                    }else {
-                        p.next();
-                    }
-                    if(tpipeline.running() != true){
-                        //first check to see if I can pull anything more from the inqueue
-                        if(!inqueue.isEmpty()){
-                            o = inqueue.take();
-                            p.setStarts(Arrays.asList(o));
-                        //if not, shutdown
-                        }else {
-                            run = false;
-                        }
-                    }
-                }
+    /** @return the next batch in input order (the end-of-stream marker after the last one) */
+    Batch<E> next() throws InterruptedException {
+        Batch<E> batch;
+        while((batch = pending.remove(nextSeq)) == null) {
+            Batch<E> b = inqueue.take();
+            if(b.error != null) {
+                return b;
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            pending.put(b.seq, b);
         }
+        nextSeq++;
+        return batch;
     }
-
-    public void shutdown(){
-        run = false;
-    }
-}
\ No newline at end of file
+}
@@ -1,78 +1,101 @@
 package edu.mayo.pipes.thread;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
 import com.tinkerpop.pipes.Pipe;
 
-import java.util.Arrays;
-import java.util.concurrent.BlockingQueue;
+import edu.mayo.pipes.history.History;
+import edu.mayo.pipes.history.HistoryMetaData;
 
 /**
- * Created with IntelliJ IDEA.
- * User: m102417
- * Date: 9/2/13
- * Time: 9:44 PM
- *
- *
- *  A Filter *consumes* from either a Producer or another Filter,
- *  and *sends* data to either a Consumer or another Filter
- *  So a Filter sits in the middle of a threaded pipeline.
- *
+ * A worker thread.  Takes batches from the input queue, runs them through its own
+ * copy of the stage's pipe and puts the results (with the batch's sequence number)
+ * on the output queue.
+ * <p>
+ * Pipes often change the header metadata when they see their first row (ex: adding
+ * the columns they append).  That should only happen once, so the primary worker
+ * gets the pipeline's real metadata and processes the first batch before the other
+ * workers start.  The other workers get their own copy of the metadata as it was
+ * before the stage, which their pipes are free to change.  The copy is bound to the
+ * worker's thread and attached to the rows it processes.
  */
-public class Filter implements Runnable {
+class Filter<S,E> implements Runnable {
 
-    protected BlockingQueue inqueue = null;
-    protected BlockingQueue outqueue = null;
-    private Pipe p;
-    private ThreadedPipeline tpipeline = null;
-    private boolean run = true;
+    private ThreadedPipeline<S,E> tpipeline;
+    private Pipe<S,E> p;
+    private boolean isPrimary;
+    private CountDownLatch firstBatchDone;
+    /** The metadata this worker's rows are given (null = leave the rows' own) */
+    private HistoryMetaData copy = null;
 
     /**
-     *
-     * @param in  the input queue
-     * @param out the output queue
-     * @param pipe some pipe that performs logic on the input
+     * @param pipe  this worker's pipe that performs the stage's logic
+     * @param isPrimary  true for the worker that processes the first batch
+     * @param firstBatchDone  released once the primary worker is done with the first batch
      */
-    public Filter(BlockingQueue in, BlockingQueue out, Pipe pipe, ThreadedPipeline threadedPipeline) {
-        inqueue = in;
-        outqueue = out;
-        p = pipe;
-        tpipeline = threadedPipeline;
+    Filter(Pipe<S,E> pipe, boolean isPrimary, CountDownLatch firstBatchDone, ThreadedPipeline<S,E> threadedPipeline) {
+        this.p = pipe;
+        this.isPrimary = isPrimary;
+        this.firstBatchDone = firstBatchDone;
+        this.tpipeline = threadedPipeline;
     }
 
     public void run() {
+        long seq = -1;
         try {
-            if(p!=null){
-                Object o = inqueue.take();
-                p.setStarts(Arrays.asList(o));
-                while(o != null && run){
-                    if(!p.hasNext()){
-                        o = inqueue.take();
-                        p.setStarts(Arrays.asList(o));
-                        if(!p.hasNext()){
-                            run = false;
-                        }
-                    }else {
-                        Object ret = p.next();
-                        outqueue.put(ret);
-                    }
-                    if(tpipeline.running() != true){
-                        //first check to see if I can pull anything more from the inqueue
-                        if(!inqueue.isEmpty()){
-                            o = inqueue.take();
-                            p.setStarts(Arrays.asList(o));
-                            //if not, shutdown
-                        }else {
-                            run = false;
+            if(!isPrimary) {
+                firstBatchDone.await();
+            }
+            while(true) {
+                Batch<S> in = tpipeline.inqueue.take();
+                if(in.isEnd) {
+                    break;
+                }
+                if(seq == -1) {
+                    bindMetaData();
+                }
+                seq = in.seq;
+                if(copy != null) {
+                    for(S item : in.items) {
+                        if(item instanceof History) {
+                            ((History) item).setMetaData(copy);
                         }
                     }
                 }
+                List<E> out = new ArrayList<E>(in.items.size());
+                p.setStarts(in.items.iterator());
+                while(p.hasNext()) {
+                    out.add(p.next());
+                }
+                tpipeline.outqueue.put(new Batch<E>(in.seq, out));
+                if(isPrimary) {
+                    firstBatchDone.countDown();
+                }
             }
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            // shutting down
+        } catch (Throwable t) {
+            tpipeline.outqueue.offer(Batch.<E>error(seq, t));
+        } finally {
+            if(isPrimary) {
+                firstBatchDone.countDown();
+            }
+            History.clearMetaData();
         }
     }
 
-    public void shutdown(){
-        run = false;
+    /** Make the header metadata available to the pipe through History.getMetaData() on this thread */
+    private void bindMetaData() {
+        HistoryMetaData meta = isPrimary ? tpipeline.metaData : tpipeline.inputMetaData;
+        if(meta == null) {
+            return;
+        }
+        if(!isPrimary) {
+            copy = new HistoryMetaData(meta);
+            meta = copy;
+        }
+        History.bindMetaData(meta);
     }
-
 }
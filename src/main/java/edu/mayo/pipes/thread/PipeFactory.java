@@ -0,0 +1,13 @@
+package edu.mayo.pipes.thread;
+
+import com.tinkerpop.pipes.Pipe;
+
+/**
+ * Creates the pipe for one worker thread of a ThreadedPipeline.
+ * Pipes keep state between calls, so each worker needs its own instance.
+ */
+public interface PipeFactory<S,E> {
+
+    /** @return a new pipe that performs the stage's logic (ex: new DrillPipe(false, paths)) */
+    Pipe<S,E> newPipe() throws Exception;
+}
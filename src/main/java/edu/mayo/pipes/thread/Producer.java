@@ -1,39 +1,56 @@
 package edu.mayo.pipes.thread;
 
-import com.tinkerpop.pipes.Pipe;
-
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 /**
- * Created with IntelliJ IDEA.
- * User: m102417
- * Date: 9/2/13
- * Time: 9:43 PM
- * To change this template use File | Settings | File Templates.
+ * Pulls elements from the upstream pipe, groups them into micro-batches and puts
+ * them on the input queue for the workers.  The upstream pipe is only ever touched
+ * by this thread.
+ * When the input runs out it sends the end-of-stream marker (numbered after the last
+ * batch, so it comes out of the Consumer last) and tells each worker to stop.
  */
-public class Producer<S,E> implements Runnable{
+class Producer<S,E> implements Runnable {
 
-    private ThreadedPipeline tpipeline;
-    protected BlockingQueue outqueue = null;
+    private ThreadedPipeline<S,E> tpipeline;
+    private Iterator<S> starts;
 
-    public Producer(BlockingQueue queue, Pipe p, ThreadedPipeline threadedPipeline) {
-        this.outqueue = queue;
+    Producer(Iterator<S> starts, ThreadedPipeline<S,E> threadedPipeline) {
+        this.starts = starts;
         this.tpipeline = threadedPipeline;
     }
 
     public void run() {
+        long seq = 0;
         try {
-            for(int i=0;i<100000;i++){
-                outqueue.put(i);
+            while(true) {
+                List<S> items = new ArrayList<S>(tpipeline.batchSize);
+                while(items.size() < tpipeline.batchSize && starts.hasNext()) {
+                    items.add(starts.next());
+                }
+                if(items.isEmpty()) {
+                    break;
+                }
+                if(seq == 0) {
+                    tpipeline.captureMetaData(items.get(0));
+                }
+                // limits the # of batches in the queues + waiting to be put back in order
+                tpipeline.inFlight.acquire();
+                tpipeline.inqueue.put(new Batch<S>(seq++, items));
             }
-//            outqueue.put("1");
-//            //Thread.sleep(1000);
-//            outqueue.put("2");
-//            //Thread.sleep(1000);
-//            outqueue.put("3");
-            tpipeline.shutdown();
+            tpipeline.outqueue.put(Batch.<E>end(seq));
+            stopWorkers();
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            // shutting down
+        } catch (Throwable t) {
+            tpipeline.outqueue.offer(Batch.<E>error(seq, t));
+        }
+    }
+
+    private void stopWorkers() throws InterruptedException {
+        for(int i = 0; i < tpipeline.numThreads; i++) {
+            tpipeline.inqueue.put(Batch.<S>end(-1));
         }
     }
 }
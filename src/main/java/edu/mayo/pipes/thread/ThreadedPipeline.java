@@ -1,71 +1,219 @@
 package edu.mayo.pipes.thread;
 
-import com.tinkerpop.pipes.transform.IdentityPipe;
-import edu.mayo.pipes.PrintPipe;
-
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import com.tinkerpop.pipes.AbstractPipe;
+import com.tinkerpop.pipes.Pipe;
+
+import edu.mayo.pipes.history.History;
+import edu.mayo.pipes.history.HistoryMetaData;
 
 /**
- * Created with IntelliJ IDEA.
- * User: m102417
- * Date: 9/2/13
- * Time: 9:44 PM
- * To change this template use File | Settings | File Templates.
- *
- * ref: http://tutorials.jenkov.com/java-util-concurrent/blockingqueue.html
- *
+ * Runs one stage of a pipeline on several threads, and can be used anywhere a pipe
+ * can, ex:
+ * <pre>
+ *   PipeFactory&lt;History,History&gt; drill = new PipeFactory&lt;History,History&gt;() {
+ *       public Pipe&lt;History,History&gt; newPipe() { return new DrillPipe(false, paths); }
+ *   };
+ *   Pipeline p = new Pipeline(new HistoryInPipe(), new ThreadedPipeline&lt;History,History&gt;(drill, 4), new HistoryOutPipe());
+ * </pre>
  *
+ * pipeline works like this:
+ * producer -inqueue-> Filter1..FilterN -outqueue-> consumer
+ * <ul>
+ * <li>The producer thread pulls from the upstream pipe and puts micro-batches of elements on a bounded queue</li>
+ * <li>N worker threads (Filters) each run their own copy of the stage's pipe (from the PipeFactory) over a batch at a time</li>
+ * <li>The consumer (the thread calling next()) puts the batches back in input order using their sequence numbers</li>
+ * </ul>
+ * The output is the same, and in the same order, as running the stage's pipe by itself.
+ * This only holds for stages where each row is processed independently
+ * (ex: DrillPipe, VCF2VariantPipe, the tabix and lookup pipes), not for stages that
+ * compare rows with each other (ex: UNIQPipe), because each worker only sees some of the rows.
+ * <p>
+ * The threads start on the first call to hasNext()/next().  An exception in the
+ * upstream pipe or in a worker stops all threads and is re-thrown to the caller.
+ * <p>
+ * The rows handed on carry the pipeline's header metadata, which is also bound to the
+ * calling thread, so the pipes after this stage see the same header as without threads.
  */
-public class ThreadedPipeline<S,E> {
+public class ThreadedPipeline<S,E> extends AbstractPipe<S,E> {
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    private PipeFactory<S,E> factory;
+    final int numThreads;
+    final int batchSize;
+    private final int queueCapacity;
+
+    BlockingQueue<Batch<S>> inqueue;
+    BlockingQueue<Batch<E>> outqueue;
+    /** Bounds the # of batches in the queues, being worked on, or waiting to be put back in order */
+    Semaphore inFlight;
+    /** The pipeline's header metadata (used by the primary worker) */
+    volatile HistoryMetaData metaData = null;
+    /** A copy of the header metadata before this stage changed it (for the other workers) */
+    volatile HistoryMetaData inputMetaData = null;
+
+    private List<Thread> threads = new ArrayList<Thread>();
+    private Consumer<E> consumer = null;
+    private Iterator<E> current = null;
+    private boolean isDone = false;
 
-    public ThreadedPipeline() throws InterruptedException {
-        init();
+    /**
+     * @param pipeFactory  creates the pipe for each worker thread
+     * @param numThreads   # of worker threads
+     */
+    public ThreadedPipeline(PipeFactory<S,E> pipeFactory, int numThreads) {
+        this(pipeFactory, numThreads, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
     }
 
-    private boolean run = true;
-    List<BlockingQueue> queues;
-    protected Producer<S,?> producer;
-    protected Consumer<?,E> consumer;
-    protected List filters;
-
     /**
-     * pipeline works like this:
-     * producer -queue1-> Filter1 -queue2-> Filter2 -queue3-> ... -queueN-> consumer
-     * Each filter, producer and consumer is its own thread, passing data down the pipeline for the next transformation
-     * @throws InterruptedException
+     * @param pipeFactory  creates the pipe for each worker thread
+     * @param numThreads   # of worker threads
+     * @param batchSize    # of elements handed to a worker at a time
+     * @param queueCapacity  max # of batches waiting for the workers
      */
-    public void init() throws InterruptedException {
-        queues = new ArrayList<BlockingQueue>();
-        BlockingQueue queue = new ArrayBlockingQueue(1024);
-        queues.add(queue);
-
-        producer = new Producer(queues.get(0), new IdentityPipe(), this);
-        consumer = new Consumer(queues.get(0), new PrintPipe(), this);
-
-        new Thread(producer).start();
-        new Thread(consumer).start();
+    public ThreadedPipeline(PipeFactory<S,E> pipeFactory, int numThreads, int batchSize, int queueCapacity) {
+        if(numThreads < 1 || batchSize < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("numThreads, batchSize and queueCapacity must be at least 1");
+        }
+        this.factory = pipeFactory;
+        this.numThreads = numThreads;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
 
-        //Thread.sleep(2000);
+    @Override
+    protected E processNextStart() throws NoSuchElementException {
+        while(true) {
+            if(current != null && current.hasNext()) {
+                E item = current.next();
+                // rows from the other workers carry their copy of the header
+                if(metaData != null && item instanceof History) {
+                    ((History) item).setMetaData(metaData);
+                }
+                return item;
+            }
+            if(isDone) {
+                throw new NoSuchElementException();
+            }
+            if(consumer == null) {
+                start();
+            }
+
+            Batch<E> batch;
+            try {
+                batch = consumer.next();
+            } catch (InterruptedException e) {
+                shutdown();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the worker threads", e);
+            }
+            if(batch.error != null) {
+                shutdown();
+                throwError(batch.error);
+            }
+            if(batch.isEnd) {
+                shutdown();
+                throw new NoSuchElementException();
+            }
+            inFlight.release();
+            if(metaData != null) {
+                History.bindMetaData(metaData);
+            }
+            current = batch.items.iterator();
+        }
+    }
 
-        //consumer.shutdown();
+    private void start() {
+        inqueue = new ArrayBlockingQueue<Batch<S>>(queueCapacity);
+        outqueue = new LinkedBlockingQueue<Batch<E>>();
+        inFlight = new Semaphore(queueCapacity + numThreads);
+        consumer = new Consumer<E>(outqueue);
+
+        CountDownLatch firstBatchDone = new CountDownLatch(1);
+        for(int i = 0; i < numThreads; i++) {
+            Pipe<S,E> pipe;
+            try {
+                pipe = factory.newPipe();
+            } catch (Exception e) {
+                shutdown();
+                throw new RuntimeException("Could not create the pipe for worker thread " + i + ": " + e.getMessage(), e);
+            }
+            threads.add(newThread(new Filter<S,E>(pipe, i == 0, firstBatchDone, this), "ThreadedPipeline-worker-" + i));
+        }
+        threads.add(newThread(new Producer<S,E>(this.starts, this), "ThreadedPipeline-producer"));
+        for(Thread t : threads) {
+            t.start();
+        }
     }
 
+    private Thread newThread(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        // don't keep the JVM alive if the caller stops pulling from the pipeline
+        t.setDaemon(true);
+        return t;
+    }
 
+    /** Called by the producer with the first element, before any worker sees it */
+    void captureMetaData(Object first) {
+        if(first instanceof History) {
+            HistoryMetaData meta = ((History) first).getHistoryMetaData();
+            if(meta != null) {
+                metaData = meta;
+                inputMetaData = new HistoryMetaData(meta);
+            }
+        }
+    }
 
-    public static void main(String[] args) throws Exception {
-           ThreadedPipeline tpipeline = new ThreadedPipeline();
+    private void throwError(Throwable t) {
+        if(t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if(t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new RuntimeException(t.getMessage(), t);
+    }
 
+    /**
+     * Stop the producer and worker threads (ex: if the caller does not read all of the output).
+     * This is done automatically at the end of the input or on an error.
+     */
+    public synchronized void shutdown() {
+        isDone = true;
+        for(Thread t : threads) {
+            t.interrupt();
+        }
+        threads.clear();
     }
 
-    public synchronized boolean running(){
-        return run;
+    /** Stops the threads; the next call to hasNext()/next() starts over with new pipes */
+    @Override
+    public void reset() {
+        shutdown();
+        consumer = null;
+        current = null;
+        isDone = false;
+        metaData = null;
+        inputMetaData = null;
+        super.reset();
     }
 
-    public synchronized void shutdown(){
-        run = false;
+    public int getNumThreads() {
+        return numThreads;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
 }
@@ -0,0 +1,238 @@
+package edu.mayo.pipes.util.index;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+import com.jayway.jsonpath.JsonPath;
+
+import edu.mayo.pipes.JSON.lookup.lookupUtils.IndexUtils;
+import edu.mayo.pipes.JSON.tabix.ParallelBgzipOutputStream;
+import edu.mayo.pipes.JSON.tabix.TabixWriter;
+
+/**
+ * Builds a catalog in one pass over its (sorted) lines: the bgzip file, its tabix index, and
+ * any # of key indexes (H2 or SortedKeyIndex), instead of bgzipping the text and then reading
+ * the bgzip file again for the tabix index and once more for each key index.
+ * <p>
+ * Add the lines with add() (or a whole file with build()), then close() to finish the indexes:
+ * <pre>
+ *   CatalogBuilder builder = new CatalogBuilder(new File("genes.tsv.bgz"), TabixWriter.BED_CONF);
+ *   builder.addH2Index(4, "HGNC", new File("index/genes.HGNC.idx.h2.db"));
+ *   builder.addSortedIndex(4, "GeneID", new File("index/genes.GeneID.idx.sorted"));
+ *   builder.build(new File("genes.tsv"));
+ * </pre>
+ * The blocks are deflated on a thread pool (ParallelBgzipOutputStream).  The tabix index is built
+ * from the block pointers of the lines and turned into virtual file offsets at the end, and each
+ * key is written (with its line's virtual file offset) to a temp file next to its index once its
+ * line's block has been written.  The key indexes are then sorted and loaded the same way as
+ * IndexDatabaseCreator does.
+ */
+public class CatalogBuilder {
+
+	/** Max # of lines to hold while waiting for their blocks to be written, before waiting on the oldest */
+	private static final int MAX_PENDING_LINES = 100000;
+
+	private File mBgzipFile;
+	private ParallelBgzipOutputStream mOut;
+	private TabixWriter mTabix = null;
+	private List<IndexSpec> mIndexes = new ArrayList<IndexSpec>();
+	private LinkedList<PendingLine> mPending = new LinkedList<PendingLine>();
+	private long mNumLines = 0;
+	private boolean mIsClosed = false;
+	private IndexDatabaseCreator mIndexCreator = new IndexDatabaseCreator();
+
+	/** A key index to build */
+	private static class IndexSpec {
+		int keyCol;
+		JsonPath jsonPath;
+		File indexFile;
+		boolean isH2;
+		File tempTxt;
+		BufferedWriter keysOut;
+		int maxKeyLen = 0;
+		boolean isKeyAnInteger = true;
+	}
+
+	/** A line whose keys are waiting for its block to be written (to get its virtual file offset) */
+	private static class PendingLine {
+		long blockPointer;
+		String[] keys;
+	}
+
+	/** Deflate on as many threads as there are processors */
+	public CatalogBuilder(File bgzipOut, TabixWriter.Conf tabixConf) throws Exception {
+		this(bgzipOut, tabixConf, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param bgzipOut  the bgzip catalog to create (the tabix index is bgzipOut + ".tbi")
+	 * @param tabixConf  the columns to build the tabix index from (ex: TabixWriter.BED_CONF), or null for no tabix index
+	 * @param numThreads  # of threads to deflate the blocks on
+	 */
+	public CatalogBuilder(File bgzipOut, TabixWriter.Conf tabixConf, int numThreads) throws Exception {
+		mBgzipFile = bgzipOut;
+		mOut = new ParallelBgzipOutputStream(bgzipOut, 9, numThreads);
+		if( tabixConf != null ) {
+			mTabix = new TabixWriter(bgzipOut, tabixConf);
+			mTabix.startIndex();
+		}
+	}
+
+	/**
+	 * Also build an H2 index (same as IndexDatabaseCreator.buildIndexH2())
+	 * @param keyCol  1-based column where the json is located
+	 * @param jsonPath  the json path to the key within the column (null or "" to use the whole column)
+	 * @param h2DbFile  the H2 database to create (ex: index/genes.HGNC.idx.h2.db)
+	 */
+	public void addH2Index(int keyCol, String jsonPath, File h2DbFile) throws IOException {
+		addIndex(keyCol, jsonPath, h2DbFile, true);
+	}
+
+	/**
+	 * Also build a SortedKeyIndex (same as IndexDatabaseCreator.buildIndexSorted())
+	 * @param keyCol  1-based column where the json is located
+	 * @param jsonPath  the json path to the key within the column (null or "" to use the whole column)
+	 * @param indexFile  the index file to create (ex: index/genes.GeneID.idx.sorted)
+	 */
+	public void addSortedIndex(int keyCol, String jsonPath, File indexFile) throws IOException {
+		addIndex(keyCol, jsonPath, indexFile, false);
+	}
+
+	/** Max # of keys to hold in memory while sorting each key index (see IndexDatabaseCreator) */
+	public void setMaxLinesInMemory(int maxLinesInMemory) {
+		mIndexCreator.setMaxLinesInMemory(maxLinesInMemory);
+	}
+
+	private void addIndex(int keyCol, String jsonPath, File indexFile, boolean isH2) throws IOException {
+		if( mNumLines > 0 )
+			throw new IllegalStateException("Key indexes must be added before the first line");
+		IndexUtils.createParentDirectories(indexFile.getPath());
+		IndexSpec index = new IndexSpec();
+		index.keyCol = keyCol;
+		index.jsonPath = (jsonPath == null || jsonPath.length() == 0) ? null : JsonPath.compile(jsonPath);
+		index.indexFile = indexFile;
+		index.isH2 = isH2;
+		index.tempTxt = File.createTempFile("tempIndex", ".txt", indexFile.getCanonicalFile().getParentFile());
+		index.keysOut = new BufferedWriter(new FileWriter(index.tempTxt));
+		mIndexes.add(index);
+	}
+
+	/**
+	 * Add the next line of the catalog
+	 * @param line  the line, without the newline (the lines must be sorted the way tabix needs them)
+	 */
+	public void add(String line) throws Exception {
+		long start = mOut.getBlockPointer();
+		mOut.write((line + "\n").getBytes("UTF-8"));
+		mNumLines++;
+		if( mTabix != null )
+			mTabix.addLine(line, mOut.getBlockPointer());
+
+		// Same lines and keys as IndexUtils.zipIndexesToTextFile()
+		if( mIndexes.isEmpty() || line.startsWith("#") )
+			return;
+		String[] cols = line.split("\t");
+		PendingLine pending = null;
+		for(int i = 0; i < mIndexes.size(); i++) {
+			String key = IndexUtils.getKey(cols, mIndexes.get(i).keyCol, mIndexes.get(i).jsonPath);
+			if( key == null )
+				continue;
+			if( pending == null ) {
+				pending = new PendingLine();
+				pending.blockPointer = start;
+				pending.keys = new String[mIndexes.size()];
+			}
+			pending.keys[i] = key;
+		}
+		if( pending != null ) {
+			mPending.add(pending);
+			if( mPending.size() > MAX_PENDING_LINES )
+				writeKeys(mPending.removeFirst());
+		}
+	}
+
+	/** Add every line of a text file (or gzip/bgzip file), then close() */
+	public void build(File catalogText) throws Exception {
+		InputStream in = new FileInputStream(catalogText);
+		try {
+			String name = catalogText.getName();
+			if( name.endsWith(".gz") || name.endsWith(".bgz") )
+				in = new GzipCompressorInputStream(in, true);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+			String line;
+			while( (line = reader.readLine()) != null )
+				add(line);
+		} finally {
+			in.close();
+		}
+		close();
+	}
+
+	/** # of lines added so far */
+	public long getNumLines() {
+		return mNumLines;
+	}
+
+	/** Finish the bgzip file, and write the tabix index and the key indexes */
+	public void close() throws Exception {
+		if( mIsClosed )
+			return;
+		mIsClosed = true;
+		long end = mOut.getBlockPointer();
+		mOut.close();
+		try {
+			while( ! mPending.isEmpty() )
+				writeKeys(mPending.removeFirst());
+		} finally {
+			for(IndexSpec index : mIndexes)
+				index.keysOut.close();
+		}
+
+		if( mTabix != null ) {
+			mTabix.finishIndex(end);
+			mTabix.toFilePointers(mOut);
+			mTabix.saveIndex(new File(mBgzipFile.getPath() + ".tbi"));
+			mTabix.close();
+		}
+
+		for(IndexSpec index : mIndexes) {
+			try {
+				if( index.isH2 )
+					mIndexCreator.loadIndexH2(index.tempTxt, index.isKeyAnInteger, index.maxKeyLen, index.indexFile);
+				else if( index.maxKeyLen == 0 )
+					throw new IllegalArgumentException("There were no keys indexed!  Check your inputs and try again.");
+				else
+					mIndexCreator.writeIndexSorted(index.tempTxt, index.isKeyAnInteger, index.indexFile);
+			} finally {
+				index.tempTxt.delete();
+			}
+		}
+	}
+
+	/** Write a line's keys along with its virtual file offset (waits for its block to be written, if it hasn't been) */
+	private void writeKeys(PendingLine line) throws IOException {
+		long pos = mOut.toFilePointer(line.blockPointer);
+		for(int i = 0; i < mIndexes.size(); i++) {
+			String key = line.keys[i];
+			if( key == null )
+				continue;
+			IndexSpec index = mIndexes.get(i);
+			if( key.length() > index.maxKeyLen )
+				index.maxKeyLen = key.length();
+			if( index.isKeyAnInteger && ! IndexUtils.isInteger(key) )
+				index.isKeyAnInteger = false;
+			index.keysOut.write(key + "\t" + pos + "\n");
+		}
+	}
+}
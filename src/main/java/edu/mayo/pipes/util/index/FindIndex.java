@@ -5,23 +5,25 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import edu.mayo.pipes.JSON.lookup.lookupUtils.IndexUtils;
 
-public class FindIndex {
+public class FindIndex implements KeyIndex {
     
 	private Connection mDbConn;
 	private boolean mIsKeyAnInteger = false;
 	private boolean mIsKeyCaseSensitive = false;
+	/** Reused for every single-id lookup */
+	private PreparedStatement mFindStmt = null;
 	
 	public FindIndex(Connection dbConn, boolean isKeyCaseSensitive) {
 		mDbConn = dbConn;
@@ -32,64 +34,104 @@ public class FindIndex {
 	public FindIndex(Connection dbConn) {
 		this(dbConn, false);
 	}
+
+	public boolean isKeyAnInteger() {
+		return mIsKeyAnInteger;
+	}
 		
+	/** Max # of ids bound into a single "WHERE Key IN (...)" query */
+	private static final int MAX_IDS_PER_QUERY = 500;
+
 	/**
-	 * From a specified set of Ids, find all id-filePosition pairs in the index
+	 * From a specified set of Ids, find all id-filePosition pairs in the index.
+	 * The ids are resolved with set-based "WHERE Key IN (...)" queries (one query
+	 * per MAX_IDS_PER_QUERY unique ids) rather than one query per id.
+	 * Every id passed in will have an entry in the map, even if it has no positions.
+	 * The positions for each id are sorted in ascending file order.
 	 * @param idsToFind
-	 * @param isKeyInteger
-	 * @param dbConn
 	 * @return
 	 * @throws SQLException
 	 */
 	public HashMap<String, List<Long>> find(List<String> idsToFind) throws SQLException {
-		final String SQL = "SELECT Key,FilePos FROM Indexer WHERE Key = ?";
-		PreparedStatement stmt = mDbConn.prepareStatement(SQL);
-
 		HashMap<String,List<Long>> key2posMap = new HashMap<String,List<Long>>();
-		int count = 0;
 		
-		// Remove any duplicate ids by assigning to a HashSet
-		double start = System.currentTimeMillis();
-		Set<String> idSet = new HashSet<String>(idsToFind);
-		Iterator<String> it = idSet.iterator();		
-		double end = System.currentTimeMillis();		
-		//System.out.println("Time to create set from list: " + (end-start)/1000.0);
-		//System.out.println("Set size: " + idSet.size());
-		
-		//IndexUtils utils = new IndexUtils();
-		long maxMem = 0;
-		while(it.hasNext()) {
-			String id = it.next();
-			count++;
+		// Remove any duplicate ids, and group ids that H2 will treat as the same key
+		// (ex: "brca1" and "BRCA1" when the key is not case-sensitive)
+		Map<String, List<String>> dbKeyToIds = new LinkedHashMap<String, List<String>>();
+		for(String id : idsToFind) {
+			if( id == null || key2posMap.containsKey(id) )
+				continue;
+			key2posMap.put(id, new ArrayList<Long>());
 			
-			List<Long> positions = key2posMap.get(id);
-			if(positions == null) {
-				positions = new ArrayList<Long>();
-				key2posMap.put(id, positions);
-			}
+			// If the key is an integer but the id is a string, there will be no match
+			if( mIsKeyAnInteger && ! IndexUtils.isInteger(id) )
+				continue;
 			
-			if(mIsKeyAnInteger)
-				stmt.setLong(1, Long.valueOf(id));
-			else
-				stmt.setString(1, id);
+			String dbKey = toDbKey(id);
+			List<String> ids = dbKeyToIds.get(dbKey);
+			if( ids == null ) {
+				ids = new ArrayList<String>();
+				dbKeyToIds.put(dbKey, ids);
+			}
+			ids.add(id);
+		}
+
+		List<String> dbKeys = new ArrayList<String>(dbKeyToIds.keySet());
+		for(int from = 0; from < dbKeys.size(); from += MAX_IDS_PER_QUERY) {
+			List<String> chunk = dbKeys.subList(from, Math.min(from + MAX_IDS_PER_QUERY, dbKeys.size()));
+			findChunk(chunk, dbKeyToIds, key2posMap);
+		}
+		
+		for(List<Long> positions : key2posMap.values())
+			Collections.sort(positions);
+
+		return key2posMap;
+	}
+	
+	/** Query a chunk of keys with a single statement and add their positions to key2posMap */
+	private void findChunk(List<String> dbKeys, Map<String, List<String>> dbKeyToIds, HashMap<String,List<Long>> key2posMap) throws SQLException {
+		StringBuilder sql = new StringBuilder("SELECT Key,FilePos FROM Indexer WHERE Key IN (");
+		for(int i=0; i < dbKeys.size(); i++)
+			sql.append(i == 0 ? "?" : ",?");
+		sql.append(")");
+		
+		PreparedStatement stmt = mDbConn.prepareStatement(sql.toString());
+		ResultSet rs = null;
+		try {
+			for(int i=0; i < dbKeys.size(); i++) {
+				if(mIsKeyAnInteger)
+					stmt.setLong(i+1, Long.valueOf(dbKeyToIds.get(dbKeys.get(i)).get(0)));
+				else
+					stmt.setString(i+1, dbKeyToIds.get(dbKeys.get(i)).get(0));
+			}
 			
-			ResultSet rs = stmt.executeQuery();
+			rs = stmt.executeQuery();
 			while(rs.next()) {
 				Long pos = rs.getLong("FilePos");
 				Object key = rs.getObject("Key");
-				// Don't add the position if the key is NOT an integer AND it is case sensitive AND it does not equal exactly
-				if( ! mIsKeyAnInteger && mIsKeyCaseSensitive && ! id.equals((String)key) )
+				List<String> ids = dbKeyToIds.get(toDbKey(String.valueOf(key)));
+				if( ids == null )
 					continue;
-				positions.add(pos);
+				for(String id : ids) {
+					// Don't add the position if the key is NOT an integer AND it is case sensitive AND it does not equal exactly
+					if( ! mIsKeyAnInteger && mIsKeyCaseSensitive && ! id.equals((String)key) )
+						continue;
+					key2posMap.get(id).add(pos);
+				}
 			}
-			rs.close();
+		} finally {
+			if( rs != null )
+				rs.close();
+			stmt.close();
 		}
-		//System.out.println("Max memory: " + maxMem);
-		stmt.close();
-
-		return key2posMap;
-	}		
+	}
 	
+	/** The form of an id as it will be matched in the database (integers are normalized, strings are compared ignoring case) */
+	private String toDbKey(String id) {
+		if( mIsKeyAnInteger )
+			return String.valueOf(Long.valueOf(id));
+		return id.toUpperCase();
+	}
 
 	/**
 	 * Given an Id, find a list of positions within the Bgzip file that correspond to that Id 
@@ -100,9 +142,11 @@ public class FindIndex {
 	 * @throws SQLException
 	 */
 	public LinkedList<Long> find(String idToFind) throws SQLException {
-		final String SQL = "SELECT Key,FilePos FROM Indexer WHERE Key = ?";
+		// Prepare the statement once and reuse it for each subsequent call
+		if( mFindStmt == null )
+			mFindStmt = mDbConn.prepareStatement("SELECT Key,FilePos FROM Indexer WHERE Key = ?");
 		
-		PreparedStatement stmt = mDbConn.prepareStatement(SQL);
+		PreparedStatement stmt = mFindStmt;
 		ResultSet rs = null;
 		LinkedList<Long> positions = new LinkedList<Long>();
 		
@@ -133,12 +177,18 @@ public class FindIndex {
 		} finally {
 			if( rs != null )
 				rs.close();
-			if( stmt != null )
-				stmt.close();
 		}
 		
 		return positions;
 	}
 
+	/** Release the prepared statement held for single-id lookups (the connection itself is NOT closed) */
+	public void close() throws SQLException {
+		if( mFindStmt != null ) {
+			mFindStmt.close();
+			mFindStmt = null;
+		}
+	}
+
 
 }
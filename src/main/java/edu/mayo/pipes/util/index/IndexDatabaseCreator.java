@@ -15,28 +15,37 @@ import java.util.Properties;
 import edu.mayo.pipes.JSON.lookup.lookupUtils.IndexUtils;
 
 public class IndexDatabaseCreator {
+	/** # of rows per JDBC batch (and per commit) when loading the database */
+	private static final int BATCH_SIZE = 10000;
+
+	/** Print the load progress after this many rows */
+	private static final int PROGRESS_ROWS = 1000000;
+
+	private int mMaxLinesInMemory = SortExternal.DEFAULT_LINES_IN_MEMORY;
+
+	/** Max # of (key, position) pairs to hold in memory while sorting the keys before loading them
+	 *  (more are sorted in temp files next to the database and then merged) */
+	public void setMaxLinesInMemory(int maxLinesInMemory) {
+		mMaxLinesInMemory = maxLinesInMemory;
+	}
+
 	/** Reads a bgzip catalog, getting a key from col and jsonPath, then creating an H2 database/index 
 	 * @param bgzipPath  Full path to bgzip catalog file
 	 * @param keyCol 1-based column where the json is located
 	 * @param jsonPath  The json path to get the id that we will index (ex: "HGNC" for HGNC Id within the Genes catalog)
 	 * @param isKeyAnInteger  Is the key an integer or a string
 	 * @param outH2DbFile  The name of the H2 database that will be created
+	 * The (key, position) pairs are sorted by key (externally, with bounded memory) and loaded in
+	 * JDBC batches, and the key index is only created once all of the rows are loaded.
 	 * @throws IOException 
 	 * @throws SQLException 
 	 * @throws ClassNotFoundException */ 
 	public void buildIndexH2(String bgzipPath, int keyCol, String jsonPath, String outH2DbPath) throws SQLException, IOException, ClassNotFoundException {
-		Connection dbConn = null;
 		File tempTxtOut = null;
 		try {
 			System.out.println("-------------- Building Index --------------");
 			
-			// First remove the database file
 			File h2DbFile = new File(outH2DbPath);
-			if(h2DbFile.exists()) {
-				System.out.println("Deleting file: " + h2DbFile.getCanonicalPath());
-				h2DbFile.delete();
-			}
-			
 		    // NOTE: Indexes are saved to a text file first to avoid the huge memory locking issue
 		    // (this occurred when reading from a bgzip file and trying to load directly to memory or a database
 		    // but saving to files worked ok).
@@ -48,20 +57,45 @@ public class IndexDatabaseCreator {
 		    IndexUtils indexUtils = new IndexUtils();
 		    Properties props = indexUtils.zipIndexesToTextFile(new File(bgzipPath), "\t", keyCol, jsonPath, tempTxtOut);
 	
-		    // Throw exception if maxKeyLen is 0, because then it didn't index anything
+		    boolean isKeyAnInteger = (Boolean)(props.get(IndexUtils.IndexBuilderPropKeys.IsKeyColAnInt));
 		    int maxKeyLen = (Integer)(props.get(IndexUtils.IndexBuilderPropKeys.MaxKeyLen));
+		    loadIndexH2(tempTxtOut, isKeyAnInteger, maxKeyLen, h2DbFile);
+		} finally {
+			// Remove the temp text file
+			if(tempTxtOut != null)
+				tempTxtOut.delete();
+		}
+	}
+
+	/** Sort the (key, position) lines written by zipIndexesToTextFile() (or CatalogBuilder) and load them into a new H2 database.
+	 *  The text file is deleted once it is sorted. */
+	void loadIndexH2(File tempTxtOut, boolean isKeyAnInteger, int maxKeyLen, File h2DbFile) throws SQLException, IOException, ClassNotFoundException {
+		Connection dbConn = null;
+		File tempSortedOut = sortedFile(tempTxtOut);
+		try {
+			// First remove the database file
+			if(h2DbFile.exists()) {
+				System.out.println("Deleting file: " + h2DbFile.getCanonicalPath());
+				h2DbFile.delete();
+			}
+
+		    // Throw exception if maxKeyLen is 0, because then it didn't index anything
 		    if( 0 == maxKeyLen ) {
 		    	throw new IllegalArgumentException("There were no keys indexed!  Check your inputs and try again.");
 		    }
 		    
+		    // Sort by key, so the rows (and then the index) are built in key order
+		    System.out.println("Sorting indexes by key...");
+		    long numRows = new SortExternal(isKeyAnInteger, mMaxLinesInMemory, null).sort(tempTxtOut, tempSortedOut);
+		    tempTxtOut.delete();
+
 		    // Read all data from text and put into H2 database
 		    H2Connection h2Conn = new H2Connection(h2DbFile);
 		    dbConn = h2Conn.getConn();
 		    System.out.println("Create database table...");
-		    boolean isKeyAnInteger = (Boolean)(props.get(IndexUtils.IndexBuilderPropKeys.IsKeyColAnInt));
 		    h2Conn.createTable(isKeyAnInteger, maxKeyLen, dbConn);
 		    System.out.println("Add rows from text file to database...");
-		    textIndexesToDb(dbConn, false, tempTxtOut);
+		    textIndexesToDb(dbConn, isKeyAnInteger, tempSortedOut, numRows);
 		    countDatabaseRows(h2DbFile);
 		    System.out.println("Size of file before index: " + h2DbFile.length());
 			System.out.println("Creating index on database...");
@@ -77,11 +111,83 @@ public class IndexDatabaseCreator {
 		} finally {
 			if(dbConn != null && ! dbConn.isClosed())
 				dbConn.close();
-			// Remove the temp text file
-			tempTxtOut.delete();
+			tempSortedOut.delete();
 		}
 	}
 		
+	/** Reads a bgzip catalog, getting a key from col and jsonPath, then creating a SortedKeyIndex file
+	 *  (a memory-mapped alternative to the H2 database that LookupPipe can also use)
+	 * @param bgzipPath  Full path to bgzip catalog file
+	 * @param keyCol 1-based column where the json is located
+	 * @param jsonPath  The json path to get the id that we will index (ex: "HGNC" for HGNC Id within the Genes catalog)
+	 * @param outIndexPath  The index file that will be created (ex: genes.HGNC.idx.sorted)
+	 * @throws IOException
+	 * @throws SQLException */
+	public void buildIndexSorted(String bgzipPath, int keyCol, String jsonPath, String outIndexPath) throws IOException, SQLException {
+		File indexFile = new File(outIndexPath);
+		File tempTxtOut = new File(indexFile.getCanonicalFile().getParentFile(), "tempIndex.txt");
+		try {
+			System.out.println("-------------- Building Sorted Index --------------");
+			System.out.println("Saving indexes to temp text file...");
+			Properties props = new IndexUtils().zipIndexesToTextFile(new File(bgzipPath), "\t", keyCol, jsonPath, tempTxtOut);
+			if( 0 == (Integer)(props.get(IndexUtils.IndexBuilderPropKeys.MaxKeyLen)) ) {
+				throw new IllegalArgumentException("There were no keys indexed!  Check your inputs and try again.");
+			}
+			boolean isKeyAnInteger = (Boolean)(props.get(IndexUtils.IndexBuilderPropKeys.IsKeyColAnInt));
+			writeIndexSorted(tempTxtOut, isKeyAnInteger, indexFile);
+		} finally {
+			tempTxtOut.delete();
+		}
+	}
+
+	/** Sort the (key, position) lines written by zipIndexesToTextFile() (or CatalogBuilder) and write them to a SortedKeyIndex file.
+	 *  The text file is deleted once it is sorted. */
+	void writeIndexSorted(File tempTxtOut, boolean isKeyAnInteger, File indexFile) throws IOException {
+		File tempSortedOut = sortedFile(tempTxtOut);
+		BufferedReader fin = null;
+		try {
+			System.out.println("Sorting indexes by key...");
+			SortExternal sorter = new SortExternal(isKeyAnInteger, mMaxLinesInMemory, null);
+			sorter.setIgnoreCase(true);
+			long numRows = sorter.sort(tempTxtOut, tempSortedOut);
+			tempTxtOut.delete();
+
+			System.out.println("Writing index file...");
+			long start = System.currentTimeMillis();
+			SortedKeyIndexWriter writer = new SortedKeyIndexWriter(indexFile, isKeyAnInteger);
+			try {
+				fin = new BufferedReader(new FileReader(tempSortedOut));
+				long numObjects = 0;
+				String line = null;
+				String key = null;
+				while( (line = fin.readLine()) != null ) {
+					int tab = line.indexOf('\t');
+					key = line.substring(0, tab);
+					writer.add(key, Long.parseLong(line.substring(tab + 1)));
+					if( ++numObjects % PROGRESS_ROWS == 0 )
+						printProgress(numObjects, numRows, start, key, new IndexUtils().getMemoryUse()/(1024L * 1024L));
+				}
+			} finally {
+				writer.close();
+			}
+			System.out.println("Num keys in index: " + writer.getNumKeys());
+			System.out.println("Size of index file: " + indexFile.length());
+			System.out.println("Done.");
+		} finally {
+			if( fin != null )
+				fin.close();
+			tempSortedOut.delete();
+		}
+	}
+
+	/** The temp file to sort a temp text file into (ex: tempIndex.txt -> tempIndex.sorted.txt) */
+	private static File sortedFile(File tempTxtOut) {
+		String name = tempTxtOut.getName();
+		if( name.endsWith(".txt") )
+			name = name.substring(0, name.length() - 4);
+		return new File(tempTxtOut.getParentFile(), name + ".sorted.txt");
+	}
+
 	public static void printDatabaseHeader(Connection dbConn) throws SQLException {
 		Statement stmt = null;
 		ResultSet rs = null;
@@ -173,44 +279,64 @@ public class IndexDatabaseCreator {
 	    return count;
 	}
 
-	private void textIndexesToDb(Connection dbConn, boolean isKeyInteger, File tmpTxt) throws NumberFormatException, SQLException, IOException {
+	/** Load the sorted (key, position) lines into the Indexer table in JDBC batches.
+	 *  The undo log is turned off for the load, as a failed load leaves an unusable database anyway. */
+	private void textIndexesToDb(Connection dbConn, boolean isKeyInteger, File tmpTxt, long numRowsTotal) throws NumberFormatException, SQLException, IOException {
 		long numObjects = 0;
-		long numBytesRead = 0;
 		long MB = 1024L * 1024L;
+		long start = System.currentTimeMillis();
 
-		BufferedReader fin = new BufferedReader(new FileReader(tmpTxt));
-		
-		final String SQL = "INSERT INTO Indexer (Key, FilePos) VALUES (?, ?)";
-		PreparedStatement stmt = dbConn.prepareStatement(SQL);
-		dbConn.setAutoCommit(true);
-
-		String line = null;
-		while( (line = fin.readLine()) != null ) {
-			numObjects++;
-			String[] cols = line.split("\t");
-			String key = cols[0];
-			String pos = cols[1];
-			// Key
-			if(isKeyInteger)
-				stmt.setLong(1, Integer.valueOf(key));
-			else
-				stmt.setString(1, key);
-			// FilePos
-			stmt.setLong(2, Long.valueOf(pos));
-			stmt.execute();
-			dbConn.commit();
+		BufferedReader fin = null;
+		PreparedStatement stmt = null;
+		Statement settings = dbConn.createStatement();
+		try {
+			settings.execute("SET UNDO_LOG 0");
+			dbConn.setAutoCommit(false);
+			fin = new BufferedReader(new FileReader(tmpTxt));
+			final String SQL = "INSERT INTO Indexer (Key, FilePos) VALUES (?, ?)";
+			stmt = dbConn.prepareStatement(SQL);
 
-			if( numObjects % 10000 == 0 ) {
-				System.out.println(key + "    " + numObjects 
-						+ ", avgBytesPerItem: " + (numBytesRead / numObjects) 
-						+ ", MBs read: " + (numBytesRead/MB) + ", Mem (MBs): " + (new IndexUtils().getMemoryUse()/MB));
-			}
-		} while( line != null );
+			String line = null;
+			while( (line = fin.readLine()) != null ) {
+				numObjects++;
+				int tab = line.indexOf('\t');
+				String key = line.substring(0, tab);
+				// Key
+				if(isKeyInteger)
+					stmt.setLong(1, Long.parseLong(key));
+				else
+					stmt.setString(1, key);
+				// FilePos
+				stmt.setLong(2, Long.parseLong(line.substring(tab + 1)));
+				stmt.addBatch();
 
-		fin.close();
-		stmt.close();
-		
+				if( numObjects % BATCH_SIZE == 0 ) {
+					stmt.executeBatch();
+					dbConn.commit();
+				}
+				if( numObjects % PROGRESS_ROWS == 0 )
+					printProgress(numObjects, numRowsTotal, start, key, new IndexUtils().getMemoryUse()/MB);
+			}
+			stmt.executeBatch();
+			dbConn.commit();
+		} finally {
+			if( fin != null )
+				fin.close();
+			if( stmt != null )
+				stmt.close();
+			dbConn.setAutoCommit(true);
+			settings.execute("SET UNDO_LOG 1");
+			settings.close();
+		}
+		printProgress(numObjects, numRowsTotal, start, "", new IndexUtils().getMemoryUse()/MB);
 		System.out.println("Num objects read: " + numObjects);
 	}
 
+	private void printProgress(long numRows, long numRowsTotal, long startMillis, String lastKey, long memMB) {
+		long millis = Math.max(1, System.currentTimeMillis() - startMillis);
+		long pct = numRowsTotal > 0 ? (numRows * 100 / numRowsTotal) : 100;
+		System.out.println("Loaded " + numRows + " of " + numRowsTotal + " rows (" + pct + "%), "
+				+ (numRows * 1000 / millis) + " rows/sec, last key: " + lastKey + ", Mem (MBs): " + memMB);
+	}
+
 }
@@ -0,0 +1,186 @@
+package edu.mayo.pipes.util.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.log4j.Logger;
+
+import edu.mayo.pipes.JSON.tabix.BgzipBlockReader;
+
+/**
+ * Opens each (catalog, key index) pair once per process and shares it with every pipe that
+ * looks keys up in it (ex: LookupPipe), instead of each pipe opening its own database
+ * connection and bgzip reader.
+ * <p>
+ * open() hands out a Handle, and counts the handles that are still open.  When a pair has no
+ * open handles it is kept open for the next pipe, unless more than maxOpen pairs are open;
+ * then the least recently used unused pairs are closed.  This keeps the # of open files down,
+ * avoiding the "FileNotFoundException: xxxxxx (Too many open files)" error.
+ * <p>
+ * The shared index and reader are thread-safe: a SortedKeyIndex needs no locking, an H2 index
+ * is a PooledFindIndex, and BgzipBlockReader is synchronized.
+ * If either file changes (ex: the index is rebuilt), the next open() opens it again.
+ */
+public class IndexRegistry {
+
+	public static final int DEFAULT_MAX_OPEN = 32;
+
+	private static final IndexRegistry sShared = new IndexRegistry(DEFAULT_MAX_OPEN);
+
+	private static Logger sLogger = Logger.getLogger(IndexRegistry.class);
+
+	private int mMaxOpen;
+	private int mMaxConnections = PooledFindIndex.DEFAULT_MAX_CONNECTIONS;
+	/** The open pairs, least recently used first */
+	private LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/** @return the registry shared by the whole process */
+	public static IndexRegistry getShared() {
+		return sShared;
+	}
+
+	/** @param maxOpen  max # of (catalog, index) pairs to keep open once they are no longer used */
+	public IndexRegistry(int maxOpen) {
+		setMaxOpen(maxOpen);
+	}
+
+	public synchronized void setMaxOpen(int maxOpen) {
+		if( maxOpen < 1 )
+			throw new IllegalArgumentException("maxOpen must be at least 1: " + maxOpen);
+		mMaxOpen = maxOpen;
+		closeUnused(mMaxOpen);
+	}
+
+	/** Max # of connections to each H2 index (only used for the indexes opened after this is set) */
+	public synchronized void setMaxConnections(int maxConnections) {
+		mMaxConnections = maxConnections;
+	}
+
+	/**
+	 * Get a handle on the catalog and its key index, opening them if they aren't open yet.
+	 * Close the handle once it is no longer needed.
+	 * @param catalogFile  the bgzip catalog
+	 * @param indexFile  the H2 database or SortedKeyIndex file for the catalog
+	 * @param isKeyCaseSensitive  see FindIndex
+	 * @throws IOException if the catalog or index can't be opened
+	 */
+	public synchronized Handle open(String catalogFile, String indexFile, boolean isKeyCaseSensitive) throws IOException {
+		File catalog = new File(catalogFile).getCanonicalFile();
+		File index = new File(indexFile).getCanonicalFile();
+		String key = stamp(catalog) + "|" + stamp(index) + "|" + isKeyCaseSensitive;
+		Entry entry = mEntries.get(key);
+		boolean isNew = entry == null;
+		if( isNew ) {
+			entry = new Entry(key, catalog, index, isKeyCaseSensitive);
+			mEntries.put(key, entry);
+		}
+		entry.refs++;
+		if( isNew )
+			closeUnused(mMaxOpen);
+		return new Handle(entry);
+	}
+
+	/** # of (catalog, index) pairs that are open */
+	public synchronized int getNumOpen() {
+		return mEntries.size();
+	}
+
+	/** Close every (catalog, index) pair that has no open handles */
+	public synchronized void closeUnused() {
+		closeUnused(0);
+	}
+
+	private synchronized void release(Entry entry) {
+		entry.refs--;
+		if( entry.refs == 0 )
+			closeUnused(mMaxOpen);
+	}
+
+	/** Close the least recently used pairs with no open handles until at most maxOpen are open */
+	private void closeUnused(int maxOpen) {
+		Iterator<Entry> it = mEntries.values().iterator();
+		while( mEntries.size() > maxOpen && it.hasNext() ) {
+			Entry entry = it.next();
+			if( entry.refs > 0 )
+				continue;
+			it.remove();
+			entry.close();
+		}
+		if( maxOpen > 0 && mEntries.size() > maxOpen )
+			sLogger.warn(mEntries.size() + " catalog indexes are in use, more than the max of " + maxOpen);
+	}
+
+	/** Identifies the file's current version */
+	private static String stamp(File file) {
+		return file.getPath() + ":" + file.lastModified() + ":" + file.length();
+	}
+
+	/** An open (catalog, index) pair */
+	private class Entry {
+		final String key;
+		final KeyIndex index;
+		final BgzipBlockReader reader;
+		int refs = 0;
+
+		Entry(String key, File catalog, File indexFile, boolean isKeyCaseSensitive) throws IOException {
+			this.key = key;
+			this.reader = new BgzipBlockReader(catalog);
+			try {
+				if( SortedKeyIndex.isSortedKeyIndex(indexFile) )
+					this.index = new SortedKeyIndex(indexFile, isKeyCaseSensitive);
+				else
+					this.index = new PooledFindIndex(indexFile.getPath(), isKeyCaseSensitive, mMaxConnections);
+			} catch(SQLException e) {
+				reader.close();
+				throw new IOException("Could not open the index " + indexFile + ": " + e.getMessage());
+			} catch(IOException e) {
+				reader.close();
+				throw e;
+			}
+		}
+
+		void close() {
+			try {
+				index.close();
+				reader.close();
+			} catch(Exception e) {
+				sLogger.warn("Error closing the catalog index " + key + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * A pipe's hold on an open (catalog, index) pair.  The index and reader can be used by
+	 * any # of threads, but must not be used after close().
+	 */
+	public class Handle {
+		private Entry mEntry;
+		private boolean mIsClosed = false;
+
+		private Handle(Entry entry) {
+			mEntry = entry;
+		}
+
+		public KeyIndex getIndex() {
+			return mEntry.index;
+		}
+
+		/** The shared reader for the catalog (its methods are synchronized) */
+		public BgzipBlockReader getReader() {
+			return mEntry.reader;
+		}
+
+		/** Let the registry close the catalog and index once no other handle uses them */
+		public void close() {
+			synchronized( IndexRegistry.this ) {
+				if( mIsClosed )
+					return;
+				mIsClosed = true;
+				release(mEntry);
+			}
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package edu.mayo.pipes.util.index;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps a key (ex: a gene symbol or rsID) to the positions of its lines in a bgzip catalog.
+ * Implemented by FindIndex (H2 database) and SortedKeyIndex (sorted key file).
+ */
+public interface KeyIndex {
+
+	/** @return true if the keys are integers (then ids that are not integers never match) */
+	boolean isKeyAnInteger();
+
+	/**
+	 * Given an Id, find the positions (bgzip virtual offsets) of its lines in the catalog
+	 * @return the positions (empty if not found)
+	 */
+	List<Long> find(String idToFind) throws SQLException, IOException;
+
+	/**
+	 * Find the positions for several ids at once.  Every id passed in has an entry in the
+	 * map, even if it has no positions.  The positions for each id are in ascending file order.
+	 */
+	Map<String, List<Long>> find(List<String> idsToFind) throws SQLException, IOException;
+
+	/** Release any resources held for the lookups */
+	void close() throws SQLException, IOException;
+}
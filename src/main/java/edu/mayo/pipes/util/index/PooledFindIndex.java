@@ -0,0 +1,115 @@
+package edu.mayo.pipes.util.index;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A FindIndex that several threads can use at once.  Each lookup borrows one of up to
+ * maxConnections read-only connections to the H2 database (opened only as they are needed),
+ * so the lookups don't share a Connection or PreparedStatement.
+ */
+public class PooledFindIndex implements KeyIndex {
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+	private final String mDbPath;
+	private final boolean mIsKeyCaseSensitive;
+	private final int mMaxConnections;
+	private final boolean mIsKeyAnInteger;
+	private final LinkedList<FindIndex> mIdle = new LinkedList<FindIndex>();
+	private final List<Connection> mConnections = new ArrayList<Connection>();
+	private boolean mIsClosed = false;
+
+	/**
+	 * @param dbPath  the H2 database file (ex: genes.HGNC.idx.h2.db)
+	 * @param isKeyCaseSensitive  see FindIndex
+	 * @param maxConnections  max # of connections (= max # of lookups running at the same time)
+	 * @throws SQLException if the database can't be opened
+	 */
+	public PooledFindIndex(String dbPath, boolean isKeyCaseSensitive, int maxConnections) throws SQLException {
+		if( maxConnections < 1 )
+			throw new IllegalArgumentException("maxConnections must be at least 1: " + maxConnections);
+		mDbPath = dbPath;
+		mIsKeyCaseSensitive = isKeyCaseSensitive;
+		mMaxConnections = maxConnections;
+		// Open the first connection now, so a bad database fails here rather than on a lookup
+		FindIndex first = newFindIndex();
+		mIsKeyAnInteger = first.isKeyAnInteger();
+		mIdle.add(first);
+	}
+
+	public boolean isKeyAnInteger() {
+		return mIsKeyAnInteger;
+	}
+
+	public List<Long> find(String idToFind) throws SQLException {
+		FindIndex findIndex = borrow();
+		try {
+			return findIndex.find(idToFind);
+		} finally {
+			release(findIndex);
+		}
+	}
+
+	public HashMap<String, List<Long>> find(List<String> idsToFind) throws SQLException {
+		FindIndex findIndex = borrow();
+		try {
+			return findIndex.find(idsToFind);
+		} finally {
+			release(findIndex);
+		}
+	}
+
+	/** # of connections opened so far */
+	public synchronized int getNumConnections() {
+		return mConnections.size();
+	}
+
+	/** Close all of the connections */
+	public synchronized void close() throws SQLException {
+		mIsClosed = true;
+		for(FindIndex findIndex : mIdle)
+			findIndex.close();
+		mIdle.clear();
+		for(Connection conn : mConnections)
+			conn.close();
+		mConnections.clear();
+		notifyAll();
+	}
+
+	private synchronized FindIndex borrow() throws SQLException {
+		while( true ) {
+			if( mIsClosed )
+				throw new SQLException("The index is closed: " + mDbPath);
+			if( ! mIdle.isEmpty() )
+				return mIdle.removeFirst();
+			if( mConnections.size() < mMaxConnections )
+				return newFindIndex();
+			try {
+				wait();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a connection to " + mDbPath);
+			}
+		}
+	}
+
+	private synchronized void release(FindIndex findIndex) {
+		if( mIsClosed )
+			return;
+		mIdle.addFirst(findIndex);
+		notify();
+	}
+
+	private FindIndex newFindIndex() throws SQLException {
+		Connection conn = new H2Connection(mDbPath, false).getConn();
+		if( conn == null )
+			throw new SQLException("Could not open the H2 index: " + mDbPath);
+		mConnections.add(conn);
+		return new FindIndex(conn, mIsKeyCaseSensitive);
+	}
+}
@@ -0,0 +1,208 @@
+package edu.mayo.pipes.util.index;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts a text index of (key, bgzip file position) lines, as written by
+ * IndexUtils.zipIndexesToTextFile(), by key and then position.
+ * <p>
+ * Only maxLinesInMemory lines are held in memory at a time: each chunk of the input is
+ * sorted and written to a temp file (a "run"), then the runs are merged into the output.
+ * Integer keys are sorted numerically, the others as strings (optionally ignoring case).
+ */
+public class SortExternal {
+
+	public static final int DEFAULT_LINES_IN_MEMORY = 1000000;
+
+	private boolean mIsKeyInteger;
+	private int mMaxLinesInMemory;
+	private File mTempDir;
+	private boolean mIsIgnoreCase = false;
+
+	/**
+	 * @param isKeyInteger  true if all keys are integers (sort them numerically)
+	 * @param maxLinesInMemory  max # of lines to sort in memory at once
+	 * @param tempDir  directory for the sorted runs (null = the output file's directory)
+	 */
+	public SortExternal(boolean isKeyInteger, int maxLinesInMemory, File tempDir) {
+		if( maxLinesInMemory < 1 )
+			throw new IllegalArgumentException("maxLinesInMemory must be at least 1: " + maxLinesInMemory);
+		mIsKeyInteger = isKeyInteger;
+		mMaxLinesInMemory = maxLinesInMemory;
+		mTempDir = tempDir;
+	}
+
+	public SortExternal(boolean isKeyInteger) {
+		this(isKeyInteger, DEFAULT_LINES_IN_MEMORY, null);
+	}
+
+	/**
+	 * Sort string keys by their upper-case form first (then exactly), so keys that only differ
+	 * by case end up next to each other (as needed by SortedKeyIndexWriter)
+	 */
+	public void setIgnoreCase(boolean isIgnoreCase) {
+		mIsIgnoreCase = isIgnoreCase;
+	}
+
+	/**
+	 * Sort the key-tab-position lines of txtIndexIn into sortedOut
+	 * @return # of lines sorted
+	 * @throws IOException
+	 */
+	public long sort(File txtIndexIn, File sortedOut) throws IOException {
+		File tempDir = mTempDir != null ? mTempDir : sortedOut.getCanonicalFile().getParentFile();
+		List<File> runs = new ArrayList<File>();
+		long numLines = 0;
+		BufferedReader fin = new BufferedReader(new FileReader(txtIndexIn));
+		try {
+			List<Entry> chunk = new ArrayList<Entry>();
+			String line = null;
+			while( (line = fin.readLine()) != null ) {
+				if( line.length() == 0 )
+					continue;
+				chunk.add(new Entry(line));
+				numLines++;
+				if( chunk.size() == mMaxLinesInMemory ) {
+					runs.add(writeRun(chunk, tempDir));
+					chunk.clear();
+				}
+			}
+			// A single chunk can go straight to the output
+			if( runs.isEmpty() ) {
+				Collections.sort(chunk);
+				write(chunk, sortedOut);
+				return numLines;
+			}
+			if( chunk.size() > 0 )
+				runs.add(writeRun(chunk, tempDir));
+		} catch(IOException e) {
+			deleteAll(runs);
+			throw e;
+		} finally {
+			fin.close();
+		}
+
+		try {
+			merge(runs, sortedOut);
+		} finally {
+			deleteAll(runs);
+		}
+		return numLines;
+	}
+
+	private File writeRun(List<Entry> chunk, File tempDir) throws IOException {
+		Collections.sort(chunk);
+		File run = File.createTempFile("sortRun", ".txt", tempDir);
+		write(chunk, run);
+		return run;
+	}
+
+	private void write(List<Entry> entries, File out) throws IOException {
+		BufferedWriter fout = new BufferedWriter(new FileWriter(out));
+		try {
+			for(Entry entry : entries) {
+				fout.write(entry.line);
+				fout.write('\n');
+			}
+		} finally {
+			fout.close();
+		}
+	}
+
+	/** Merge the sorted runs: always write the smallest of the runs' current lines */
+	private void merge(List<File> runs, File sortedOut) throws IOException {
+		PriorityQueue<Run> queue = new PriorityQueue<Run>(runs.size());
+		BufferedWriter fout = new BufferedWriter(new FileWriter(sortedOut));
+		try {
+			for(File file : runs) {
+				Run run = new Run(file);
+				if( run.next() )
+					queue.add(run);
+				else
+					run.close();
+			}
+			while( ! queue.isEmpty() ) {
+				Run run = queue.poll();
+				fout.write(run.current.line);
+				fout.write('\n');
+				if( run.next() )
+					queue.add(run);
+				else
+					run.close();
+			}
+		} finally {
+			for(Run run : queue)
+				run.close();
+			fout.close();
+		}
+	}
+
+	private void deleteAll(List<File> files) {
+		for(File file : files)
+			file.delete();
+	}
+
+	/** One line of the text index, with its key and position parsed for sorting */
+	private class Entry implements Comparable<Entry> {
+		final String line;
+		final String key;
+		final String upperKey;
+		final long keyNum;
+		final long pos;
+
+		Entry(String line) {
+			int tab = line.indexOf('\t');
+			if( tab == -1 )
+				throw new IllegalArgumentException("Expected a key and position separated by a tab: " + line);
+			this.line = line;
+			this.key = line.substring(0, tab);
+			this.upperKey = mIsIgnoreCase && ! mIsKeyInteger ? key.toUpperCase() : key;
+			this.keyNum = mIsKeyInteger ? Long.parseLong(key) : 0;
+			this.pos = Long.parseLong(line.substring(tab + 1));
+		}
+
+		public int compareTo(Entry other) {
+			int c;
+			if( mIsKeyInteger )
+				c = keyNum < other.keyNum ? -1 : (keyNum == other.keyNum ? 0 : 1);
+			else if( (c = upperKey.compareTo(other.upperKey)) == 0 )
+				c = key.compareTo(other.key);
+			if( c != 0 )
+				return c;
+			return pos < other.pos ? -1 : (pos == other.pos ? 0 : 1);
+		}
+	}
+
+	/** A sorted run being merged */
+	private class Run implements Comparable<Run> {
+		final BufferedReader reader;
+		Entry current = null;
+
+		Run(File file) throws IOException {
+			reader = new BufferedReader(new FileReader(file));
+		}
+
+		boolean next() throws IOException {
+			String line = reader.readLine();
+			current = line == null ? null : new Entry(line);
+			return current != null;
+		}
+
+		void close() throws IOException {
+			reader.close();
+		}
+
+		public int compareTo(Run other) {
+			return current.compareTo(other.current);
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package edu.mayo.pipes.util.index;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import edu.mayo.pipes.JSON.lookup.lookupUtils.IndexUtils;
+
+/**
+ * A read-only, memory-mapped key index: an alternative to the H2 database (FindIndex) that
+ * needs no JDBC driver and opens without reading anything but the header.
+ * Built by SortedKeyIndexWriter (see IndexDatabaseCreator.buildIndexSorted()).
+ * <p>
+ * The keys are sorted (integers numerically, strings by their upper-case form) and stored in
+ * blocks of keysPerBlock keys, each key sharing its leading bytes with the previous one.
+ * A lookup is a binary search on the first key of each block, then a short scan.
+ * String keys match ignoring case unless isKeyCaseSensitive, same as FindIndex.
+ * <p>
+ * File layout (numbers are big-endian; a vint/vlong has 7 bits per byte, the high bit set on all but the last byte):
+ * <pre>
+ *   header       magic, version, flags, keysPerBlock (ints), numKeys, numBlocks, blockIndexOffset (longs)
+ *   blocks       for each key:  vint   # of leading bytes shared with the previous key (0 for a block's first key)
+ *                               vint   # of bytes that follow, then the rest of the key (UTF-8)
+ *                               vint   # of positions, then each position as a vlong delta from the previous one
+ *   block index  the file offset of each block (longs)
+ * </pre>
+ * Nothing is changed after it is opened, so one instance can be shared by any # of threads.
+ */
+public class SortedKeyIndex implements KeyIndex {
+
+	public static final int MAGIC = 0x534B4958; // "SKIX"
+	public static final int VERSION = 1;
+	static final int HEADER_SIZE = 40;
+	static final int FLAG_INTEGER_KEYS = 1;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The file is mapped in segments of this many bytes (a single mapping is limited to 2GB) */
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+	private final File mFile;
+	private final ByteBuffer[] mSegments;
+	private final boolean mIsKeyAnInteger;
+	private final boolean mIsKeyCaseSensitive;
+	private final int mKeysPerBlock;
+	private final long mNumKeys;
+	private final long mNumBlocks;
+	private final long mBlockIndexOffset;
+
+	public SortedKeyIndex(File indexFile, boolean isKeyCaseSensitive) throws IOException {
+		mFile = indexFile;
+		mIsKeyCaseSensitive = isKeyCaseSensitive;
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if( size < HEADER_SIZE || raf.readInt() != MAGIC )
+				throw new IOException("Not a sorted key index: " + indexFile);
+			int version = raf.readInt();
+			if( version != VERSION )
+				throw new IOException("Unsupported sorted key index version " + version + ": " + indexFile);
+			mIsKeyAnInteger = (raf.readInt() & FLAG_INTEGER_KEYS) != 0;
+			mKeysPerBlock = raf.readInt();
+			mNumKeys = raf.readLong();
+			mNumBlocks = raf.readLong();
+			mBlockIndexOffset = raf.readLong();
+			if( mBlockIndexOffset + mNumBlocks * 8 > size )
+				throw new IOException("Sorted key index is truncated: " + indexFile);
+
+			// The mappings stay valid after the channel is closed
+			mSegments = new ByteBuffer[(int)((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+			for(int i = 0; i < mSegments.length; i++) {
+				long start = (long)i << SEGMENT_BITS;
+				mSegments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_MASK + 1, size - start));
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	public SortedKeyIndex(File indexFile) throws IOException {
+		this(indexFile, false);
+	}
+
+	/** @return true if the file starts with the sorted key index magic # (false if it is ex: an H2 database) */
+	public static boolean isSortedKeyIndex(File file) {
+		if( ! file.isFile() || file.length() < HEADER_SIZE )
+			return false;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			return in.readInt() == MAGIC;
+		} catch(IOException e) {
+			return false;
+		} finally {
+			try {
+				if( in != null )
+					in.close();
+			} catch(IOException e) {
+			}
+		}
+	}
+
+	public File getFile() {
+		return mFile;
+	}
+
+	public boolean isKeyAnInteger() {
+		return mIsKeyAnInteger;
+	}
+
+	/** # of unique keys */
+	public long getNumKeys() {
+		return mNumKeys;
+	}
+
+	public List<Long> find(String idToFind) {
+		List<Long> positions = new ArrayList<Long>();
+		if( idToFind == null || mNumBlocks == 0 )
+			return positions;
+		// If the key is an integer but the id is a string, there will be no match
+		if( mIsKeyAnInteger && ! IndexUtils.isInteger(idToFind) )
+			return positions;
+		long idNum = mIsKeyAnInteger ? Long.parseLong(idToFind) : 0;
+		String idUpper = mIsKeyAnInteger ? null : idToFind.toUpperCase();
+
+		// Find the last block whose first key is before the id; the id's keys can start at the end of it
+		Cursor cursor = new Cursor();
+		long lo = 0;
+		long hi = mNumBlocks - 1;
+		while( lo < hi ) {
+			long mid = (lo + hi + 1) >>> 1;
+			cursor.pos = getBlockOffset(mid);
+			cursor.readKey();
+			if( compare(cursor.keyString(), idNum, idUpper) < 0 )
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+
+		// Scan forward from there until past the id
+		cursor.pos = getBlockOffset(lo);
+		int numMatches = 0;
+		for(long k = lo * mKeysPerBlock; k < mNumKeys; k++) {
+			cursor.readKey();
+			String key = cursor.keyString();
+			int c = compare(key, idNum, idUpper);
+			if( c > 0 )
+				break;
+			// Don't add the positions if the key is NOT an integer AND it is case sensitive AND it does not equal exactly
+			if( c < 0 || (! mIsKeyAnInteger && mIsKeyCaseSensitive && ! idToFind.equals(key)) ) {
+				cursor.skipPositions();
+				continue;
+			}
+			cursor.readPositions(positions);
+			numMatches++;
+		}
+		// Several keys can match (ex: "brca1" and "BRCA1"), each with its own ascending positions
+		if( numMatches > 1 )
+			Collections.sort(positions);
+		return positions;
+	}
+
+	public HashMap<String, List<Long>> find(List<String> idsToFind) {
+		HashMap<String, List<Long>> key2posMap = new HashMap<String, List<Long>>();
+		for(String id : idsToFind) {
+			if( id != null && ! key2posMap.containsKey(id) )
+				key2posMap.put(id, find(id));
+		}
+		return key2posMap;
+	}
+
+	/** Nothing to release: the file is unmapped once the index is garbage collected */
+	public void close() {
+	}
+
+	/** Compare a key in the index to the id being looked up (< 0 if the key comes before it) */
+	private int compare(String key, long idNum, String idUpper) {
+		if( mIsKeyAnInteger ) {
+			long keyNum = Long.parseLong(key);
+			return keyNum < idNum ? -1 : (keyNum == idNum ? 0 : 1);
+		}
+		return key.toUpperCase().compareTo(idUpper);
+	}
+
+	private long getBlockOffset(long block) {
+		long pos = mBlockIndexOffset + block * 8;
+		long offset = 0;
+		for(int i = 0; i < 8; i++)
+			offset = (offset << 8) | getByte(pos + i);
+		return offset;
+	}
+
+	private int getByte(long pos) {
+		return mSegments[(int)(pos >>> SEGMENT_BITS)].get((int)(pos & SEGMENT_MASK)) & 0xff;
+	}
+
+	/** Reads the keys forward from a position (one per lookup, so the lookups don't share any state) */
+	private class Cursor {
+		long pos;
+		byte[] key = new byte[64];
+		int keyLen = 0;
+
+		int readVInt() {
+			return (int)readVLong();
+		}
+
+		long readVLong() {
+			long value = 0;
+			int shift = 0;
+			int b;
+			do {
+				b = getByte(pos++);
+				value |= (long)(b & 0x7f) << shift;
+				shift += 7;
+			} while( (b & 0x80) != 0 );
+			return value;
+		}
+
+		/** Read the next key (its leading bytes are the same as the previous key's) */
+		void readKey() {
+			int shared = readVInt();
+			int len = readVInt();
+			if( shared + len > key.length ) {
+				byte[] bigger = new byte[Math.max(shared + len, key.length * 2)];
+				System.arraycopy(key, 0, bigger, 0, shared);
+				key = bigger;
+			}
+			for(int i = 0; i < len; i++)
+				key[shared + i] = (byte)getByte(pos++);
+			keyLen = shared + len;
+		}
+
+		String keyString() {
+			return new String(key, 0, keyLen, UTF8);
+		}
+
+		void readPositions(List<Long> positions) {
+			int n = readVInt();
+			long position = 0;
+			for(int i = 0; i < n; i++) {
+				position += readVLong();
+				positions.add(position);
+			}
+		}
+
+		void skipPositions() {
+			int n = readVInt();
+			for(int i = 0; i < n; i++)
+				readVLong();
+		}
+	}
+}
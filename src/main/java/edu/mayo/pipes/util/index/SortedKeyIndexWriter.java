@@ -0,0 +1,168 @@
+package edu.mayo.pipes.util.index;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a SortedKeyIndex file (see SortedKeyIndex for the layout).
+ * The (key, position) pairs must be added in the order SortExternal sorts them:
+ * integer keys numerically, string keys ignoring case (setIgnoreCase(true)), then by position.
+ */
+public class SortedKeyIndexWriter {
+
+	public static final int DEFAULT_KEYS_PER_BLOCK = 32;
+
+	private File mFile;
+	private OutputStream mOut;
+	private long mOffset = 0;
+	private boolean mIsKeyInteger;
+	private int mKeysPerBlock;
+	private long mNumKeys = 0;
+	private long[] mBlockOffsets = new long[1024];
+	private int mNumBlocks = 0;
+
+	/** The key being added, and its positions */
+	private String mKey = null;
+	private List<Long> mPositions = new ArrayList<Long>();
+	private byte[] mPrevKeyBytes = new byte[0];
+
+	/**
+	 * @param indexFile  the index file to create
+	 * @param isKeyInteger  true if all keys are integers
+	 * @param keysPerBlock  # of keys between each entry in the block index (more = smaller index, longer scans)
+	 */
+	public SortedKeyIndexWriter(File indexFile, boolean isKeyInteger, int keysPerBlock) throws IOException {
+		if( keysPerBlock < 1 )
+			throw new IllegalArgumentException("keysPerBlock must be at least 1: " + keysPerBlock);
+		mFile = indexFile;
+		mIsKeyInteger = isKeyInteger;
+		mKeysPerBlock = keysPerBlock;
+		mOut = new BufferedOutputStream(new FileOutputStream(indexFile), 1024 * 1024);
+		// The header is filled in by close(), once the counts are known
+		write(new byte[SortedKeyIndex.HEADER_SIZE], 0, SortedKeyIndex.HEADER_SIZE);
+	}
+
+	public SortedKeyIndexWriter(File indexFile, boolean isKeyInteger) throws IOException {
+		this(indexFile, isKeyInteger, DEFAULT_KEYS_PER_BLOCK);
+	}
+
+	/**
+	 * Add the next (key, position) pair
+	 * @throws IllegalArgumentException if it is out of order
+	 */
+	public void add(String key, long position) throws IOException {
+		if( key.equals(mKey) ) {
+			if( position < mPositions.get(mPositions.size() - 1) )
+				throw new IllegalArgumentException("Positions for key " + key + " are not sorted: " + position);
+			mPositions.add(position);
+			return;
+		}
+		if( mKey != null ) {
+			if( compare(mKey, key) > 0 )
+				throw new IllegalArgumentException("Keys are not sorted: " + key + " comes after " + mKey);
+			writeKey();
+		}
+		mKey = key;
+		mPositions.clear();
+		mPositions.add(position);
+	}
+
+	/** Write the rest of the keys, the block index and the header */
+	public void close() throws IOException {
+		try {
+			if( mKey != null )
+				writeKey();
+			long blockIndexOffset = mOffset;
+			byte[] buf = new byte[8];
+			for(int i = 0; i < mNumBlocks; i++) {
+				putLong(buf, mBlockOffsets[i]);
+				write(buf, 0, 8);
+			}
+		} finally {
+			mOut.close();
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+		try {
+			raf.writeInt(SortedKeyIndex.MAGIC);
+			raf.writeInt(SortedKeyIndex.VERSION);
+			raf.writeInt(mIsKeyInteger ? SortedKeyIndex.FLAG_INTEGER_KEYS : 0);
+			raf.writeInt(mKeysPerBlock);
+			raf.writeLong(mNumKeys);
+			raf.writeLong(mNumBlocks);
+			raf.writeLong(mOffset - mNumBlocks * 8L);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/** # of unique keys written so far */
+	public long getNumKeys() {
+		return mNumKeys;
+	}
+
+	private int compare(String key1, String key2) {
+		if( mIsKeyInteger ) {
+			long num1 = Long.parseLong(key1);
+			long num2 = Long.parseLong(key2);
+			return num1 < num2 ? -1 : (num1 == num2 ? 0 : 1);
+		}
+		int c = key1.toUpperCase().compareTo(key2.toUpperCase());
+		return c != 0 ? c : key1.compareTo(key2);
+	}
+
+	private void writeKey() throws IOException {
+		byte[] keyBytes = mKey.getBytes(SortedKeyIndex.UTF8);
+		int shared = 0;
+		if( mNumKeys % mKeysPerBlock == 0 ) {
+			// Start a new block, with the whole key so a lookup can start reading here
+			if( mNumBlocks == mBlockOffsets.length )
+				mBlockOffsets = Arrays.copyOf(mBlockOffsets, mNumBlocks * 2);
+			mBlockOffsets[mNumBlocks++] = mOffset;
+		} else {
+			int max = Math.min(keyBytes.length, mPrevKeyBytes.length);
+			while( shared < max && keyBytes[shared] == mPrevKeyBytes[shared] )
+				shared++;
+		}
+		writeVLong(shared);
+		writeVLong(keyBytes.length - shared);
+		write(keyBytes, shared, keyBytes.length - shared);
+		writeVLong(mPositions.size());
+		long prev = 0;
+		for(Long position : mPositions) {
+			writeVLong(position - prev);
+			prev = position;
+		}
+		mPrevKeyBytes = keyBytes;
+		mNumKeys++;
+	}
+
+	private void writeVLong(long value) throws IOException {
+		while( (value & ~0x7fL) != 0 ) {
+			mOut.write((int)((value & 0x7f) | 0x80));
+			value >>>= 7;
+			mOffset++;
+		}
+		mOut.write((int)value);
+		mOffset++;
+	}
+
+	private void write(byte[] buf, int off, int len) throws IOException {
+		mOut.write(buf, off, len);
+		mOffset += len;
+	}
+
+	private static void putLong(byte[] buf, long value) {
+		for(int i = 7; i >= 0; i--) {
+			buf[i] = (byte)value;
+			value >>>= 8;
+		}
+	}
+}
@@ -9,6 +9,7 @@ import java.util.*;
 import edu.mayo.pipes.bioinformatics.vocab.Undefined;
 import edu.mayo.pipes.history.ColumnMetaData;
 import edu.mayo.pipes.history.History;
+import edu.mayo.pipes.history.HistoryMetaData;
 import edu.mayo.pipes.history.ColumnMetaData.Type;
 import edu.mayo.pipes.util.PropertiesFileUtil;
 import edu.mayo.pipes.util.StringUtils;
@@ -67,7 +68,7 @@ public class AddMetadataLines {
      * @param candidate - what we would like the uniqueID to be
      */
     public String getID(History h, String candidate){
-        List<String> lines = History.getMetaData().getOriginalHeader();
+        List<String> lines = h.getHistoryMetaData().getOriginalHeader();
         HashMap<String,LinkedHashMap> hm = new HashMap<String, LinkedHashMap>();
         for(int i = 0; i< lines.size(); i++){
             String line = lines.get(i);
@@ -187,7 +188,7 @@ public class AddMetadataLines {
         put(attributes, BiorMetaControlledVocabulary.OPERATION.toString(), operation);
         put(attributes, BiorMetaControlledVocabulary.DATATYPE.toString(),  ColumnMetaData.Type.JSON.toString());
         put(attributes, BiorMetaControlledVocabulary.SHORTNAME.toString(), operationType);
-        List<String> head = h.getMetaData().getOriginalHeader();
+        List<String> head = h.getHistoryMetaData().getOriginalHeader();
         if(head.size() > 0){
             head.add(head.size()-1, buildHeaderLine(attributes));
         }else{
@@ -214,7 +215,7 @@ public class AddMetadataLines {
         for( String key : temp.keySet()){
             put(attributes, key, temp.get(key));
         }
-        List<String> head = h.getMetaData().getOriginalHeader();
+        List<String> head = h.getHistoryMetaData().getOriginalHeader();
         // Add the new metadata line just before the column header row.
         // If there is no existing metadata, then just add at position zero.
         head.add( Math.max(0, head.size()-1), buildHeaderLine(attributes));
@@ -239,10 +240,10 @@ public class AddMetadataLines {
         put(attributes, BiorMetaControlledVocabulary.DATATYPE.toString(), ColumnMetaData.Type.JSON.toString());
         put(attributes, BiorMetaControlledVocabulary.SHORTNAME.toString(), substituteShort);
         put(attributes, BiorMetaControlledVocabulary.PATH.toString(), catalogPath);
-        List<String> head = h.getMetaData().getOriginalHeader();
+        List<String> head = h.getHistoryMetaData().getOriginalHeader();
         int addline = head.size()-1;
         if(addline == -1){
-            History.getMetaData().getOriginalHeader().add(buildHeaderLine(attributes));
+            head.add(buildHeaderLine(attributes));
         }else {
             head.add(head.size() - 1, buildHeaderLine(attributes));
         }
@@ -269,7 +270,7 @@ public class AddMetadataLines {
         put(attributes, BiorMetaControlledVocabulary.BUILD.toString(),			props.get(BiorMetaControlledVocabulary.BUILD.toString()));
         put(attributes, BiorMetaControlledVocabulary.DATASOURCEPROPERTIES.toString(), datasourcepath);
         put(attributes, BiorMetaControlledVocabulary.COLUMNPROPERTIES.toString(), columnpath);
-        List<String> head = h.getMetaData().getOriginalHeader();
+        List<String> head = h.getHistoryMetaData().getOriginalHeader();
         head.add(head.size()-1, buildHeaderLine(attributes));
         return attributes.get(BiorMetaControlledVocabulary.ID.toString()).substring(5); //remove .bior for consistency
     }
@@ -363,7 +364,7 @@ public class AddMetadataLines {
 
           // Build the header line and add it to the header
           String biorHeaderLine = buildHeaderLine(attributes);
-          List<String> head = History.getMetaData().getOriginalHeader();
+          List<String> head = history.getHistoryMetaData().getOriginalHeader();
           head.add(head.size()-1, biorHeaderLine);
       }
   }
@@ -385,7 +386,7 @@ public class AddMetadataLines {
         int col = -1;
         //ensure that we are dealing with a negative column
         if(columnNumber > 0){
-        	List<ColumnMetaData> colMeta = h.getMetaData().getColumns();
+        	List<ColumnMetaData> colMeta = h.getHistoryMetaData().getColumns();
             col = columnNumber - colMeta.size() -1;
         } else if (columnNumber == 0){
             throw	new RuntimeException("You can't specify column number 0, use negative or positive numbers only!");
@@ -406,19 +407,19 @@ public class AddMetadataLines {
      * @return
      */
     public String constructDrillLines(History h, String operation, int columnNumber, String[] drillPaths) {
-        List<ColumnMetaData> hcol = History.getMetaData().getColumns();
+        List<ColumnMetaData> hcol = h.getHistoryMetaData().getColumns();
         int col = fixDrillRow(h, columnNumber);
 
         ColumnMetaData cmd = hcol.get(hcol.size() + col);
         String cmeta = cmd.getColumnName();
-        int pos = getHistoryMetadataLine4HeaderValue(cmeta);
+        int pos = getHistoryMetadataLine4HeaderValue(h, cmeta);
         if(pos == -1){
             //could not find the column we need to drill, adding metadata failed
         	for(String path: drillPaths){
                 constructDrillOnNoMetadataAvailable(h,operation,path,cmeta);
         	}
         }else {
-            String preLine = History.getMetaData().getOriginalHeader().get(pos).toString();
+            String preLine = h.getHistoryMetaData().getOriginalHeader().get(pos).toString();
             for(String path: drillPaths){
                 putDrillMetaLines(h, operation, preLine, path);
             }
@@ -495,7 +496,7 @@ public class AddMetadataLines {
                     put(attributes, key, datasourceattr.get(key));
             }
         }
-        List<String> head = h.getMetaData().getOriginalHeader();
+        List<String> head = h.getHistoryMetaData().getOriginalHeader();
         head.add(head.size()-1, buildHeaderLine(attributes));
     }
 
@@ -515,10 +516,10 @@ private void constructDrillOnNoMetadataAvailable(History h, String operation,Str
      put(attributes, BiorMetaControlledVocabulary.DATATYPE.toString(), ColumnMetaData.Type.String.toString());
      put(attributes, BiorMetaControlledVocabulary.SHORTNAME.toString(), "");
      put(attributes, BiorMetaControlledVocabulary.PATH.toString(), "");
-     List<String> head = h.getMetaData().getOriginalHeader();
+     List<String> head = h.getHistoryMetaData().getOriginalHeader();
      int addline = head.size()-1;
      if(addline == -1){
-         History.getMetaData().getOriginalHeader().add(buildHeaderLine(attributes));
+         head.add(buildHeaderLine(attributes));
      }else {
          head.add(head.size() - 1, buildHeaderLine(attributes));
      }
@@ -548,7 +549,20 @@ private void constructDrillOnNoMetadataAvailable(History h, String operation,Str
      * @return line number for header
      */
     public int getHistoryMetadataLine4HeaderValue(String headerValue){
-        List<String> header = History.getMetaData().getOriginalHeader();
+        return getMetadataLine4HeaderValue(History.getMetaData().getOriginalHeader(), headerValue);
+    }
+
+    /**
+     * Same as getHistoryMetadataLine4HeaderValue(String), for the header of the pipeline h was read by
+     * @param h               a row of the pipeline
+     * @param headerValue     some column name e.g. bior.ID
+     * @return line number for header
+     */
+    public int getHistoryMetadataLine4HeaderValue(History h, String headerValue){
+        return getMetadataLine4HeaderValue(h.getHistoryMetaData().getOriginalHeader(), headerValue);
+    }
+
+    private int getMetadataLine4HeaderValue(List<String> header, String headerValue){
         int i =0;
         for(String line : header){
             if(line.startsWith("##BIOR")){
@@ -623,16 +637,25 @@ private void constructDrillOnNoMetadataAvailable(History h, String operation,Str
     //========================================================================================
     
     public void modifyCompressHeaders(Metadata meta, int totalNumColumns) {
+    	modifyCompressHeaders(History.getMetaData(), meta, totalNumColumns);
+    }
+
+    /** Same as modifyCompressHeaders(Metadata, int), for the header of the pipeline h was read by */
+    public void modifyCompressHeaders(History h, Metadata meta, int totalNumColumns) {
+    	modifyCompressHeaders(h.getHistoryMetaData(), meta, totalNumColumns);
+    }
+
+    private void modifyCompressHeaders(HistoryMetaData hMeta, Metadata meta, int totalNumColumns) {
     	try {
     		// From the compress field specs, get the column indexes affected by compress
     		List<Integer> colIdxs = meta.getCompressFieldSpecs().getColumnsAffected(totalNumColumns);
     		AddMetadataLines adder = new AddMetadataLines();
     		// From the list of column indexes, derive the column name, then get the ##BioR line that matches it
-    		List<String> headerNames = getColNames(colIdxs, true);
+    		List<String> headerNames = getColNames(hMeta, colIdxs, true);
     		for(String colName : headerNames) {
-    			int metaLineNum = adder.getHistoryMetadataLine4HeaderValue(colName);
-    			String compressLine = constructCompressLine(metaLineNum, colName, meta.getDelimiter(), meta.getEscapedDelimiter(), meta.getOperator());
-    			addCompressLineToHeader(metaLineNum, compressLine);
+    			int metaLineNum = adder.getMetadataLine4HeaderValue(hMeta.getOriginalHeader(), colName);
+    			String compressLine = constructCompressLine(hMeta, metaLineNum, colName, meta.getDelimiter(), meta.getEscapedDelimiter(), meta.getOperator());
+    			addCompressLineToHeader(hMeta, metaLineNum, compressLine);
     		}
     	}catch(Exception e) {
     		throw new RuntimeException("Could not construct the metadata line for the compress function.  " + e.getMessage());
@@ -643,8 +666,8 @@ private void constructDrillOnNoMetadataAvailable(History h, String operation,Str
 	 * @param metaLineNum
 	 * @param compressLine
 	 */
-	private void addCompressLineToHeader(int metaLineNum, String compressLine) {
-		List<String> originalHeader = History.getMetaData().getOriginalHeader();
+	private void addCompressLineToHeader(HistoryMetaData hMeta, int metaLineNum, String compressLine) {
+		List<String> originalHeader = hMeta.getOriginalHeader();
 	
 		// If a ##BIOR line already exist for the header, just modify it 
 		if( metaLineNum != -1 ) {
@@ -664,9 +687,9 @@ private void constructDrillOnNoMetadataAvailable(History h, String operation,Str
 	 * @param operation 
 	 * @return
 	 */
-	private String constructCompressLine(int metaLineNum, String columnName, String delim, String escapedDelim, String operation) {
+	private String constructCompressLine(HistoryMetaData hMeta, int metaLineNum, String columnName, String delim, String escapedDelim, String operation) {
 		AddMetadataLines adder = new AddMetadataLines();
-		List<String> originalHeader = History.getMetaData().getOriginalHeader();
+		List<String> originalHeader = hMeta.getOriginalHeader();
 
 		// Parse the metadata line into a map, modify Number field, 
 		// add Delimiter field, rebuild the line, and replace the old one
@@ -693,8 +716,8 @@ private void constructDrillOnNoMetadataAvailable(History h, String operation,Str
 	}
 
 	/** Get the column header names from a list of column indexes (NOTE: col indexes are 1-based, so need to subtract 1) */
-	private List<String> getColNames(List<Integer> colIdxs, boolean isOneBased) {
-		List<ColumnMetaData> columns = History.getMetaData().getColumns();
+	private List<String> getColNames(HistoryMetaData hMeta, List<Integer> colIdxs, boolean isOneBased) {
+		List<ColumnMetaData> columns = hMeta.getColumns();
 		List<String> colNames = new ArrayList<String>();
 		int subtractFrom = isOneBased ? 1 : 0;
 		for(Integer i : colIdxs) 
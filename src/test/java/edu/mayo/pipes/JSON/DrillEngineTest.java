@@ -0,0 +1,65 @@
+package edu.mayo.pipes.JSON;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.jayway.jsonpath.InvalidPathException;
+import com.jayway.jsonpath.JsonPath;
+
+public class DrillEngineTest {
+
+    private static final String JSON = "{\"_landmark\":\"1\",\"_minBP\":914964,\"_altAlleles\":[\"A\",\"T\"],\"QUAL\":8.46,"
+        + "\"INFO\":{\"AC\":[2],\"AF\":0.25,\"DB\":true,\"CSQ\":[\"NA|NA\"],\"nested\":{\"x\":null}},\"empty\":\"\"}";
+
+    private static final String[] PATHS = { "_landmark", "_minBP", "_altAlleles", "QUAL", "INFO", "INFO.AC", "INFO.AF",
+        "INFO.DB", "INFO.CSQ[0]", "INFO.nested.x", "empty", "notThere", "INFO.notThere", "$._landmark" };
+
+    /** Same results as running JsonPath.read(String) for each path */
+    @Test
+    public void testSameAsJsonPath() {
+        DrillEngine engine = new DrillEngine(PATHS);
+        assertEquals(PATHS.length, engine.size());
+        engine.parse(JSON);
+        for(int i = 0; i < PATHS.length; i++) {
+            assertEquals(PATHS[i], read(JsonPath.compile(PATHS[i]), JSON), read(engine, i));
+        }
+    }
+
+    @Test
+    public void testParseReplacesDocument() {
+        DrillEngine engine = new DrillEngine("_landmark", "_minBP");
+        engine.parse(JSON);
+        assertEquals("1", engine.read(0));
+        engine.parse("{\"_landmark\":\"X\",\"_minBP\":5}");
+        assertEquals("X", engine.read(0));
+        assertEquals(Integer.valueOf(5), engine.read(1));
+    }
+
+    @Test
+    public void testEmptyJson() {
+        try {
+            new DrillEngine("_landmark").parse("");
+            fail("Expected IllegalArgumentException");
+        } catch(IllegalArgumentException e) {
+            // same as JsonPath.read("")
+        }
+    }
+
+    private String read(JsonPath path, String json) {
+        try {
+            return String.valueOf((Object)path.read(json));
+        } catch(InvalidPathException e) {
+            return "InvalidPathException";
+        }
+    }
+
+    private String read(DrillEngine engine, int i) {
+        try {
+            return String.valueOf((Object)engine.read(i));
+        } catch(InvalidPathException e) {
+            return "InvalidPathException";
+        }
+    }
+}
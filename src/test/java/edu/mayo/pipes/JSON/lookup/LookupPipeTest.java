@@ -3,11 +3,14 @@ package edu.mayo.pipes.JSON.lookup;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.tinkerpop.pipes.Pipe;
 import com.tinkerpop.pipes.util.Pipeline;
@@ -16,6 +19,7 @@ import edu.mayo.pipes.bioinformatics.VCF2VariantPipe;
 import edu.mayo.pipes.exceptions.InvalidPipeInputException;
 import edu.mayo.pipes.history.History;
 import edu.mayo.pipes.history.HistoryInPipe;
+import edu.mayo.pipes.util.index.IndexDatabaseCreator;
 import edu.mayo.pipes.util.test.PipeTestUtils;
 
 public class LookupPipeTest {
@@ -143,4 +147,78 @@ public class LookupPipeTest {
         PipeTestUtils.assertListsEqual(Arrays.asList(EXPECTED), actual);
     }
     
+    /** Batched lookups must return the same rows, in the same order, as one-at-a-time lookups */
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testBatchedLookup() {
+        // 715 has 2 rows, 4 has none, "." and "JUNK" are not looked up
+        List<String> input = Arrays.asList("715", "1", "4", ".", "3", "JUNK", "715", "2");
+        List<String> expected = getLookupResults(input, 1);
+        assertEquals(10, expected.size());
+        PipeTestUtils.assertListsEqual(expected, getLookupResults(input, 3));
+        PipeTestUtils.assertListsEqual(expected, getLookupResults(input, 100));
+    }
+
+    /** A SortedKeyIndex gives the same rows as the H2 index */
+    @Test
+    public void testSortedKeyIndex() throws Exception {
+        File indexFile = new File(tempFolder.getRoot(), "genes.GeneID.idx.sorted");
+        new IndexDatabaseCreator().buildIndexSorted("src/test/resources/testData/tabix/genes.tsv.bgz", 4, "GeneID", indexFile.getPath());
+        List<String> input = Arrays.asList("715", "1", "4", ".", "3", "JUNK", "715", "2");
+        List<String> expected = getLookupResults(input, 1);
+        PipeTestUtils.assertListsEqual(expected, getLookupResults(input, 1, indexFile.getPath()));
+        PipeTestUtils.assertListsEqual(expected, getLookupResults(input, 3, indexFile.getPath()));
+    }
+
+    /** Repeated keys come from the cache, with the same results as without it */
+    @Test
+    public void testCache() {
+        String index = "src/test/resources/testData/tabix/index/genes.gene.idx.h2.db";
+        List<String> input = Arrays.asList("BRCA1", "brca1", "MTHFR", "BRCA1", "JUNK", "JUNK", "Brca1", "MTHFR");
+        for(int batchSize : new int[] { 1, 3 }) {
+            LookupPipe noCache = new LookupPipe("src/test/resources/testData/tabix/genes.tsv.bgz", index);
+            noCache.setCacheSize(0, 0);
+            noCache.setBatchSize(batchSize);
+            LookupPipe cached = new LookupPipe("src/test/resources/testData/tabix/genes.tsv.bgz", index);
+            cached.setBatchSize(batchSize);
+            List<String> expected = getResults(noCache, input);
+            assertEquals(input.size(), expected.size());
+            PipeTestUtils.assertListsEqual(expected, getResults(cached, input));
+            // BRCA1 (any case), MTHFR and JUNK are each looked up once
+            assertEquals(3, cached.getCache().getMisses());
+            // (in a batch, a repeat of an id already in that batch is not counted as a hit)
+            assertEquals(batchSize == 1 ? 5 : 3, cached.getCache().getHits());
+            assertEquals(3, cached.getCache().size());
+            noCache.close();
+            cached.close();
+        }
+
+        // Case sensitive: each spelling is its own key
+        LookupPipe caseSensitive = new LookupPipe("src/test/resources/testData/tabix/genes.tsv.bgz", index, -1, true);
+        List<String> results = getResults(caseSensitive, input);
+        assertEquals("{}", results.get(1).substring(results.get(1).indexOf('\t') + 1));
+        assertEquals(5, caseSensitive.getCache().getMisses());
+        caseSensitive.close();
+    }
+
+    private List<String> getResults(LookupPipe lookup, List<String> input) {
+        Pipeline p = new Pipeline(new HistoryInPipe(), lookup);
+        p.setStarts(input);
+        return PipeTestUtils.getResults(p);
+    }
+
+    private List<String> getLookupResults(List<String> input, int batchSize) {
+        return getLookupResults(input, batchSize, "src/test/resources/testData/tabix/index/genes.GeneID.idx.h2.db");
+    }
+
+    private List<String> getLookupResults(List<String> input, int batchSize, String indexFile) {
+        LookupPipe lookup = new LookupPipe("src/test/resources/testData/tabix/genes.tsv.bgz", indexFile);
+        lookup.setBatchSize(batchSize);
+        Pipeline p = new Pipeline(new HistoryInPipe(), lookup);
+        p.setStarts(input);
+        return PipeTestUtils.getResults(p);
+    }
+    
 }
@@ -0,0 +1,65 @@
+package edu.mayo.pipes.JSON.lookup.lookupUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LookupCacheTest {
+
+	@Test
+	public void testMaxEntries() {
+		LookupCache cache = new LookupCache(2, 1000000);
+		List<String> json = Arrays.asList("{\"gene\":\"BRCA1\"}");
+		cache.put("A", json);
+		cache.put("B", Collections.<String>emptyList());
+		assertEquals(json, cache.get("A"));	// A is now the most recently used
+		cache.put("C", json);
+		assertNull(cache.get("B"));
+		assertEquals(json, cache.get("A"));
+		assertEquals(json, cache.get("C"));
+		assertEquals(2, cache.size());
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void testMaxBytes() {
+		char[] big = new char[1000];
+		Arrays.fill(big, 'x');
+		List<String> json = Arrays.asList(new String(big));
+		LookupCache cache = new LookupCache(100, 5000);
+		cache.put("A", json);
+		cache.put("B", json);
+		assertEquals(2, cache.size());
+		cache.put("C", json);
+		assertEquals(2, cache.size());
+		assertNull(cache.get("A"));
+		assertEquals(1, cache.getEvictions());
+
+		// Too big to ever fit, so it isn't cached (and nothing is evicted for it)
+		cache.put("D", Arrays.asList(new String(big), new String(big), new String(big)));
+		assertNull(cache.get("D"));
+		assertEquals(2, cache.size());
+
+		// Replacing an entry doesn't leak bytes
+		long bytes = cache.getBytes();
+		cache.put("B", json);
+		assertEquals(bytes, cache.getBytes());
+		cache.clear();
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void testNoCache() {
+		LookupCache cache = new LookupCache(0, 0);
+		cache.put("A", Arrays.asList("{}"));
+		assertNull(cache.get("A"));
+		assertEquals(0, cache.size());
+	}
+}
@@ -0,0 +1,111 @@
+package edu.mayo.pipes.JSON.tabix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BgzipBlockReaderTest {
+
+	private static final File GENES = new File("src/test/resources/testData/tabix/genes.tsv.bgz");
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testSequentialRead() throws IOException {
+		List<String> expected = new ArrayList<String>();
+		BlockCompressedInputStream instr = new BlockCompressedInputStream(GENES);
+		String line;
+		while( (line = instr.readLine()) != null )
+			expected.add(line);
+		instr.close();
+
+		BgzipBlockReader reader = new BgzipBlockReader(GENES);
+		for(String exp : expected)
+			assertEquals(exp, reader.readLine());
+		assertNull(reader.readLine());
+		reader.close();
+	}
+
+	@Test
+	public void testRandomAccessSameAsBlockCompressedInputStream() throws IOException {
+		// Get the virtual offset of each line
+		List<Long> positions = new ArrayList<Long>();
+		List<String> lines = new ArrayList<String>();
+		BlockCompressedInputStream instr = new BlockCompressedInputStream(GENES);
+		long pos = 0;
+		String line;
+		while( (line = instr.readLine()) != null ) {
+			positions.add(pos);
+			lines.add(line);
+			pos = instr.getFilePointer();
+		}
+		instr.close();
+
+		List<Integer> order = new ArrayList<Integer>();
+		for(int i=0; i < positions.size(); i++)
+			order.add(i);
+		Collections.shuffle(order, new Random(42));
+
+		// Small cache so blocks are evicted and re-read along the way
+		BgzipBlockReader reader = new BgzipBlockReader(GENES, 4 * 64 * 1024);
+		for(int i : order) {
+			assertEquals(lines.get(i), reader.readLine(positions.get(i)));
+			assertTrue(reader.getCachedBytes() <= 4 * 64 * 1024);
+		}
+		// Lines that share a block should have been served from the cache
+		assertTrue(reader.getCacheHits() > 0);
+		assertTrue(reader.getCacheMisses() > 0);
+		reader.close();
+	}
+
+	@Test
+	public void testFilePointer() throws IOException {
+		BlockCompressedInputStream instr = new BlockCompressedInputStream(GENES);
+		BgzipBlockReader reader = new BgzipBlockReader(GENES);
+		for(int i=0; i < 2000; i++) {
+			assertEquals(instr.readLine(), reader.readLine());
+			assertEquals(instr.getFilePointer(), reader.getFilePointer());
+		}
+		instr.close();
+		reader.close();
+	}
+
+	/** Non-ASCII lines (ex: catalog JSON with accents) are decoded the same as BlockCompressedInputStream does (the default charset) */
+	@Test
+	public void testNonAscii() throws IOException {
+		List<String> lines = new ArrayList<String>();
+		for(int i=0; i < 5000; i++)
+			lines.add(i + "\t{\"name\":\"Caf\u00e9 \u00fcber \u03b1\u03b2 " + i + "\"}");
+		File bgzip = tempFolder.newFile("nonAscii.tsv.bgz");
+		BlockCompressedOutputStream out = new BlockCompressedOutputStream(bgzip);
+		for(String line : lines)
+			out.write((line + "\n").getBytes("UTF-8"));
+		out.close();
+
+		BlockCompressedInputStream instr = new BlockCompressedInputStream(bgzip);
+		BgzipBlockReader reader = new BgzipBlockReader(bgzip);
+		for(String line : lines) {
+			String expected = new String(line.getBytes("UTF-8"));
+			assertEquals(expected, instr.readLine());
+			assertEquals(expected, reader.readLine());
+		}
+		assertNull(reader.readLine());
+		instr.close();
+		reader.close();
+	}
+}
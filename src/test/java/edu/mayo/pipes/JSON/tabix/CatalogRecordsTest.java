@@ -0,0 +1,112 @@
+package edu.mayo.pipes.JSON.tabix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+import com.tinkerpop.pipes.Pipe;
+import com.tinkerpop.pipes.util.Pipeline;
+
+import edu.mayo.pipes.history.History;
+import edu.mayo.pipes.history.HistoryInPipe;
+import edu.mayo.pipes.util.test.PipeTestUtils;
+
+public class CatalogRecordsTest {
+
+	private static final File GENES = new File("src/test/resources/testData/tabix/genes.tsv.bgz");
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private File catalog;
+
+	/** A copy of the genes catalog, so the records file is not written next to the test data */
+	@Before
+	public void setUp() throws IOException {
+		catalog = new File(tempFolder.getRoot(), GENES.getName());
+		Files.copy(GENES, catalog);
+		Files.copy(new File(GENES.getPath() + ".tbi"), new File(catalog.getPath() + ".tbi"));
+	}
+
+	/** The records give the same json as a tabix query of each region */
+	@Test
+	public void testQuerySameAsTabix() throws IOException {
+		CatalogRecords.build(catalog.getPath(), 3);
+		TabixReader reader = new TabixReader(catalog.getPath());
+		CatalogRecords records = CatalogRecords.open(reader, 3);
+
+		String[] chrs = { "1", "17", "X", "ZZ" };
+		Random random = new Random(3);
+		List<String> regions = new ArrayList<String>();
+		for(int i = 0; i < 300; i++) {
+			int beg = 1 + random.nextInt(50000000);
+			int end = beg + random.nextInt(i % 3 == 0 ? 2000000 : 20000);
+			regions.add(chrs[i % chrs.length] + ":" + beg + "-" + end);
+		}
+		regions.add("17:41196312-41300000");
+		int numFound = 0;
+		for(String region : regions) {
+			List<String> expected = new ArrayList<String>();
+			TabixReader.Iterator it = reader.query(region);
+			String line;
+			while( it != null && (line = it.next()) != null )
+				expected.add(line.split("\t")[3]);
+			assertEquals(region, expected, records.query(region));
+			numFound += expected.size();
+		}
+		assertTrue(numFound > 100);
+		assertEquals(5, records.query("17:41196312-41300000").size());
+		records.close();
+	}
+
+	/** Not used for another json column, or once the catalog has changed */
+	@Test
+	public void testOpenStale() throws IOException {
+		TabixReader reader = new TabixReader(catalog.getPath());
+		assertNull(CatalogRecords.open(reader, 3));
+		CatalogRecords.build(catalog.getPath(), 3);
+		assertNull(CatalogRecords.open(reader, 2));
+		assertTrue(catalog.setLastModified(catalog.lastModified() - 60000));
+		assertNull(CatalogRecords.open(reader, 3));
+	}
+
+	/** OverlapPipe gives the same output with and without the records */
+	@Test
+	public void testOverlapPipe() throws IOException {
+		String[] landmarks = { "1", "17", "X", "ZZ" };
+		Random random = new Random(9);
+		List<String> queries = new ArrayList<String>();
+		for(int i = 0; i < 400; i++) {
+			int min = random.nextInt(50000000);
+			int max = min + random.nextInt(i % 10 == 0 ? 2000000 : 20000);
+			queries.add("my\tquery\t" + i + "\t{\"_landmark\":\"" + landmarks[i % landmarks.length] + "\",\"_minBP\":" + min + ",\"_maxBP\":" + max + "}");
+		}
+		queries.add("my\tquery\tempty\t{}");
+
+		OverlapPipe lines = new OverlapPipe(catalog.getPath(), 500, 1000);
+		assertFalse(lines.setUseRecords(true)); // not built yet
+		CatalogRecords.build(catalog.getPath(), 3);
+		OverlapPipe records = new OverlapPipe(catalog.getPath(), 500, 1000);
+		assertTrue(records.setUseRecords(true));
+		Pipe<String, History> p1 = new Pipeline<String, History>(new HistoryInPipe(), lines);
+		p1.setStarts(queries);
+		Pipe<String, History> p2 = new Pipeline<String, History>(new HistoryInPipe(), records);
+		p2.setStarts(queries);
+		List<String> expected = PipeTestUtils.getResults(p1);
+		assertEquals(expected, PipeTestUtils.getResults(p2));
+		assertTrue(expected.size() > queries.size() + 100);
+	}
+}
@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -94,6 +95,78 @@ public class OverlapPipeTest {
         //System.out.println(result.get(4)); //5 rows returned        
     }
 
+    @Test
+    public void testSortedInput() throws IOException {
+        List<String> queries = new ArrayList<String>();
+        for(int pos = 41100000; pos < 41400000; pos += 5000)
+            queries.add("my\tquery\t" + pos + "\t{\"_landmark\":\"17\",\"_minBP\":" + pos + ",\"_maxBP\":" + (pos + 100) + "}");
+        queries.add("my\tquery\tbackwards\t{\"_landmark\":\"17\",\"_minBP\":41196312,\"_maxBP\":41300000}");
+        queries.add("my\tquery\tnone\t{\"_landmark\":\"17\",\"_minBP\":4,\"_maxBP\":41}");
+
+        OverlapPipe indexed = new OverlapPipe(geneFile, 2000, 2000);
+        OverlapPipe sorted = new OverlapPipe(geneFile, 2000, 2000);
+        sorted.setSortedInput(true);
+        Pipe<String, History> p1 = new Pipeline<String, History>(new HistoryInPipe(), indexed);
+        p1.setStarts(queries);
+        Pipe<String, History> p2 = new Pipeline<String, History>(new HistoryInPipe(), sorted);
+        p2.setStarts(queries);
+        List<String> expected = PipeTestUtils.getResults(p1);
+        List<String> actual = PipeTestUtils.getResults(p2);
+        assertEquals(expected, actual);
+        Assert.assertTrue(expected.size() > queries.size());
+    }
+
+    @Test
+    public void testInMemory() throws IOException {
+        String[] landmarks = { "1", "2", "17", "22", "X", "Y", "ZZ" };
+        Random random = new Random(5);
+        List<String> queries = new ArrayList<String>();
+        for(int i = 0; i < 700; i++) {
+            int min = random.nextInt(150000000);
+            int max = min + random.nextInt(i % 10 == 0 ? 3000000 : 20000);
+            queries.add("my\tquery\t" + i + "\t{\"_landmark\":\"" + landmarks[i % landmarks.length] + "\",\"_minBP\":" + min + ",\"_maxBP\":" + max + "}");
+        }
+        queries.add("my\tquery\tbrca1\t{\"_landmark\":\"17\",\"_minBP\":41196312,\"_maxBP\":41300000}");
+
+        OverlapPipe indexed = new OverlapPipe(geneFile, 500, 1000);
+        OverlapPipe memory = new OverlapPipe(geneFile, 500, 1000);
+        memory.setInMemory(true);
+        Pipe<String, History> p1 = new Pipeline<String, History>(new HistoryInPipe(), indexed);
+        p1.setStarts(queries);
+        Pipe<String, History> p2 = new Pipeline<String, History>(new HistoryInPipe(), memory);
+        p2.setStarts(queries);
+        List<String> expected = PipeTestUtils.getResults(p1);
+        List<String> actual = PipeTestUtils.getResults(p2);
+        assertEquals(expected, actual);
+        Assert.assertTrue(expected.size() > queries.size() + 100);
+    }
+
+    @Test
+    public void testBatch() throws IOException {
+        String[] landmarks = { "1", "17", "1", "17", "ZZ" };
+        Random random = new Random(7);
+        List<String> queries = new ArrayList<String>();
+        for(int i = 0; i < 500; i++) {
+            int min = random.nextInt(50000000);
+            int max = min + random.nextInt(i % 10 == 0 ? 2000000 : 20000);
+            queries.add("my\tquery\t" + i + "\t{\"_landmark\":\"" + landmarks[i % landmarks.length] + "\",\"_minBP\":" + min + ",\"_maxBP\":" + max + "}");
+        }
+        queries.add("my\tquery\tbrca1\t{\"_landmark\":\"17\",\"_minBP\":41196312,\"_maxBP\":41300000}");
+        queries.add("my\tquery\tempty\t{}");
+
+        OverlapPipe single = new OverlapPipe(geneFile, 500, 1000);
+        OverlapPipe batched = new OverlapPipe(geneFile, 500, 1000);
+        batched.setBatchSize(64);
+        Pipe<String, History> p1 = new Pipeline<String, History>(new HistoryInPipe(), single);
+        p1.setStarts(queries);
+        Pipe<String, History> p2 = new Pipeline<String, History>(new HistoryInPipe(), batched);
+        p2.setStarts(queries);
+        List<String> expected = PipeTestUtils.getResults(p1);
+        List<String> actual = PipeTestUtils.getResults(p2);
+        assertEquals(expected, actual);
+        Assert.assertTrue(expected.size() > queries.size() + 100);
+    }
+
     @Test
     public void testProcessNextStart_OneResult() throws IOException {
         System.out.println( "Tabix Test.. TWO RESULTS!" );
@@ -0,0 +1,91 @@
+package edu.mayo.pipes.JSON.tabix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelBgzipOutputStreamTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/** The lines can be read back, and the file pointers point to them */
+	@Test
+	public void testFilePointers() throws IOException {
+		File bgzip = new File(tempFolder.getRoot(), "lines.bgz");
+		ParallelBgzipOutputStream out = new ParallelBgzipOutputStream(bgzip, 6, 3);
+		List<String> lines = new ArrayList<String>();
+		List<Long> blockPointers = new ArrayList<Long>();
+		List<Long> filePointers = new ArrayList<Long>();
+		for(int i = 0; i < 50000; i++) {
+			String line = "1\t" + (i * 10) + "\t{\"_id\":\"rs" + i + "\"}";
+			lines.add(line);
+			blockPointers.add(out.getBlockPointer());
+			// Check the (slower) direct file pointer now and then
+			if( i % 997 == 0 )
+				filePointers.add(out.getFilePointer());
+			out.write((line + "\n").getBytes());
+		}
+		out.close();
+
+		BlockCompressedInputStream instr = new BlockCompressedInputStream(bgzip);
+		for(int i = 0; i < lines.size(); i++) {
+			long pos = out.toFilePointer(blockPointers.get(i));
+			if( i % 997 == 0 )
+				assertEquals((long)filePointers.get(i / 997), pos);
+			instr.seek(pos);
+			assertEquals(lines.get(i), instr.readLine());
+		}
+		instr.seek(out.toFilePointer(blockPointers.get(0)));
+		for(String line : lines)
+			assertEquals(line, instr.readLine());
+		assertNull(instr.readLine());
+		instr.close();
+		assertEquals(lines, readLines(bgzip));
+	}
+
+	/** Data that doesn't compress is stored as is */
+	@Test
+	public void testIncompressible() throws IOException {
+		byte[] data = new byte[300 * 1024];
+		new Random(7).nextBytes(data);
+		File bgzip = new File(tempFolder.getRoot(), "random.bgz");
+		ParallelBgzipOutputStream out = new ParallelBgzipOutputStream(bgzip, 9, 2);
+		out.write(data, 0, 1000);
+		out.write(data[1000]);
+		out.write(data, 1001, data.length - 1001);
+		out.close();
+
+		BlockCompressedInputStream instr = new BlockCompressedInputStream(bgzip);
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int len;
+		while( (len = instr.read(buf)) != -1 )
+			actual.write(buf, 0, len);
+		instr.close();
+		assertArrayEquals(data, actual.toByteArray());
+	}
+
+	private List<String> readLines(File bgzip) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		ParallelBgzipReader reader = new ParallelBgzipReader(bgzip, 2);
+		String line;
+		while( (line = reader.readLine()) != null )
+			lines.add(line);
+		reader.close();
+		return lines;
+	}
+}
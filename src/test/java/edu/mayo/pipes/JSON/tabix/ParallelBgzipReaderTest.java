@@ -0,0 +1,88 @@
+package edu.mayo.pipes.JSON.tabix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelBgzipReaderTest {
+
+	private static final File GENES = new File("src/test/resources/testData/tabix/genes.tsv.bgz");
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testSameAsBlockCompressedInputStream() throws IOException {
+		// Get the virtual offset of each line
+		List<Long> positions = new ArrayList<Long>();
+		List<String> lines = new ArrayList<String>();
+		BlockCompressedInputStream instr = new BlockCompressedInputStream(GENES);
+		long pos = 0;
+		String line;
+		while( (line = instr.readLine()) != null ) {
+			positions.add(pos);
+			lines.add(line);
+			pos = instr.getFilePointer();
+		}
+		instr.close();
+		assertTrue(lines.size() > 2000);
+
+		for(int numThreads : new int[] { 1, 3 }) {
+			ParallelBgzipReader reader = new ParallelBgzipReader(GENES, numThreads);
+			for(int i = 0; i < lines.size(); i++) {
+				assertEquals((long)positions.get(i), reader.getFilePointer());
+				assertEquals(lines.get(i), reader.readLine());
+			}
+			assertNull(reader.readLine());
+			assertEquals(-1, reader.read());
+			// (BlockCompressedInputStream points past the end of the file here)
+			assertEquals(GENES.length() << 16, reader.getFilePointer());
+			reader.close();
+		}
+	}
+
+	/** Lines are decoded the same as BlockCompressedInputStream.readLine() (the platform's charset) */
+	@Test
+	public void testNonAscii() throws IOException {
+		List<String> lines = new ArrayList<String>();
+		for(int i=0; i < 5000; i++)
+			lines.add(i + "\t{\"name\":\"Caf\u00e9 \u00fcber \u03b1\u03b2 " + i + "\"}");
+		File bgzip = tempFolder.newFile("nonAscii.tsv.bgz");
+		BlockCompressedOutputStream out = new BlockCompressedOutputStream(bgzip);
+		for(String line : lines)
+			out.write((line + "\n").getBytes("UTF-8"));
+		out.close();
+
+		BlockCompressedInputStream instr = new BlockCompressedInputStream(bgzip);
+		ParallelBgzipReader reader = new ParallelBgzipReader(bgzip, 3);
+		for(String line : lines) {
+			String expected = new String(line.getBytes("UTF-8"));
+			assertEquals(expected, instr.readLine());
+			assertEquals(expected, reader.readLine());
+		}
+		assertNull(reader.readLine());
+		instr.close();
+		reader.close();
+	}
+
+	@Test
+	public void testIsBgzip() {
+		assertTrue(ParallelBgzipReader.isBgzip(GENES));
+		// plain gzip, text
+		assertFalse(ParallelBgzipReader.isBgzip(new File("src/test/resources/testData/example.gff.gz")));
+		assertFalse(ParallelBgzipReader.isBgzip(new File("pom.xml")));
+	}
+}
@@ -0,0 +1,60 @@
+package edu.mayo.pipes.JSON.tabix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SameVariantLogicTest {
+
+    private static final String IN = "{\"_id\":\"rs1\",\"_landmark\":\"1\",\"_refAllele\":\"A\",\"_altAlleles\":[\"C\"],\"_minBP\":100,\"_maxBP\":100}";
+
+    private String catalog(String id, int minBP, String ref, String alts) {
+        return "{\"_id\":\"" + id + "\",\"_landmark\":\"1\",\"_refAllele\":\"" + ref + "\",\"_altAlleles\":" + alts + ",\"_minBP\":" + minBP + ",\"_maxBP\":" + minBP + "}";
+    }
+
+    @Test
+    public void testSameInputManyCandidates() {
+        SameVariantLogic logic = new SameVariantLogic();
+        // same rsID
+        assertTrue(logic.same(IN, catalog("rs1", 100, "G", "[\"T\"]")));
+        // same alleles (alt is a subset of the catalog's)
+        assertTrue(logic.same(IN, catalog("rs2", 100, "A", "[\"G\",\"C\"]")));
+        // different alleles and rsID
+        assertFalse(logic.same(IN, catalog("rs3", 100, "A", "[\"G\"]")));
+        // different position
+        assertFalse(logic.same(IN, catalog("rs1", 101, "A", "[\"C\"]")));
+        // a new input is picked up
+        String in2 = IN.replace("\"C\"", "\"G\"");
+        assertTrue(logic.same(in2, catalog("rs3", 100, "A", "[\"G\"]")));
+        assertFalse(logic.same(in2, catalog("rs4", 100, "A", "[\"C\"]")));
+    }
+
+    @Test
+    public void testAlleleAndRsidOnly() {
+        SameVariantLogic rsidOnly = new SameVariantLogic(true, false);
+        assertTrue(rsidOnly.same(IN, catalog("rs1", 100, "G", "[\"T\"]")));
+        assertFalse(rsidOnly.same(IN, catalog("rs2", 100, "A", "[\"C\"]")));
+
+        SameVariantLogic allelesOnly = new SameVariantLogic(false, true);
+        assertFalse(allelesOnly.same(IN, catalog("rs1", 100, "G", "[\"T\"]")));
+        assertTrue(allelesOnly.same(IN, catalog("rs2", 100, "A", "[\"C\"]")));
+    }
+
+    @Test
+    public void testScanTopLevelLong() {
+        assertEquals(Long.valueOf(100), SameVariantLogic.scanTopLevelLong(IN, "_minBP"));
+        assertEquals(Long.valueOf(-5), SameVariantLogic.scanTopLevelLong("{ \"_minBP\" : -5 }", "_minBP"));
+        // nested keys and keys inside strings are skipped
+        String json = "{\"INFO\":{\"_minBP\":1},\"note\":\"\\\"_minBP\\\":2\",\"list\":[{\"_minBP\":3}],\"_minBP\":4}";
+        assertEquals(Long.valueOf(4), SameVariantLogic.scanTopLevelLong(json, "_minBP"));
+        // a value (not a key) that matches
+        assertNull(SameVariantLogic.scanTopLevelLong("{\"a\":\"_minBP\"}", "_minBP"));
+        // not an integer
+        assertNull(SameVariantLogic.scanTopLevelLong("{\"_minBP\":1.5}", "_minBP"));
+        assertNull(SameVariantLogic.scanTopLevelLong("{\"_minBP\":\"1\"}", "_minBP"));
+        assertNull(SameVariantLogic.scanTopLevelLong("{}", "_minBP"));
+    }
+}
@@ -0,0 +1,166 @@
+package edu.mayo.pipes.JSON.tabix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TabixReaderTest {
+
+	private static final String GENES = "src/test/resources/testData/tabix/genes.tsv.bgz";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/** Every reader of the same catalog shares one copy of the index */
+	@Test
+	public void testIndexShared() throws IOException {
+		TabixReader reader1 = new TabixReader(GENES);
+		TabixReader reader2 = new TabixReader(GENES);
+		assertSame(reader1.mIndex, reader2.mIndex);
+		assertSame(reader1.mChr2tid, reader2.mChr2tid);
+	}
+
+	/** Queries through the index find the same lines as scanning the whole file */
+	@Test
+	public void testQuerySameAsScan() throws IOException {
+		List<String> lines = new ArrayList<String>();
+		ParallelBgzipReader in = new ParallelBgzipReader(new File(GENES), 2);
+		String line;
+		while( (line = in.readLine()) != null )
+			lines.add(line);
+		in.close();
+
+		TabixReader reader = new TabixReader(GENES);
+		Random random = new Random(11);
+		int numFound = 0;
+		for(int i = 0; i < 200; i++) {
+			String chr = random.nextBoolean() ? "1" : "17";
+			int beg = 1 + random.nextInt(50000000);
+			int end = beg + random.nextInt(i % 2 == 0 ? 5000 : 2000000);
+			List<String> expected = new ArrayList<String>();
+			for(String s : lines) {
+				String[] cols = s.split("\t", 4);
+				if( cols[0].equals(chr) && Integer.parseInt(cols[1]) <= end && Integer.parseInt(cols[2]) >= beg )
+					expected.add(s);
+			}
+			List<String> actual = new ArrayList<String>();
+			TabixReader.Iterator it = reader.query(chr + ":" + beg + "-" + end);
+			while( it != null && (line = it.next()) != null )
+				actual.add(line);
+			assertEquals(expected, actual);
+			numFound += actual.size();
+		}
+		assertTrue(numFound > 100);
+	}
+
+	/** A batch of regions (in any order, overlapping, repeated, on unknown sequences) gets the same lines as querying each one */
+	@Test
+	public void testBatchQuerySameAsQuery() throws IOException {
+		String[] chrs = { "1", "17", "1", "17", "ZZ" };
+		Random random = new Random(23);
+		List<String> regions = new ArrayList<String>();
+		for(int i = 0; i < 300; i++) {
+			int beg = 1 + random.nextInt(50000000);
+			int end = beg + random.nextInt(i % 3 == 0 ? 2000000 : 20000);
+			regions.add(chrs[i % chrs.length] + ":" + beg + "-" + end);
+		}
+		regions.add("17:41196312-41300000");
+		regions.add("17:41196312-41300000");
+		regions.add("17:41277600-41277600");
+
+		TabixReader reader = new TabixReader(GENES);
+		List<List<String>> batch = reader.batchQuery(regions);
+		assertEquals(regions.size(), batch.size());
+		int numFound = 0;
+		for(int i = 0; i < regions.size(); i++) {
+			List<String> expected = new ArrayList<String>();
+			TabixReader.Iterator it = reader.query(regions.get(i));
+			String line;
+			while( it != null && (line = it.next()) != null )
+				expected.add(line);
+			assertEquals(regions.get(i), expected, batch.get(i));
+			numFound += expected.size();
+		}
+		assertTrue(numFound > 100);
+		assertEquals(5, batch.get(regions.size() - 2).size());
+	}
+
+	/** close() also closes the readers opened for the block cache and sortedQuery() */
+	@Test
+	public void testClose() throws IOException {
+		TabixReader reader = new TabixReader(GENES, 1024 * 1024);
+		reader.query("17:41196312-41300000");
+		reader.sortedQuery("17:41196312-41300000");
+		assertTrue(reader.mCachedFp != null && reader.mScanFp != null);
+		reader.close();
+		assertNull(reader.mCachedFp);
+		assertNull(reader.mScanFp);
+	}
+
+	/** With CRLF line endings and no '\n' after the last line, the block cache, batchQuery(), sortedQuery()
+	 *  and the in-memory catalog all give the same lines as the plain query: the '\r' is kept and the
+	 *  unterminated last line is not returned */
+	@Test
+	public void testCrlfSameWithBlockCache() throws Exception {
+		File catalog = new File(tempFolder.getRoot(), "crlf.tsv.bgz");
+		BlockCompressedOutputStream out = new BlockCompressedOutputStream(catalog);
+		for(String chr : new String[] { "1", "2" }) {
+			for(int i = 1; i <= 5000; i++)
+				out.write((chr + "\t" + (i * 10) + "\t" + (i * 10 + 25) + "\t{\"i\":" + i + "}\r\n").getBytes());
+		}
+		out.write("2\t50010\t50035\t{\"i\":5001}".getBytes());
+		out.close();
+		new TabixWriter(catalog, new TabixWriter.Conf(0, 1, 2, 3, '#', 0)).createIndex(catalog);
+
+		List<String> regions = new ArrayList<String>();
+		for(int i = 0; i < 100; i++)
+			regions.add((i % 2 + 1) + ":" + (i * 500 + 1) + "-" + (i * 500 + 200));
+		regions.add("2:50020-50100");
+
+		TabixReader plain = new TabixReader(catalog.getPath());
+		List<List<String>> expected = new ArrayList<List<String>>();
+		for(String region : regions)
+			expected.add(lines(plain.query(region)));
+		assertEquals(Arrays.asList("2\t50000\t50025\t{\"i\":5000}\r"), expected.get(regions.size() - 1));
+
+		TabixReader cached = new TabixReader(catalog.getPath(), 1024 * 1024);
+		TabixReader sorted = new TabixReader(catalog.getPath());
+		TabixReader memory = new TabixReader(catalog.getPath());
+		memory.setInMemory(true);
+		for(int i = 0; i < regions.size(); i++) {
+			assertEquals(regions.get(i), expected.get(i), lines(cached.query(regions.get(i))));
+			assertEquals(regions.get(i), expected.get(i), lines(memory.query(regions.get(i))));
+		}
+		assertEquals(expected, plain.batchQuery(regions));
+		assertEquals(expected, cached.batchQuery(regions));
+		// sortedQuery() needs the regions in order
+		for(int i = 0; i < regions.size(); i += 2)
+			assertEquals(regions.get(i), expected.get(i), lines(sorted.sortedQuery(regions.get(i))));
+		plain.close();
+		cached.close();
+		sorted.close();
+		memory.close();
+	}
+
+	private static List<String> lines(TabixReader.Iterator it) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		String line;
+		while( it != null && (line = it.next()) != null )
+			lines.add(line);
+		return lines;
+	}
+}
@@ -10,6 +10,7 @@ import edu.mayo.pipes.JSON.SimpleDrillPipe;
 import edu.mayo.pipes.JSON.tabix.TabixReader.Iterator;
 import edu.mayo.pipes.PrintPipe;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -147,4 +148,59 @@ public class TabixSearchPipeTest {
         }
     } 
 
+    @Test
+    public void testBlockCache() throws Exception {
+        // sorted, nearby queries - the same blocks are hit over and over
+        List<String> queries = new ArrayList<String>();
+        for(int pos = 41000000; pos < 42000000; pos += 20000)
+            queries.add("17:" + pos + "-" + (pos + 50000));
+
+        TabixReader noCache = new TabixReader(geneFile);
+        TabixReader cache = new TabixReader(geneFile, 1024 * 1024);
+        int numRecords = 0;
+        for(String query : queries) {
+            List<String> expected = getRecords(noCache.query(query));
+            assertEquals(expected, getRecords(cache.query(query)));
+            numRecords += expected.size();
+        }
+        assertTrue(numRecords > 0);
+        assertEquals(0, noCache.getBlockCacheHits());
+        assertTrue(cache.getBlockCacheHits() > cache.getBlockCacheMisses());
+    }
+
+    @Test
+    public void testSortedQuery() throws Exception {
+        // sorted within each chromosome, then a jump back to an earlier position
+        List<String> queries = new ArrayList<String>();
+        for(int pos = 1; pos < 2000000; pos += 7919)
+            queries.add("1:" + pos + "-" + (pos + 30000));
+        for(int pos = 41000000; pos < 42000000; pos += 10007)
+            queries.add("17:" + pos + "-" + (pos + 1000));
+        queries.add("17:41196312-41300000");
+        queries.add("X:1-5000000");
+        queries.add("17:1-1000000");
+        queries.add("NotAChromosome:1-1000");
+        queries.add("17:41196312-41196312");
+
+        TabixReader indexed = new TabixReader(geneFile);
+        TabixReader sorted = new TabixReader(geneFile);
+        int numRecords = 0;
+        for(String query : queries) {
+            List<String> expected = getRecords(indexed.query(query));
+            assertEquals(query, expected, getRecords(sorted.sortedQuery(query)));
+            numRecords += expected.size();
+        }
+        assertTrue(numRecords > 0);
+        // 1, 17, 17 (backwards), X, 17 again
+        assertEquals(5, sorted.getSortedQuerySeeks());
+    }
+
+    private List<String> getRecords(Iterator records) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        String record;
+        while(records != null && (record = records.next()) != null)
+            lines.add(record);
+        return lines;
+    }
+
 }
@@ -0,0 +1,55 @@
+package edu.mayo.pipes.JSON.tabix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TabixWriterTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testCreateIndex() throws Exception {
+        // A catalog that does not have a tabix index yet
+        File catalog = new File(tempFolder.getRoot(), "catalog.tsv.bgz");
+        List<String> lines = new ArrayList<String>();
+        BlockCompressedOutputStream out = new BlockCompressedOutputStream(catalog);
+        for(String chr : new String[] { "1", "2" }) {
+            for(int i = 1; i <= 20000; i++) {
+                String line = chr + "\t" + (i * 10) + "\t" + (i * 10 + 25) + "\t{\"_landmark\":\"" + chr + "\",\"_minBP\":" + (i * 10) + "}";
+                lines.add(line);
+                out.write((line + "\n").getBytes());
+            }
+        }
+        out.close();
+
+        new TabixWriter(catalog, new TabixWriter.Conf(0, 1, 2, 3, '#', 0)).createIndex(catalog);
+        assertTrue(new File(catalog.getPath() + ".tbi").exists());
+
+        TabixReader reader = new TabixReader(catalog.getPath());
+        List<String> actual = new ArrayList<String>();
+        TabixReader.Iterator it = reader.query("2:150001-150100");
+        String line;
+        while((line = it.next()) != null)
+            actual.add(line);
+
+        List<String> expected = new ArrayList<String>();
+        for(String s : lines) {
+            String[] cols = s.split("\t");
+            if(cols[0].equals("2") && Integer.parseInt(cols[2]) >= 150001 && Integer.parseInt(cols[1]) <= 150100)
+                expected.add(s);
+        }
+        assertEquals(13, expected.size());
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,102 @@
+package edu.mayo.pipes.bioinformatics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.tinkerpop.pipes.Pipe;
+import com.tinkerpop.pipes.util.Pipeline;
+
+import edu.mayo.pipes.history.HistoryInPipe;
+import edu.mayo.pipes.history.HistoryOutPipe;
+import edu.mayo.pipes.util.test.PipeTestUtils;
+
+public class ParallelVCF2VariantPipeTest {
+
+    /** enough lines for several batches per worker */
+    private static final int ROWS = 3000;
+    private static final int SAMPLES = 20;
+
+    private static List<String> vcf() {
+        Random random = new Random(7);
+        String[] genotypes = { "0/0", "0/1", "1/1", "./.", "0|1" };
+        List<String> lines = new ArrayList<String>();
+        lines.add("##fileformat=VCFv4.0");
+        lines.add("##INFO=<ID=AC,Number=.,Type=Integer,Description=\"Allele count\">");
+        lines.add("##INFO=<ID=AF,Number=.,Type=Float,Description=\"Allele frequency\">");
+        lines.add("##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Total depth\">");
+        lines.add("##INFO=<ID=DB,Number=0,Type=Flag,Description=\"dbSNP membership\">");
+        lines.add("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+        lines.add("##FORMAT=<ID=AD,Number=.,Type=Integer,Description=\"Allelic depths\">");
+        lines.add("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Read depth\">");
+        StringBuilder header = new StringBuilder("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+        for (int s = 1; s <= SAMPLES; s++) {
+            header.append("\tS").append(s);
+        }
+        lines.add(header.toString());
+        for (int i = 0; i < ROWS; i++) {
+            StringBuilder line = new StringBuilder();
+            line.append("chr1\t").append(1000 + i * 10).append("\trs").append(i).append("\tA\tC,G\t50\tPASS\t");
+            line.append("AC=").append(random.nextInt(10)).append(',').append(random.nextInt(10));
+            line.append(";AF=").append(random.nextInt(1000) / 1000.0).append(";DP=").append(random.nextInt(100));
+            if (i % 3 == 0) {
+                line.append(";DB");
+            }
+            line.append("\tGT:AD:DP");
+            for (int s = 0; s < SAMPLES; s++) {
+                line.append('\t').append(genotypes[random.nextInt(genotypes.length)])
+                    .append(':').append(random.nextInt(30)).append(',').append(random.nextInt(30))
+                    .append(':').append(random.nextInt(60));
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    private List<String> run(Pipe vcf2variant, List<String> vcf) {
+        Pipeline<String, String> p = new Pipeline<String, String>(new HistoryInPipe(), vcf2variant, new HistoryOutPipe());
+        p.setStarts(vcf);
+        return PipeTestUtils.getResults(p);
+    }
+
+    @Test
+    public void testSameAsSingleThreaded() {
+        List<String> vcf = vcf();
+        List<String> expected = run(new VCF2VariantPipe(), vcf);
+        List<String> actual = run(new ParallelVCF2VariantPipe(4), vcf);
+        assertTrue(expected.size() > ROWS);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testSamples() {
+        List<String> vcf = vcf();
+        VCF2VariantPipe single = new VCF2VariantPipe(true, false);
+        List<String> expected = run(single, vcf);
+        ParallelVCF2VariantPipe parallel = new ParallelVCF2VariantPipe(true, false, 4);
+        List<String> actual = run(parallel, vcf);
+        assertTrue(expected.get(expected.size() - 1).contains("\"GenotypePositiveList\""));
+        assertEquals(expected, actual);
+
+        assertEquals(SAMPLES, parallel.getSampleKeys().size());
+        assertEquals(single.getSampleKeys(), parallel.getSampleKeys());
+        assertEquals(single.getFormatKeys(), parallel.getFormatKeys());
+        assertEquals(single.getJSONMetadata().toString(), parallel.getJSONMetadata().toString());
+    }
+
+    /** includeSamples=false leaves out the samples, same as VCF2VariantPipe() (its boolean constructors always add them) */
+    @Test
+    public void testNoSamples() {
+        List<String> vcf = vcf();
+        List<String> expected = run(new VCF2VariantPipe(), vcf);
+        assertFalse(expected.get(expected.size() - 1).contains("\"GenotypePositiveList\""));
+        assertEquals(expected, run(new ParallelVCF2VariantPipe(false, 4), vcf));
+        assertEquals(expected, run(new ParallelVCF2VariantPipe(false, false, 4), vcf));
+    }
+}
@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import edu.mayo.pipes.UNIX.GrepEPipe;
 import org.junit.After;
@@ -391,6 +392,32 @@ public class VCF2VariantPipeTest {
         //System.out.println(ob.toString());
     }
     
+    @Test
+    public void testParseSample() throws Exception {
+        String[] tokens = "GT:DP:AD".split(":");
+        VCF2VariantPipe vcf = new VCF2VariantPipe(true);
+        JsonArray samples = new JsonArray();
+        vcf.parseSample("0/1:35:20,15", samples, "s1", tokens);
+        vcf.parseSample("./.:.:.", samples, "s2", tokens);
+        assertEquals("[{\"GT\":\"0/1\",\"DP\":35.0,\"AD\":[20.0,15.0],\"GenotypePositive\":1,\"sampleID\":\"s1\"}]", samples.toString());
+
+        // all samples, even the ones without variant data
+        vcf = new VCF2VariantPipe(true, true);
+        samples = new JsonArray();
+        vcf.parseSample("./.:.:.", samples, "s2", tokens);
+        assertEquals("[{\"GT\":\"./.\",\"DP\":\".\",\"AD\":\".\",\"sampleID\":\"s2\"}]", samples.toString());
+    }
+
+    @Test
+    public void testGetSampleVals4Row(){
+        String vcfLine = "chr1\t100\t.\tA\tT\t2.38\tPASS\t.\tGT:DP:AD\t0/1:35:20,15\t0/0:10:.\t./.:.:.";
+        List<String> line = Arrays.asList(vcfLine.split("\t"));
+        Map<String,List<Double>> vals = new VCF2VariantPipe(true).getSampleVals4Row(line, "GT:DP:AD".split(":"));
+        assertEquals(2, vals.size());
+        assertEquals(Arrays.asList(35.0, 10.0), vals.get("DP"));
+        assertEquals(Arrays.asList(20.0, 15.0), vals.get("AD"));
+    }
+
     @Test
     public void sampleHasVariant(){
         VCF2VariantPipe vcf 	= new VCF2VariantPipe(true);
@@ -410,4 +437,196 @@ public class VCF2VariantPipeTest {
         assertEquals("FORMAT",vcf.getEntryType("##FORMAT=<ID=HQ,Number=2,Type=Integer,Description=\"Haplotype Quality\">"));
     }
     
+
+    /**
+     * The FORMAT summary and samples written for a line should match buildFormatJSON() and the sample values
+     */
+    @Test
+    public void testSampleJSON(){
+        List<String> vcfLines = Arrays.asList(
+            "##fileformat=VCFv4.0",
+            "##INFO=<ID=AF,Number=.,Type=Float,Description=\"Allele Frequency\">",
+            "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\tS3",
+            "chr1\t756258\tBND_qdnezqbk\tT\t]chr1:756327]T\t2.38\tPASS\tAF=0.1,.\tGT:CTX:DEL:INS:INV:NOV_INS:TDUP:lSC:nSC:uRP:distl_levD\t0/1:0:0:1:0:15:2:52:9:15:0.42\t0/0:.:.:.:.:.:.:.:.:.:.\t./.:.:.:.:.:.:.:.:.:.:."
+        );
+        Pipe<String, String> pipeline = new Pipeline<String, String>(new HistoryInPipe(), new VCF2VariantPipe(true), new HistoryOutPipe());
+        pipeline.setStarts(vcfLines);
+        String line = null;
+        while(pipeline.hasNext()){
+            line = pipeline.next();
+        }
+        String json = line.substring(line.lastIndexOf('\t') + 1);
+
+        assertEquals("[0.1]", JsonPath.compile("INFO.AF").read(json).toString());
+        assertEquals(2, ((List) JsonPath.compile("samples").read(json)).size());
+        assertTrue(json.contains("\"samples\":[{\"GT\":\"0/1\",\"CTX\":0.0,\"DEL\":0.0,\"INS\":1.0,\"INV\":0.0,\"NOV_INS\":15.0,\"TDUP\":2.0,\"lSC\":52.0,\"nSC\":9.0,\"uRP\":15.0,\"distl_levD\":0.42,\"GenotypePositive\":1,\"sampleID\":\"S1\"},"));
+        List<String> dataLine = Arrays.asList(vcfLines.get(3).split("\t"));
+        String format = new VCF2VariantPipe(true).buildFormatJSON(dataLine).toString();
+        String expected = format.substring(0, format.length() - 1) + ",\"GenotypePostitiveCount\":1,\"GenotypePositiveList\":[\"S1\"]}";
+        assertTrue(json.endsWith(",\"FORMAT\":" + expected + "}"));
+    }
+
+    /**
+     * A repeated INFO field keeps the last value, in the place of the first one
+     * (same as adding them to a JsonObject).  A missing or invalid value is not written, so it
+     * does not replace the one before it, or take the place of the field.
+     */
+    @Test
+    public void testRepeatedInfoField(){
+        List<String> vcfLines = Arrays.asList(
+            "##fileformat=VCFv4.0",
+            "##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Total Depth\">",
+            "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO",
+            "1\t100\trs1\tA\tG\t.\t.\tDP=1;DB;DP=2",
+            "1\t200\trs2\tA\tG\t.\t.\tDP=1;DB",
+            "1\t300\trs3\tA\tG\t.\t.\tDP=.;DB;DP=3;DB=x",
+            "1\t400\trs4\tA\tG\t.\t.\tDP=4;DP=x"
+        );
+        Pipe<String, String> pipeline = new Pipeline<String, String>(new HistoryInPipe(), new VCF2VariantPipe(), new HistoryOutPipe());
+        pipeline.setStarts(vcfLines);
+        List<String> info = new ArrayList<String>();
+        while(pipeline.hasNext()){
+            String line = pipeline.next();
+            if(!line.startsWith("#")){
+                // the JSON as written, to see the order of the keys
+                info.add(line.substring(line.indexOf("\"INFO\":") + 7, line.indexOf(",\"_id\"")));
+            }
+        }
+        assertEquals(Arrays.asList("{\"DP\":2,\"DB\":true}", "{\"DP\":1,\"DB\":true}", "{\"DB\":\"x\",\"DP\":3}", "{\"DP\":4}"), info);
+    }
+
+    /**
+     * A repeated FORMAT key (or one named like the keys added to each sample) keeps the last value,
+     * in the place of the first one
+     */
+    @Test
+    public void testRepeatedFormatKey(){
+        List<String> vcfLines = Arrays.asList(
+            "##fileformat=VCFv4.0",
+            "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1",
+            "1\t300\trs3\tA\tG\t.\t.\t.\tGT:DP:DP\t0/1:4:5",
+            "1\t400\trs4\tA\tG\t.\t.\t.\tGT:sampleID:GenotypePositive\t0/1:S9:0"
+        );
+        Pipe<String, String> pipeline = new Pipeline<String, String>(new HistoryInPipe(), new VCF2VariantPipe(true), new HistoryOutPipe());
+        pipeline.setStarts(vcfLines);
+        List<String> samples = new ArrayList<String>();
+        while(pipeline.hasNext()){
+            String line = pipeline.next();
+            if(!line.startsWith("#")){
+                samples.add(line.substring(line.indexOf("\"samples\":") + 10, line.indexOf(",\"FORMAT\"")));
+            }
+        }
+        assertEquals(Arrays.asList("[{\"GT\":\"0/1\",\"DP\":5.0,\"GenotypePositive\":1,\"sampleID\":\"S1\"}]",
+                                   "[{\"GT\":\"0/1\",\"sampleID\":\"S1\",\"GenotypePositive\":1}]"), samples);
+    }
+
+    private static final List<String> SAMPLE_VCF = Arrays.asList(
+        "##fileformat=VCFv4.0",
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\tS3\tS4",
+        "1\t100\trs1\tA\tG\t.\t.\t.\tGT:DP\t0/1:5\t0/0:7\t1/1:9\t./.:.",
+        "1\t200\trs2\tA\tG\t.\t.\t.\tDP:GT\t3:1|1\t4:0|0\t2:0|1\t1:./."
+    );
+
+    private List<String> sampleJSON(VCF2VariantPipe vcf) {
+        Pipe<String, String> pipeline = new Pipeline<String, String>(new HistoryInPipe(), vcf, new HistoryOutPipe());
+        pipeline.setStarts(SAMPLE_VCF);
+        List<String> json = new ArrayList<String>();
+        while(pipeline.hasNext()){
+            String line = pipeline.next();
+            if(!line.startsWith("#")){
+                json.add(line.substring(line.lastIndexOf('\t') + 1));
+            }
+        }
+        return json;
+    }
+
+    @Test
+    public void testSampleSubset(){
+        VCF2VariantPipe vcf = new VCF2VariantPipe(true);
+        vcf.setSampleNames(Arrays.asList("S3"));
+        vcf.setSampleColumns(10);
+        List<String> json = sampleJSON(vcf);
+
+        assertTrue(json.get(0).endsWith(",\"samples\":[{\"GT\":\"0/1\",\"DP\":5.0,\"GenotypePositive\":1,\"sampleID\":\"S1\"},"
+                + "{\"GT\":\"1/1\",\"DP\":9.0,\"GenotypePositive\":1,\"sampleID\":\"S3\"}],"
+                + "\"FORMAT\":{\"max\":{\"DP\":9.0},\"min\":{\"DP\":5.0},\"GenotypePostitiveCount\":2,\"GenotypePositiveList\":[\"S1\",\"S3\"]}}"));
+        assertEquals(2, ((List) JsonPath.compile("samples").read(json.get(1))).size());
+        assertEquals(2, JsonPath.compile("FORMAT.GenotypePostitiveCount").read(json.get(1)));
+        assertEquals(2, vcf.getSampleKeys().size());
+        assertEquals(Integer.valueOf(12), vcf.getSampleKeys().get("S3"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownSample(){
+        VCF2VariantPipe vcf = new VCF2VariantPipe(true);
+        vcf.setSampleNames(Arrays.asList("S1", "NotASample"));
+        sampleJSON(vcf);
+    }
+
+    @Test
+    public void testGenotypeCountsOnly(){
+        VCF2VariantPipe vcf = new VCF2VariantPipe(true);
+        vcf.setGenotypeCountsOnly(true);
+        List<String> json = sampleJSON(vcf);
+        List<String> full = sampleJSON(new VCF2VariantPipe(true));
+
+        assertTrue(json.get(0).endsWith(",\"FORMAT\":{\"GenotypePostitiveCount\":2,\"GenotypePositiveList\":[\"S1\",\"S3\"]}}"));
+        assertTrue(json.get(1).endsWith(",\"FORMAT\":{\"GenotypePostitiveCount\":2,\"GenotypePositiveList\":[\"S1\",\"S3\"]}}"));
+        for(int i = 0; i < json.size(); i++){
+            assertEquals(JsonPath.compile("FORMAT.GenotypePositiveList").read(full.get(i)).toString(),
+                         JsonPath.compile("FORMAT.GenotypePositiveList").read(json.get(i)).toString());
+        }
+        assertEquals(4, vcf.getSampleKeys().size());
+    }
+
+    @Test
+    public void testGetValue(){
+        assertEquals("0/1", VCF2VariantPipe.getValue("0/1:5:3,4", 0));
+        assertEquals("3,4", VCF2VariantPipe.getValue("0/1:5:3,4", 2));
+        assertEquals("", VCF2VariantPipe.getValue("0/1::", 2));
+        assertEquals(null, VCF2VariantPipe.getValue("0/1:5", 2));
+    }
+
+    @Test
+    public void testInfoDecoding(){
+        List<String> vcfLines = Arrays.asList(
+            "##fileformat=VCFv4.0",
+            "##INFO=<ID=AC,Number=.,Type=Integer,Description=\"Allele count\">",
+            "##INFO=<ID=AF,Number=A,Type=Float,Description=\"Allele frequency\">",
+            "##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Total Depth\">",
+            "##INFO=<ID=NS,Number=0,Type=Integer,Description=\"No value\">",
+            "##INFO=<ID=CS,Number=2,Type=Character,Description=\"Codes\">",
+            "##INFO=<ID=DB,Number=0,Type=Flag,Description=\"dbSNP membership\">",
+            "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO",
+            "1\t100\trs1\tA\tG,T\t.\t.\tAC=1,.,x,,;AF=0.5,.;DP= 7 ;NS=3;;CS=a,,b;DB;UNK=u,v;EMPTY",
+            "1\t100\trs1\tA\tG\t.\t.\tAC=.;AF=,;DP=.;CS=,,"
+        );
+        Pipe<String, String> pipeline = new Pipeline<String, String>(new HistoryInPipe(), new VCF2VariantPipe(), new HistoryOutPipe());
+        pipeline.setStarts(vcfLines);
+        List<String> info = new ArrayList<String>();
+        while(pipeline.hasNext()){
+            String line = pipeline.next();
+            if(!line.startsWith("#")){
+                String json = line.substring(line.lastIndexOf('\t') + 1);
+                info.add(json.substring(json.indexOf("\"INFO\":"), json.indexOf(",\"_id\"")));
+            }
+        }
+        assertEquals("\"INFO\":{\"AC\":[1],\"AF\":[0.5],\"DP\":7,\"CS\":[\"a\",\"\",\"b\"],\"DB\":true,\"UNK\":\"u,v\",\"EMPTY\":true}", info.get(0));
+        assertEquals("\"INFO\":{}", info.get(1));
+    }
+
+    @Test
+    public void testParseInt(){
+        assertEquals(12, VCF2VariantPipe.parseInt("AC=12;", 3, 5));
+        assertEquals(-7, VCF2VariantPipe.parseInt(" -7 ", 0, 4));
+        assertEquals(2000000000, VCF2VariantPipe.parseInt("2000000000", 0, 10));
+        for(String bad : new String[] { "", "-", "1.5", "3000000000", "x" }){
+            try {
+                VCF2VariantPipe.parseInt(bad, 0, bad.length());
+                fail(bad);
+            } catch (NumberFormatException e) {
+                // expected
+            }
+        }
+    }
 }
@@ -0,0 +1,121 @@
+package edu.mayo.pipes.bioinformatics.sequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.tinkerpop.pipes.Pipe;
+import com.tinkerpop.pipes.util.Pipeline;
+
+import edu.mayo.pipes.JSON.tabix.TabixWriter;
+import edu.mayo.pipes.history.HistoryInPipe;
+import edu.mayo.pipes.util.index.CatalogBuilder;
+import edu.mayo.pipes.util.test.PipeTestUtils;
+
+public class TwoBitReferenceTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /** Random bases, with runs of N's and of lower case bases */
+    private String randomSequence(Random random, int length) {
+        StringBuilder seq = new StringBuilder();
+        while( seq.length() < length ) {
+            int run = 1 + random.nextInt(200);
+            int kind = random.nextInt(10);
+            for(int i = 0; i < run && seq.length() < length; i++) {
+                char base = "ACGT".charAt(random.nextInt(4));
+                seq.append(kind == 0 ? 'N' : (kind == 1 ? Character.toLowerCase(base) : base));
+            }
+        }
+        return seq.toString();
+    }
+
+    private File writeFasta(String name, String header, String seq) throws IOException {
+        File fasta = tempFolder.newFile(name);
+        FileWriter out = new FileWriter(fasta);
+        out.write(header + "\n");
+        for(int i = 0; i < seq.length(); i += 70)
+            out.write(seq.substring(i, Math.min(i + 70, seq.length())) + "\n");
+        out.close();
+        return fasta;
+    }
+
+    @Test
+    public void testGetSequence() throws IOException {
+        Random random = new Random(17);
+        String seq1 = "NNNN" + randomSequence(random, 100000) + "nnA";
+        String seq2 = randomSequence(random, 7);
+        File twoBit = new File(tempFolder.getRoot(), "ref.2bit");
+        TwoBitReference.Writer writer = new TwoBitReference.Writer(twoBit);
+        writer.add("1", writeFasta("chr1.fa", ">gi|1|ref|NC_000001.10| Homo sapiens chromosome 1", seq1));
+        writer.add("MT", writeFasta("chrMT.fa", ">MT", seq2));
+        writer.close();
+        assertTrue(TwoBitReference.isTwoBit(twoBit));
+        assertEquals(3, tempFolder.getRoot().listFiles().length); // the 2 FASTA files and the .2bit, no temp file left
+
+        TwoBitReference ref = new TwoBitReference(twoBit);
+        assertEquals(Arrays.asList("1", "MT"), ref.getNames());
+        assertEquals(seq1.length(), ref.getSize("1"));
+        assertEquals(seq1, ref.getSequence("1", 1, seq1.length()));
+        assertEquals(seq2, ref.getSequence("MT", 1, 1000));
+        for(int i = 0; i < 1000; i++) {
+            int start = 1 + random.nextInt(seq1.length());
+            int end = Math.min(seq1.length(), start + random.nextInt(i % 2 == 0 ? 10 : 2000));
+            assertEquals(seq1.substring(start - 1, end), ref.getSequence("1", start, end));
+        }
+        assertNull(ref.getSequence("2", 1, 10));
+        assertNull(ref.getSequence("MT", 8, 10));
+        assertEquals(-1, ref.getSize("2"));
+        ref.close();
+        assertFalse(TwoBitReference.isTwoBit(writeFasta("not.2bit", ">1", seq2)));
+    }
+
+    /** Bed2SequencePipe gives the same sequences from the .2bit file as from the Fasta2Tabix catalog */
+    @Test
+    public void testBed2SequencePipe() throws Exception {
+        Random random = new Random(29);
+        String seq = randomSequence(random, 50000).toUpperCase();
+        File fasta = writeFasta("chr22.fa", ">chr22", seq);
+
+        File catalog = new File(tempFolder.getRoot(), "chr22.fa.tsv.bgz");
+        CatalogBuilder builder = new CatalogBuilder(catalog, new TabixWriter.Conf(0, 1, 2, 3, '#', 0));
+        Fasta2Tabix.Fasta2SequenceTabix toTabix = new Fasta2Tabix.Fasta2SequenceTabix("22");
+        for(int i = 0; i < seq.length(); i += 70)
+            builder.add(toTabix.compute(seq.substring(i, Math.min(i + 70, seq.length()))).trim());
+        builder.close();
+
+        File twoBit = new File(tempFolder.getRoot(), "chr22.2bit");
+        TwoBitReference.Writer writer = new TwoBitReference.Writer(twoBit);
+        writer.add("22", fasta);
+        writer.close();
+
+        List<String> beds = new ArrayList<String>();
+        for(int i = 0; i < 500; i++) {
+            int start = 1 + random.nextInt(seq.length() - 300);
+            beds.add("22\t" + start + "\t" + (start + random.nextInt(i % 2 == 0 ? 3 : 300)));
+        }
+        beds.add("17\t100\t200");
+
+        Pipe p1 = new Pipeline(new HistoryInPipe(), new Bed2SequencePipe(catalog.getPath()));
+        p1.setStarts(beds);
+        Pipe p2 = new Pipeline(new HistoryInPipe(), new Bed2SequencePipe(twoBit.getPath()));
+        p2.setStarts(beds);
+        List<String> expected = PipeTestUtils.getResults(p1);
+        assertEquals(expected, PipeTestUtils.getResults(p2));
+        assertEquals(beds.size(), expected.size());
+    }
+}
@@ -588,4 +588,57 @@ public class HistoryInPipeTest
 
 
 
+    /** Two pipelines running at the same time must not share (or wipe) each other's header */
+    @Test
+    public void testConcurrentPipelines() throws InterruptedException
+    {
+        final List<String> inA = Arrays.asList("##jobA", "#A1\tA2", "a1\ta2", "a3\ta4");
+        final List<String> inB = Arrays.asList("##jobB", "#B1\tB2\tB3", "b1\tb2\tb3");
+        final List<String> outA = new ArrayList<String>();
+        final List<String> outB = new ArrayList<String>();
+
+        Thread threadA = new Thread(new Runnable() {
+            public void run() {
+                Pipe<String, String> p = new Pipeline<String, String>(new HistoryInPipe(), new HistoryOutPipe());
+                p.setStarts(inA);
+                while (p.hasNext()) {
+                    outA.add(p.next());
+                }
+            }
+        });
+        threadA.start();
+
+        // interleave a second pipeline on this thread while A may still be running
+        Pipe<String, History> pB = new Pipeline<String, History>(new HistoryInPipe());
+        pB.setStarts(inB);
+        History h = pB.next();
+        threadA.join();
+
+        Pipe<History, String> pOut = new Pipeline<History, String>(new HistoryOutPipe());
+        pOut.setStarts(Arrays.asList(h));
+        while (pOut.hasNext()) {
+            outB.add(pOut.next());
+        }
+
+        PipeTestUtils.assertListsEqual(inA, outA);
+        PipeTestUtils.assertListsEqual(inB, outB);
+        assertEquals("#B1\tB2\tB3", h.getHistoryMetaData().getColumnHeaderRow("\t"));
+    }
+
+    /** Building and reading a second pipeline on the same thread does not change the header of rows already read from the first */
+    @Test
+    public void testInterleavedPipelinesSameThread()
+    {
+        Pipe<String, History> pA = new Pipeline<String, History>(new HistoryInPipe());
+        pA.setStarts(Arrays.asList("##jobA", "#A1\tA2\tA3", "a1\ta2\ta3"));
+        History hA = pA.next();
+
+        Pipe<String, String> pB = new Pipeline<String, String>(new HistoryInPipe(), new HCutPipe(new int[] { 1 }), new HistoryOutPipe());
+        pB.setStarts(Arrays.asList("##jobB", "#B1\tB2", "b1\tb2"));
+        assertEquals(Arrays.asList("##jobB", "#B2", "b2"), PipeTestUtils.getResults(pB));
+
+        Pipe<History, String> pCut = new Pipeline<History, String>(new HCutPipe(new int[] { 2 }), new HistoryOutPipe());
+        pCut.setStarts(Arrays.asList(hA));
+        assertEquals(Arrays.asList("##jobA", "#A1\tA3", "a1\ta3"), PipeTestUtils.getResults(pCut));
+    }
 }
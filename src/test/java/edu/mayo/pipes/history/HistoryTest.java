@@ -0,0 +1,48 @@
+package edu.mayo.pipes.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.mayo.pipes.util.StringUtils;
+
+public class HistoryTest {
+
+    @Test
+    public void testSplitSameAsSafeSplit() {
+        String[] lines = { "a\tb\tc", "", "\t", "a\t\tc\t", "\t\ta", "single", "1\t2\t{\"x\":[\"y\",\"z\"]}" };
+        for(String line : lines) {
+            assertEquals(line, Arrays.asList(StringUtils.safeSplit(line, "\t")), new History(line));
+        }
+    }
+
+    @Test
+    public void testCloneIsIndependent() {
+        History h = new History("a\tb\t{\"A\":[\"x\",\"y\"]}");
+        HistoryMetaData meta = new HistoryMetaData(new ArrayList<String>());
+        h.setMetaData(meta);
+
+        History clone = (History) h.clone();
+        clone.add("d");
+        clone.set(0, "changed");
+        assertEquals(Arrays.asList("a", "b", "{\"A\":[\"x\",\"y\"]}"), h);
+        assertEquals(Arrays.asList("changed", "b", "{\"A\":[\"x\",\"y\"]}", "d"), clone);
+        assertSame(meta, clone.getHistoryMetaData());
+    }
+
+    @Test
+    public void testCloneAndAppend() {
+        History h = new History("a\tb");
+        HistoryMetaData meta = new HistoryMetaData(new ArrayList<String>());
+        h.setMetaData(meta);
+
+        History appended = h.cloneAndAppend("{}");
+        assertEquals(Arrays.asList("a", "b", "{}"), appended);
+        assertEquals(Arrays.asList("a", "b"), h);
+        assertSame(meta, appended.getHistoryMetaData());
+    }
+}
@@ -0,0 +1,193 @@
+package edu.mayo.pipes.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.tinkerpop.pipes.AbstractPipe;
+import com.tinkerpop.pipes.Pipe;
+import com.tinkerpop.pipes.util.Pipeline;
+
+import edu.mayo.pipes.UNIX.CatPipe;
+import edu.mayo.pipes.bioinformatics.VCF2VariantPipe;
+import edu.mayo.pipes.history.HCutPipe;
+import edu.mayo.pipes.history.History;
+import edu.mayo.pipes.history.HistoryInPipe;
+import edu.mayo.pipes.history.HistoryOutPipe;
+import edu.mayo.pipes.util.test.PipeTestUtils;
+
+public class ThreadedPipelineTest {
+
+    /** Emits each even number twice and drops multiples of 5, sleeping now and then so the workers finish out of order */
+    private static class FanOutPipe extends AbstractPipe<Integer, String> {
+        private Random random = new Random();
+        private LinkedList<String> out = new LinkedList<String>();
+
+        @Override
+        protected String processNextStart() throws NoSuchElementException {
+            while(out.isEmpty()) {
+                Integer i = this.starts.next();
+                if(i % 5 == 0)
+                    continue;
+                out.add("row" + i);
+                if(i % 2 == 0)
+                    out.add("row" + i + "-again");
+                if(random.nextInt(20) == 0) {
+                    try { Thread.sleep(1); } catch (InterruptedException e) { }
+                }
+            }
+            return out.removeFirst();
+        }
+    }
+
+    /** Checks that the header bound to the thread pulling the pipeline is the row's header */
+    private static class BoundHeaderPipe extends AbstractPipe<History, History> {
+        @Override
+        protected History processNextStart() throws NoSuchElementException {
+            History h = this.starts.next();
+            assertTrue(History.getMetaData() != null);
+            assertTrue(History.getMetaData() == h.getHistoryMetaData());
+            return h;
+        }
+    }
+
+    private static PipeFactory<Integer, String> fanOut = new PipeFactory<Integer, String>() {
+        public Pipe<Integer, String> newPipe() {
+            return new FanOutPipe();
+        }
+    };
+
+    private List<Integer> numbers(int n) {
+        List<Integer> in = new ArrayList<Integer>();
+        for(int i = 0; i < n; i++)
+            in.add(i);
+        return in;
+    }
+
+    @Test
+    public void testSameOrderAsSingleThread() {
+        List<Integer> in = numbers(5000);
+        Pipe<Integer, String> single = new FanOutPipe();
+        single.setStarts(in);
+        List<String> expected = PipeTestUtils.getResults(single);
+
+        ThreadedPipeline<Integer, String> threaded = new ThreadedPipeline<Integer, String>(fanOut, 4, 7, 2);
+        threaded.setStarts(in);
+        assertEquals(expected, PipeTestUtils.getResults(threaded));
+        assertFalse(threaded.hasNext());
+    }
+
+    @Test
+    public void testInsidePipeline() {
+        Pipeline<Integer, String> p = new Pipeline<Integer, String>(new ThreadedPipeline<Integer, String>(fanOut, 3));
+        p.setStarts(Arrays.asList(1, 2, 3, 4, 5, 6));
+        assertEquals(Arrays.asList("row1", "row2", "row2-again", "row3", "row4", "row4-again", "row6", "row6-again"), PipeTestUtils.getResults(p));
+    }
+
+    @Test
+    public void testEmptyInput() {
+        ThreadedPipeline<Integer, String> threaded = new ThreadedPipeline<Integer, String>(fanOut, 2);
+        threaded.setStarts(Collections.<Integer>emptyList());
+        assertFalse(threaded.hasNext());
+    }
+
+    @Test
+    public void testResetAndRerun() {
+        ThreadedPipeline<Integer, String> threaded = new ThreadedPipeline<Integer, String>(fanOut, 2, 3, 1);
+        threaded.setStarts(numbers(10));
+        assertEquals(12, PipeTestUtils.getResults(threaded).size());
+        threaded.reset();
+        threaded.setStarts(numbers(10));
+        assertEquals(12, PipeTestUtils.getResults(threaded).size());
+    }
+
+    @Test
+    public void testWorkerExceptionIsRethrown() {
+        PipeFactory<Integer, Integer> failAt500 = new PipeFactory<Integer, Integer>() {
+            public Pipe<Integer, Integer> newPipe() {
+                return new AbstractPipe<Integer, Integer>() {
+                    protected Integer processNextStart() {
+                        Integer i = this.starts.next();
+                        if(i == 500)
+                            throw new IllegalStateException("bad row " + i);
+                        return i;
+                    }
+                };
+            }
+        };
+        ThreadedPipeline<Integer, Integer> threaded = new ThreadedPipeline<Integer, Integer>(failAt500, 4, 10, 2);
+        threaded.setStarts(numbers(100000));
+        try {
+            while(threaded.hasNext())
+                threaded.next();
+            fail("Expected the worker's exception");
+        } catch (IllegalStateException e) {
+            assertEquals("bad row 500", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testVcfHeaderUpdatedOnce() {
+        String vcf = "src/test/resources/testData/example.vcf";
+        Pipeline<String, String> single = new Pipeline<String, String>(
+                new CatPipe(), new HistoryInPipe(), new VCF2VariantPipe(), new HistoryOutPipe());
+        single.setStarts(Arrays.asList(vcf));
+        List<String> expected = PipeTestUtils.getResults(single);
+
+        PipeFactory<History, History> vcf2variant = new PipeFactory<History, History>() {
+            public Pipe<History, History> newPipe() {
+                return new VCF2VariantPipe();
+            }
+        };
+        Pipeline<String, String> threaded = new Pipeline<String, String>(
+                new CatPipe(), new HistoryInPipe(), new ThreadedPipeline<History, History>(vcf2variant, 3, 2, 2), new HistoryOutPipe());
+        threaded.setStarts(Arrays.asList(vcf));
+        List<String> actual = PipeTestUtils.getResults(threaded);
+
+        assertTrue(expected.size() > 2);
+        assertEquals(expected, actual);
+    }
+
+    /** Pipes after the threaded stage read the header, from the row and from the calling thread */
+    @Test
+    public void testHeaderAfterThreadedStage() throws InterruptedException {
+        final String vcf = "src/test/resources/testData/example.vcf";
+        Pipeline<String, String> single = new Pipeline<String, String>(
+                new CatPipe(), new HistoryInPipe(), new VCF2VariantPipe(), new HCutPipe(new int[] { 3 }), new BoundHeaderPipe(), new HistoryOutPipe());
+        single.setStarts(Arrays.asList(vcf));
+        final List<String> expected = PipeTestUtils.getResults(single);
+
+        final PipeFactory<History, History> vcf2variant = new PipeFactory<History, History>() {
+            public Pipe<History, History> newPipe() {
+                return new VCF2VariantPipe();
+            }
+        };
+        // on a new thread, so nothing is bound to it beforehand
+        final List<String> actual = new ArrayList<String>();
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                Pipeline<String, String> threaded = new Pipeline<String, String>(
+                        new CatPipe(), new HistoryInPipe(), new ThreadedPipeline<History, History>(vcf2variant, 3, 2, 2),
+                        new HCutPipe(new int[] { 3 }), new BoundHeaderPipe(), new HistoryOutPipe());
+                threaded.setStarts(Arrays.asList(vcf));
+                actual.addAll(PipeTestUtils.getResults(threaded));
+            }
+        });
+        t.start();
+        t.join();
+
+        assertTrue(expected.size() > 2);
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,114 @@
+package edu.mayo.pipes.util.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.mayo.pipes.JSON.tabix.BgzipBlockReader;
+import edu.mayo.pipes.JSON.tabix.ParallelBgzipReader;
+import edu.mayo.pipes.JSON.tabix.TabixReader;
+import edu.mayo.pipes.JSON.tabix.TabixWriter;
+
+public class CatalogBuilderTest {
+
+	private static final File GENES = new File("src/test/resources/testData/tabix/genes.tsv.bgz");
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/** The catalog, tabix index and key indexes built in one pass give the same results as the genes catalog */
+	@Test
+	public void testBuild() throws Exception {
+		List<String> lines = readLines(GENES);
+		File text = tempFolder.newFile("genes.tsv");
+		FileWriter out = new FileWriter(text);
+		for(String line : lines)
+			out.write(line + "\n");
+		out.close();
+
+		File catalog = new File(tempFolder.getRoot(), "genes.tsv.bgz");
+		File h2Index = new File(tempFolder.getRoot(), "index/genes.gene.idx.h2.db");
+		File sortedIndex = new File(tempFolder.getRoot(), "index/genes.GeneID.idx.sorted");
+		CatalogBuilder builder = new CatalogBuilder(catalog, new TabixWriter.Conf(0, 1, 2, 3, '#', 0), 3);
+		builder.addH2Index(4, "gene", h2Index);
+		builder.addSortedIndex(4, "GeneID", sortedIndex);
+		// Sort the keys in several runs
+		builder.setMaxLinesInMemory(10000);
+		builder.build(text);
+		assertEquals(lines.size(), builder.getNumLines());
+		assertEquals(lines, readLines(catalog));
+		// Only the indexes are left in the index directory
+		assertEquals(2, h2Index.getParentFile().list().length);
+
+		// Tabix
+		TabixReader expected = new TabixReader(GENES.getPath());
+		TabixReader actual = new TabixReader(catalog.getPath());
+		for(String region : Arrays.asList("1:10000-20000", "1:1000000-2000000", "17:41196312-41277500", "X:1-200000000", "Y:1-100")) {
+			List<String> expectedLines = query(expected, region);
+			assertEquals(expectedLines, query(actual, region));
+		}
+		assertTrue(query(actual, "1:1000000-2000000").size() > 10);
+
+		// Key indexes
+		BgzipBlockReader reader = new BgzipBlockReader(catalog);
+		Connection conn = new H2Connection(h2Index).getConn();
+		FindIndex findIndex = new FindIndex(conn);
+		for(String gene : Arrays.asList("BRCA1", "mthfr", "DDX11L1", "JUNK"))
+			assertEquals(linesWith(lines, "\"gene\":\"", gene), readLines(reader, findIndex.find(gene)));
+		conn.close();
+		assertTrue(linesWith(lines, "\"gene\":\"", "BRCA1").size() > 0);
+		SortedKeyIndex keyIndex = new SortedKeyIndex(sortedIndex);
+		assertTrue(keyIndex.isKeyAnInteger());
+		for(String geneId : Arrays.asList("672", "100287102", "4524", "0"))
+			assertEquals(linesWith(lines, "\"GeneID\":\"", geneId), readLines(reader, keyIndex.find(geneId)));
+		assertTrue(linesWith(lines, "\"GeneID\":\"", "672").size() > 0);
+		reader.close();
+	}
+
+	private List<String> readLines(File bgzip) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		ParallelBgzipReader reader = new ParallelBgzipReader(bgzip, 2);
+		String line;
+		while( (line = reader.readLine()) != null )
+			lines.add(line);
+		reader.close();
+		return lines;
+	}
+
+	private List<String> readLines(BgzipBlockReader reader, List<Long> positions) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		for(Long pos : positions)
+			lines.add(reader.readLine(pos));
+		return lines;
+	}
+
+	private List<String> query(TabixReader reader, String region) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		TabixReader.Iterator it = reader.query(region);
+		String line;
+		while( it != null && (line = it.next()) != null )
+			lines.add(line);
+		return lines;
+	}
+
+	/** The lines that have the key (ignoring case) */
+	private List<String> linesWith(List<String> lines, String prefix, String key) {
+		List<String> matches = new ArrayList<String>();
+		for(String line : lines) {
+			if( line.toUpperCase().contains((prefix + key + "\"").toUpperCase()) )
+				matches.add(line);
+		}
+		return matches;
+	}
+}
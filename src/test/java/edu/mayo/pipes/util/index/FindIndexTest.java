@@ -5,6 +5,7 @@ import static org.junit.Assert.assertEquals;
 import java.sql.Connection;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
 
@@ -65,4 +66,40 @@ public class FindIndexTest {
 		h2 = null;
 	}	
 
-}
\ No newline at end of file
+	@Test
+	public void testFindIndex_MultipleIds() throws Exception {
+		String databaseFile = "src/test/resources/testData/tabix/index/genes.GeneID.idx.h2.db";
+		H2Connection h2 = new H2Connection(databaseFile);
+		Connection dbConn = h2.getConn();
+		
+		FindIndex findIndex = new FindIndex(dbConn);
+		Map<String, List<Long>> key2pos = findIndex.find(Arrays.asList("715", "1", "4", "715", "NotAnInt"));
+		
+		assertEquals(4, key2pos.size());
+		assertEquals(Arrays.asList(28950243673L, 28950243981L), key2pos.get("715"));
+		assertEquals(Arrays.asList(72805499555L), key2pos.get("1"));
+		assertEquals(Arrays.asList(), key2pos.get("4"));
+		assertEquals(Arrays.asList(), key2pos.get("NotAnInt"));
+
+		dbConn.close();		
+	}	
+
+	@Test
+	public void testFindIndex_MultipleIdsCaseSensitive() throws Exception {
+		String databaseFile = "src/test/resources/testData/tabix/index/genes.gene.idx.h2.db";
+		H2Connection h2 = new H2Connection(databaseFile);
+		Connection dbConn = h2.getConn();
+		
+		List<String> ids = Arrays.asList("BRCA1", "brca1");
+		Map<String, List<Long>> caseInsensitive = new FindIndex(dbConn, false).find(ids);
+		Map<String, List<Long>> caseSensitive   = new FindIndex(dbConn, true).find(ids);
+		
+		assertEquals(1, caseInsensitive.get("BRCA1").size());
+		assertEquals(caseInsensitive.get("BRCA1"), caseInsensitive.get("brca1"));
+		assertEquals(caseInsensitive.get("BRCA1"), caseSensitive.get("BRCA1"));
+		assertEquals(Arrays.asList(), caseSensitive.get("brca1"));
+
+		dbConn.close();		
+	}	
+
+}
\ No newline at end of file
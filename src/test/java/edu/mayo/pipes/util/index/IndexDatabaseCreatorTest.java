@@ -8,6 +8,12 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
 
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -86,6 +92,70 @@ public class IndexDatabaseCreatorTest {
 
 	}
 
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/** Build with a small sort buffer, so the keys are sorted in several runs and then merged */
+	@Test
+	public void createIndexSortedInRuns() throws SQLException, IOException, ClassNotFoundException {
+		IndexDatabaseCreator indexH2 = new IndexDatabaseCreator();
+		indexH2.setMaxLinesInMemory(1000);
+		String h2DbPath = new File(tempFolder.getRoot(), "genes.GeneID.idx.h2.db").getPath();
+		indexH2.buildIndexH2("src/test/resources/testData/tabix/genes.tsv.bgz", 4, "GeneID", h2DbPath);
+
+		assertEquals(37301, getRowCount(h2DbPath, "Indexer"));
+		Connection dbConn = new H2Connection(h2DbPath).getConn();
+		FindIndex findIndex = new FindIndex(dbConn);
+		assertEquals(Arrays.asList(), findIndex.find("4"));
+		assertEquals(Arrays.asList(72805499555L), findIndex.find("1"));
+		assertEquals(Arrays.asList(28950243673L, 28950243981L), findIndex.find("715"));
+		dbConn.close();
+		// Only the database is left behind
+		for(File f : tempFolder.getRoot().listFiles())
+			assertTrue(f.getName(), f.getName().startsWith("genes.GeneID.idx"));
+	}
+
+	/** Non-ASCII keys are found the same as they read from the catalog (BlockCompressedInputStream.readLine()),
+	 *  in both the H2 and the sorted index */
+	@Test
+	public void createIndexNonAsciiKeys() throws SQLException, IOException, ClassNotFoundException {
+		String[] genes = { "Caf\u00e9", "\u00fcber", "\u03b1\u03b2", "ABC" };
+		File bgzip = tempFolder.newFile("nonAscii.tsv.bgz");
+		BlockCompressedOutputStream out = new BlockCompressedOutputStream(bgzip);
+		for(int i=0; i < genes.length; i++)
+			out.write(("1\t" + (i*100+1) + "\t" + (i*100+50) + "\t{\"gene\":\"" + genes[i] + "\"}\n").getBytes());
+		out.close();
+
+		// The keys as they are read back from the catalog
+		List<String> keys = new ArrayList<String>();
+		List<Long> positions = new ArrayList<Long>();
+		BlockCompressedInputStream instr = new BlockCompressedInputStream(bgzip);
+		long pos = 0;
+		String line;
+		while( (line = instr.readLine()) != null ) {
+			positions.add(pos);
+			keys.add(line.substring(line.indexOf(":\"") + 2, line.lastIndexOf('"')));
+			pos = instr.getFilePointer();
+		}
+		instr.close();
+		assertEquals(genes.length, keys.size());
+
+		String h2DbPath = new File(tempFolder.getRoot(), "nonAscii.gene.idx.h2.db").getPath();
+		new IndexDatabaseCreator().buildIndexH2(bgzip.getPath(), 4, "gene", h2DbPath);
+		File sortedPath = new File(tempFolder.getRoot(), "nonAscii.gene.idx.sorted");
+		new IndexDatabaseCreator().buildIndexSorted(bgzip.getPath(), 4, "gene", sortedPath.getPath());
+
+		Connection dbConn = new H2Connection(h2DbPath).getConn();
+		FindIndex findIndex = new FindIndex(dbConn);
+		SortedKeyIndex sorted = new SortedKeyIndex(sortedPath);
+		for(int i=0; i < keys.size(); i++) {
+			assertEquals(keys.get(i), Arrays.asList(positions.get(i)), findIndex.find(keys.get(i)));
+			assertEquals(keys.get(i), Arrays.asList(positions.get(i)), sorted.find(keys.get(i)));
+		}
+		sorted.close();
+		dbConn.close();
+	}
+
 	private int getRowCount(String h2DbPath, String tableName) throws SQLException {
 		H2Connection h2Conn = new H2Connection(h2DbPath);
 		Connection dbConn = h2Conn.getConn();
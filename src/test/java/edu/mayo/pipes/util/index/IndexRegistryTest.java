@@ -0,0 +1,95 @@
+package edu.mayo.pipes.util.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class IndexRegistryTest {
+
+	private static final String CATALOG = "src/test/resources/testData/tabix/genes.tsv.bgz";
+	private static final String GENE_ID_INDEX = "src/test/resources/testData/tabix/index/genes.GeneID.idx.h2.db";
+	private static final String HGNC_INDEX = "src/test/resources/testData/tabix/index/genes.HGNC.idx.h2.db";
+
+	@Test
+	public void testShared() throws Exception {
+		IndexRegistry registry = new IndexRegistry(1);
+		IndexRegistry.Handle h1 = registry.open(CATALOG, GENE_ID_INDEX, false);
+		IndexRegistry.Handle h2 = registry.open("src/test/resources/testData/tabix/../tabix/genes.tsv.bgz", GENE_ID_INDEX, false);
+		assertSame(h1.getIndex(), h2.getIndex());
+		assertSame(h1.getReader(), h2.getReader());
+		assertEquals(1, registry.getNumOpen());
+
+		// Still in use, so both stay open (over the max)
+		IndexRegistry.Handle other = registry.open(CATALOG, HGNC_INDEX, false);
+		assertNotSame(h1.getIndex(), other.getIndex());
+		assertEquals(2, registry.getNumOpen());
+
+		// Closing one handle (or the same one twice) keeps the pair open for the other
+		h1.close();
+		h1.close();
+		assertEquals(2, registry.getNumOpen());
+		assertEquals(Arrays.asList(72805499555L), h2.getIndex().find("1"));
+
+		// Once unused, it is closed to get back down to the max
+		h2.close();
+		assertEquals(1, registry.getNumOpen());
+		other.close();
+		assertEquals(1, registry.getNumOpen());
+		registry.closeUnused();
+		assertEquals(0, registry.getNumOpen());
+	}
+
+	/** Many threads looking up through one shared handle */
+	@Test
+	public void testThreads() throws Exception {
+		final IndexRegistry registry = new IndexRegistry(4);
+		registry.setMaxConnections(2);
+		final AtomicInteger errors = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int t = 0; t < 8; t++) {
+			threads.add(new Thread() {
+				public void run() {
+					try {
+						IndexRegistry.Handle handle = registry.open(CATALOG, GENE_ID_INDEX, false);
+						for(int i = 0; i < 200; i++) {
+							List<Long> positions = handle.getIndex().find("715");
+							if( ! positions.equals(Arrays.asList(28950243673L, 28950243981L)) )
+								errors.incrementAndGet();
+							if( ! handle.getReader().readLine(positions.get(0)).contains("\"GeneID\":\"715\"") )
+								errors.incrementAndGet();
+						}
+						handle.close();
+					} catch(Exception e) {
+						e.printStackTrace();
+						errors.incrementAndGet();
+					}
+				}
+			});
+		}
+		for(Thread thread : threads)
+			thread.start();
+		for(Thread thread : threads)
+			thread.join();
+		assertEquals(0, errors.get());
+		assertEquals(1, registry.getNumOpen());
+		registry.closeUnused();
+	}
+
+	@Test
+	public void testPoolSize() throws Exception {
+		PooledFindIndex index = new PooledFindIndex(GENE_ID_INDEX, false, 3);
+		assertTrue(index.isKeyAnInteger());
+		assertEquals(1, index.getNumConnections());
+		assertEquals(Arrays.asList(), index.find("4"));
+		assertEquals(1, index.getNumConnections());
+		index.close();
+	}
+}
@@ -0,0 +1,63 @@
+package edu.mayo.pipes.util.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+
+public class SortExternalTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testStringKeys() throws IOException {
+		List<String> lines = Arrays.asList("BRCA2\t30", "BRCA1\t20", "A1BG\t5", "BRCA1\t10", "10\t1", "9\t2");
+		assertEquals(Arrays.asList("10\t1", "9\t2", "A1BG\t5", "BRCA1\t10", "BRCA1\t20", "BRCA2\t30"),
+			sort(lines, false, 2));
+	}
+
+	@Test
+	public void testIntegerKeys() throws IOException {
+		List<String> lines = Arrays.asList("715\t981", "10\t1", "9\t2", "715\t673", "-1\t0");
+		assertEquals(Arrays.asList("-1\t0", "9\t2", "10\t1", "715\t673", "715\t981"),
+			sort(lines, true, 1000));
+	}
+
+	/** Several runs must merge to the same result as one in-memory sort */
+	@Test
+	public void testRuns() throws IOException {
+		Random random = new Random(3);
+		List<String> lines = new ArrayList<String>();
+		for(int i = 0; i < 5000; i++)
+			lines.add(random.nextInt(800) + "\t" + random.nextInt(100000));
+		assertEquals(sort(lines, true, 10000), sort(lines, true, 37));
+		assertEquals(sort(lines, false, 10000), sort(lines, false, 37));
+		// the runs are deleted
+		for(String name : tempFolder.getRoot().list())
+			assertTrue(name, name.startsWith("out"));
+	}
+
+	private List<String> sort(List<String> lines, boolean isKeyInteger, int maxLinesInMemory) throws IOException {
+		File in = tempFolder.newFile("in" + System.nanoTime() + ".txt");
+		File out = new File(tempFolder.getRoot(), "out" + System.nanoTime() + ".txt");
+		Files.write(Joiner.on("\n").join(lines) + "\n", in, Charsets.UTF_8);
+		long numLines = new SortExternal(isKeyInteger, maxLinesInMemory, null).sort(in, out);
+		assertEquals(lines.size(), numLines);
+		in.delete();
+		return Files.readLines(out, Charsets.UTF_8);
+	}
+}
@@ -0,0 +1,108 @@
+package edu.mayo.pipes.util.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SortedKeyIndexTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private static final String CATALOG = "src/test/resources/testData/tabix/genes.tsv.bgz";
+
+	/** Integer keys: same positions as the H2 index (TEST ID's from FindIndexTest) */
+	@Test
+	public void testIntegerKeys() throws Exception {
+		File indexFile = new File(tempFolder.getRoot(), "genes.GeneID.idx.sorted");
+		new IndexDatabaseCreator().buildIndexSorted(CATALOG, 4, "GeneID", indexFile.getPath());
+		assertTrue(SortedKeyIndex.isSortedKeyIndex(indexFile));
+		assertFalse(SortedKeyIndex.isSortedKeyIndex(new File("src/test/resources/testData/tabix/index/genes.GeneID.idx.h2.db")));
+
+		SortedKeyIndex index = new SortedKeyIndex(indexFile);
+		assertTrue(index.isKeyAnInteger());
+		assertEquals(Arrays.asList(), index.find("4"));
+		assertEquals(Arrays.asList(72805499555L), index.find("1"));
+		assertEquals(Arrays.asList(28950243673L, 28950243981L), index.find("715"));
+		assertEquals(Arrays.asList(), index.find("BRCA1"));
+		assertEquals(Arrays.asList(72805499555L), index.find(Arrays.asList("1", "4")).get("1"));
+		assertEquals(Arrays.asList(), index.find(Arrays.asList("1", "4")).get("4"));
+	}
+
+	/** String keys: same as the H2 index, ignoring case or not */
+	@Test
+	public void testStringKeys() throws Exception {
+		File indexFile = new File(tempFolder.getRoot(), "genes.gene.idx.sorted");
+		IndexDatabaseCreator creator = new IndexDatabaseCreator();
+		creator.setMaxLinesInMemory(5000);
+		creator.buildIndexSorted(CATALOG, 4, "gene", indexFile.getPath());
+
+		Connection dbConn = new H2Connection("src/test/resources/testData/tabix/index/genes.gene.idx.h2.db", false).getConn();
+		try {
+			List<String> ids = new ArrayList<String>(Arrays.asList("BRCA1", "brca1", "Brca2", "MIR4703", "NOT_A_GENE", "", "A", "ZZZ3", "zzz3"));
+			for(boolean isCaseSensitive : new boolean[] { false, true }) {
+				FindIndex h2 = new FindIndex(dbConn, isCaseSensitive);
+				SortedKeyIndex sorted = new SortedKeyIndex(indexFile, isCaseSensitive);
+				assertFalse(sorted.isKeyAnInteger());
+				for(String id : ids) {
+					List<Long> expected = new ArrayList<Long>(h2.find(id));
+					Collections.sort(expected);
+					assertEquals(id, expected, sorted.find(id));
+				}
+				assertEquals(h2.find(ids), sorted.find(ids));
+				h2.close();
+			}
+			assertTrue(new SortedKeyIndex(indexFile).find("brca1").size() > 0);
+			assertEquals(0, new SortedKeyIndex(indexFile, true).find("brca1").size());
+		} finally {
+			dbConn.close();
+		}
+	}
+
+	/** Keys that share prefixes, split across many small blocks */
+	@Test
+	public void testBlocks() throws Exception {
+		File indexFile = tempFolder.newFile("keys.idx.sorted");
+		SortedKeyIndexWriter writer = new SortedKeyIndexWriter(indexFile, false, 3);
+		List<String> keys = new ArrayList<String>();
+		for(int i = 0; i < 200; i++)
+			keys.add("rs" + (100000 + i * 7));
+		keys.add("rsé"); // multi-byte UTF-8
+		for(int i = 0; i < keys.size(); i++) {
+			writer.add(keys.get(i), i * 1000L);
+			writer.add(keys.get(i), i * 1000L + 5000000000L);
+		}
+		writer.close();
+
+		SortedKeyIndex index = new SortedKeyIndex(indexFile);
+		assertEquals(keys.size(), index.getNumKeys());
+		for(int i = 0; i < keys.size(); i++)
+			assertEquals(Arrays.asList(i * 1000L, i * 1000L + 5000000000L), index.find(keys.get(i)));
+		assertEquals(Arrays.asList(), index.find("rs1"));
+		assertEquals(Arrays.asList(), index.find("rs100001"));
+		assertEquals(Arrays.asList(), index.find("a"));
+		assertEquals(Arrays.asList(), index.find("zz"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnsorted() throws Exception {
+		SortedKeyIndexWriter writer = new SortedKeyIndexWriter(tempFolder.newFile("bad.idx.sorted"), false);
+		try {
+			writer.add("b", 1);
+			writer.add("a", 2);
+		} finally {
+			writer.close();
+		}
+	}
+}